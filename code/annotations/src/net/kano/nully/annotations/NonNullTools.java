@@ -36,26 +36,92 @@ package net.kano.nully.annotations;
 import net.kano.nully.annotations.NonNull;
 
 public final class NonNullTools {
+    private static final boolean LAZY_MESSAGES
+            = NullyRuntimeOptions.isLazyMessages();
+    private static final boolean STACKLESS
+            = !NullyRuntimeOptions.isCapturingStackTraces();
+
     private NonNullTools() { }
 
     public static @NonNull <E> E checkNonNullParameter(E val, String paramName, int paramIndex) {
         if (val == null) {
-            throw new NullParameterException(paramName, paramIndex);
+            throw newNullParameterException(paramName, paramIndex);
         }
         return val;
     }
     
     public static @NonNull <E> E checkNonNullReturn(E val) {
         if (val == null) {
-            throw new NullReturnException();
+            throw newNullReturnException();
         }
         return val;
     }
 
     public static @NonNull <E> E checkNonNullValue(E val) {
         if (val == null) {
-            throw new UnexpectedNullValueException();
+            throw newUnexpectedNullValueException();
+        }
+        return val;
+    }
+
+    // these versions are inserted when check counting is turned on; the site
+    // IDs come from NullCheckCounters.registerSites
+
+    public static @NonNull <E> E checkNonNullParameter(E val, String paramName, int paramIndex, int site) {
+        NullCheckCounters.checked(site);
+        if (val == null) {
+            NullCheckCounters.failed(site);
+            throw newNullParameterException(paramName, paramIndex);
         }
         return val;
     }
+
+    public static @NonNull <E> E checkNonNullReturn(E val, int site) {
+        NullCheckCounters.checked(site);
+        if (val == null) {
+            NullCheckCounters.failed(site);
+            throw newNullReturnException();
+        }
+        return val;
+    }
+
+    public static @NonNull <E> E checkNonNullValue(E val, int site) {
+        NullCheckCounters.checked(site);
+        if (val == null) {
+            NullCheckCounters.failed(site);
+            throw newUnexpectedNullValueException();
+        }
+        return val;
+    }
+
+    // the exceptions are built out of line, to keep the checks small enough
+    // to be inlined
+
+    /**
+     * Returns a new exception for a null value passed for a {@code @NonNull}
+     * parameter, built as the {@link NullyRuntimeOptions} ask. Checks which
+     * throw their own exception rather than calling {@link
+     * #checkNonNullParameter} must build it with this method.
+     */
+    public static NullParameterException newNullParameterException(
+            String paramName, int paramIndex) {
+        if (STACKLESS) {
+            return new StacklessNullParameterException(paramName, paramIndex,
+                    LAZY_MESSAGES);
+        } else if (LAZY_MESSAGES) {
+            return new NullParameterException(paramName, paramIndex, true);
+        } else {
+            return new NullParameterException(paramName, paramIndex);
+        }
+    }
+
+    private static NullReturnException newNullReturnException() {
+        if (STACKLESS) return new StacklessNullReturnException();
+        else return new NullReturnException();
+    }
+
+    private static UnexpectedNullValueException newUnexpectedNullValueException() {
+        if (STACKLESS) return new StacklessUnexpectedNullValueException();
+        else return new UnexpectedNullValueException();
+    }
 }
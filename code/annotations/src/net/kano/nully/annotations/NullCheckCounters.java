@@ -0,0 +1,184 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package net.kano.nully.annotations;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how often each runtime null check inserted by Nully runs, and how
+ * often it fails. Counting is only done for code compiled with check counting
+ * turned on; such code registers a table of its check sites' locations when
+ * first used, and passes a site ID to each check in {@link NonNullTools}.
+ * <br /><br />
+ * Counters are striped by thread, so that checks running in many threads at
+ * once don't all contend on the same memory. Counts are only summed up when
+ * they're read. If {@link NullyRuntimeOptions#isDumpingCheckCounts()} is on,
+ * the counts are printed to {@code System.err} when the VM exits.
+ */
+public final class NullCheckCounters {
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int STRIPES = getStripeCount();
+    private static final int STRIPE_MASK = STRIPES - 1;
+
+    private static final Object lock = new Object();
+    /** Each chunk holds the counters for {@link #CHUNK_SIZE} sites. */
+    private static volatile AtomicLongArray[] chunks = new AtomicLongArray[0];
+    private static final List<String> locations = new ArrayList<String>();
+
+    static {
+        if (NullyRuntimeOptions.isDumpingCheckCounts()) {
+            Runtime.getRuntime().addShutdownHook(new Thread("Nully check counts") {
+                public void run() {
+                    dump(System.err);
+                }
+            });
+        }
+    }
+
+    private NullCheckCounters() { }
+
+    private static int getStripeCount() {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        int stripes = 1;
+        while (stripes < cpus * 2 && stripes < 64) stripes <<= 1;
+        return stripes;
+    }
+
+    /**
+     * Registers a block of check sites, returning the ID of the first. The
+     * site at {@code locations[i]} has the ID {@code base + i}.
+     *
+     * @param locations a description of where each check is in the source
+     * @return the ID of the first site in the block
+     */
+    public static int registerSites(String[] locations) {
+        synchronized(lock) {
+            int base = NullCheckCounters.locations.size();
+            for (String location : locations) {
+                NullCheckCounters.locations.add(location);
+            }
+            int needed = (NullCheckCounters.locations.size() + CHUNK_SIZE - 1)
+                    >>> CHUNK_BITS;
+            AtomicLongArray[] old = chunks;
+            if (needed > old.length) {
+                AtomicLongArray[] grown = new AtomicLongArray[needed];
+                System.arraycopy(old, 0, grown, 0, old.length);
+                for (int i = old.length; i < needed; i++) {
+                    grown[i] = new AtomicLongArray(STRIPES * CHUNK_SIZE * 2);
+                }
+                chunks = grown;
+            }
+            return base;
+        }
+    }
+
+    static void checked(int site) {
+        increment(site, 0);
+    }
+
+    static void failed(int site) {
+        increment(site, 1);
+    }
+
+    private static void increment(int site, int counter) {
+        AtomicLongArray[] chunks = NullCheckCounters.chunks;
+        int chunk = site >>> CHUNK_BITS;
+        // a site used before its table is registered can't be counted
+        if (site < 0 || chunk >= chunks.length) return;
+
+        int stripe = System.identityHashCode(Thread.currentThread()) & STRIPE_MASK;
+        chunks[chunk].incrementAndGet(getIndex(stripe, site, counter));
+    }
+
+    private static int getIndex(int stripe, int site, int counter) {
+        // each stripe's counters are kept together, so that threads using
+        // different stripes rarely share a cache line
+        return ((stripe << CHUNK_BITS) + (site & (CHUNK_SIZE - 1))) * 2 + counter;
+    }
+
+    private static long sum(int site, int counter) {
+        AtomicLongArray[] chunks = NullCheckCounters.chunks;
+        int chunk = site >>> CHUNK_BITS;
+        if (site < 0 || chunk >= chunks.length) return 0;
+
+        long total = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            total += chunks[chunk].get(getIndex(stripe, site, counter));
+        }
+        return total;
+    }
+
+    public static int getSiteCount() {
+        synchronized(lock) {
+            return locations.size();
+        }
+    }
+
+    public static @Nullable String getLocation(int site) {
+        synchronized(lock) {
+            if (site < 0 || site >= locations.size()) return null;
+            return locations.get(site);
+        }
+    }
+
+    public static long getCheckCount(int site) {
+        return sum(site, 0);
+    }
+
+    public static long getFailureCount(int site) {
+        return sum(site, 1);
+    }
+
+    /**
+     * Prints the counts for each site which has been checked at least once,
+     * one site per line, as tab-separated site ID, check count, failure count
+     * and location.
+     *
+     * @param out the stream to print to
+     */
+    public static void dump(@NonNull PrintStream out) {
+        int count = getSiteCount();
+        out.println("# Nully check counts: site, checks, failures, location");
+        for (int site = 0; site < count; site++) {
+            long checks = getCheckCount(site);
+            if (checks == 0) continue;
+            out.println(site + "\t" + checks + "\t" + getFailureCount(site)
+                    + "\t" + getLocation(site));
+        }
+        out.flush();
+    }
+}
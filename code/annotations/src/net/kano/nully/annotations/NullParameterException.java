@@ -38,12 +38,31 @@ public class NullParameterException extends IllegalArgumentException {
     private final int paramIndex;
 
     public NullParameterException(String param, int paramIndex) {
-        super(param + " (parameter #" + paramIndex + ") cannot be null");
+        this(param, paramIndex, false);
+    }
+
+    /**
+     * Creates a new exception. If {@code lazyMessage} is {@code true}, the
+     * message isn't built until {@link #getMessage()} is called.
+     */
+    public NullParameterException(String param, int paramIndex,
+            boolean lazyMessage) {
+        super(lazyMessage ? null : getMessage(param, paramIndex));
 
         this.param = param;
         this.paramIndex = paramIndex;
     }
 
+    private static String getMessage(String param, int paramIndex) {
+        return param + " (parameter #" + paramIndex + ") cannot be null";
+    }
+
+    public String getMessage() {
+        String msg = super.getMessage();
+        if (msg == null) msg = getMessage(param, paramIndex);
+        return msg;
+    }
+
     public String getParameterName() {
         return param;
     }
@@ -0,0 +1,83 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package net.kano.nully.annotations;
+
+/**
+ * Runtime options for the checks Nully inserts, read once from system
+ * properties when this class is loaded.
+ * <br /><br />
+ * Setting {@value #PROP_LAZY_MESSAGES} to {@code true} makes a null parameter
+ * exception build its message only when it's asked for. Setting
+ * {@value #PROP_STACK_TRACES} to {@code false} stops the exceptions thrown by
+ * {@link NonNullTools} from capturing a stack trace at all. Both are meant for
+ * code where rejecting a null is an expected, frequent outcome. Setting
+ * {@value #PROP_DUMP_CHECK_COUNTS} to {@code true} prints the
+ * {@link NullCheckCounters} when the VM exits.
+ */
+public final class NullyRuntimeOptions {
+    public static final String PROP_LAZY_MESSAGES = "nully.runtime.lazyMessages";
+    public static final String PROP_STACK_TRACES = "nully.runtime.stackTraces";
+    public static final String PROP_DUMP_CHECK_COUNTS = "nully.runtime.dumpCheckCounts";
+
+    private static final boolean LAZY_MESSAGES
+            = getBoolean(PROP_LAZY_MESSAGES, false);
+    private static final boolean STACK_TRACES
+            = getBoolean(PROP_STACK_TRACES, true);
+    private static final boolean DUMP_CHECK_COUNTS
+            = getBoolean(PROP_DUMP_CHECK_COUNTS, false);
+
+    private NullyRuntimeOptions() { }
+
+    private static boolean getBoolean(String prop, boolean def) {
+        String value;
+        try {
+            value = System.getProperty(prop);
+        } catch (SecurityException e) {
+            return def;
+        }
+        if (value == null) return def;
+        return Boolean.valueOf(value.trim()).booleanValue();
+    }
+
+    public static boolean isLazyMessages() {
+        return LAZY_MESSAGES;
+    }
+
+    public static boolean isCapturingStackTraces() {
+        return STACK_TRACES;
+    }
+
+    public static boolean isDumpingCheckCounts() {
+        return DUMP_CHECK_COUNTS;
+    }
+}
@@ -30,29 +30,18 @@
  *  POSSIBILITY OF SUCH DAMAGE.
  *
  */
+package net.kano.nully.annotations;
 
-package net.kano.nully.plugin.psiToJimple;
-
-import soot.tagkit.Tag;
-import soot.tagkit.AttributeValueException;
-import com.intellij.psi.PsiElement;
-
-public class PsiTag implements Tag {
-    private final PsiElement element;
-
-    public PsiTag(PsiElement element) {
-        this.element = element;
-    }
-
-    public PsiElement getElement() {
-        return element;
-    }
-
-    public String getName() {
-        return "PsiTag";
+/**
+ * A {@link NullParameterException} which doesn't capture a stack trace, for use when
+ * {@link NullyRuntimeOptions#isCapturingStackTraces()} is off.
+ */
+final class StacklessNullParameterException extends NullParameterException {
+    public StacklessNullParameterException(String param, int paramIndex, boolean lazyMessage) {
+        super(param, paramIndex, lazyMessage);
     }
 
-    public byte[] getValue() throws AttributeValueException {
-        throw new IllegalStateException("no value for PsiTag");
+    public Throwable fillInStackTrace() {
+        return this;
     }
 }
@@ -0,0 +1,772 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package net.kano.nully.annotations.agent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Adds {@code @NonNull} parameter and return checks to a class file, without
+ * moving any of its existing bytecode relative to itself.
+ * <br /><br />
+ * Parameter checks are added as a prologue at the start of a method's code,
+ * which contains no branches and is padded to a multiple of four bytes so that
+ * the alignment of switch instructions doesn't change. Only the absolute
+ * offsets in the exception table, debugging tables and first stack map frame
+ * need to be shifted. Return checks can't be added that way, since each return
+ * instruction would need a check in front of it; instead, a method with a
+ * {@code @NonNull} return value is renamed to a private method, and a new
+ * method with the original name and annotations calls it and checks the
+ * result.
+ * <br /><br />
+ * Interfaces, abstract and native methods, and bridge and synthetic methods
+ * are left alone.
+ */
+final class ClassRewriter {
+    private static final String NONNULL_DESC
+            = "Lnet/kano/nully/annotations/NonNull;";
+    private static final String INSTRUMENTED_DESC
+            = "Lnet/kano/nully/annotations/NullyInstrumented;";
+    private static final String TOOLS_CLASS
+            = "net/kano/nully/annotations/NonNullTools";
+    private static final String IMPL_SUFFIX = "$nully$impl";
+
+    private static final String ATTR_CODE = "Code";
+    private static final String ATTR_ANNOTATIONS = "RuntimeVisibleAnnotations";
+    private static final String ATTR_PARAM_ANNOTATIONS
+            = "RuntimeVisibleParameterAnnotations";
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_PROTECTED = 0x0004;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_SYNCHRONIZED = 0x0020;
+    private static final int ACC_BRIDGE = 0x0040;
+    private static final int ACC_VARARGS = 0x0080;
+    private static final int ACC_NATIVE = 0x0100;
+    private static final int ACC_INTERFACE = 0x0200;
+    private static final int ACC_ABSTRACT = 0x0400;
+    private static final int ACC_SYNTHETIC = 0x1000;
+
+    private static final int OP_NOP = 0x00;
+    private static final int OP_ICONST_0 = 0x03;
+    private static final int OP_BIPUSH = 0x10;
+    private static final int OP_SIPUSH = 0x11;
+    private static final int OP_LDC = 0x12;
+    private static final int OP_LDC_W = 0x13;
+    private static final int OP_ILOAD = 0x15;
+    private static final int OP_LLOAD = 0x16;
+    private static final int OP_FLOAD = 0x17;
+    private static final int OP_DLOAD = 0x18;
+    private static final int OP_ALOAD = 0x19;
+    private static final int OP_POP = 0x57;
+    private static final int OP_ARETURN = 0xb0;
+    private static final int OP_INVOKESPECIAL = 0xb7;
+    private static final int OP_INVOKESTATIC = 0xb8;
+    private static final int OP_CHECKCAST = 0xc0;
+    private static final int OP_WIDE = 0xc4;
+
+    private final byte[] bytes;
+    private ConstantPool cp;
+    private String className;
+
+    public ClassRewriter(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    static int readU2(byte[] bytes, int pos) {
+        return ((bytes[pos] & 0xff) << 8) | (bytes[pos + 1] & 0xff);
+    }
+
+    static int readU4(byte[] bytes, int pos) {
+        return (readU2(bytes, pos) << 16) | readU2(bytes, pos + 2);
+    }
+
+    private int u2(int pos) { return readU2(bytes, pos); }
+
+    private int u4(int pos) { return readU4(bytes, pos); }
+
+    /**
+     * Returns the rewritten class, or {@code null} if it didn't need any
+     * checks.
+     */
+    public byte[] rewrite() throws IOException {
+        if (bytes.length < 10 || u4(0) != 0xcafebabe) return null;
+
+        cp = new ConstantPool(bytes, 8);
+        int headerStart = cp.getEnd();
+        int access = u2(headerStart);
+        if ((access & ACC_INTERFACE) != 0) return null;
+        className = cp.getClassName(u2(headerStart + 2));
+
+        int pos = headerStart + 6;
+        pos += 2 + 2 * u2(pos);
+        int fieldCount = u2(pos);
+        pos += 2;
+        for (int i = 0; i < fieldCount; i++) {
+            pos = skipMember(pos);
+        }
+        int methodsStart = pos;
+
+        List<MethodInfo> methods = new ArrayList<MethodInfo>();
+        int methodCount = u2(pos);
+        pos += 2;
+        for (int i = 0; i < methodCount; i++) {
+            MethodInfo method = new MethodInfo(pos);
+            methods.add(method);
+            pos = method.end;
+        }
+        List<Attribute> classAttrs = new ArrayList<Attribute>();
+        pos = readAttributes(pos, classAttrs);
+
+        Attribute classAnnotations = find(classAttrs, ATTR_ANNOTATIONS);
+        if (classAnnotations != null
+                && getAnnotationTypes(classAnnotations.start).contains(
+                        INSTRUMENTED_DESC)) {
+            return null;
+        }
+
+        Set<String> signatures = new HashSet<String>();
+        for (MethodInfo method : methods) {
+            signatures.add(method.name + method.desc);
+        }
+        boolean changed = false;
+        for (MethodInfo method : methods) {
+            if (method.plan(signatures)) changed = true;
+        }
+        if (!changed) return null;
+
+        ByteArrayOutputStream outBytes = new ByteArrayOutputStream(
+                bytes.length + 256);
+        DataOutputStream out = new DataOutputStream(outBytes);
+
+        // everything after the constant pool is written first, since that's
+        // what adds to the pool
+        ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream(
+                bytes.length);
+        DataOutputStream body = new DataOutputStream(bodyBytes);
+        body.write(bytes, headerStart, methodsStart - headerStart);
+        int newMethodCount = 0;
+        for (MethodInfo method : methods) newMethodCount += method.getWrittenCount();
+        body.writeShort(newMethodCount);
+        for (MethodInfo method : methods) method.writeTo(body);
+        writeClassAttributes(body, classAttrs, classAnnotations);
+        body.flush();
+
+        out.write(bytes, 0, 8);
+        cp.writeTo(out);
+        bodyBytes.writeTo(out);
+        out.flush();
+        return outBytes.toByteArray();
+    }
+
+    private void writeClassAttributes(DataOutputStream out,
+            List<Attribute> attrs, Attribute annotations) throws IOException {
+        int instrumentedIndex = cp.addUtf8(INSTRUMENTED_DESC);
+        out.writeShort(attrs.size() + (annotations == null ? 1 : 0));
+        for (Attribute attr : attrs) {
+            if (attr != annotations) {
+                attr.writeTo(out);
+                continue;
+            }
+            // add @NullyInstrumented to the existing annotations
+            out.writeShort(attr.nameIndex);
+            out.writeInt(attr.length + 4);
+            out.writeShort(u2(attr.start) + 1);
+            out.write(bytes, attr.start + 2, attr.length - 2);
+            out.writeShort(instrumentedIndex);
+            out.writeShort(0);
+        }
+        if (annotations == null) {
+            out.writeShort(cp.addUtf8(ATTR_ANNOTATIONS));
+            out.writeInt(6);
+            out.writeShort(1);
+            out.writeShort(instrumentedIndex);
+            out.writeShort(0);
+        }
+    }
+
+    private int skipMember(int pos) {
+        int attrCount = u2(pos + 6);
+        pos += 8;
+        for (int i = 0; i < attrCount; i++) {
+            pos += 6 + u4(pos + 2);
+        }
+        return pos;
+    }
+
+    private int readAttributes(int pos, List<Attribute> attrs) {
+        int attrCount = u2(pos);
+        pos += 2;
+        for (int i = 0; i < attrCount; i++) {
+            Attribute attr = new Attribute(pos);
+            attrs.add(attr);
+            pos = attr.start + attr.length;
+        }
+        return pos;
+    }
+
+    private static Attribute find(List<Attribute> attrs, String name) {
+        for (Attribute attr : attrs) {
+            if (attr.name.equals(name)) return attr;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the type descriptors of the annotations in the list starting
+     * with the annotation count at the given offset.
+     */
+    private Set<String> getAnnotationTypes(int pos) {
+        Set<String> types = new HashSet<String>();
+        readAnnotations(pos, types);
+        return types;
+    }
+
+    private int readAnnotations(int pos, Set<String> types) {
+        int count = u2(pos);
+        pos += 2;
+        for (int i = 0; i < count; i++) {
+            types.add(cp.getUtf8(u2(pos)));
+            pos = skipAnnotationValues(pos + 2);
+        }
+        return pos;
+    }
+
+    private int skipAnnotationValues(int pos) {
+        int pairs = u2(pos);
+        pos += 2;
+        for (int i = 0; i < pairs; i++) {
+            pos = skipElementValue(pos + 2);
+        }
+        return pos;
+    }
+
+    private int skipElementValue(int pos) {
+        int tag = bytes[pos] & 0xff;
+        pos++;
+        switch (tag) {
+        case 'e':
+            return pos + 4;
+        case '@':
+            return skipAnnotationValues(pos + 2);
+        case '[':
+            int count = u2(pos);
+            pos += 2;
+            for (int i = 0; i < count; i++) pos = skipElementValue(pos);
+            return pos;
+        default:
+            // constants and classes
+            return pos + 2;
+        }
+    }
+
+    private static List<String> getParameterTypes(String desc) {
+        List<String> types = new ArrayList<String>();
+        int pos = 1;
+        while (desc.charAt(pos) != ')') {
+            int end = pos;
+            while (desc.charAt(end) == '[') end++;
+            if (desc.charAt(end) == 'L') end = desc.indexOf(';', end);
+            types.add(desc.substring(pos, end + 1));
+            pos = end + 1;
+        }
+        return types;
+    }
+
+    private static boolean isReference(String type) {
+        char ch = type.charAt(0);
+        return ch == 'L' || ch == '[';
+    }
+
+    private static int getSize(String type) {
+        char ch = type.charAt(0);
+        return ch == 'J' || ch == 'D' ? 2 : 1;
+    }
+
+    private static void writeLocal(DataOutputStream out, int op, int slot)
+            throws IOException {
+        if (slot <= 0xff) {
+            out.writeByte(op);
+            out.writeByte(slot);
+        } else {
+            out.writeByte(OP_WIDE);
+            out.writeByte(op);
+            out.writeShort(slot);
+        }
+    }
+
+    private static void writeLdc(DataOutputStream out, int index)
+            throws IOException {
+        if (index <= 0xff) {
+            out.writeByte(OP_LDC);
+            out.writeByte(index);
+        } else {
+            out.writeByte(OP_LDC_W);
+            out.writeShort(index);
+        }
+    }
+
+    private static void writeInt(DataOutputStream out, int value)
+            throws IOException {
+        if (value >= 0 && value <= 5) {
+            out.writeByte(OP_ICONST_0 + value);
+        } else if (value <= Byte.MAX_VALUE) {
+            out.writeByte(OP_BIPUSH);
+            out.writeByte(value);
+        } else {
+            out.writeByte(OP_SIPUSH);
+            out.writeShort(value);
+        }
+    }
+
+    private final class Attribute {
+        public final int nameIndex;
+        public final String name;
+        /** The offset of the attribute's data, after its name and length. */
+        public final int start;
+        public final int length;
+
+        public Attribute(int pos) {
+            nameIndex = u2(pos);
+            name = cp.getUtf8(nameIndex);
+            length = u4(pos + 2);
+            start = pos + 6;
+        }
+
+        public void writeTo(DataOutputStream out) throws IOException {
+            out.writeShort(nameIndex);
+            out.writeInt(length);
+            out.write(bytes, start, length);
+        }
+    }
+
+    private static final class ParamCheck {
+        public final int slot;
+        public final int number;
+        public String name;
+
+        public ParamCheck(int slot, int number) {
+            this.slot = slot;
+            this.number = number;
+        }
+    }
+
+    private final class MethodInfo {
+        public final int access;
+        public final int nameIndex;
+        public final int descIndex;
+        public final String name;
+        public final String desc;
+        public final List<Attribute> attrs = new ArrayList<Attribute>();
+        public final int end;
+
+        private Attribute code = null;
+        private List<ParamCheck> paramChecks = new ArrayList<ParamCheck>();
+        private boolean wrapReturn = false;
+
+        public MethodInfo(int pos) {
+            access = u2(pos);
+            nameIndex = u2(pos + 2);
+            descIndex = u2(pos + 4);
+            name = cp.getUtf8(nameIndex);
+            desc = cp.getUtf8(descIndex);
+            end = readAttributes(pos + 6, attrs);
+        }
+
+        /**
+         * Works out which checks this method needs, returning whether it
+         * needs any.
+         */
+        public boolean plan(Set<String> signatures) {
+            if ((access & (ACC_ABSTRACT | ACC_NATIVE | ACC_BRIDGE
+                    | ACC_SYNTHETIC)) != 0) {
+                return false;
+            }
+            if (name.equals("<clinit>")) return false;
+            code = find(attrs, ATTR_CODE);
+            if (code == null) return false;
+
+            List<String> params = getParameterTypes(desc);
+            planParamChecks(params);
+
+            Attribute annotations = find(attrs, ATTR_ANNOTATIONS);
+            String returnType = desc.substring(desc.indexOf(')') + 1);
+            wrapReturn = annotations != null
+                    && !name.equals("<init>")
+                    && isReference(returnType)
+                    && !signatures.contains(name + IMPL_SUFFIX + desc)
+                    && getAnnotationTypes(annotations.start).contains(NONNULL_DESC);
+
+            return wrapReturn || !paramChecks.isEmpty();
+        }
+
+        private void planParamChecks(List<String> params) {
+            Attribute paramAnnotations = find(attrs, ATTR_PARAM_ANNOTATIONS);
+            if (paramAnnotations == null) return;
+
+            int pos = paramAnnotations.start;
+            int annotated = bytes[pos] & 0xff;
+            pos++;
+            // javac leaves synthetic parameters, like an inner class's outer
+            // instance, out of this table, so it lines up with the last ones
+            int skipped = params.size() - annotated;
+            if (skipped < 0) return;
+
+            int[] slots = new int[params.size()];
+            int slot = (access & ACC_STATIC) != 0 ? 0 : 1;
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = slot;
+                slot += getSize(params.get(i));
+            }
+
+            for (int i = 0; i < annotated; i++) {
+                Set<String> types = new HashSet<String>();
+                pos = readAnnotations(pos, types);
+                String type = params.get(skipped + i);
+                if (types.contains(NONNULL_DESC) && isReference(type)) {
+                    paramChecks.add(new ParamCheck(slots[skipped + i], i + 1));
+                }
+            }
+            if (!paramChecks.isEmpty()) findParamNames();
+        }
+
+        private void findParamNames() {
+            int pos = code.start + 4;
+            pos += 4 + u4(pos);
+            pos += 2 + 8 * u2(pos);
+            List<Attribute> codeAttrs = new ArrayList<Attribute>();
+            readAttributes(pos, codeAttrs);
+            for (Attribute attr : codeAttrs) {
+                if (!attr.name.equals("LocalVariableTable")) continue;
+                int entries = u2(attr.start);
+                for (int i = 0; i < entries; i++) {
+                    int entry = attr.start + 2 + i * 10;
+                    if (u2(entry) != 0) continue;
+                    int slot = u2(entry + 8);
+                    for (ParamCheck check : paramChecks) {
+                        if (check.slot == slot) {
+                            check.name = cp.getUtf8(u2(entry + 4));
+                        }
+                    }
+                }
+            }
+            for (ParamCheck check : paramChecks) {
+                if (check.name == null) check.name = "arg" + (check.number - 1);
+            }
+        }
+
+        public int getWrittenCount() {
+            return wrapReturn ? 2 : 1;
+        }
+
+        public void writeTo(DataOutputStream out) throws IOException {
+            if (!wrapReturn && paramChecks.isEmpty()) {
+                out.writeShort(access);
+                out.writeShort(nameIndex);
+                out.writeShort(descIndex);
+                out.writeShort(attrs.size());
+                for (Attribute attr : attrs) attr.writeTo(out);
+                return;
+            }
+
+            byte[] newCode = paramChecks.isEmpty() ? null : addParamChecks();
+            if (!wrapReturn) {
+                out.writeShort(access);
+                out.writeShort(nameIndex);
+                out.writeShort(descIndex);
+                out.writeShort(attrs.size());
+                for (Attribute attr : attrs) {
+                    if (attr == code) writeCode(out, newCode);
+                    else attr.writeTo(out);
+                }
+                return;
+            }
+
+            // the wrapper keeps the original's name, access and annotations
+            out.writeShort(access & ~(ACC_SYNCHRONIZED));
+            out.writeShort(nameIndex);
+            out.writeShort(descIndex);
+            out.writeShort(attrs.size());
+            for (Attribute attr : attrs) {
+                if (attr == code) writeCode(out, makeWrapperCode());
+                else attr.writeTo(out);
+            }
+
+            out.writeShort((access & ~(ACC_PUBLIC | ACC_PROTECTED | ACC_VARARGS))
+                    | ACC_PRIVATE | ACC_SYNTHETIC);
+            out.writeShort(cp.addUtf8(name + IMPL_SUFFIX));
+            out.writeShort(descIndex);
+            out.writeShort(1);
+            if (newCode == null) code.writeTo(out);
+            else writeCode(out, newCode);
+        }
+
+        private void writeCode(DataOutputStream out, byte[] data)
+                throws IOException {
+            out.writeShort(code.nameIndex);
+            out.writeInt(data.length);
+            out.write(data);
+        }
+
+        private byte[] makeWrapperCode() throws IOException {
+            boolean isStatic = (access & ACC_STATIC) != 0;
+            ByteArrayOutputStream codeBytes = new ByteArrayOutputStream();
+            DataOutputStream insns = new DataOutputStream(codeBytes);
+            int slot = 0;
+            if (!isStatic) {
+                writeLocal(insns, OP_ALOAD, 0);
+                slot++;
+            }
+            for (String type : getParameterTypes(desc)) {
+                int op;
+                switch (type.charAt(0)) {
+                case 'J': op = OP_LLOAD; break;
+                case 'F': op = OP_FLOAD; break;
+                case 'D': op = OP_DLOAD; break;
+                case 'L': case '[': op = OP_ALOAD; break;
+                default: op = OP_ILOAD; break;
+                }
+                writeLocal(insns, op, slot);
+                slot += getSize(type);
+            }
+            insns.writeByte(isStatic ? OP_INVOKESTATIC : OP_INVOKESPECIAL);
+            insns.writeShort(cp.addMethodRef(className, name + IMPL_SUFFIX, desc));
+            insns.writeByte(OP_INVOKESTATIC);
+            insns.writeShort(cp.addMethodRef(TOOLS_CLASS, "checkNonNullReturn",
+                    "(Ljava/lang/Object;)Ljava/lang/Object;"));
+            String returnType = desc.substring(desc.indexOf(')') + 1);
+            if (returnType.charAt(0) == 'L') {
+                returnType = returnType.substring(1, returnType.length() - 1);
+            }
+            insns.writeByte(OP_CHECKCAST);
+            insns.writeShort(cp.addClass(returnType));
+            insns.writeByte(OP_ARETURN);
+            insns.flush();
+
+            ByteArrayOutputStream dataBytes = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(dataBytes);
+            data.writeShort(Math.max(slot, 1));
+            data.writeShort(slot);
+            data.writeInt(codeBytes.size());
+            codeBytes.writeTo(data);
+            data.writeShort(0);
+            data.writeShort(0);
+            data.flush();
+            return dataBytes.toByteArray();
+        }
+
+        private byte[] addParamChecks() throws IOException {
+            ByteArrayOutputStream prologueBytes = new ByteArrayOutputStream();
+            DataOutputStream prologue = new DataOutputStream(prologueBytes);
+            int checkMethod = cp.addMethodRef(TOOLS_CLASS, "checkNonNullParameter",
+                    "(Ljava/lang/Object;Ljava/lang/String;I)Ljava/lang/Object;");
+            for (ParamCheck check : paramChecks) {
+                writeLocal(prologue, OP_ALOAD, check.slot);
+                writeLdc(prologue, cp.addString(check.name));
+                writeInt(prologue, check.number);
+                prologue.writeByte(OP_INVOKESTATIC);
+                prologue.writeShort(checkMethod);
+                prologue.writeByte(OP_POP);
+            }
+            // keep tableswitch and lookupswitch padding the same
+            while (prologueBytes.size() % 4 != 0) prologue.writeByte(OP_NOP);
+            prologue.flush();
+            int shift = prologueBytes.size();
+
+            int pos = code.start;
+            int maxStack = u2(pos);
+            int maxLocals = u2(pos + 2);
+            int codeLength = u4(pos + 4);
+            if (codeLength + shift > 0xffff) {
+                throw new IOException(name + desc + " is too long to check");
+            }
+            pos += 8;
+
+            ByteArrayOutputStream dataBytes = new ByteArrayOutputStream(
+                    code.length + shift);
+            DataOutputStream data = new DataOutputStream(dataBytes);
+            data.writeShort(Math.max(maxStack, 3));
+            data.writeShort(maxLocals);
+            data.writeInt(codeLength + shift);
+            prologueBytes.writeTo(data);
+            data.write(bytes, pos, codeLength);
+            pos += codeLength;
+
+            int handlers = u2(pos);
+            data.writeShort(handlers);
+            pos += 2;
+            for (int i = 0; i < handlers; i++) {
+                data.writeShort(u2(pos) + shift);
+                data.writeShort(u2(pos + 2) + shift);
+                data.writeShort(u2(pos + 4) + shift);
+                data.writeShort(u2(pos + 6));
+                pos += 8;
+            }
+
+            List<Attribute> codeAttrs = new ArrayList<Attribute>();
+            readAttributes(pos, codeAttrs);
+            List<byte[]> newAttrs = new ArrayList<byte[]>();
+            for (Attribute attr : codeAttrs) {
+                byte[] shifted = shiftAttribute(attr, shift);
+                if (shifted != null) newAttrs.add(shifted);
+            }
+            data.writeShort(newAttrs.size());
+            for (byte[] attr : newAttrs) data.write(attr);
+            data.flush();
+            return dataBytes.toByteArray();
+        }
+
+        /**
+         * Returns the given attribute of a {@code Code} attribute, with its
+         * name and length, adjusted for a prologue of the given length.
+         * Returns {@code null} for attributes which should be dropped.
+         */
+        private byte[] shiftAttribute(Attribute attr, int shift)
+                throws IOException {
+            byte[] body;
+            if (attr.name.equals("LineNumberTable")) {
+                body = shiftLineNumbers(attr, shift);
+            } else if (attr.name.equals("LocalVariableTable")
+                    || attr.name.equals("LocalVariableTypeTable")) {
+                body = shiftLocalVariables(attr, shift);
+            } else if (attr.name.equals("StackMapTable")) {
+                body = shiftStackMap(attr, shift);
+            } else if (attr.name.equals("StackMap")
+                    || attr.name.equals("RuntimeVisibleTypeAnnotations")
+                    || attr.name.equals("RuntimeInvisibleTypeAnnotations")) {
+                return null;
+            } else {
+                body = new byte[attr.length];
+                System.arraycopy(bytes, attr.start, body, 0, attr.length);
+            }
+
+            ByteArrayOutputStream dataBytes = new ByteArrayOutputStream(
+                    body.length + 6);
+            DataOutputStream data = new DataOutputStream(dataBytes);
+            data.writeShort(attr.nameIndex);
+            data.writeInt(body.length);
+            data.write(body);
+            data.flush();
+            return dataBytes.toByteArray();
+        }
+
+        private byte[] shiftLineNumbers(Attribute attr, int shift)
+                throws IOException {
+            ByteArrayOutputStream dataBytes = new ByteArrayOutputStream(
+                    attr.length);
+            DataOutputStream data = new DataOutputStream(dataBytes);
+            int entries = u2(attr.start);
+            data.writeShort(entries);
+            for (int i = 0; i < entries; i++) {
+                int entry = attr.start + 2 + i * 4;
+                int startPc = u2(entry);
+                // a line at the very start also covers the prologue
+                data.writeShort(startPc == 0 ? 0 : startPc + shift);
+                data.writeShort(u2(entry + 2));
+            }
+            data.flush();
+            return dataBytes.toByteArray();
+        }
+
+        private byte[] shiftLocalVariables(Attribute attr, int shift)
+                throws IOException {
+            ByteArrayOutputStream dataBytes = new ByteArrayOutputStream(
+                    attr.length);
+            DataOutputStream data = new DataOutputStream(dataBytes);
+            int entries = u2(attr.start);
+            data.writeShort(entries);
+            for (int i = 0; i < entries; i++) {
+                int entry = attr.start + 2 + i * 10;
+                int startPc = u2(entry);
+                int length = u2(entry + 2);
+                if (startPc == 0) {
+                    data.writeShort(0);
+                    data.writeShort(length + shift);
+                } else {
+                    data.writeShort(startPc + shift);
+                    data.writeShort(length);
+                }
+                data.write(bytes, entry + 4, 6);
+            }
+            data.flush();
+            return dataBytes.toByteArray();
+        }
+
+        private byte[] shiftStackMap(Attribute attr, int shift)
+                throws IOException {
+            ByteArrayOutputStream dataBytes = new ByteArrayOutputStream(
+                    attr.length + 2);
+            DataOutputStream data = new DataOutputStream(dataBytes);
+            // only the first frame's offset is absolute
+            int pos = attr.start;
+            int end = attr.start + attr.length;
+            int entries = u2(pos);
+            data.writeShort(entries);
+            pos += 2;
+            if (entries > 0) {
+                int type = bytes[pos] & 0xff;
+                pos++;
+                if (type < 64) {
+                    writeFrameType(data, type + shift, 0, 251);
+                } else if (type < 128) {
+                    writeFrameType(data, type - 64 + shift, 64, 247);
+                } else if (type >= 247) {
+                    data.writeByte(type);
+                    data.writeShort(u2(pos) + shift);
+                    pos += 2;
+                } else {
+                    throw new IOException("unknown stack map frame " + type);
+                }
+            }
+            data.write(bytes, pos, end - pos);
+            data.flush();
+            return dataBytes.toByteArray();
+        }
+
+        private void writeFrameType(DataOutputStream data, int delta,
+                int base, int extendedType) throws IOException {
+            if (delta < 64) {
+                data.writeByte(base + delta);
+            } else {
+                data.writeByte(extendedType);
+                data.writeShort(delta);
+            }
+        }
+    }
+}
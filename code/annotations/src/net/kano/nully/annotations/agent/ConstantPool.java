@@ -0,0 +1,225 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package net.kano.nully.annotations.agent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A class file's constant pool, which can have entries added to the end. The
+ * original entries are never moved, so every index in the rest of the class
+ * file stays valid.
+ * <br /><br />
+ * This is public so the IDE plugin's bytecode instrumenter can share it.
+ */
+public final class ConstantPool {
+    private static final int TAG_UTF8 = 1;
+    private static final int TAG_INTEGER = 3;
+    private static final int TAG_FLOAT = 4;
+    private static final int TAG_LONG = 5;
+    private static final int TAG_DOUBLE = 6;
+    private static final int TAG_CLASS = 7;
+    private static final int TAG_STRING = 8;
+    private static final int TAG_FIELDREF = 9;
+    private static final int TAG_METHODREF = 10;
+    private static final int TAG_INTERFACE_METHODREF = 11;
+    private static final int TAG_NAME_AND_TYPE = 12;
+    private static final int TAG_METHOD_HANDLE = 15;
+    private static final int TAG_METHOD_TYPE = 16;
+    private static final int TAG_DYNAMIC = 17;
+    private static final int TAG_INVOKE_DYNAMIC = 18;
+    private static final int TAG_MODULE = 19;
+    private static final int TAG_PACKAGE = 20;
+
+    private final byte[] bytes;
+    private final int start;
+    private final int end;
+    private final int[] offsets;
+    private final String[] strings;
+
+    private final ByteArrayOutputStream addedBytes = new ByteArrayOutputStream();
+    private final DataOutputStream added = new DataOutputStream(addedBytes);
+    private final Map<String, Integer> addedEntries = new HashMap<String, Integer>();
+    private final Map<String, Integer> utf8Indices = new HashMap<String, Integer>();
+    private int count;
+
+    /**
+     * Reads the constant pool which starts at the given offset, with its
+     * entry count.
+     */
+    public ConstantPool(byte[] bytes, int start) throws IOException {
+        this.bytes = bytes;
+        this.start = start + 2;
+        count = ClassRewriter.readU2(bytes, start);
+        offsets = new int[count];
+        strings = new String[count];
+
+        int pos = this.start;
+        for (int i = 1; i < count; i++) {
+            offsets[i] = pos;
+            int tag = bytes[pos] & 0xff;
+            switch (tag) {
+            case TAG_UTF8:
+                int len = ClassRewriter.readU2(bytes, pos + 1);
+                DataInputStream in = new DataInputStream(
+                        new ByteArrayInputStream(bytes, pos + 1, len + 2));
+                strings[i] = in.readUTF();
+                if (!utf8Indices.containsKey(strings[i])) {
+                    utf8Indices.put(strings[i], i);
+                }
+                pos += 3 + len;
+                break;
+            case TAG_CLASS: case TAG_STRING: case TAG_METHOD_TYPE:
+            case TAG_MODULE: case TAG_PACKAGE:
+                pos += 3;
+                break;
+            case TAG_METHOD_HANDLE:
+                pos += 4;
+                break;
+            case TAG_INTEGER: case TAG_FLOAT: case TAG_FIELDREF:
+            case TAG_METHODREF: case TAG_INTERFACE_METHODREF:
+            case TAG_NAME_AND_TYPE: case TAG_DYNAMIC: case TAG_INVOKE_DYNAMIC:
+                pos += 5;
+                break;
+            case TAG_LONG: case TAG_DOUBLE:
+                pos += 9;
+                // these take up two entries
+                i++;
+                break;
+            default:
+                throw new IOException("unknown constant pool tag " + tag
+                        + " at " + pos);
+            }
+        }
+        end = pos;
+    }
+
+    /** Returns the offset in the class file just after the constant pool. */
+    public int getEnd() { return end; }
+
+    public String getUtf8(int index) {
+        return strings[index];
+    }
+
+    public String getClassName(int index) {
+        return strings[ClassRewriter.readU2(bytes, offsets[index] + 1)];
+    }
+
+    /**
+     * Returns the field or method reference at the given index, as its
+     * owner's internal name, a dot, its name and its descriptor, like
+     * {@code "java/lang/Object.toString()Ljava/lang/String;"}.
+     */
+    public String getMemberRef(int index) {
+        int pos = offsets[index];
+        String owner = getClassName(ClassRewriter.readU2(bytes, pos + 1));
+        int nameAndType = offsets[ClassRewriter.readU2(bytes, pos + 3)];
+        return owner + "." + strings[ClassRewriter.readU2(bytes, nameAndType + 1)]
+                + strings[ClassRewriter.readU2(bytes, nameAndType + 3)];
+    }
+
+    public int addUtf8(String s) throws IOException {
+        Integer existing = utf8Indices.get(s);
+        if (existing != null) return existing;
+
+        int index = newEntry();
+        added.writeByte(TAG_UTF8);
+        added.writeUTF(s);
+        utf8Indices.put(s, index);
+        return index;
+    }
+
+    public int addClass(String internalName) throws IOException {
+        String key = "class " + internalName;
+        Integer existing = addedEntries.get(key);
+        if (existing != null) return existing;
+
+        int nameIndex = addUtf8(internalName);
+        int index = newEntry();
+        added.writeByte(TAG_CLASS);
+        added.writeShort(nameIndex);
+        addedEntries.put(key, index);
+        return index;
+    }
+
+    public int addString(String s) throws IOException {
+        String key = "string " + s;
+        Integer existing = addedEntries.get(key);
+        if (existing != null) return existing;
+
+        int utf8Index = addUtf8(s);
+        int index = newEntry();
+        added.writeByte(TAG_STRING);
+        added.writeShort(utf8Index);
+        addedEntries.put(key, index);
+        return index;
+    }
+
+    public int addMethodRef(String owner, String name, String desc)
+            throws IOException {
+        String key = "method " + owner + "." + name + desc;
+        Integer existing = addedEntries.get(key);
+        if (existing != null) return existing;
+
+        int classIndex = addClass(owner);
+        int nameIndex = addUtf8(name);
+        int descIndex = addUtf8(desc);
+        int natIndex = newEntry();
+        added.writeByte(TAG_NAME_AND_TYPE);
+        added.writeShort(nameIndex);
+        added.writeShort(descIndex);
+        int index = newEntry();
+        added.writeByte(TAG_METHODREF);
+        added.writeShort(classIndex);
+        added.writeShort(natIndex);
+        addedEntries.put(key, index);
+        return index;
+    }
+
+    private int newEntry() throws IOException {
+        if (count == 0xffff) throw new IOException("constant pool is full");
+        return count++;
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeShort(count);
+        out.write(bytes, start, end - start);
+        added.flush();
+        addedBytes.writeTo(out);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package net.kano.nully.annotations.agent;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+
+/**
+ * Adds {@code @NonNull} checks to classes as they're loaded. Most classes
+ * don't mention {@code @NonNull} at all, so each class file is first scanned
+ * for the annotation's name, and only parsed if it's there.
+ */
+public class NonNullCheckTransformer implements ClassFileTransformer {
+    private static final byte[] NONNULL_NAME
+            = "net/kano/nully/annotations/NonNull;".getBytes();
+
+    private final String[] packages;
+
+    /**
+     * Creates a new transformer. If {@code packages} isn't {@code null},
+     * only classes in those packages (and their subpackages) are changed.
+     *
+     * @param packages the internal names of the packages to change, like
+     *        {@code "com/example"}, or {@code null} to change every package
+     */
+    public NonNullCheckTransformer(String[] packages) {
+        this.packages = packages == null ? null : packages.clone();
+    }
+
+    public byte[] transform(ClassLoader loader, String className,
+            Class<?> classBeingRedefined, ProtectionDomain protectionDomain,
+            byte[] classfileBuffer) {
+        // the checks can't be added while a class is redefined, since that
+        // can't add methods, and the bootstrap loader can't see NonNullTools
+        if (classBeingRedefined != null || loader == null) return null;
+        if (className == null || !shouldTransform(className)) return null;
+        if (!contains(classfileBuffer, NONNULL_NAME)) return null;
+
+        try {
+            return new ClassRewriter(classfileBuffer).rewrite();
+        } catch (Exception e) {
+            System.err.println("Nully: could not add null checks to "
+                    + className + ": " + e);
+            return null;
+        }
+    }
+
+    private boolean shouldTransform(String className) {
+        if (className.startsWith("java/") || className.startsWith("javax/")
+                || className.startsWith("sun/")
+                || className.startsWith("net/kano/nully/annotations/")) {
+            return false;
+        }
+        if (packages == null) return true;
+
+        for (String pkg : packages) {
+            if (className.startsWith(pkg)
+                    && className.length() > pkg.length()
+                    && className.charAt(pkg.length()) == '/') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains(byte[] bytes, byte[] part) {
+        byte first = part[0];
+        int last = bytes.length - part.length;
+        outer: for (int i = 0; i <= last; i++) {
+            if (bytes[i] != first) continue;
+            for (int j = 1; j < part.length; j++) {
+                if (bytes[i + j] != part[j]) continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+}
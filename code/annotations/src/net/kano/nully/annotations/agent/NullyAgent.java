@@ -0,0 +1,64 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package net.kano.nully.annotations.agent;
+
+import java.lang.instrument.Instrumentation;
+
+/**
+ * A Java agent which adds runtime checks for {@code @NonNull} parameters and
+ * return values to classes which weren't compiled by Nully, as they're loaded.
+ * Classes marked {@code @NullyInstrumented} already have checks, and are left
+ * alone.
+ * <br /><br />
+ * To use it, add {@code -javaagent:nully-annotations.jar} to the
+ * {@code java} command line. The agent can be given a comma-separated list
+ * of packages to limit it to, like
+ * {@code -javaagent:nully-annotations.jar=com.example,org.example}.
+ */
+public final class NullyAgent {
+    private NullyAgent() { }
+
+    public static void premain(String args, Instrumentation inst) {
+        inst.addTransformer(new NonNullCheckTransformer(getPackages(args)));
+    }
+
+    private static String[] getPackages(String args) {
+        if (args == null || args.trim().length() == 0) return null;
+
+        String[] packages = args.split(",");
+        for (int i = 0; i < packages.length; i++) {
+            packages[i] = packages[i].trim().replace('.', '/');
+        }
+        return packages;
+    }
+}
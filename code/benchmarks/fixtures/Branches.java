@@ -0,0 +1,66 @@
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+public class Branches {
+    private final List values = new ArrayList();
+
+    public @Nullable String find(@NonNull String prefix) {
+        for (Iterator it = values.iterator(); it.hasNext();) {
+            String value = (String) it.next();
+            if (value != null && value.startsWith(prefix)) return value;
+        }
+        return null;
+    }
+
+    public int count(@Nullable String prefix) {
+        int count = 0;
+        for (int i = 0; i < values.size(); i++) {
+            String value = (String) values.get(i);
+            if (prefix == null) {
+                count++;
+            } else if (value != null && value.startsWith(prefix)) {
+                count++;
+            } else if (value == null) {
+                continue;
+            }
+        }
+        return count;
+    }
+
+    public @NonNull String describe(@Nullable Object obj, boolean verbose) {
+        String desc = null;
+        try {
+            if (obj != null) desc = obj.toString();
+            if (verbose) desc = desc.trim();
+        } catch (RuntimeException e) {
+            desc = e.getMessage();
+        } finally {
+            if (desc == null) desc = "";
+        }
+        switch (desc.length()) {
+        case 0: return "empty";
+        case 1: return desc.toUpperCase();
+        default: return desc;
+        }
+    }
+
+    public void addAll(@Nullable String[] strings) {
+        if (strings == null) return;
+        for (int i = 0; i < strings.length; i++) {
+            String s = strings[i];
+            values.add(s.length() > 0 ? s : null);
+        }
+    }
+
+    public @NonNull String first() {
+        String first = find("");
+        while (first == null) {
+            first = find("a");
+        }
+        return first;
+    }
+}
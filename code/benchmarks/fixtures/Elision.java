@@ -0,0 +1,37 @@
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.Nullable;
+
+public class Elision {
+    private @Nullable String maybe;
+
+    public Elision() {
+        this("literal", 0);
+    }
+
+    private Elision(@NonNull String name, int count) {
+        maybe = count == 0 ? null : name;
+    }
+
+    public int callAll(@NonNull String given) {
+        int n = proven("literal") + proven(given);
+        n += unproven(maybe);
+        n += exposed("literal");
+        return n;
+    }
+
+    private int proven(@NonNull String s) {
+        return s.length();
+    }
+
+    private int unproven(@NonNull String s) {
+        return s.length();
+    }
+
+    private int uncalled(@NonNull String s) {
+        return s.length();
+    }
+
+    public int exposed(@NonNull String s) {
+        return s.length();
+    }
+}
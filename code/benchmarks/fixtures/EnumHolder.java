@@ -0,0 +1,25 @@
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.Nullable;
+
+enum EnumHolder {
+    A, B
+}
+
+class EnumHolderUser {
+    private @Nullable EnumHolder last;
+
+    public @NonNull String describe(@NonNull EnumHolder holder) {
+        last = holder;
+        return holder.name();
+    }
+
+    public @Nullable EnumHolder getLast() {
+        return last;
+    }
+
+    public int lastOrdinal() {
+        EnumHolder holder = getLast();
+        if (holder == null) return -1;
+        return holder.ordinal();
+    }
+}
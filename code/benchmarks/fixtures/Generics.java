@@ -0,0 +1,53 @@
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class Generics<K extends Comparable<K>, V> {
+    private final Map<K, List<V>> map = new HashMap<K, List<V>>();
+
+    public @Nullable List<V> get(@NonNull K key) {
+        return map.get(key);
+    }
+
+    public void put(@NonNull K key, V... values) {
+        List<V> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<V>();
+            map.put(key, list);
+        }
+        for (V value : values) list.add(value);
+    }
+
+    public int size(@NonNull K key) {
+        List<V> list = get(key);
+        return list.size();
+    }
+
+    public @Nullable K max() {
+        K max = null;
+        for (K key : map.keySet()) {
+            if (max == null || key.compareTo(max) > 0) max = key;
+        }
+        return max;
+    }
+
+    public static @NonNull <T> List<T> nonNulls(@NonNull Iterable<T> items) {
+        List<T> result = new ArrayList<T>();
+        for (T item : items) {
+            if (item != null) result.add(item);
+        }
+        return result;
+    }
+
+    public int total() {
+        int total = 0;
+        for (Map.Entry<K, List<V>> entry : map.entrySet()) {
+            total += entry.getValue().size();
+        }
+        return total;
+    }
+}
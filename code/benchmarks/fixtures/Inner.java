@@ -0,0 +1,61 @@
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.Nullable;
+
+import java.util.Comparator;
+
+public class Inner {
+    private @Nullable Listener listener;
+
+    public interface Listener {
+        void changed(@NonNull String what);
+    }
+
+    public void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    public void fire(@NonNull String what) {
+        Listener listener = this.listener;
+        if (listener != null) listener.changed(what);
+        this.listener.changed(what);
+    }
+
+    public @NonNull Comparator getComparator(final boolean reverse) {
+        return new Comparator() {
+            public int compare(Object o1, Object o2) {
+                String s1 = (String) o1;
+                String s2 = o2 == null ? null : (String) o2;
+                int result = s1.compareTo(s2);
+                return reverse ? -result : result;
+            }
+        };
+    }
+
+    public @Nullable String local(final @Nullable String prefix) {
+        class Joiner {
+            @NonNull String join(@NonNull String s) {
+                return prefix == null ? s : prefix + s;
+            }
+        }
+        Joiner joiner = new Joiner();
+        return joiner.join(null);
+    }
+
+    private class Counter {
+        private int count;
+
+        void count(@Nullable Object obj) {
+            if (obj.hashCode() != 0) count++;
+        }
+
+        int getCount() {
+            return count;
+        }
+    }
+
+    public int countAll(@NonNull Object[] objs) {
+        Counter counter = new Counter();
+        for (int i = 0; i < objs.length; i++) counter.count(objs[i]);
+        return counter.getCount();
+    }
+}
@@ -0,0 +1,27 @@
+import net.kano.nully.annotations.Nullable;
+
+public class Loops {
+    public static int straight(@Nullable String a, String b) {
+        String c = a;
+        if (c == null) c = b;
+        int n = c.length();
+        if (n > 3) n = b.length();
+        return n;
+    }
+
+    public static int nested(@Nullable String first, String[][] rows) {
+        String last = first;
+        int count = 0;
+        for (int i = 0; i < rows.length; i++) {
+            for (int j = 0; j < rows[i].length; j++) {
+                String cell = rows[i][j];
+                while (cell != null && cell.length() > 1) {
+                    cell = cell.substring(1);
+                    count++;
+                }
+                if (cell != null) last = cell;
+            }
+        }
+        return last == null ? count : count + last.length();
+    }
+}
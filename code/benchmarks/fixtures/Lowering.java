@@ -0,0 +1,52 @@
+import java.util.ArrayList;
+import java.util.List;
+
+public class Lowering {
+    public static int sumArray(int[] values) {
+        int total = 0;
+        for (int value : values) total += value;
+        return total;
+    }
+
+    public static int sumList(List<Integer> values) {
+        int total = 0;
+        for (int value : values) total += value;
+        return total;
+    }
+
+    public static List<Integer> boxAll(int n) {
+        List<Integer> list = new ArrayList<Integer>();
+        for (int i = 0; i < n; i++) list.add(i);
+        return list;
+    }
+
+    public static int count(Object... items) {
+        return items.length;
+    }
+
+    public static int countSome() {
+        return count() * 100 + count("a", 2) * 10 + count(null, null, 3);
+    }
+
+    public static int totalLength(List<String> words) {
+        int total = 0;
+        for (int i = 0; i < words.size(); i++) {
+            String word = words.get(i);
+            total += word.length();
+        }
+        return total;
+    }
+
+    public static long widen(Integer boxed) {
+        long value = boxed;
+        return value + 1;
+    }
+
+    public static String run() {
+        List<String> words = new ArrayList<String>();
+        words.add("ab");
+        words.add("cde");
+        return sumArray(new int[] { 1, 2, 3 }) + "," + sumList(boxAll(5)) + ","
+                + countSome() + "," + totalLength(words) + "," + widen(41);
+    }
+}
@@ -0,0 +1,33 @@
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.Nullable;
+
+public class Simple {
+    private @Nullable String name;
+    private @NonNull String id = "";
+
+    public @Nullable String getName() {
+        return name;
+    }
+
+    public void setName(@Nullable String name) {
+        this.name = name;
+    }
+
+    public @NonNull String getId() {
+        return id;
+    }
+
+    public void setId(@NonNull String id) {
+        this.id = id;
+    }
+
+    public int getNameLength() {
+        return name.length();
+    }
+
+    public @NonNull String getDisplayName() {
+        String name = getName();
+        if (name == null) return id;
+        return name;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin.analysis.nulls;
+
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.benchmarks.PipelineBenchmark;
+import net.kano.nully.benchmarks.RegressionCheck;
+import net.kano.nully.plugin.SootTools;
+import net.kano.nully.plugin.analysis.AnalysisContext;
+import soot.Scene;
+import soot.SootClass;
+
+import java.util.Collections;
+
+/**
+ * Checks that {@link WarmSootScene} keeps the basic classes between analyses
+ * while removing each analysis's classes built from source, along with their
+ * nested classes, and that it resets the scene after a failed analysis and
+ * once it has been reused too often or has grown too large.
+ */
+public class WarmSceneCheck extends RegressionCheck {
+    private static final String BASIC_CLASS = "java.lang.Object";
+
+    public WarmSceneCheck() {
+        super("warm-scene");
+    }
+
+    public void run() throws Exception {
+        WarmSootScene scene = WarmSootScene.getInstance();
+        check(scene.isEnabled(), "warm Soot scenes are turned off");
+
+        SootTools.lockSootGlobally();
+        try {
+            scene.resetCompletely();
+            checkReuse(scene);
+            checkInvalidate(scene);
+            checkRunLimit(scene);
+            checkClassLimit(scene);
+        } finally {
+            scene.resetCompletely();
+            SootTools.unlockSootGlobally();
+        }
+    }
+
+    private static void checkReuse(@NonNull WarmSootScene scene)
+            throws Exception {
+        check(!scene.isWarm(), "scene is warm after a reset");
+        WarmRun first = new WarmRun("Simple.java");
+        check(Scene.v().containsClass("Simple"), "Simple was not loaded");
+        SootClass basic = Scene.v().getSootClass(BASIC_CLASS);
+        first.release();
+        check(scene.isWarm(), "scene is not warm after an analysis");
+        check(!Scene.v().containsClass("Simple"),
+                "Simple was kept after its analysis");
+
+        WarmRun second = new WarmRun("Inner.java");
+        check(Scene.v().getSootClass(BASIC_CLASS) == basic,
+                BASIC_CLASS + " was loaded again by a warm analysis");
+        check(Scene.v().containsClass("Inner"), "Inner was not loaded");
+        second.release();
+        for (SootClass sc : Scene.v().getClasses()) {
+            String name = sc.getName();
+            check(!name.equals("Inner") && !name.startsWith("Inner$"),
+                    name + " was kept after its analysis");
+        }
+        check(Scene.v().getSootClass(BASIC_CLASS) == basic,
+                BASIC_CLASS + " was not kept after a warm analysis");
+    }
+
+    private static void checkInvalidate(@NonNull WarmSootScene scene)
+            throws Exception {
+        SootClass basic = Scene.v().getSootClass(BASIC_CLASS);
+        scene.invalidate();
+        check(!scene.isWarm(), "scene is warm after a failed analysis");
+        WarmRun run = new WarmRun("Simple.java");
+        check(Scene.v().getSootClass(BASIC_CLASS) != basic,
+                BASIC_CLASS + " was kept after a failed analysis");
+        run.release();
+    }
+
+    private static void checkRunLimit(@NonNull WarmSootScene scene)
+            throws Exception {
+        scene.resetCompletely();
+        new WarmRun("Simple.java").release();
+        // the analysis above was the first warm run
+        for (int i = 1; i < WarmSootScene.MAX_WARM_RUNS; i++) {
+            scene.prepare(Collections.<String>emptySet());
+            check(Scene.v().containsClass(BASIC_CLASS),
+                    "scene was reset after " + i + " warm runs");
+            scene.finishLoading(0);
+        }
+        scene.prepare(Collections.<String>emptySet());
+        check(!Scene.v().containsClass(BASIC_CLASS), "scene was not reset after "
+                + WarmSootScene.MAX_WARM_RUNS + " warm runs");
+        scene.finishLoading(0);
+    }
+
+    private static void checkClassLimit(@NonNull WarmSootScene scene)
+            throws Exception {
+        scene.resetCompletely();
+        new WarmRun("Simple.java").release();
+        Scene sootScene = Scene.v();
+        for (int i = sootScene.getClasses().size();
+                i <= WarmSootScene.MAX_CLASSES; i++) {
+            sootScene.addClass(new SootClass("nully.Filler" + i));
+        }
+        scene.prepare(Collections.<String>emptySet());
+        check(!sootScene.containsClass(BASIC_CLASS), "scene was not reset with "
+                + "more than " + WarmSootScene.MAX_CLASSES + " classes");
+        scene.finishLoading(0);
+    }
+
+    /**
+     * An analysis of a fixture which releases Soot's scene as the null
+     * inspection does, rather than resetting it.
+     */
+    private static final class WarmRun extends PipelineBenchmark {
+        private final AnalysisContext context;
+
+        /**
+         * Analyzes the given fixture. The caller must hold the global Soot
+         * lock, which {@link #analyze()} takes again.
+         */
+        public WarmRun(@NonNull String fixture) throws Exception {
+            this.fixture = fixture;
+            loadFixture();
+            context = analyze();
+        }
+
+        public void release() {
+            try {
+                context.getAnalyzer().releaseSoot();
+                context.getPreparer().removeCopy(file);
+            } finally {
+                SootTools.unlockSootGlobally();
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin.analysis.nulls.psipreprocess;
+
+import com.intellij.psi.PsiErrorElement;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.PsiRecursiveElementVisitor;
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.NullCheckLevel;
+import net.kano.nully.benchmarks.BenchmarkProject;
+import net.kano.nully.benchmarks.RegressionCheck;
+import net.kano.nully.benchmarks.RegressionChecks;
+import net.kano.nully.plugin.analysis.AnalysisContext;
+
+/**
+ * Checks that {@link DirectTranslationChecker} lets a file be translated
+ * without a copy exactly when a full scan finds no syntax errors in it, and
+ * that {@link PreparerForSoot} translates such files in place and copies the
+ * others.
+ */
+public class DirectTranslationCheck extends RegressionCheck {
+    private static final String[][] BROKEN = {
+        { "BrokenStatement.java",
+          "class BrokenStatement {\n"
+          + "    int f() { int x = ; return 0; }\n"
+          + "}\n" },
+        { "BrokenHeader.java",
+          "class BrokenHeader extends {\n"
+          + "    int f() { return 0; }\n"
+          + "}\n" },
+        { "BrokenField.java",
+          "class BrokenField {\n"
+          + "    String s = \"a\" + ;\n"
+          + "}\n" },
+    };
+
+    public DirectTranslationCheck() {
+        super("direct-translation");
+    }
+
+    public void run() throws Exception {
+        BenchmarkProject project = BenchmarkProject.getInstance();
+        for (String fixture : RegressionChecks.FIXTURES) {
+            checkFile(project.loadFixture(fixture), true);
+        }
+        for (String[] broken : BROKEN) {
+            checkFile(project.parse(broken[0], broken[1]), false);
+        }
+    }
+
+    private static void checkFile(@NonNull PsiJavaFile file, boolean direct) {
+        String name = file.getName();
+        checkEqual(Boolean.valueOf(direct),
+                Boolean.valueOf(countErrors(file) == 0),
+                "whether " + name + " has no syntax errors");
+        checkEqual(Boolean.valueOf(direct),
+                Boolean.valueOf(DirectTranslationChecker.canTranslateDirectly(file)),
+                "whether " + name + " can be translated directly");
+
+        AnalysisContext context = new AnalysisContext();
+        context.addCheckLevel(NullCheckLevel.EDITOR);
+        PreparerForSoot preparer = new PreparerForSoot(context);
+        context.setPreparer(preparer);
+        preparer.prepareForFileAnalysis(file);
+        try {
+            checkEqual(Boolean.valueOf(direct),
+                    Boolean.valueOf(context.isTranslatingOriginal()),
+                    "whether " + name + " was translated in place");
+            check(context.getFileOrig() == file,
+                    "original file of " + name + " was not kept");
+            check(direct == (context.getFileCopy() == file),
+                    "translated file of " + name);
+            PsiMethod[] methods = file.getClasses()[0].getMethods();
+            if (direct && methods.length > 0) {
+                PsiMethod method = methods[0];
+                check(context.getCopiedElement(method) == method,
+                        "copy of a method of " + name + " is not itself");
+                check(context.getOriginalElement(method) == method,
+                        "original of a method of " + name + " is not itself");
+            }
+        } finally {
+            preparer.removeCopy(file);
+        }
+    }
+
+    /**
+     * Counts every syntax error in the given file, without stopping at the
+     * first one.
+     */
+    private static int countErrors(@NonNull PsiJavaFile file) {
+        final int[] errors = { 0 };
+        file.accept(new PsiRecursiveElementVisitor() {
+            public void visitErrorElement(PsiErrorElement element) {
+                errors[0]++;
+                super.visitErrorElement(element);
+            }
+        });
+        return errors[0];
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin.analysis.nulls.soot;
+
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.NonNullTools;
+import net.kano.nully.benchmarks.AgentSample;
+import net.kano.nully.benchmarks.RegressionCheck;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks the pieces of the headless analyzer which don't need IDEA: blanking
+ * annotations out of source, reading contracts from class files, ordering and
+ * printing problems, and analyzing a small source file from start to end.
+ */
+public class HeadlessCheck extends RegressionCheck {
+    /** Each source, followed by the same source with its annotations blanked. */
+    private static final String[][] BLANKED = {
+        { "@NonNull String s;",
+          "         String s;" },
+        { "@net.kano.nully.annotations.NonNull Object o;",
+          "                                    Object o;" },
+        { "@ NonNull\nString s;",
+          "         \nString s;" },
+        { "@SuppressWarnings(\"a)b\") int x;",
+          "                         int x;" },
+        { "@A(\n1) int y;",
+          "   \n   int y;" },
+        { "// @NonNull\nString s = \"@x\"; char c = '@';",
+          "// @NonNull\nString s = \"@x\"; char c = '@';" },
+        { "/* @NonNull */ @Nullable String s;",
+          "/* @NonNull */           String s;" },
+    };
+    private static final String SOURCE
+            = "import net.kano.nully.annotations.NonNull;\n"
+            + "import net.kano.nully.benchmarks.AgentSample;\n"
+            + "\n"
+            + "class Headless {\n"
+            + "    int deref() {\n"
+            + "        String s = null;\n"
+            + "        return s.length();\n"
+            + "    }\n"
+            + "\n"
+            + "    int argument(@NonNull String unused) {\n"
+            + "        return AgentSample.length(null);\n"
+            + "    }\n"
+            + "}\n";
+
+    public HeadlessCheck() {
+        super("headless");
+    }
+
+    public void run() throws Exception {
+        checkBlanker();
+        NullContracts contracts = NullContracts.readClassPath(
+                getLocation(NonNullTools.class) + File.pathSeparator
+                + getLocation(AgentSample.class));
+        checkContracts(contracts);
+        checkProblems();
+        checkAnalysis(contracts);
+    }
+
+    private static void checkBlanker() {
+        for (String[] pair : BLANKED) {
+            checkEqual(pair[1], SourceAnnotationBlanker.blankAnnotations(pair[0]),
+                    "blanked " + pair[0]);
+        }
+        String plain = "class Plain { }";
+        check(SourceAnnotationBlanker.blankAnnotations(plain) == plain,
+                "source without annotations was copied");
+        checkEqual(null, SourceAnnotationBlanker.blankAnnotations(
+                "public @interface Marker { }"), "blanked annotation type");
+    }
+
+    private static void checkContracts(@NonNull NullContracts contracts) {
+        String tools = NonNullTools.class.getName();
+        check(contracts.isNonNullReturn(tools, "checkNonNullValue",
+                "(Ljava/lang/Object;)Ljava/lang/Object;"),
+                "checkNonNullValue is not NonNull");
+        String sample = AgentSample.class.getName();
+        check(contracts.isNonNullParameter(sample, "length",
+                "(Ljava/lang/String;)I", 0), "length's parameter is not NonNull");
+        check(!contracts.isNonNullParameter(sample, "sum",
+                "(J[JDLjava/lang/String;)J", 0), "sum's start is NonNull");
+        check(contracts.isNonNullParameter(sample, "sum",
+                "(J[JDLjava/lang/String;)J", 3), "sum's label is not NonNull");
+        check(!contracts.isNonNullReturn(sample, "length",
+                "(Ljava/lang/String;)I"), "length's return is NonNull");
+    }
+
+    private static void checkProblems() {
+        HeadlessProblem problem = new HeadlessProblem("A.java", 3,
+                HeadlessProblem.TYPE_NULL_RETURN, true, "say \"hi\"\\\n\t\u0001");
+        checkEqual("{\"file\":\"A.java\",\"line\":3,"
+                + "\"type\":\"NULL_RETURN_IN_NONNULL_METHOD\",\"definite\":true,"
+                + "\"message\":\"say \\\"hi\\\"\\\\\\n\\t\\u0001\"}",
+                problem.toJson(), "problem JSON");
+
+        HeadlessProblem[] sorted = {
+            new HeadlessProblem("A.java", 2, HeadlessProblem.TYPE_NULL_RETURN,
+                    true, "b"),
+            new HeadlessProblem("A.java", 10,
+                    HeadlessProblem.TYPE_NULL_DEREFERENCE, true, "a"),
+            new HeadlessProblem("A.java", 10, HeadlessProblem.TYPE_NULL_RETURN,
+                    false, "a"),
+            new HeadlessProblem("B.java", 1, HeadlessProblem.TYPE_PARSE_ERROR,
+                    true, "a"),
+        };
+        List<HeadlessProblem> problems = new ArrayList<HeadlessProblem>(
+                Arrays.asList(sorted));
+        Collections.reverse(problems);
+        Collections.sort(problems);
+        checkEqual(Arrays.asList(sorted), problems, "sorted problems");
+    }
+
+    private static void checkAnalysis(@NonNull NullContracts contracts) {
+        String classPath = System.getProperty("java.class.path");
+        HeadlessFileAnalyzer analyzer = new HeadlessFileAnalyzer();
+
+        Set<String> found = new HashSet<String>();
+        for (HeadlessProblem problem : analyzer.analyzeSource("Headless.java",
+                SOURCE, classPath, contracts)) {
+            found.add(problem.getLine() + " " + problem.getType());
+        }
+        String[] expected = {
+            "7 " + HeadlessProblem.TYPE_NULL_DEREFERENCE,
+            "11 " + HeadlessProblem.TYPE_NULL_ARGUMENT,
+        };
+        checkEqual(new HashSet<String>(Arrays.asList(expected)), found,
+                "problems found in Headless.java");
+
+        List<HeadlessProblem> broken = analyzer.analyzeSource("Broken.java",
+                "class Broken { int f( }", classPath, contracts);
+        checkEqual(new Integer(1), new Integer(broken.size()),
+                "problems found in Broken.java");
+        checkEqual(HeadlessProblem.TYPE_PARSE_ERROR, broken.get(0).getType(),
+                "problem found in Broken.java");
+
+        checkEqual(Collections.<HeadlessProblem>emptyList(),
+                analyzer.analyzeSource("Marker.java",
+                "public @interface Marker { }", classPath, contracts),
+                "problems found in an annotation type");
+    }
+
+    private static @NonNull String getLocation(@NonNull Class<?> cls) {
+        return new File(cls.getProtectionDomain().getCodeSource()
+                .getLocation().getPath()).getPath();
+    }
+}
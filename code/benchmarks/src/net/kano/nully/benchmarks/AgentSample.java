@@ -0,0 +1,93 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.benchmarks;
+
+import net.kano.nully.annotations.NonNull;
+
+/**
+ * A class for {@link ClassRewriterCheck} and the class file patcher's check to
+ * add checks to. Its methods have wide parameters, switches, loops and
+ * exception handlers, so the rewritten class has stack map frames, switch
+ * padding and exception tables to shift.
+ */
+public class AgentSample {
+    private final String name;
+
+    public AgentSample(@NonNull String name) {
+        this.name = name;
+    }
+
+    public static int length(@NonNull String s) {
+        return s.length();
+    }
+
+    public long sum(long start, @NonNull long[] values, double scale,
+            @NonNull String label) {
+        long total = start;
+        for (long value : values) total += (long) (value * scale);
+        return total + label.length() + name.length();
+    }
+
+    public @NonNull String describe(int n) {
+        switch (n) {
+        case 0: return "zero";
+        case 1: return "one";
+        case 2: return "two";
+        case 3: return "three";
+        default: return n < 0 ? null : "many";
+        }
+    }
+
+    public @NonNull String label(int n) {
+        String description = n > 5 ? name : describe(n);
+        return description.toUpperCase();
+    }
+
+    public static int classify(@NonNull Object o, int n) {
+        int result = 0;
+        for (int i = 0; i < n; i++) {
+            try {
+                switch (i * 37 % 1000) {
+                case 1: result += 1; break;
+                case 111: result += 10; break;
+                case 999: throw new IllegalStateException(o.toString());
+                default: result += o instanceof String ? 2 : 3;
+                }
+            } catch (IllegalStateException e) {
+                result -= e.getMessage().length();
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.benchmarks;
+
+import com.intellij.idea.IdeaTestApplication;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ex.ProjectManagerEx;
+import com.intellij.openapi.projectRoots.JavaSdk;
+import com.intellij.openapi.projectRoots.ProjectJdk;
+import com.intellij.openapi.roots.ex.ProjectRootManagerEx;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.util.IncorrectOperationException;
+import net.kano.nully.annotations.NonNull;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A headless IDEA project in which the benchmark fixtures are parsed. The
+ * project is created the first time {@link #getInstance()} is called, and
+ * lives until the benchmark JVM exits.
+ * <br /><br />
+ * Fixtures are read from the directory named by the
+ * {@code nully.benchmarks.fixtures} system property, or from
+ * {@code benchmarks/fixtures} if the property is not set.
+ */
+public final class BenchmarkProject {
+    private static final String FIXTURES_PROPERTY = "nully.benchmarks.fixtures";
+    private static final String DEFAULT_FIXTURES_DIR = "benchmarks/fixtures";
+
+    private static BenchmarkProject instance = null;
+
+    public static synchronized @NonNull BenchmarkProject getInstance()
+            throws Exception {
+        if (instance == null) instance = new BenchmarkProject();
+        return instance;
+    }
+
+    private final Project project;
+    private final File fixturesDir;
+
+    private BenchmarkProject() throws Exception {
+        IdeaTestApplication.getInstance();
+
+        File projectFile = File.createTempFile("nully-benchmarks", ".ipr");
+        projectFile.deleteOnExit();
+        ProjectManagerEx projectManager = ProjectManagerEx.getInstanceEx();
+        project = projectManager.newProject(projectFile.getPath(), false, false);
+        projectManager.openTestProject(project);
+
+        ApplicationManager.getApplication().runWriteAction(new Runnable() {
+            public void run() {
+                ProjectJdk jdk = JavaSdk.getInstance().createJdk("benchmarks",
+                        System.getProperty("java.home"));
+                ProjectRootManagerEx.getInstanceEx(project).setProjectJdk(jdk);
+            }
+        });
+
+        fixturesDir = new File(System.getProperty(FIXTURES_PROPERTY,
+                DEFAULT_FIXTURES_DIR));
+    }
+
+    public @NonNull Project getProject() {
+        return project;
+    }
+
+    /**
+     * Parses the fixture with the given file name. Each call returns a new,
+     * non-physical file.
+     *
+     * @param name the fixture's file name, like {@code Simple.java}
+     * @return the parsed fixture
+     * @throws IOException if the fixture cannot be read
+     */
+    public @NonNull PsiJavaFile loadFixture(@NonNull String name)
+            throws IOException {
+        return parse(name, readFile(new File(fixturesDir, name)));
+    }
+
+    /**
+     * Parses the given text as a new, non-physical Java file.
+     *
+     * @param name the file's name, like {@code Simple.java}
+     * @param text the file's text
+     * @return the parsed file
+     * @throws IOException if the text cannot be parsed
+     */
+    public @NonNull PsiJavaFile parse(@NonNull String name, @NonNull String text)
+            throws IOException {
+        PsiFile file;
+        try {
+            file = PsiManager.getInstance(project).getElementFactory()
+                    .createFileFromText(name, text);
+        } catch (IncorrectOperationException e) {
+            IOException ioe = new IOException("could not parse " + name);
+            ioe.initCause(e);
+            throw ioe;
+        }
+        return (PsiJavaFile) file;
+    }
+
+    private static String readFile(File file) throws IOException {
+        StringBuffer text = new StringBuffer();
+        Reader reader = new FileReader(file);
+        try {
+            char[] buf = new char[4096];
+            int read;
+            while ((read = reader.read(buf)) != -1) text.append(buf, 0, read);
+        } finally {
+            reader.close();
+        }
+        return text.toString();
+    }
+}
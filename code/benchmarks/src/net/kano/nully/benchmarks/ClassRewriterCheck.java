@@ -0,0 +1,194 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.benchmarks;
+
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.NullParameterException;
+import net.kano.nully.annotations.NullReturnException;
+import net.kano.nully.annotations.NullyInstrumented;
+import net.kano.nully.annotations.agent.NonNullCheckTransformer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Rewrites {@link AgentSample} with the agent's {@link
+ * NonNullCheckTransformer}, loads the result in its own class loader, so the
+ * VM verifies it, and checks that it throws for null arguments and return
+ * values and otherwise behaves like the original.
+ */
+public class ClassRewriterCheck extends RegressionCheck {
+    private static final String SAMPLE = AgentSample.class.getName();
+
+    public ClassRewriterCheck() {
+        super("class-rewriter");
+    }
+
+    public void run() throws Exception {
+        byte[] original = readClass(SAMPLE);
+        NonNullCheckTransformer transformer = new NonNullCheckTransformer(null);
+        String internalName = SAMPLE.replace('.', '/');
+        byte[] rewritten = transformer.transform(getClass().getClassLoader(),
+                internalName, null, null, original);
+        check(rewritten != null, "no checks added to " + SAMPLE);
+        check(transformer.transform(getClass().getClassLoader(), internalName,
+                null, null, rewritten) == null,
+                "checks added twice to " + SAMPLE);
+
+        // initializing the class links it, which verifies it
+        Class<?> cls = Class.forName(SAMPLE, true,
+                new SingleClassLoader(SAMPLE, rewritten));
+        check(cls != AgentSample.class, "rewritten class not loaded");
+        check(cls.isAnnotationPresent(NullyInstrumented.class),
+                "rewritten class not marked instrumented");
+
+        Constructor<?> constructor = cls.getConstructor(String.class);
+        Object sample = constructor.newInstance("sample");
+        AgentSample plain = new AgentSample("sample");
+        checkNullParameter(constructor, null, 1, new Object[] { null });
+
+        Method length = cls.getMethod("length", String.class);
+        checkEqual(new Integer(AgentSample.length("abc")),
+                length.invoke(null, "abc"), "length");
+        checkNullParameter(length, null, 1, new Object[] { null });
+
+        Method sum = cls.getMethod("sum", long.class, long[].class,
+                double.class, String.class);
+        long[] values = { 1, 2, 3 };
+        checkEqual(new Long(plain.sum(7, values, 2.5, "label")),
+                sum.invoke(sample, new Long(7), values, new Double(2.5), "label"),
+                "sum");
+        checkNullParameter(sum, sample, 2,
+                new Object[] { new Long(7), null, new Double(2.5), "label" });
+        checkNullParameter(sum, sample, 4,
+                new Object[] { new Long(7), values, new Double(2.5), null });
+
+        Method describe = cls.getMethod("describe", int.class);
+        for (int n = 0; n <= 5; n++) {
+            checkEqual(plain.describe(n), describe.invoke(sample, new Integer(n)),
+                    "describe(" + n + ")");
+        }
+        try {
+            describe.invoke(sample, new Integer(-1));
+            throw new AssertionError("describe(-1) returned null");
+        } catch (InvocationTargetException e) {
+            check(e.getCause() instanceof NullReturnException,
+                    "describe(-1) threw " + e.getCause());
+        }
+
+        Method classify = cls.getMethod("classify", Object.class, int.class);
+        for (int n = 0; n <= 1000; n += 125) {
+            checkEqual(new Integer(AgentSample.classify("s", n)),
+                    classify.invoke(null, "s", new Integer(n)),
+                    "classify(\"s\", " + n + ")");
+            checkEqual(new Integer(AgentSample.classify(values, n)),
+                    classify.invoke(null, values, new Integer(n)),
+                    "classify(values, " + n + ")");
+        }
+        checkNullParameter(classify, null, 1, new Object[] { null, new Integer(1) });
+    }
+
+    /**
+     * Checks that the given method or constructor throws a {@link
+     * NullParameterException} for the given parameter number when called with
+     * the given arguments.
+     */
+    public static void checkNullParameter(@NonNull Object member,
+            Object target, int number, @NonNull Object[] args) throws Exception {
+        try {
+            if (member instanceof Constructor) {
+                ((Constructor<?>) member).newInstance(args);
+            } else {
+                ((Method) member).invoke(target, args);
+            }
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (!(cause instanceof NullParameterException)) {
+                throw new AssertionError(member + " threw " + cause
+                        + " for null parameter #" + number);
+            }
+            checkEqual(new Integer(number), new Integer(
+                    ((NullParameterException) cause).getParameterIndex()),
+                    "null parameter number for " + member);
+            return;
+        }
+        throw new AssertionError(member + " accepted null parameter #" + number);
+    }
+
+    public static @NonNull byte[] readClass(@NonNull String name)
+            throws IOException {
+        InputStream in = ClassRewriterCheck.class.getClassLoader()
+                .getResourceAsStream(name.replace('.', '/') + ".class");
+        if (in == null) throw new IOException("no class file for " + name);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int read;
+            while ((read = in.read(buf)) != -1) out.write(buf, 0, read);
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Defines one class from the given bytes, and loads every other class
+     * from its parent.
+     */
+    public static final class SingleClassLoader extends ClassLoader {
+        private final String name;
+        private final byte[] bytes;
+        private Class<?> cls = null;
+
+        public SingleClassLoader(@NonNull String name, @NonNull byte[] bytes) {
+            super(SingleClassLoader.class.getClassLoader());
+            this.name = name;
+            this.bytes = bytes;
+        }
+
+        protected synchronized Class<?> loadClass(String className,
+                boolean resolve) throws ClassNotFoundException {
+            if (!className.equals(name)) {
+                return super.loadClass(className, resolve);
+            }
+            if (cls == null) cls = defineClass(name, bytes, 0, bytes.length);
+            if (resolve) resolveClass(cls);
+            return cls;
+        }
+    }
+}
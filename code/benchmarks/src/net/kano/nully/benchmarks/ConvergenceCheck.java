@@ -0,0 +1,90 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.benchmarks;
+
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.plugin.analysis.AnalysisContext;
+import net.kano.nully.plugin.analysis.nulls.FancyNullableAnalysis;
+import soot.SootMethod;
+import soot.toolkits.graph.ExceptionalUnitGraph;
+
+/**
+ * Checks the visit counts {@link FancyNullableAnalysis} records while solving
+ * the {@code Loops} fixture. Without loops, the reverse postorder worklist
+ * must visit each unit exactly once; with loops, the loop heads must be
+ * visited again.
+ */
+public class ConvergenceCheck extends RegressionCheck {
+    private static final String FIXTURE = "Loops.java";
+
+    public ConvergenceCheck() {
+        super("convergence");
+    }
+
+    public void run() throws Exception {
+        PipelineBenchmark pipeline = new PipelineBenchmark() { };
+        pipeline.fixture = FIXTURE;
+        pipeline.loadFixture();
+
+        AnalysisContext context = pipeline.analyze();
+        try {
+            FancyNullableAnalysis straight = analyze(context, "straight");
+            checkEqual(straight.getUnitCount(), straight.getVisitCount(),
+                    "visits of straight()");
+            checkEqual(1, straight.getMaxUnitVisitCount(),
+                    "most visits of one unit of straight()");
+
+            FancyNullableAnalysis nested = analyze(context, "nested");
+            check(nested.getVisitCount() > nested.getUnitCount(),
+                    "nested() converged after " + nested.getVisitCount()
+                    + " visits of " + nested.getUnitCount()
+                    + " units, without revisiting its loops");
+            check(nested.getMaxUnitVisitCount() >= 2,
+                    "no unit of nested() was visited twice");
+        } finally {
+            pipeline.cleanUp(context);
+        }
+    }
+
+    private static @NonNull FancyNullableAnalysis analyze(
+            @NonNull AnalysisContext context, @NonNull String name) {
+        for (SootMethod method : context.getSootMethods()) {
+            if (method.getName().equals(name)) {
+                return new FancyNullableAnalysis(context,
+                        new ExceptionalUnitGraph(method.retrieveActiveBody()));
+            }
+        }
+        throw new AssertionError("no method " + name + " analyzed");
+    }
+}
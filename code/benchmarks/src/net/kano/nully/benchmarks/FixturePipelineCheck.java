@@ -0,0 +1,101 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.benchmarks;
+
+import com.intellij.psi.PsiElement;
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.plugin.SootTools;
+import net.kano.nully.plugin.analysis.AnalysisContext;
+import net.kano.nully.plugin.analysis.nulls.NullValueProblem;
+import net.kano.nully.plugin.analysis.nulls.NullValueProblemFinder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Checks that the stages the {@link PipelineBenchmark}s run find the same
+ * problems in every fixture each time they are run, and that {@link
+ * PipelineBenchmark#cleanUp} releases Soot, so the benchmarks measure the
+ * same work on every iteration.
+ */
+public class FixturePipelineCheck extends RegressionCheck {
+    public FixturePipelineCheck() {
+        super("pipeline");
+    }
+
+    public void run() throws Exception {
+        for (String fixture : RegressionChecks.FIXTURES) {
+            List<String> first = findProblems(fixture);
+            List<String> second = findProblems(fixture);
+            checkEqual(first, second, "problems found again in " + fixture);
+        }
+    }
+
+    /**
+     * Runs the whole pipeline over the given fixture, the way the benchmarks
+     * do.
+     *
+     * @param fixture the fixture's file name
+     * @return a description of each problem found, in the order found
+     */
+    static @NonNull List<String> findProblems(@NonNull String fixture)
+            throws Exception {
+        PipelineBenchmark pipeline = new PipelineBenchmark() { };
+        pipeline.fixture = fixture;
+        pipeline.loadFixture();
+
+        List<String> problems = new ArrayList<String>();
+        AnalysisContext context = pipeline.analyze();
+        try {
+            for (NullValueProblem problem
+                    : new NullValueProblemFinder().findProblems(context)) {
+                problems.add(describe(problem));
+            }
+        } finally {
+            pipeline.cleanUp(context);
+        }
+        ReentrantLock lock = (ReentrantLock) SootTools.getSootLock();
+        check(!lock.isHeldByCurrentThread(),
+                "Soot still locked after analyzing " + fixture);
+        return problems;
+    }
+
+    private static @NonNull String describe(@NonNull NullValueProblem problem) {
+        PsiElement el = problem.getElement();
+        return problem.getType() + " at " + el.getTextRange().getStartOffset()
+                + " (" + el.getText() + ")"
+                + (problem.isDefinitelyNull() ? ", definitely null" : "");
+    }
+}
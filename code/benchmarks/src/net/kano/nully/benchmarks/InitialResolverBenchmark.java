@@ -0,0 +1,101 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.benchmarks;
+
+import com.intellij.psi.PsiClass;
+import net.kano.nully.plugin.SootTools;
+import net.kano.nully.plugin.analysis.AnalysisContext;
+import net.kano.nully.plugin.analysis.nulls.CodeAnalyzer;
+import net.kano.nully.plugin.psiToJimple.InitialResolver;
+import net.kano.nully.plugin.psiToJimple.Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import soot.Scene;
+import soot.SootClass;
+import soot.options.Options;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures {@link InitialResolver#resolveFromJavaFile} for each top-level
+ * class of the stripped fixture. Each invocation starts from an empty Soot
+ * scene and a new resolver.
+ */
+public class InitialResolverBenchmark extends PipelineBenchmark {
+    private AnalysisContext context;
+    private InitialResolver resolver;
+    private List<SootClass> classes;
+
+    @Setup(Level.Trial)
+    public void prepareFixture() {
+        context = prepare();
+        SootTools.lockSootGlobally();
+        context.setAnalyzer(new CodeAnalyzer());
+        Options.v().set_allow_phantom_refs(true);
+    }
+
+    @Setup(Level.Invocation)
+    public void createResolver() {
+        context.getAnalyzer().resetSoot();
+        Scene scene = Scene.v();
+        scene.setPhantomRefs(true);
+
+        resolver = new InitialResolver();
+        resolver.setAst(context.getFileCopy());
+        resolver.resolveAST();
+
+        classes = new ArrayList<SootClass>();
+        for (PsiClass cls : context.getFileCopy().getClasses()) {
+            SootClass sc = new SootClass(Util.getJavaClassName(resolver, cls));
+            scene.addClass(sc);
+            classes.add(sc);
+        }
+    }
+
+    @Benchmark
+    public void resolveFromJavaFile(Blackhole bh) {
+        for (SootClass sc : classes) {
+            bh.consume(resolver.resolveFromJavaFile(sc));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cleanUp(context);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.benchmarks;
+
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.plugin.analysis.AnalysisContext;
+import soot.Body;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.baf.Baf;
+import soot.baf.JasminClass;
+import soot.jimple.JimpleBody;
+import soot.util.JasminOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Collection;
+
+/**
+ * Checks the Jimple the body builder produces for foreach loops, boxing,
+ * varargs calls and erased generic types, by translating the {@code
+ * Lowering} fixture through the analysis pipeline, validating each body,
+ * assembling the Jimple into a class and running it.
+ */
+public class LoweringCheck extends RegressionCheck {
+    private static final String FIXTURE = "Lowering.java";
+    private static final String CLASS_NAME = "Lowering";
+    /** What {@code Lowering.run()} returns when compiled by javac. */
+    private static final String EXPECTED = "6,10,23,5,42";
+
+    public LoweringCheck() {
+        super("lowering");
+    }
+
+    public void run() throws Exception {
+        PipelineBenchmark pipeline = new PipelineBenchmark() { };
+        pipeline.fixture = FIXTURE;
+        pipeline.loadFixture();
+
+        byte[] bytes;
+        AnalysisContext context = pipeline.analyze();
+        try {
+            SootClass lowered = null;
+            for (SootClass sc : context.getSootClasses()) {
+                if (sc.getName().equals(CLASS_NAME)) lowered = sc;
+            }
+            check(lowered != null, "no class " + CLASS_NAME + " built");
+            bytes = assemble(lowered);
+        } finally {
+            pipeline.cleanUp(context);
+        }
+
+        final byte[] classBytes = bytes;
+        Class<?> cls = new ClassLoader(getClass().getClassLoader()) {
+            protected Class<?> findClass(String name)
+                    throws ClassNotFoundException {
+                if (!name.equals(CLASS_NAME)) throw new ClassNotFoundException(name);
+                return defineClass(name, classBytes, 0, classBytes.length);
+            }
+        }.loadClass(CLASS_NAME);
+        checkEqual(EXPECTED, cls.getMethod("run").invoke(null), "Lowering.run()");
+    }
+
+    private static @NonNull byte[] assemble(@NonNull SootClass sc)
+            throws IOException {
+        for (SootMethod method : (Collection<SootMethod>) sc.getMethods()) {
+            if (!method.isConcrete()) continue;
+            Body body = method.retrieveActiveBody();
+            try {
+                body.validate();
+            } catch (RuntimeException e) {
+                throw new AssertionError("invalid body for "
+                        + method.getSignature() + ": " + e + "\n" + body);
+            }
+            method.setActiveBody(Baf.v().newBody((JimpleBody) body));
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JasminOutputStream out = new JasminOutputStream(bytes);
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(out));
+        new JasminClass(sc).print(writer);
+        writer.flush();
+        out.close();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.benchmarks;
+
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.NullParameterException;
+import net.kano.nully.annotations.UnexpectedNullValueException;
+import net.kano.nully.plugin.LocalNamer;
+import net.kano.nully.plugin.NullyTools;
+import net.kano.nully.plugin.analysis.AnalysisContext;
+import net.kano.nully.plugin.analysis.nulls.soot.FixedNullAssignmentTag;
+import net.kano.nully.plugin.analysis.nulls.soot.JimpleMethodPreprocessor;
+import soot.Body;
+import soot.Local;
+import soot.PatchingChain;
+import soot.RefType;
+import soot.SootMethod;
+import soot.Unit;
+import soot.Value;
+import soot.jimple.DefinitionStmt;
+import soot.jimple.IfStmt;
+import soot.jimple.InvokeExpr;
+import soot.jimple.Jimple;
+import soot.jimple.NeExpr;
+import soot.jimple.NewExpr;
+import soot.jimple.NullConstant;
+import soot.jimple.ThrowStmt;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks the null-check assertions {@link JimpleMethodPreprocessor} inserts
+ * into each fixture in one pass: each guards the value assigned just before
+ * it and jumps past its throw, new locals don't clash with existing ones,
+ * and preprocessing the same bodies again inserts nothing. Also checks that
+ * {@link LocalNamer} skips names which are already used.
+ */
+public class NullAssertionsCheck extends RegressionCheck {
+    public NullAssertionsCheck() {
+        super("null-assertions");
+    }
+
+    public void run() throws Exception {
+        checkNamer();
+
+        int assertions = 0;
+        for (String fixture : RegressionChecks.FIXTURES) {
+            PipelineBenchmark pipeline = new PipelineBenchmark() { };
+            pipeline.fixture = fixture;
+            pipeline.loadFixture();
+
+            AnalysisContext context = pipeline.analyze();
+            try {
+                List<Body> bodies = new ArrayList<Body>();
+                List<Integer> sizes = new ArrayList<Integer>();
+                for (SootMethod method : context.getSootMethods()) {
+                    Body body = method.retrieveActiveBody();
+                    String where = fixture + " " + method.getSignature();
+                    checkLocalNames(body, where);
+                    assertions += checkAssertions(body, where);
+                    bodies.add(body);
+                    sizes.add(new Integer(body.getUnits().size()));
+                }
+
+                new JimpleMethodPreprocessor(context).preprocessCode();
+                for (int i = 0; i < bodies.size(); i++) {
+                    Body body = bodies.get(i);
+                    checkEqual(sizes.get(i), new Integer(body.getUnits().size()),
+                            "units in " + fixture + " "
+                            + body.getMethod().getSignature()
+                            + " after preprocessing again");
+                }
+            } finally {
+                pipeline.cleanUp(context);
+            }
+        }
+        check(assertions > 0, "no null-check assertions were inserted");
+    }
+
+    private static void checkNamer() {
+        RefType type = RefType.v(Object.class.getName());
+        List<Local> locals = new ArrayList<Local>();
+        locals.add(Jimple.v().newLocal("$r0", type));
+        locals.add(Jimple.v().newLocal("$r2", type));
+        locals.add(Jimple.v().newLocal("r1", type));
+        LocalNamer namer = new LocalNamer(locals);
+        String[] expected = { "$r1", "$r3", "$r4" };
+        for (String name : expected) {
+            checkEqual(name, namer.newName(), "new local name");
+        }
+    }
+
+    private static void checkLocalNames(@NonNull Body body,
+            @NonNull String where) {
+        Set<String> names = new HashSet<String>();
+        for (Local local : (Collection<Local>) body.getLocals()) {
+            check(names.add(local.getName()), "two locals named "
+                    + local.getName() + " in " + where);
+        }
+    }
+
+    /**
+     * Checks the structure of each null-check assertion in the given body,
+     * and returns the number of assertions.
+     */
+    private static int checkAssertions(@NonNull Body body,
+            @NonNull String where) {
+        PatchingChain units = body.getUnits();
+        int assertions = 0;
+        for (Unit unit : (Collection<Unit>) units) {
+            if (!(unit instanceof ThrowStmt)) continue;
+            Value thrown = ((ThrowStmt) unit).getOp();
+            // the exception is built by the one or two statements before the
+            // throw, and the guard comes just before those
+            Unit built = (Unit) units.getPredOf(unit);
+            if (!isAssertionException(built, thrown)) {
+                built = built == null ? null : (Unit) units.getPredOf(built);
+                if (!isAssertionException(built, thrown)) continue;
+            }
+            assertions++;
+
+            Unit guard = (Unit) units.getPredOf(built);
+            check(guard instanceof IfStmt, "no guard before the assertion at "
+                    + unit + " in " + where);
+            IfStmt ifStmt = (IfStmt) guard;
+            check(ifStmt.getTarget() == units.getSuccOf(unit),
+                    "guard " + ifStmt + " doesn't skip its throw in " + where);
+            check(ifStmt.getCondition() instanceof NeExpr,
+                    "guard " + ifStmt + " isn't a null test in " + where);
+            NeExpr test = (NeExpr) ifStmt.getCondition();
+            check(test.getOp2() instanceof NullConstant,
+                    "guard " + ifStmt + " isn't a null test in " + where);
+
+            Unit assigned = (Unit) units.getPredOf(guard);
+            check(assigned instanceof DefinitionStmt
+                    && ((DefinitionStmt) assigned).getLeftOp() == test.getOp1(),
+                    "guard " + ifStmt + " doesn't test the value assigned "
+                    + "before it in " + where);
+            check(assigned.hasTag(FixedNullAssignmentTag.TAG_NAME),
+                    "checked assignment " + assigned + " isn't tagged in "
+                    + where);
+        }
+        return assertions;
+    }
+
+    /**
+     * Returns whether the given unit builds an exception for a null-check
+     * assertion into the given thrown local.
+     */
+    private static boolean isAssertionException(Unit unit, @NonNull Value thrown) {
+        if (!(unit instanceof DefinitionStmt)) return false;
+        DefinitionStmt def = (DefinitionStmt) unit;
+        if (def.getLeftOp() != thrown) return false;
+        Value built = def.getRightOp();
+        if (built instanceof NewExpr) {
+            return ((NewExpr) built).getBaseType().getClassName().equals(
+                    UnexpectedNullValueException.class.getName());
+        } else if (built instanceof InvokeExpr) {
+            String name = ((InvokeExpr) built).getMethodRef().name();
+            return name.equals(NullyTools.METHOD_NEWNULLPARAMEXCEPTION)
+                    && ((InvokeExpr) built).getMethodRef().returnType().equals(
+                    RefType.v(NullParameterException.class.getName()));
+        }
+        return false;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.benchmarks;
+
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.plugin.SootFacts;
+import net.kano.nully.plugin.SootTools;
+import net.kano.nully.plugin.analysis.AnalysisContext;
+import net.kano.nully.plugin.analysis.nulls.NullAnalysisTagger;
+import net.kano.nully.plugin.analysis.nulls.soot.MayBeNullTag;
+import net.kano.nully.plugin.analysis.nulls.soot.MayThrowNpeTag;
+import soot.Body;
+import soot.RefLikeType;
+import soot.SootMethod;
+import soot.Value;
+import soot.ValueBox;
+import soot.jimple.Stmt;
+import soot.jimple.toolkits.annotation.nullcheck.BranchedRefVarsAnalysis;
+import soot.toolkits.graph.ExceptionalUnitGraph;
+import soot.toolkits.scalar.FlowSet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Checks that the null tags {@link NullAnalysisTagger} adds to each fixture
+ * are the tags the separate null pointer tagger added before the two taggers
+ * were fused, by computing those tags again with Soot's {@link
+ * BranchedRefVarsAnalysis}.
+ */
+public class NullTagsCheck extends RegressionCheck {
+    private static final String NONE = "none";
+
+    public NullTagsCheck() {
+        super("null-tags");
+    }
+
+    public void run() throws Exception {
+        List<String> mismatches = new ArrayList<String>();
+        for (String fixture : RegressionChecks.FIXTURES) {
+            PipelineBenchmark pipeline = new PipelineBenchmark() { };
+            pipeline.fixture = fixture;
+            pipeline.loadFixture();
+
+            AnalysisContext context = pipeline.analyze();
+            try {
+                for (SootMethod method : context.getSootMethods()) {
+                    compareTags(fixture, method.retrieveActiveBody(), mismatches);
+                }
+            } finally {
+                pipeline.cleanUp(context);
+            }
+        }
+        check(mismatches.isEmpty(), mismatches.size()
+                + " boxes tagged differently: " + mismatches);
+    }
+
+    private static void compareTags(@NonNull String fixture, @NonNull Body body,
+            @NonNull List<String> mismatches) {
+        BranchedRefVarsAnalysis analysis = new BranchedRefVarsAnalysis(
+                new ExceptionalUnitGraph(body));
+        for (Stmt s : (Collection<Stmt>) body.getUnits()) {
+            FlowSet before = (FlowSet) analysis.getFlowBefore(s);
+            for (ValueBox vBox : (Collection<ValueBox>) s.getUseBoxes()) {
+                compareTags(fixture, body, s, vBox, before, analysis, mismatches);
+            }
+            FlowSet after = (FlowSet) analysis.getFallFlowAfter(s);
+            for (ValueBox vBox : (Collection<ValueBox>) s.getDefBoxes()) {
+                compareTags(fixture, body, s, vBox, after, analysis, mismatches);
+            }
+        }
+    }
+
+    private static void compareTags(@NonNull String fixture, @NonNull Body body,
+            @NonNull Stmt s, @NonNull ValueBox vBox, @NonNull FlowSet set,
+            @NonNull BranchedRefVarsAnalysis analysis,
+            @NonNull List<String> mismatches) {
+        // this is what the null pointer tagger did
+        String expectedMayBeNull = NONE;
+        String expectedMayThrowNpe = NONE;
+        Value val = vBox.getValue();
+        if (val.getType() instanceof RefLikeType) {
+            int vInfo = analysis.anyRefInfo(val, set);
+            boolean definitelyNull = vInfo == BranchedRefVarsAnalysis.kNull;
+            if (definitelyNull
+                    || vInfo == BranchedRefVarsAnalysis.kTop
+                    || vInfo == BranchedRefVarsAnalysis.kBottom) {
+                expectedMayBeNull = describe(definitelyNull);
+                if (vBox == SootTools.getDereferencedObject(s)) {
+                    expectedMayThrowNpe = describe(definitelyNull);
+                }
+            }
+        }
+
+        SootFacts facts = SootFacts.getInstance();
+        MayBeNullTag mayBeNull = facts.getMayBeNull(vBox);
+        MayThrowNpeTag mayThrowNpe = facts.getMayThrowNpe(vBox);
+        String actualMayBeNull = mayBeNull == null ? NONE
+                : describe(mayBeNull.isDefinitelyNull());
+        String actualMayThrowNpe = mayThrowNpe == null ? NONE
+                : describe(mayThrowNpe.isDefinitelyNull());
+
+        if (!expectedMayBeNull.equals(actualMayBeNull)
+                || !expectedMayThrowNpe.equals(actualMayThrowNpe)) {
+            mismatches.add(fixture + " " + body.getMethod().getSignature()
+                    + " [" + s + "] " + val + ": expected may be null "
+                    + expectedMayBeNull + ", may throw " + expectedMayThrowNpe
+                    + "; was " + actualMayBeNull + ", " + actualMayThrowNpe);
+        }
+    }
+
+    private static @NonNull String describe(boolean definitelyNull) {
+        return definitelyNull ? "definitely" : "maybe";
+    }
+}
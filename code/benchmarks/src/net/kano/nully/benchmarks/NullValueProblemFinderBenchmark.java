@@ -31,37 +31,36 @@
  *
  */
 
-package net.kano.nully.plugin.analysis.nulls;
+package net.kano.nully.benchmarks;
 
 import net.kano.nully.plugin.analysis.AnalysisContext;
-import net.kano.nully.annotations.NonNull;
-import soot.Body;
-import soot.BodyTransformer;
-import soot.ValueBox;
-import soot.jimple.Stmt;
-import soot.toolkits.graph.ExceptionalUnitGraph;
-import soot.toolkits.scalar.FlowSet;
+import net.kano.nully.plugin.analysis.nulls.NullValueProblem;
+import net.kano.nully.plugin.analysis.nulls.NullValueProblemFinder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
 
 import java.util.Collection;
-import java.util.Map;
 
-public class NullableTagger extends BodyTransformer {
-    private final AnalysisContext context;
+/**
+ * Measures {@link NullValueProblemFinder} over the fully analyzed fixture.
+ */
+public class NullValueProblemFinderBenchmark extends PipelineBenchmark {
+    private AnalysisContext context;
+
+    @Setup(Level.Trial)
+    public void analyzeFixture() {
+        context = analyze();
+    }
 
-    public NullableTagger(@NonNull AnalysisContext context) {
-        this.context = context;
+    @Benchmark
+    public Collection<NullValueProblem> findProblems() {
+        return new NullValueProblemFinder().findProblems(context);
     }
 
-    protected void internalTransform(Body b, String phaseName, Map options) {
-        NullableAnalysis anal = new NullableAnalysis(context, new ExceptionalUnitGraph(b));
-        for (Stmt stmt : (Collection<Stmt>)b.getUnits()) {
-            for (ValueBox valueBox : ((Collection<ValueBox>) stmt.getUseBoxes())) {
-                FlowSet flow = (FlowSet) anal.getFlowBefore(stmt);
-                int nullableInfo = anal.refInfo(valueBox.getValue(), flow);
-                if (nullableInfo == NullableAnalysis.K_NULLABLE) {
-                    valueBox.addTag(new NullableTag());
-                }
-            }
-        }
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cleanUp(context);
     }
 }
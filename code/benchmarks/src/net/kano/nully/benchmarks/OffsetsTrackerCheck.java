@@ -0,0 +1,140 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.benchmarks;
+
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.util.PsiTreeUtil;
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.plugin.OffsetsTracker;
+
+import java.io.StringReader;
+import java.util.Random;
+
+/**
+ * Checks {@link OffsetsTracker}'s line table against a scan of the text, and
+ * its {@link OffsetsTracker.ElementIndex} against the common parent search it
+ * replaced, over every fixture.
+ */
+public class OffsetsTrackerCheck extends RegressionCheck {
+    private static final String[] LINE_TEXTS = {
+        "", "a", "\n", "a\nb", "a\r\nb\r\n", "a\rb\r", "\r\n\r\n\n\r", "ab\n\ncd\r\ne"
+    };
+    /** The longest range, after the first offset, checked at every offset. */
+    private static final int SHORT_RANGE = 40;
+
+    private final Random random = new Random(19);
+
+    public OffsetsTrackerCheck() {
+        super("offsets-tracker");
+    }
+
+    public void run() throws Exception {
+        for (String text : LINE_TEXTS) checkLines(text);
+        for (String fixture : RegressionChecks.FIXTURES) {
+            PsiJavaFile file = BenchmarkProject.getInstance().loadFixture(fixture);
+            checkLines(file.getText());
+            checkElements(fixture, file);
+        }
+    }
+
+    private static void checkLines(@NonNull String text) throws Exception {
+        OffsetsTracker tracker = new OffsetsTracker(new StringReader(text));
+        int line = 0;
+        int lineStart = 0;
+        for (int off = 0; off <= text.length(); off++) {
+            if (off > 0) {
+                char prev = text.charAt(off - 1);
+                // a carriage return only ends a line once the next character
+                // is read, and isn't followed by a newline
+                boolean lone = prev == '\r' && off < text.length()
+                        && text.charAt(off) != '\n';
+                if (prev == '\n' || lone) {
+                    line++;
+                    lineStart = off;
+                }
+            }
+            String where = "offset " + off + " of " + quote(text);
+            checkEqual(new Integer(line), new Integer(tracker.getLine(off)),
+                    "line of " + where);
+            checkEqual(new Integer(off - lineStart),
+                    new Integer(tracker.getColumn(off)), "column of " + where);
+            checkEqual(new Integer(off),
+                    new Integer(tracker.getOffset(line + 1, off - lineStart)),
+                    "offset of line " + (line + 1) + ", column "
+                    + (off - lineStart) + " in " + quote(text));
+        }
+    }
+
+    private void checkElements(@NonNull String fixture,
+            @NonNull PsiJavaFile file) {
+        OffsetsTracker.ElementIndex index = new OffsetsTracker.ElementIndex(file);
+        int length = file.getTextLength();
+        for (int first = 0; first < length; first++) {
+            int longest = Math.min(length - 1, first + SHORT_RANGE);
+            for (int last = first; last <= longest; last++) {
+                checkElement(fixture, file, index, first, last);
+            }
+            checkElement(fixture, file, index, first,
+                    first + random.nextInt(length - first));
+        }
+        check(index.getElementContaining(length, length) == null,
+                "element found past the end of " + fixture);
+    }
+
+    private static void checkElement(@NonNull String fixture,
+            @NonNull PsiJavaFile file, @NonNull OffsetsTracker.ElementIndex index,
+            int first, int last) {
+        PsiElement firstLeaf = file.findElementAt(first);
+        PsiElement lastLeaf = file.findElementAt(last);
+        PsiElement expected = PsiTreeUtil.findCommonParent(firstLeaf, lastLeaf);
+        if (expected == null) expected = firstLeaf;
+
+        PsiElement actual = index.getElementContaining(first, last);
+        if (actual != expected) {
+            throw new AssertionError("element containing " + first + "-" + last
+                    + " in " + fixture + ": expected " + describe(expected)
+                    + " but was " + describe(actual));
+        }
+    }
+
+    private static @NonNull String describe(PsiElement el) {
+        if (el == null) return "null";
+        return el + " at " + el.getTextRange() + " \"" + el.getText() + "\"";
+    }
+
+    private static @NonNull String quote(@NonNull String text) {
+        return "\"" + text.replace("\r", "\\r").replace("\n", "\\n") + "\"";
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.benchmarks;
+
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.plugin.analysis.nulls.PackedRefStateSet;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks {@link PackedRefStateSet} against an array holding one state per
+ * reference, for sizes around the boundaries of its words.
+ */
+public class PackedStateSetCheck extends RegressionCheck {
+    private static final int[] SIZES = { 0, 1, 2, 31, 32, 33, 63, 64, 65, 100 };
+    private static final int ROUNDS = 200;
+
+    private final Random random = new Random(5);
+
+    public PackedStateSetCheck() {
+        super("packed-lattice");
+    }
+
+    public void run() {
+        for (int size : SIZES) {
+            for (int round = 0; round < ROUNDS; round++) checkOperations(size);
+            checkFill(size);
+        }
+    }
+
+    private void checkOperations(int size) {
+        int[] a = randomStates(size);
+        int[] b = randomStates(size);
+        PackedRefStateSet pa = pack(a);
+        PackedRefStateSet pb = pack(b);
+        checkSame(a, pa, "set");
+
+        int[] joined = new int[size];
+        for (int i = 0; i < size; i++) joined[i] = a[i] | b[i];
+        PackedRefStateSet dest = new PackedRefStateSet(size);
+        pa.join(pb, dest);
+        checkSame(joined, dest, "join");
+        // the analysis joins into one of the inputs
+        PackedRefStateSet inPlace = pa.clone();
+        inPlace.join(pb, inPlace);
+        checkSame(joined, inPlace, "join in place");
+
+        int[] pre = randomStates(size);
+        int[] gen = randomStates(size);
+        int[] applied = new int[size];
+        for (int i = 0; i < size; i++) applied[i] = (a[i] & pre[i]) | gen[i];
+        dest = new PackedRefStateSet(size);
+        pa.apply(pack(pre), pack(gen), dest);
+        checkSame(applied, dest, "apply");
+
+        PackedRefStateSet copy = new PackedRefStateSet(size);
+        pb.copy(copy);
+        checkSame(b, copy, "copy");
+        check(copy.equals(pb), "copy not equal to its source: " + copy);
+        check(pack(a).equals(pa), "equal sets not equal: " + pa);
+        check(pack(a).hashCode() == pa.hashCode(), "equal sets hash differently");
+
+        PackedRefStateSet clone = pa.clone();
+        if (size > 0) {
+            int ref = random.nextInt(size);
+            clone.set(ref, (a[ref] + 1) & PackedRefStateSet.TOP);
+            checkSame(a, pa, "clone shares words with its source");
+        }
+    }
+
+    private void checkFill(int size) {
+        int[] states = { PackedRefStateSet.BOTTOM, PackedRefStateSet.NULL,
+            PackedRefStateSet.NON_NULL, PackedRefStateSet.TOP };
+        for (int state : states) {
+            int[] expected = new int[size];
+            Arrays.fill(expected, state);
+            PackedRefStateSet filled = pack(randomStates(size));
+            filled.fill(state);
+            checkSame(expected, filled, "fill");
+            // fill must not set bits past the last reference
+            check(filled.equals(pack(expected)),
+                    "filled set not equal to the same states set one by one: "
+                    + filled);
+        }
+    }
+
+    private @NonNull int[] randomStates(int size) {
+        int[] states = new int[size];
+        for (int i = 0; i < size; i++) states[i] = random.nextInt(4);
+        return states;
+    }
+
+    private static @NonNull PackedRefStateSet pack(@NonNull int[] states) {
+        PackedRefStateSet set = new PackedRefStateSet(states.length);
+        for (int i = 0; i < states.length; i++) set.set(i, states[i]);
+        return set;
+    }
+
+    private static void checkSame(@NonNull int[] expected,
+            @NonNull PackedRefStateSet actual, @NonNull String op) {
+        checkEqual(new Integer(expected.length), new Integer(actual.size()),
+                op + " size");
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] != actual.get(i)) {
+                throw new AssertionError(op + ": reference " + i + " of "
+                        + expected.length + " is " + actual.get(i)
+                        + ", expected " + expected[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.benchmarks;
+
+import com.intellij.psi.PsiJavaFile;
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.NullCheckLevel;
+import net.kano.nully.plugin.SootTools;
+import net.kano.nully.plugin.analysis.AnalysisContext;
+import net.kano.nully.plugin.analysis.nulls.CodeAnalyzer;
+import net.kano.nully.plugin.analysis.nulls.psipreprocess.PreparerForSoot;
+import net.kano.nully.plugin.inspection.NullInspectorOptions;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A benchmark of one stage of the analysis pipeline, run once for each
+ * fixture in the corpus. Subclasses run the stages before the one they
+ * measure in a {@code @Setup} method, using {@link #prepare()} or
+ * {@link #analyze()}, so that only the measured stage is timed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public abstract class PipelineBenchmark {
+    @Param({"Simple.java", "Branches.java", "Generics.java", "Inner.java"})
+    public String fixture;
+
+    protected PsiJavaFile file;
+
+    @Setup(Level.Trial)
+    public void loadFixture() throws Exception {
+        file = BenchmarkProject.getInstance().loadFixture(fixture);
+    }
+
+    /**
+     * Returns a new analysis context like the one the null inspection uses.
+     *
+     * @return a new context
+     */
+    protected @NonNull AnalysisContext newContext() {
+        AnalysisContext context = new AnalysisContext();
+        context.addCheckLevel(NullCheckLevel.EDITOR);
+        context.setOptions(new NullInspectorOptions());
+        return context;
+    }
+
+    /**
+     * Makes a marked copy of the fixture and strips it for Soot.
+     *
+     * @return a context holding the stripped copy
+     */
+    protected @NonNull AnalysisContext prepare() {
+        AnalysisContext context = newContext();
+        PreparerForSoot preparer = new PreparerForSoot(context);
+        context.setPreparer(preparer);
+        preparer.prepareForFileAnalysis(file);
+        return context;
+    }
+
+    /**
+     * Runs the whole pipeline up to, but not including, the problem finders.
+     * Soot stays locked until {@link #cleanUp} is called with the returned
+     * context.
+     *
+     * @return a context holding the tagged Soot classes
+     */
+    protected @NonNull AnalysisContext analyze() {
+        AnalysisContext context = prepare();
+        SootTools.lockSootGlobally();
+        CodeAnalyzer analyzer = new CodeAnalyzer();
+        context.setAnalyzer(analyzer);
+        analyzer.analyze(context);
+        return context;
+    }
+
+    /**
+     * Resets Soot and removes the copy of the fixture made for the given
+     * context.
+     *
+     * @param context a context returned by {@link #prepare()} or
+     *        {@link #analyze()}
+     */
+    protected void cleanUp(@NonNull AnalysisContext context) {
+        CodeAnalyzer analyzer = context.getAnalyzer();
+        try {
+            if (analyzer != null) analyzer.resetSoot();
+
+            PreparerForSoot preparer = context.getPreparer();
+            if (preparer != null) preparer.removeCopy(file);
+        } finally {
+            if (analyzer != null) SootTools.unlockSootGlobally();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.benchmarks;
+
+import net.kano.nully.plugin.analysis.AnalysisContext;
+import net.kano.nully.plugin.analysis.nulls.FancyNullableAnalysis;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import soot.SootMethod;
+import soot.jimple.toolkits.annotation.nullcheck.BranchedRefVarsAnalysis;
+import soot.toolkits.graph.ExceptionalUnitGraph;
+import soot.toolkits.graph.UnitGraph;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the reference variable analyses, Soot's
+ * {@link BranchedRefVarsAnalysis} and {@link FancyNullableAnalysis}, over each
+ * of the fixture's method bodies. The unit graphs are built beforehand.
+ * {@code fused} runs {@code FancyNullableAnalysis} with nullable origin
+ * tracking, as {@code NullAnalysisTagger} does.
+ */
+public class RefVarsAnalysisBenchmark extends PipelineBenchmark {
+    @Param({"branched", "fancy", "fused"})
+    public String analysis;
+
+    private AnalysisContext context;
+    private List<UnitGraph> graphs;
+
+    @Setup(Level.Trial)
+    public void buildGraphs() {
+        context = analyze();
+        graphs = new ArrayList<UnitGraph>();
+        for (SootMethod method : context.getSootMethods()) {
+            graphs.add(new ExceptionalUnitGraph(method.retrieveActiveBody()));
+        }
+    }
+
+    @Benchmark
+    public void analyzeBodies(Blackhole bh) {
+        boolean fancy = analysis.equals("fancy");
+        boolean fused = analysis.equals("fused");
+        for (UnitGraph graph : graphs) {
+            if (fused) {
+                bh.consume(new FancyNullableAnalysis(context, graph));
+            } else if (fancy) {
+                bh.consume(new FancyNullableAnalysis(graph));
+            } else {
+                bh.consume(new BranchedRefVarsAnalysis(graph));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cleanUp(context);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.benchmarks;
+
+import net.kano.nully.annotations.NonNull;
+
+/**
+ * A check that some part of the analysis or the runtime checks still behaves
+ * as it did before it was optimized. Checks are run by {@link
+ * RegressionChecks}, and fail by throwing an exception.
+ */
+public abstract class RegressionCheck {
+    private final String name;
+
+    protected RegressionCheck(@NonNull String name) {
+        this.name = name;
+    }
+
+    public @NonNull String getName() { return name; }
+
+    /**
+     * Runs this check.
+     *
+     * @throws Exception if the check fails
+     */
+    public abstract void run() throws Exception;
+
+    protected static void check(boolean condition, @NonNull String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+
+    protected static void checkEqual(Object expected, Object actual,
+            @NonNull String what) {
+        boolean equal = expected == null ? actual == null
+                : expected.equals(actual);
+        if (!equal) {
+            throw new AssertionError(what + ": expected <" + expected
+                    + "> but was <" + actual + ">");
+        }
+    }
+}
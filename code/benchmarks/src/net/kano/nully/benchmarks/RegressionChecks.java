@@ -0,0 +1,108 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.benchmarks;
+
+import net.kano.nully.plugin.MemberChangeTrackerCheck;
+import net.kano.nully.plugin.ViewportTrackerCheck;
+import net.kano.nully.plugin.analysis.nulls.WarmSceneCheck;
+import net.kano.nully.plugin.analysis.nulls.psipreprocess.DirectTranslationCheck;
+import net.kano.nully.plugin.analysis.nulls.soot.HeadlessCheck;
+import net.kano.nully.plugin.compilation.ClassFilePatcherCheck;
+import net.kano.nully.plugin.compilation.ParameterElisionCheck;
+import net.kano.nully.plugin.compilation.SiteTableCheck;
+import net.kano.nully.plugin.compilation.SourcePatcherCheck;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the regression checks, which compare the optimized parts of Nully
+ * against simpler versions of the same behavior, and the fixtures against
+ * known results. The names of the checks to run may be given; otherwise
+ * every check is run. Exits with status 1 if any check fails.
+ */
+public final class RegressionChecks {
+    /** The fixtures every pipeline check is run over. */
+    public static final String[] FIXTURES = {
+        "Simple.java", "Branches.java", "Generics.java", "Inner.java",
+        "EnumHolder.java", "Elision.java", "Lowering.java", "Loops.java"
+    };
+
+    private RegressionChecks() { }
+
+    public static void main(String[] args) {
+        List<RegressionCheck> checks = new ArrayList<RegressionCheck>();
+        checks.add(new FixturePipelineCheck());
+        checks.add(new PackedStateSetCheck());
+        checks.add(new NullTagsCheck());
+        checks.add(new ConvergenceCheck());
+        checks.add(new SourcePatcherCheck());
+        checks.add(new ParameterElisionCheck());
+        checks.add(new SiteTableCheck());
+        checks.add(new ClassRewriterCheck());
+        checks.add(new ClassFilePatcherCheck());
+        checks.add(new OffsetsTrackerCheck());
+        checks.add(new LoweringCheck());
+        checks.add(new RuntimeOptionsCheck());
+        checks.add(new MemberChangeTrackerCheck());
+        checks.add(new RelevanceIndexCheck());
+        checks.add(new WarmSceneCheck());
+        checks.add(new DirectTranslationCheck());
+        checks.add(new StripErrorsCheck());
+        checks.add(new NullAssertionsCheck());
+        checks.add(new SootFactsCheck());
+        checks.add(new HeadlessCheck());
+        checks.add(new ViewportTrackerCheck());
+
+        List<String> names = Arrays.asList(args);
+        int failed = 0;
+        for (RegressionCheck check : checks) {
+            if (!names.isEmpty() && !names.contains(check.getName())) continue;
+            try {
+                check.run();
+                System.out.println("ok      " + check.getName());
+            } catch (Throwable t) {
+                failed++;
+                System.out.println("FAILED  " + check.getName() + ": " + t);
+                t.printStackTrace(System.out);
+            }
+        }
+        if (failed > 0) {
+            System.out.println(failed + " checks failed");
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.benchmarks;
+
+import com.intellij.psi.PsiJavaFile;
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.plugin.NullyRelevanceIndex;
+import net.kano.nully.plugin.SootTools;
+import net.kano.nully.plugin.analysis.AnalysisContext;
+import net.kano.nully.plugin.analysis.nulls.CodeAnalyzer;
+
+/**
+ * Checks which files {@link NullyRelevanceIndex} finds relevant, that its
+ * entries are reused while a file is unchanged, and that {@link CodeAnalyzer}
+ * skips Soot for a file which could not dereference a null.
+ */
+public class RelevanceIndexCheck extends RegressionCheck {
+    private static final String PLAIN = "class Plain {\n"
+            + "    int size(String s) { return s.length(); }\n"
+            + "    String name() { return \"null\"; }\n"
+            + "}\n";
+    private static final String NULL_LITERAL = "class NullLiteral {\n"
+            + "    String none() { return null; }\n"
+            + "    int size() { return none().length(); }\n"
+            + "}\n";
+    private static final String ANNOTATED
+            = "import net.kano.nully.annotations.Nullable;\n"
+            + "class Annotated {\n"
+            + "    private @Nullable String name;\n"
+            + "}\n";
+
+    public RelevanceIndexCheck() {
+        super("relevance-index");
+    }
+
+    public void run() throws Exception {
+        BenchmarkProject project = BenchmarkProject.getInstance();
+        PsiJavaFile plain = project.parse("Plain.java", PLAIN);
+        PsiJavaFile nullLiteral = project.parse("NullLiteral.java",
+                NULL_LITERAL);
+        PsiJavaFile annotated = project.parse("Annotated.java", ANNOTATED);
+
+        checkRelevance(plain, false, false);
+        checkRelevance(nullLiteral, false, true);
+        checkRelevance(annotated, true, true);
+        for (String fixture : RegressionChecks.FIXTURES) {
+            checkRelevance(project.loadFixture(fixture), true, true);
+        }
+
+        NullyRelevanceIndex index = NullyRelevanceIndex.getInstance();
+        long hits = index.getHitCount();
+        long misses = index.getMissCount();
+        index.isRelevant(plain);
+        index.mayDereferenceNull(plain);
+        checkEqual(new Long(hits + 2), new Long(index.getHitCount()),
+                "hits after looking up an unchanged file");
+        checkEqual(new Long(misses), new Long(index.getMissCount()),
+                "misses after looking up an unchanged file");
+
+        checkEqual(new Integer(0), new Integer(countSootClasses(plain)),
+                "classes loaded into Soot for a file without nulls");
+        check(countSootClasses(nullLiteral) > 0,
+                "a file with a null literal was not analyzed");
+    }
+
+    private static void checkRelevance(@NonNull PsiJavaFile file,
+            boolean relevant, boolean mayDereferenceNull) {
+        NullyRelevanceIndex index = NullyRelevanceIndex.getInstance();
+        checkEqual(Boolean.valueOf(relevant),
+                Boolean.valueOf(index.isRelevant(file)),
+                "relevance of " + file.getName());
+        checkEqual(Boolean.valueOf(mayDereferenceNull),
+                Boolean.valueOf(index.mayDereferenceNull(file)),
+                "whether " + file.getName() + " may dereference null");
+    }
+
+    /**
+     * Analyzes the given file as the null inspection does, and returns the
+     * number of classes the analysis loaded into Soot.
+     */
+    private static int countSootClasses(@NonNull PsiJavaFile file) {
+        PipelineBenchmark pipeline = new PipelineBenchmark() { };
+        pipeline.file = file;
+        AnalysisContext context = pipeline.prepare();
+        context.setFileOrig(file);
+        CodeAnalyzer analyzer = new CodeAnalyzer();
+        context.setAnalyzer(analyzer);
+        SootTools.lockSootGlobally();
+        try {
+            analyzer.analyze(context);
+            return context.getSootClasses().size();
+        } finally {
+            pipeline.cleanUp(context);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.benchmarks;
+
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.NonNullTools;
+import net.kano.nully.annotations.NullyRuntimeOptions;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * Checks the exceptions {@link NonNullTools} throws in each mode of the
+ * {@link NullyRuntimeOptions}: their messages must be the same whether they
+ * are built eagerly or lazily, and they must have no stack trace when stack
+ * traces are turned off. The options are read once, when the classes are
+ * loaded, so each mode loads the annotations classes again.
+ */
+public class RuntimeOptionsCheck extends RegressionCheck {
+    private static final String PARAM_NAME = "name";
+    private static final int PARAM_INDEX = 2;
+    private static final String PARAM_MESSAGE
+            = "name (parameter #2) cannot be null";
+
+    public RuntimeOptionsCheck() {
+        super("runtime-options");
+    }
+
+    public void run() throws Exception {
+        String eager = null;
+        for (int mode = 0; mode < 4; mode++) {
+            boolean lazy = (mode & 1) != 0;
+            boolean stackTraces = (mode & 2) == 0;
+            String message = checkMode(lazy, stackTraces);
+            if (eager == null) eager = message;
+            checkEqual(eager, message, "message with lazy messages " + lazy
+                    + " and stack traces " + stackTraces);
+        }
+    }
+
+    /**
+     * Checks the exceptions thrown in the given mode, and returns the message
+     * of the null parameter exception.
+     */
+    private static @NonNull String checkMode(boolean lazy,
+            boolean stackTraces) throws Exception {
+        String mode = "lazy messages " + lazy + ", stack traces " + stackTraces;
+        String oldLazy = System.getProperty(
+                NullyRuntimeOptions.PROP_LAZY_MESSAGES);
+        String oldStackTraces = System.getProperty(
+                NullyRuntimeOptions.PROP_STACK_TRACES);
+        System.setProperty(NullyRuntimeOptions.PROP_LAZY_MESSAGES,
+                Boolean.toString(lazy));
+        System.setProperty(NullyRuntimeOptions.PROP_STACK_TRACES,
+                Boolean.toString(stackTraces));
+        Class<?> tools;
+        try {
+            tools = loadAgain(NonNullTools.class);
+            // the options are read when the class is initialized
+            Class.forName(tools.getName(), true, tools.getClassLoader());
+        } finally {
+            restoreProperty(NullyRuntimeOptions.PROP_LAZY_MESSAGES, oldLazy);
+            restoreProperty(NullyRuntimeOptions.PROP_STACK_TRACES,
+                    oldStackTraces);
+        }
+
+        Method checkParameter = tools.getMethod("checkNonNullParameter",
+                Object.class, String.class, int.class);
+        Throwable paramEx = invokeForException(checkParameter,
+                null, PARAM_NAME, new Integer(PARAM_INDEX));
+        checkEqual("net.kano.nully.annotations."
+                + (stackTraces ? "" : "Stackless") + "NullParameterException",
+                paramEx.getClass().getName(), "parameter exception with " + mode);
+        checkStackTrace(paramEx, stackTraces, "parameter exception with " + mode);
+        String message = paramEx.getMessage();
+        checkEqual(PARAM_MESSAGE, message, "parameter message with " + mode);
+        // a lazy message is built again each time, so it must not change
+        checkEqual(message, paramEx.getMessage(),
+                "second parameter message with " + mode);
+
+        Method checkReturn = tools.getMethod("checkNonNullReturn",
+                Object.class);
+        checkStackTrace(invokeForException(checkReturn, (Object) null),
+                stackTraces, "return exception with " + mode);
+
+        Method checkValue = tools.getMethod("checkNonNullValue", Object.class);
+        checkStackTrace(invokeForException(checkValue, (Object) null),
+                stackTraces, "value exception with " + mode);
+        return message;
+    }
+
+    /**
+     * Loads the given annotations class, and the classes it uses, in a new
+     * class loader, so the {@link NullyRuntimeOptions} are read again.
+     */
+    private static @NonNull Class<?> loadAgain(@NonNull Class<?> cls)
+            throws ClassNotFoundException {
+        URL location = cls.getProtectionDomain().getCodeSource().getLocation();
+        ClassLoader loader = new URLClassLoader(new URL[] { location }, null);
+        return loader.loadClass(cls.getName());
+    }
+
+    private static void restoreProperty(@NonNull String prop, String value) {
+        if (value == null) System.clearProperty(prop);
+        else System.setProperty(prop, value);
+    }
+
+    private static @NonNull Throwable invokeForException(
+            @NonNull Method method, Object... args) throws Exception {
+        try {
+            method.invoke(null, args);
+        } catch (InvocationTargetException e) {
+            return e.getCause();
+        }
+        throw new AssertionError(method.getName() + " accepted null");
+    }
+
+    private static void checkStackTrace(@NonNull Throwable t,
+            boolean stackTraces, @NonNull String what) {
+        if (stackTraces) {
+            check(t.getStackTrace().length > 0, what + " has no stack trace");
+        } else {
+            checkEqual(new Integer(0), new Integer(t.getStackTrace().length),
+                    "stack trace length of " + what);
+        }
+    }
+}
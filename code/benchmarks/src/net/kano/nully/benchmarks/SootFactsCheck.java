@@ -0,0 +1,134 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.benchmarks;
+
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiJavaFile;
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.plugin.SootFacts;
+import net.kano.nully.plugin.analysis.AnalysisContext;
+import soot.Local;
+import soot.RefType;
+import soot.SootMethod;
+import soot.Unit;
+import soot.ValueBox;
+import soot.jimple.Jimple;
+import soot.jimple.Stmt;
+
+import java.util.Collection;
+
+/**
+ * Checks that {@link SootFacts} keys facts by host identity, keeps the first
+ * PSI element recorded for a host and facts a host already has when copying,
+ * that every translated statement of each fixture refers back to the
+ * analyzed file, and that the facts are dropped once the analysis's classes
+ * leave Soot's scene.
+ */
+public class SootFactsCheck extends RegressionCheck {
+    public SootFactsCheck() {
+        super("soot-facts");
+    }
+
+    public void run() throws Exception {
+        for (String fixture : RegressionChecks.FIXTURES) {
+            PipelineBenchmark pipeline = new PipelineBenchmark() { };
+            pipeline.fixture = fixture;
+            pipeline.loadFixture();
+
+            AnalysisContext context = pipeline.analyze();
+            try {
+                if (fixture.equals(RegressionChecks.FIXTURES[0])) {
+                    checkTable(context.getFileCopy());
+                }
+                Stmt translated = checkBackReferences(fixture, context);
+                context.getAnalyzer().releaseSoot();
+                check(SootFacts.getInstance().getPsiElement(translated) == null,
+                        "facts about " + fixture + " were kept after release");
+            } finally {
+                pipeline.cleanUp(context);
+            }
+        }
+    }
+
+    private static void checkTable(@NonNull PsiJavaFile file) {
+        SootFacts facts = SootFacts.getInstance();
+        PsiElement first = file.getClasses()[0];
+        PsiElement second = file.getImportList();
+
+        Local local = Jimple.v().newLocal("checked",
+                RefType.v(Object.class.getName()));
+        ValueBox box = Jimple.v().newLocalBox(local);
+        ValueBox sameValue = Jimple.v().newLocalBox(local);
+        facts.setPsiElement(box, first);
+        facts.setPsiElement(box, second);
+        check(facts.getPsiElement(box) == first,
+                "the first element recorded for a host was replaced");
+        check(facts.getPsiElement(sameValue) == null,
+                "a box holding the same value shares facts with another box");
+
+        ValueBox copied = Jimple.v().newLocalBox(local);
+        facts.setPsiElement(copied, second);
+        facts.copyFacts(box, copied);
+        facts.copyFacts(box, sameValue);
+        check(facts.getPsiElement(copied) == second,
+                "copying facts replaced a fact the target had");
+        check(facts.getPsiElement(sameValue) == first,
+                "facts were not copied to a host without them");
+    }
+
+    /**
+     * Checks that every statement with a PSI element refers to the file Soot
+     * translated, and returns one such statement.
+     */
+    private static @NonNull Stmt checkBackReferences(@NonNull String fixture,
+            @NonNull AnalysisContext context) {
+        SootFacts facts = SootFacts.getInstance();
+        PsiJavaFile translated = context.getFileCopy();
+        Stmt found = null;
+        for (SootMethod method : context.getSootMethods()) {
+            for (Unit unit : (Collection<Unit>)
+                    method.retrieveActiveBody().getUnits()) {
+                PsiElement element = facts.getPsiElement(unit);
+                if (element == null) continue;
+                check(element.getContainingFile() == translated,
+                        "statement " + unit + " of " + fixture
+                        + " refers to another file");
+                if (found == null) found = (Stmt) unit;
+            }
+        }
+        check(found != null, "no statement of " + fixture
+                + " refers back to its source");
+        return found;
+    }
+}
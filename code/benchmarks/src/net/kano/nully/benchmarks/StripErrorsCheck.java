@@ -0,0 +1,144 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.benchmarks;
+
+import com.intellij.psi.PsiErrorElement;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiRecursiveElementVisitor;
+import com.intellij.psi.PsiStatement;
+import com.intellij.psi.util.PsiTreeUtil;
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.NullCheckLevel;
+import net.kano.nully.plugin.analysis.AnalysisContext;
+import net.kano.nully.plugin.analysis.nulls.psipreprocess.PreparerForSoot;
+
+/**
+ * Checks that {@link PreparerForSoot}, which finds every broken statement in
+ * a copy before deleting them together, leaves the same code as deleting
+ * broken statements one at a time until none are left, including when
+ * broken statements are nested in each other, and that it leaves the
+ * original file alone.
+ */
+public class StripErrorsCheck extends RegressionCheck {
+    private static final String[][] BROKEN = {
+        { "TopLevel.java",
+          "class TopLevel {\n"
+          + "    int f() { int x = ; return 0; }\n"
+          + "}\n" },
+        { "Nested.java",
+          "class Nested {\n"
+          + "    void f(boolean b) {\n"
+          + "        if (b) { int x = ; }\n"
+          + "        int y = 1;\n"
+          + "        while (b) { y = ; y++; }\n"
+          + "    }\n"
+          + "}\n" },
+        { "Enclosing.java",
+          "class Enclosing {\n"
+          + "    void f(boolean b) {\n"
+          + "        if (b { int x = ; int y = ; }\n"
+          + "        for (int i = 0; i < 2; i++ { String s = ; }\n"
+          + "        int z = 2;\n"
+          + "    }\n"
+          + "}\n" },
+        { "Siblings.java",
+          "class Siblings {\n"
+          + "    void f() {\n"
+          + "        int a = ;\n"
+          + "        int b = ;\n"
+          + "        int c = 3;\n"
+          + "        int d = ;\n"
+          + "    }\n"
+          + "}\n" },
+    };
+
+    public StripErrorsCheck() {
+        super("strip-errors");
+    }
+
+    public void run() throws Exception {
+        BenchmarkProject project = BenchmarkProject.getInstance();
+        for (String[] broken : BROKEN) {
+            PsiJavaFile file = project.parse(broken[0], broken[1]);
+            String expected = stripOneAtATime(
+                    (PsiJavaFile) file.copy()).getText();
+
+            AnalysisContext context = new AnalysisContext();
+            context.addCheckLevel(NullCheckLevel.EDITOR);
+            PreparerForSoot preparer = new PreparerForSoot(context);
+            context.setPreparer(preparer);
+            preparer.prepareForFileAnalysis(file);
+            try {
+                PsiJavaFile copy = context.getFileCopy();
+                check(copy != file, broken[0] + " was not copied");
+                checkEqual(expected, copy.getText(),
+                        "stripped copy of " + broken[0]);
+                check(findBrokenStatement(copy) == null,
+                        "a broken statement was left in " + broken[0]);
+                checkEqual(broken[1], file.getText(),
+                        "original of " + broken[0]);
+            } finally {
+                preparer.removeCopy(file);
+            }
+        }
+    }
+
+    /**
+     * Deletes the innermost broken statement in the given file until there
+     * are none left.
+     */
+    private static @NonNull PsiJavaFile stripOneAtATime(
+            @NonNull PsiJavaFile file) throws Exception {
+        for (PsiStatement statement = findBrokenStatement(file);
+                statement != null; statement = findBrokenStatement(file)) {
+            statement.delete();
+        }
+        return file;
+    }
+
+    private static PsiStatement findBrokenStatement(@NonNull PsiJavaFile file) {
+        final PsiStatement[] found = { null };
+        file.accept(new PsiRecursiveElementVisitor() {
+            public void visitStatement(PsiStatement statement) {
+                // like the preparer once did, delete inner statements first
+                super.visitStatement(statement);
+                if (found[0] == null && PsiTreeUtil.getChildOfType(statement,
+                        PsiErrorElement.class) != null) {
+                    found[0] = statement;
+                }
+            }
+        });
+        return found[0];
+    }
+}
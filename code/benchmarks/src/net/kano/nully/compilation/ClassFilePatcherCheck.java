@@ -0,0 +1,171 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin.compilation;
+
+import net.kano.nully.annotations.NullReturnException;
+import net.kano.nully.annotations.NullyInstrumented;
+import net.kano.nully.annotations.UnexpectedNullValueException;
+import net.kano.nully.benchmarks.AgentSample;
+import net.kano.nully.benchmarks.ClassRewriterCheck;
+import net.kano.nully.benchmarks.RegressionCheck;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Inserts checks into {@link AgentSample} with a {@link ClassFilePatcher},
+ * loads the result in its own class loader, so the VM verifies it, and checks
+ * that it throws for null parameters, return values and call results, and
+ * otherwise behaves like the original.
+ */
+public class ClassFilePatcherCheck extends RegressionCheck {
+    private static final String SAMPLE = AgentSample.class.getName();
+    private static final String SAMPLE_INTERNAL = SAMPLE.replace('.', '/');
+
+    public ClassFilePatcherCheck() {
+        super("class-file-patcher");
+    }
+
+    public void run() throws Exception {
+        byte[] original = ClassRewriterCheck.readClass(SAMPLE);
+        check(new ClassFilePatcher(original,
+                Collections.<String, MethodChecks>emptyMap()).patch() == null,
+                SAMPLE + " changed without any checks");
+
+        Map<String, MethodChecks> checks = new HashMap<String, MethodChecks>();
+        MethodChecks constructorChecks = new MethodChecks();
+        constructorChecks.addParameterCheck(1, "name", 1);
+        checks.put("<init>(Ljava/lang/String;)V", constructorChecks);
+        // the longs and doubles take two slots each
+        MethodChecks sumChecks = new MethodChecks();
+        sumChecks.addParameterCheck(3, "values", 2);
+        sumChecks.addParameterCheck(6, "label", 4);
+        checks.put("sum(J[JDLjava/lang/String;)J", sumChecks);
+        MethodChecks describeChecks = new MethodChecks();
+        describeChecks.setCheckingReturns(true);
+        checks.put("describe(I)Ljava/lang/String;", describeChecks);
+        MethodChecks classifyChecks = new MethodChecks();
+        classifyChecks.addParameterCheck(0, "o", 1);
+        classifyChecks.addCheckedCall(
+                "java/lang/Object.toString()Ljava/lang/String;");
+        checks.put("classify(Ljava/lang/Object;I)I", classifyChecks);
+
+        Class<?> cls = loadPatched(original, checks);
+        Constructor<?> constructor = cls.getConstructor(String.class);
+        Object sample = constructor.newInstance("sample");
+        AgentSample plain = new AgentSample("sample");
+        ClassRewriterCheck.checkNullParameter(constructor, null, 1,
+                new Object[] { null });
+
+        Method length = cls.getMethod("length", String.class);
+        checkEqual(new Integer(AgentSample.length("abc")),
+                length.invoke(null, "abc"), "length");
+
+        Method sum = cls.getMethod("sum", long.class, long[].class,
+                double.class, String.class);
+        long[] values = { 1, 2, 3 };
+        checkEqual(new Long(plain.sum(7, values, 2.5, "label")),
+                sum.invoke(sample, new Long(7), values, new Double(2.5), "label"),
+                "sum");
+        ClassRewriterCheck.checkNullParameter(sum, sample, 2,
+                new Object[] { new Long(7), null, new Double(2.5), "label" });
+        ClassRewriterCheck.checkNullParameter(sum, sample, 4,
+                new Object[] { new Long(7), values, new Double(2.5), null });
+
+        Method describe = cls.getMethod("describe", int.class);
+        for (int n = 0; n <= 5; n++) {
+            checkEqual(plain.describe(n), describe.invoke(sample, new Integer(n)),
+                    "describe(" + n + ")");
+        }
+        checkThrows(describe, sample, -1, NullReturnException.class);
+
+        Method classify = cls.getMethod("classify", Object.class, int.class);
+        for (int n = 0; n <= 1000; n += 125) {
+            checkEqual(new Integer(AgentSample.classify("s", n)),
+                    classify.invoke(null, "s", new Integer(n)),
+                    "classify(\"s\", " + n + ")");
+            checkEqual(new Integer(AgentSample.classify(values, n)),
+                    classify.invoke(null, values, new Integer(n)),
+                    "classify(values, " + n + ")");
+        }
+        ClassRewriterCheck.checkNullParameter(classify, null, 1,
+                new Object[] { null, new Integer(1) });
+
+        // describe's own return check would fire first if it were patched too
+        MethodChecks labelChecks = new MethodChecks();
+        labelChecks.addCheckedCall(SAMPLE_INTERNAL
+                + ".describe(I)Ljava/lang/String;");
+        Class<?> labelCls = loadPatched(original, Collections.singletonMap(
+                "label(I)Ljava/lang/String;", labelChecks));
+        Object labelSample = labelCls.getConstructor(String.class)
+                .newInstance("sample");
+        // a large n takes the branch around the checked call
+        Method label = labelCls.getMethod("label", int.class);
+        for (int n = 0; n <= 7; n++) {
+            checkEqual(plain.label(n), label.invoke(labelSample, new Integer(n)),
+                    "label(" + n + ")");
+        }
+        checkThrows(label, labelSample, -1, UnexpectedNullValueException.class);
+    }
+
+    private static Class<?> loadPatched(byte[] original,
+            Map<String, MethodChecks> checks) throws Exception {
+        byte[] patched = new ClassFilePatcher(original, checks).patch();
+        check(patched != null, "no checks added to " + SAMPLE);
+
+        // initializing the class links it, which verifies it
+        Class<?> cls = Class.forName(SAMPLE, true,
+                new ClassRewriterCheck.SingleClassLoader(SAMPLE, patched));
+        check(cls != AgentSample.class, "patched class not loaded");
+        check(cls.isAnnotationPresent(NullyInstrumented.class),
+                "patched class not marked instrumented");
+        return cls;
+    }
+
+    private static void checkThrows(Method method, Object target, int n,
+            Class<? extends Throwable> expected) throws Exception {
+        try {
+            method.invoke(target, new Integer(n));
+        } catch (InvocationTargetException e) {
+            check(expected.isInstance(e.getCause()), method.getName() + "("
+                    + n + ") threw " + e.getCause());
+            return;
+        }
+        throw new AssertionError(method.getName() + "(" + n + ") returned");
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin.compilation;
+
+import com.intellij.psi.PsiErrorElement;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiRecursiveElementVisitor;
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.NullCheckLevel;
+import net.kano.nully.annotations.Nullable;
+import net.kano.nully.benchmarks.BenchmarkProject;
+import net.kano.nully.plugin.SootTools;
+import net.kano.nully.plugin.analysis.AnalysisContext;
+import net.kano.nully.plugin.analysis.nulls.CodeAnalyzer;
+import net.kano.nully.plugin.analysis.nulls.NullValueProblem;
+import net.kano.nully.plugin.analysis.nulls.NullValueProblemFinder;
+import net.kano.nully.plugin.analysis.nulls.psipreprocess.PreparerForSoot;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Inserts runtime checks into the benchmark fixtures the way {@link
+ * NullyCompilerStep} does, for the regression checks of the compilation
+ * package.
+ */
+final class FixtureInstrumenter {
+    private FixtureInstrumenter() { }
+
+    /**
+     * Analyzes the given fixture and returns its source with runtime checks
+     * inserted.
+     *
+     * @param fixture the fixture's file name
+     * @param elide whether parameter checks proven unneeded are left out
+     * @param countChecks whether the checks are given site IDs
+     * @return the patched source, or {@code null} if no checks were needed
+     */
+    public static @Nullable PatchedSource instrument(@NonNull String fixture,
+            boolean elide, boolean countChecks) throws Exception {
+        PsiJavaFile file = BenchmarkProject.getInstance().loadFixture(fixture);
+
+        AnalysisContext ctx = new AnalysisContext();
+        ctx.addCheckLevel(NullCheckLevel.COMPILER);
+        ctx.addCheckLevel(NullCheckLevel.RUNTIME);
+        PreparerForSoot preparer = new PreparerForSoot(ctx);
+        preparer.prepareForCompilation(file);
+
+        CodeAnalyzer analyzer = new CodeAnalyzer();
+        try {
+            SootTools.lockSootGlobally();
+            analyzer.analyze(ctx);
+
+            NullValueProblemFinder finder = new NullValueProblemFinder();
+            Collection<NullValueProblem> problems = finder.findProblems(ctx);
+            return RuntimeCheckInserter.insertRuntimeChecks(file, problems,
+                    elide ? finder.getCallSiteSummary() : null, countChecks);
+        } finally {
+            analyzer.releaseSoot();
+            SootTools.unlockSootGlobally();
+            preparer.removeCopy(file);
+        }
+    }
+
+    /**
+     * Parses the given patched source, failing if it has syntax errors.
+     *
+     * @param fixture the name of the fixture the source was patched from
+     * @param patched the patched source
+     * @return the parsed source
+     */
+    public static @NonNull PsiJavaFile parsePatched(@NonNull String fixture,
+            @NonNull PatchedSource patched) throws IOException {
+        final PsiJavaFile file = BenchmarkProject.getInstance().parse(fixture,
+                patched.toString());
+        final List<String> errors = new ArrayList<String>();
+        file.accept(new PsiRecursiveElementVisitor() {
+            public void visitErrorElement(PsiErrorElement element) {
+                errors.add(element.getErrorDescription() + " at "
+                        + element.getTextRange().getStartOffset());
+            }
+        });
+        if (!errors.isEmpty()) {
+            throw new AssertionError("patched " + fixture + " has syntax errors "
+                    + errors + ":\n" + file.getText());
+        }
+        return file;
+    }
+}
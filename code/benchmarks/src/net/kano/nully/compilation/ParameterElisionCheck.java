@@ -0,0 +1,100 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin.compilation;
+
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiCodeBlock;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMethod;
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.benchmarks.RegressionCheck;
+import net.kano.nully.plugin.NullyTools;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Checks that {@link ParameterCheckElider} leaves out the parameter checks of
+ * only those methods in the {@code Elision} fixture whose every call is
+ * proven to pass a non-null value, and that no checks are left out when no
+ * call site summary is given.
+ */
+public class ParameterElisionCheck extends RegressionCheck {
+    private static final String FIXTURE = "Elision.java";
+
+    /** The methods whose checks must be kept, and why. */
+    private static final String[] CHECKED = {
+        "Elision", // a constructor
+        "callAll", // public, and never called
+        "unproven", // passed a field which may be null
+        "uncalled", // might be called reflectively
+        "exposed", // public, though only passed a literal here
+    };
+    private static final String ELIDED = "proven";
+
+    public ParameterElisionCheck() {
+        super("parameter-elision");
+    }
+
+    public void run() throws Exception {
+        Set<String> all = new HashSet<String>(Arrays.asList(CHECKED));
+        all.add(ELIDED);
+        checkEqual(all, findCheckedMethods(false),
+                "methods with parameter checks without elision");
+        checkEqual(new HashSet<String>(Arrays.asList(CHECKED)),
+                findCheckedMethods(true),
+                "methods with parameter checks with elision");
+    }
+
+    private static @NonNull Set<String> findCheckedMethods(boolean elide)
+            throws Exception {
+        PatchedSource patched = FixtureInstrumenter.instrument(FIXTURE, elide,
+                false);
+        check(patched != null, "no checks inserted into " + FIXTURE);
+        PsiJavaFile file = FixtureInstrumenter.parsePatched(FIXTURE, patched);
+
+        Set<String> checked = new HashSet<String>();
+        for (PsiClass cls : file.getClasses()) {
+            for (PsiMethod method : cls.getMethods()) {
+                PsiCodeBlock body = method.getBody();
+                if (body != null && body.getText().indexOf(
+                        NullyTools.METHOD_NEWNULLPARAMEXCEPTION) != -1) {
+                    checked.add(method.getName());
+                }
+            }
+        }
+        return checked;
+    }
+}
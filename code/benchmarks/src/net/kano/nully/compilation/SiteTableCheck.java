@@ -0,0 +1,98 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin.compilation;
+
+import com.intellij.psi.PsiArrayInitializerExpression;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiField;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMethodCallExpression;
+import com.intellij.psi.PsiNewExpression;
+import net.kano.nully.benchmarks.RegressionCheck;
+import net.kano.nully.benchmarks.RegressionChecks;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks that the counted checks inserted into each fixture, including one
+ * whose site table goes into an enum without a semicolon after its constants,
+ * still parse, and that each site ID used has an entry in the site table.
+ */
+public class SiteTableCheck extends RegressionCheck {
+    private static final String HOLDER_CLASS = "$NullySites";
+    private static final Pattern SITE = Pattern.compile(
+            Pattern.quote(HOLDER_CLASS + ".BASE + ") + "(\\d+)");
+
+    public SiteTableCheck() {
+        super("site-table");
+    }
+
+    public void run() throws Exception {
+        boolean sawEnum = false;
+        for (String fixture : RegressionChecks.FIXTURES) {
+            PatchedSource patched = FixtureInstrumenter.instrument(fixture,
+                    false, true);
+            if (patched == null) continue;
+            PsiJavaFile file = FixtureInstrumenter.parsePatched(fixture, patched);
+
+            Set<Integer> used = new HashSet<Integer>();
+            Matcher matcher = SITE.matcher(file.getText());
+            while (matcher.find()) used.add(Integer.valueOf(matcher.group(1)));
+            if (used.isEmpty()) continue;
+
+            PsiClass owner = file.getClasses()[0];
+            PsiClass holder = owner.findInnerClassByName(HOLDER_CLASS, false);
+            check(holder != null, "no site table in " + fixture);
+            if (owner.isEnum()) sawEnum = true;
+
+            PsiField base = holder.findFieldByName("BASE", false);
+            check(base != null, "no BASE field in the site table of " + fixture);
+            // BASE = NullCheckCounters.registerSites(new String[] { ... })
+            PsiMethodCallExpression register
+                    = (PsiMethodCallExpression) base.getInitializer();
+            PsiNewExpression list = (PsiNewExpression)
+                    register.getArgumentList().getExpressions()[0];
+            PsiArrayInitializerExpression table = list.getArrayInitializer();
+            check(table != null, "no site list in " + fixture);
+            int sites = table.getInitializers().length;
+            Set<Integer> listed = new HashSet<Integer>();
+            for (int i = 0; i < sites; i++) listed.add(Integer.valueOf(i));
+            checkEqual(listed, used, "site IDs used in " + fixture);
+        }
+        check(sawEnum, "no site table was put in an enum");
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin.compilation;
+
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMethodCallExpression;
+import com.intellij.psi.util.PsiTreeUtil;
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.benchmarks.BenchmarkProject;
+import net.kano.nully.benchmarks.RegressionCheck;
+import net.kano.nully.benchmarks.RegressionChecks;
+
+/**
+ * Checks the order in which {@link SourcePatcher} applies insertions which
+ * fall at the same offset, and that the checks inserted into each fixture
+ * leave it parseable and with the same lines.
+ */
+public class SourcePatcherCheck extends RegressionCheck {
+    private static final String SOURCE = "class T { Object f = a(b); }";
+
+    public SourcePatcherCheck() {
+        super("source-patcher");
+    }
+
+    public void run() throws Exception {
+        checkNesting(false);
+        checkNesting(true);
+        checkPlainOrder();
+        checkFixtures();
+    }
+
+    /**
+     * Wraps a call, its method name and its argument list, which share the
+     * call's start and end offsets, and inserts plain text at both ends.
+     */
+    private static void checkNesting(boolean reversed) throws Exception {
+        PsiJavaFile file = BenchmarkProject.getInstance().parse("T.java", SOURCE);
+        PsiMethodCallExpression call = PsiTreeUtil.getParentOfType(
+                file.findElementAt(SOURCE.indexOf("a(b)")),
+                PsiMethodCallExpression.class);
+        int start = call.getTextRange().getStartOffset();
+        int end = call.getTextRange().getEndOffset();
+
+        SourcePatcher patcher = new SourcePatcher();
+        if (reversed) {
+            patcher.insert(end, "Q");
+            patcher.wrap(call.getArgumentList(), "[", "]");
+            patcher.wrap(call.getMethodExpression(), "{", "}");
+            patcher.wrap(call, "<", ">");
+            patcher.insert(start, "P");
+        } else {
+            patcher.insert(start, "P");
+            patcher.wrap(call, "<", ">");
+            patcher.wrap(call.getMethodExpression(), "{", "}");
+            patcher.wrap(call.getArgumentList(), "[", "]");
+            patcher.insert(end, "Q");
+        }
+        check(!patcher.wrap(call, "(", ")"), "call wrapped twice");
+
+        String expected = SOURCE.replace("a(b)", "P<{a}[(b)]>Q");
+        checkEqual(expected, patcher.toPatchedSource(SOURCE).toString(),
+                "patched source" + (reversed ? " (inserted in reverse)" : ""));
+    }
+
+    private static void checkPlainOrder() {
+        SourcePatcher patcher = new SourcePatcher();
+        patcher.insert(5, "2");
+        patcher.insert(0, "0");
+        patcher.insert(5, "3");
+        patcher.insert(SOURCE.length(), "4");
+        patcher.insert(0, "1");
+        String expected = "01" + SOURCE.substring(0, 5) + "23"
+                + SOURCE.substring(5) + "4";
+        checkEqual(expected, patcher.toPatchedSource(SOURCE).toString(),
+                "plain insertions");
+    }
+
+    private static void checkFixtures() throws Exception {
+        for (String fixture : RegressionChecks.FIXTURES) {
+            PatchedSource patched = FixtureInstrumenter.instrument(fixture,
+                    false, false);
+            if (patched == null) continue;
+
+            PsiJavaFile file = FixtureInstrumenter.parsePatched(fixture, patched);
+            String original = BenchmarkProject.getInstance().loadFixture(fixture)
+                    .getText();
+            checkEqual(new Integer(countLines(original)),
+                    new Integer(countLines(file.getText())),
+                    "lines in patched " + fixture);
+        }
+    }
+
+    private static int countLines(@NonNull String text) {
+        int lines = 1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') lines++;
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin;
+
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiField;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMember;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.PsiNewExpression;
+import com.intellij.psi.PsiReturnStatement;
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.benchmarks.BenchmarkProject;
+import net.kano.nully.benchmarks.RegressionCheck;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Checks that {@link MemberChangeTracker} marks only the changed member when
+ * a method body or field initializer changes, including the body of a local
+ * or anonymous class inside it, and marks the whole file when anything else
+ * changes.
+ */
+public class MemberChangeTrackerCheck extends RegressionCheck {
+    public MemberChangeTrackerCheck() {
+        super("member-change-tracker");
+    }
+
+    public void run() throws Exception {
+        BenchmarkProject project = BenchmarkProject.getInstance();
+        PsiJavaFile inner = project.loadFixture("Inner.java");
+        PsiClass innerClass = inner.getClasses()[0];
+        PsiMethod fire = getMethod(innerClass, "fire");
+        PsiMethod getComparator = getMethod(innerClass, "getComparator");
+        PsiMethod count = getMethod(
+                innerClass.findInnerClassByName("Counter", false), "count");
+
+        checkMembers(inner, fire.getBody().getStatements()[0], fire,
+                "statement in a method body");
+        checkMembers(inner, count.getBody(), count,
+                "body of an inner class method");
+
+        // the anonymous class is analyzed with the method which creates it
+        PsiReturnStatement ret = (PsiReturnStatement)
+                getComparator.getBody().getStatements()[0];
+        PsiClass anonymous = ((PsiNewExpression) ret.getReturnValue())
+                .getAnonymousClass();
+        checkMembers(inner, anonymous.getMethods()[0].getBody(), getComparator,
+                "body of an anonymous class method");
+
+        PsiJavaFile simple = project.loadFixture("Simple.java");
+        PsiField id = simple.getClasses()[0].findFieldByName("id", false);
+        checkMembers(simple, id.getInitializer(), id, "field initializer");
+
+        checkWholeFile(inner, fire.getParameterList(), "parameter list");
+        checkWholeFile(inner, fire.getModifierList(), "method modifiers");
+        checkWholeFile(inner, innerClass, "class body");
+        checkWholeFile(inner, inner, "imports");
+        checkWholeFile(simple, id, "field declaration");
+        checkWholeFile(inner, null, "unknown element");
+
+        checkSequences(inner, fire, count);
+    }
+
+    private static @NonNull PsiMethod getMethod(@NonNull PsiClass cls,
+            @NonNull String name) {
+        PsiMethod[] methods = cls.findMethodsByName(name, false);
+        check(methods.length == 1, "no method " + name + " in "
+                + cls.getName());
+        return methods[0];
+    }
+
+    private static void checkMembers(@NonNull PsiJavaFile file,
+            @NonNull PsiElement changed, @NonNull PsiMember expected,
+            @NonNull String what) {
+        MemberChangeTracker tracker = new MemberChangeTracker();
+        long since = tracker.getCurrentSequence();
+        tracker.recordChange(file, changed);
+        checkEqual(Collections.singleton(expected),
+                tracker.getChangedMembers(file, since),
+                "members changed by a change to a " + what);
+    }
+
+    private static void checkWholeFile(@NonNull PsiJavaFile file,
+            PsiElement changed, @NonNull String what) {
+        MemberChangeTracker tracker = new MemberChangeTracker();
+        long since = tracker.getCurrentSequence();
+        tracker.recordChange(file, changed);
+        checkEqual(null, tracker.getChangedMembers(file, since),
+                "members changed by a change to a " + what);
+    }
+
+    /**
+     * Checks that each client sees only the changes made after the sequence
+     * number it read, and that a whole-file change hides earlier member
+     * changes.
+     */
+    private static void checkSequences(@NonNull PsiJavaFile file,
+            @NonNull PsiMethod first, @NonNull PsiMethod second) {
+        MemberChangeTracker tracker = new MemberChangeTracker();
+        long start = tracker.getCurrentSequence();
+        checkEqual(Collections.<PsiMember>emptySet(),
+                tracker.getChangedMembers(file, start), "unchanged members");
+
+        tracker.recordChange(file, first.getBody());
+        long afterFirst = tracker.getCurrentSequence();
+        tracker.recordChange(file, second.getBody());
+
+        Set<PsiMember> both = new HashSet<PsiMember>();
+        both.add(first);
+        both.add(second);
+        checkEqual(both, tracker.getChangedMembers(file, start),
+                "members changed since the start");
+        checkEqual(Collections.singleton(second),
+                tracker.getChangedMembers(file, afterFirst),
+                "members changed since the first change");
+
+        tracker.recordChange(file, first.getParameterList());
+        long afterFile = tracker.getCurrentSequence();
+        checkEqual(null, tracker.getChangedMembers(file, afterFirst),
+                "members changed across a whole-file change");
+        checkEqual(Collections.<PsiMember>emptySet(),
+                tracker.getChangedMembers(file, afterFile),
+                "members changed since a whole-file change");
+
+        tracker.recordChange(file, second.getBody());
+        checkEqual(Collections.singleton(second),
+                tracker.getChangedMembers(file, afterFile),
+                "members changed after a whole-file change");
+    }
+}
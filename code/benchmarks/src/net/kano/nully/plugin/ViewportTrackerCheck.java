@@ -0,0 +1,108 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMethod;
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.benchmarks.BenchmarkProject;
+import net.kano.nully.benchmarks.RegressionCheck;
+
+/**
+ * Checks which members {@link ViewportTracker} treats as visible: those
+ * overlapping the last visible range of their file, and every member of a
+ * file which has not been shown.
+ */
+public class ViewportTrackerCheck extends RegressionCheck {
+    public ViewportTrackerCheck() {
+        super("viewport-tracker");
+    }
+
+    public void run() throws Exception {
+        BenchmarkProject project = BenchmarkProject.getInstance();
+        PsiJavaFile simple = project.loadFixture("Simple.java");
+        PsiJavaFile inner = project.loadFixture("Inner.java");
+        PsiClass cls = simple.getClasses()[0];
+        PsiElement field = cls.findFieldByName("name", false);
+        PsiMethod getName = getMethod(cls, "getName");
+        PsiMethod setName = getMethod(cls, "setName");
+        PsiMethod last = getMethod(cls, "getDisplayName");
+
+        ViewportTracker tracker = new ViewportTracker();
+        checkVisible(tracker, last, true, "member of a file never shown");
+
+        Document document = PsiDocumentManager.getInstance(
+                project.getProject()).getDocument(simple);
+        check(document != null, "no document for Simple.java");
+
+        tracker.setVisibleRange(document, getName.getTextRange());
+        checkVisible(tracker, getName, true, "member filling the viewport");
+        checkVisible(tracker, field, false, "field above the viewport");
+        checkVisible(tracker, setName, false, "method below the viewport");
+        checkVisible(tracker, last, false, "last method below the viewport");
+        checkVisible(tracker, getMethod(inner.getClasses()[0], "fire"), true,
+                "member of another file never shown");
+
+        // a method partly scrolled into view is visible
+        TextRange setNameRange = setName.getTextRange();
+        tracker.setVisibleRange(document, new TextRange(
+                getName.getTextRange().getStartOffset(),
+                setNameRange.getStartOffset() + 1));
+        checkVisible(tracker, setName, true, "method partly in the viewport");
+        tracker.setVisibleRange(document, new TextRange(
+                setNameRange.getEndOffset() - 1, document.getTextLength()));
+        checkVisible(tracker, setName, true, "method partly in the viewport");
+        checkVisible(tracker, getName, false, "method above the viewport");
+        checkVisible(tracker, last, true, "method in the viewport");
+    }
+
+    private static @NonNull PsiMethod getMethod(@NonNull PsiClass cls,
+            @NonNull String name) {
+        PsiMethod[] methods = cls.findMethodsByName(name, false);
+        check(methods.length == 1, "no method " + name + " in "
+                + cls.getName());
+        return methods[0];
+    }
+
+    private static void checkVisible(@NonNull ViewportTracker tracker,
+            @NonNull PsiElement el, boolean visible, @NonNull String what) {
+        checkEqual(Boolean.valueOf(visible),
+                Boolean.valueOf(tracker.isVisible(el)), "visibility of " + what);
+    }
+}
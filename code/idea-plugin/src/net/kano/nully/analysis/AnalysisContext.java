@@ -63,6 +63,7 @@ public class AnalysisContext {
     private CodeAnalyzer analyzer;
     private EnumSet<NullCheckLevel> checkLevels = EnumSet.noneOf(NullCheckLevel.class);
     private NullInspectorOptions options = new NullInspectorOptions();
+    private boolean translatingOriginal = false;
 
 //    public OffsetsTracker getTracker() {
 //        return tracker;
@@ -121,18 +122,47 @@ public class AnalysisContext {
         return copyKey;
     }
 
+    /**
+     * Returns whether Soot is given the original file rather than a marked
+     * copy. In this case, the "copy" of each element in the file is the element
+     * itself, and elements outside the file have no original, just as they
+     * would have none if the file had been copied.
+     *
+     * @return whether the original file is being translated
+     */
+    public boolean isTranslatingOriginal() { return translatingOriginal; }
+
+    /**
+     * Makes the given file both the original and the copied file, so it can be
+     * translated without being copied.
+     *
+     * @param file the file to translate
+     */
+    public void setTranslatingOriginal(PsiJavaFile file) {
+        fileOrig = file;
+        fileCopy = file;
+        translatingOriginal = true;
+    }
+
     public <E extends PsiElement> E getOriginalElement(@NonNull E argel) {
+        if (translatingOriginal) return isInFile(argel) ? argel : null;
         return (E) argel.getCopyableUserData(getOriginalKey());
     }
 
     public <E extends PsiElement> E getCopiedElement(@NonNull E el) {
+        if (translatingOriginal) return isInFile(el) ? el : null;
         return (E) el.getCopyableUserData(getCopyKey());
     }
 
     public void clearCopiedElementData(PsiElement el) {
+        if (translatingOriginal) return;
         el.putCopyableUserData(getCopyKey(), null);
     }
 
+    private boolean isInFile(@NonNull PsiElement el) {
+        return el.getContainingFile() == fileOrig;
+    }
+
     public void setPreparer(PreparerForSoot preparer) {
         this.preparer = preparer;
     }
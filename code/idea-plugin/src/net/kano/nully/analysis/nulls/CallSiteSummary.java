@@ -1,23 +1,3 @@
-/*
- * Copyright (C) 2000 Janus
- *
- * This library is free software; you can redistribute it and/or
- * modify it under the terms of the GNU Lesser General Public
- * License as published by the Free Software Foundation; either
- * version 2.1 of the License, or (at your option) any later version.
- *
- * This library is distributed in the hope that it will be useful,
- * but WITHOUT ANY WARRANTY; without even the implied warranty of
- * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
- * Lesser General Public License for more details.
- *
- * You should have received a copy of the GNU Lesser General Public
- * License along with this library; if not, write to the
- * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
- * Boston, MA 02111-1307, USA.
- */
-
-
 /*
  *  Copyright (c) 2005, Keith Lea
  *  All rights reserved.
@@ -53,33 +33,42 @@
 
 package net.kano.nully.plugin.analysis.nulls;
 
-import soot.EquivalentValue;
+import com.intellij.psi.PsiElement;
+import net.kano.nully.annotations.NonNull;
 
-public class NullableStatus {
-    private EquivalentValue _ref;
-    private int _val;
+import java.util.HashSet;
+import java.util.Set;
 
-    // constructor is not public so that people go throught the ref pair constants factory on the analysis
-    public NullableStatus(EquivalentValue r, int v) {
-        if (v != NullableAnalysis.K_NULLABLE && v != NullableAnalysis.K_EMPTY) {
-            throw new IllegalArgumentException("invalid value " + v);
-        }
-        this._ref = r;
-        this._val = v;
-    }
-
-    public EquivalentValue ref() { return this._ref; }
-
-    public int val() { return this._val; }
+/**
+ * Records which arguments passed to {@code @NonNull} parameters in a file were
+ * proven by the null analysis never to be null. An argument is only proven if
+ * the analysis saw it, and found it non-null, every time the call appears in
+ * the compiled code; a call which is compiled more than once, such as one in a
+ * {@code finally} block, must be non-null in every copy.
+ * <br /><br />
+ * Arguments are recorded as elements of the original file.
+ */
+public class CallSiteSummary {
+    private final Set<PsiElement> proven = new HashSet<PsiElement>();
+    private final Set<PsiElement> unproven = new HashSet<PsiElement>();
 
-    public String toString() {
-        String prefix = "(" + _ref + ", ";
-        if (_val == NullableAnalysis.K_NULLABLE) {
-            return prefix + "nullable)";
-        } else if (_val == NullableAnalysis.K_EMPTY) {
-            return prefix + "empty)";
+    synchronized void addArgument(@NonNull PsiElement argument,
+            boolean provenNonNull) {
+        if (provenNonNull) {
+            proven.add(argument);
         } else {
-            return prefix + _val + ")";
+            unproven.add(argument);
         }
     }
-} // end class RefIntPair
+
+    /**
+     * Returns whether the given argument to a {@code @NonNull} parameter was
+     * proven never to be null.
+     *
+     * @param argument an argument expression in the original file
+     * @return whether the argument is always non-null
+     */
+    public synchronized boolean isProvenNonNull(@NonNull PsiElement argument) {
+        return proven.contains(argument) && !unproven.contains(argument);
+    }
+}
@@ -43,10 +43,10 @@ import net.kano.nully.annotations.NonNullTools;
 import net.kano.nully.annotations.NullParameterException;
 import net.kano.nully.annotations.NullReturnException;
 import net.kano.nully.annotations.UnexpectedNullValueException;
+import net.kano.nully.plugin.NullyRelevanceIndex;
 import net.kano.nully.plugin.PsiTools;
 import net.kano.nully.plugin.analysis.AnalysisContext;
 import net.kano.nully.plugin.analysis.nulls.soot.JimpleMethodPreprocessor;
-import net.kano.nully.plugin.analysis.nulls.soot.NullPointerTagger;
 import net.kano.nully.plugin.psiToJimple.InitialResolver;
 import net.kano.nully.plugin.psiToJimple.Util;
 import soot.Body;
@@ -55,7 +55,6 @@ import soot.ClassSource;
 import soot.Scene;
 import soot.SootClass;
 import soot.SootMethod;
-import soot.SootResolver;
 import soot.SourceLocator;
 import soot.Type;
 import soot.options.Options;
@@ -73,46 +72,54 @@ public class CodeAnalyzer {
     public void analyze(AnalysisContext context) {
         this.context = context;
 
-        prepareSootClasses();
+        PsiJavaFile fileOrig = context.getFileOrig();
+        if (fileOrig != null && !NullyRelevanceIndex.getInstance()
+                .mayDereferenceNull(fileOrig)) {
+            // nothing in the file can cause a null problem, so there's no need
+            // to run Soot at all
+            context.setSootClasses(Collections.<SootClass>emptyList());
+            return;
+        }
+
+        WarmSootScene scene = WarmSootScene.getInstance();
+        try {
+            long start = System.currentTimeMillis();
+            prepareSootClasses();
 
-        loadSootClasses();
+            loadSootClasses();
+            scene.finishLoading(System.currentTimeMillis() - start);
 
-        storeSootObjects();
+            storeSootObjects();
 
-        prepareCodeForAnalysis();
+            prepareCodeForAnalysis();
 
-        JimpleMethodPreprocessor preprocessor = new JimpleMethodPreprocessor(context);
-        preprocessor.preprocessCode();
+            JimpleMethodPreprocessor preprocessor = new JimpleMethodPreprocessor(context);
+            preprocessor.preprocessCode();
 
-        addAnalysisTags();
+            addAnalysisTags();
+        } catch (RuntimeException e) {
+            scene.invalidate();
+            throw e;
+        }
     }
 
+    /**
+     * Empties Soot's scene completely, including any classes kept warm for
+     * later analyses.
+     */
     public void resetSoot() {
-        // we don't use Soot's InitialResolver anymore
-//        InitialResolver ir = InitialResolver.v();
-//        ir.clearCallList();
-//        ir.clearAsts();
-        Scene scene = Scene.v();
-        scene.getClassNumberer().clear();
-        scene.getMethodNumberer().clear();
-//        System.out.println("method numberer size: "
-//         + scene.getMethodNumberer().size() + ", next: " + scene.getMethodNumberer().iterator().hasNext());
-        scene.getFieldNumberer().clear();
-        scene.getLocalNumberer().clear();
-        scene.getSubSigNumberer().clear();
-        scene.getTypeNumberer().clear();
-//        scene.getContextNumberer().clear();
-        scene.getUnitNumberer().clear();
-
-        scene.getPhantomClasses().clear();
-        scene.getLibraryClasses().clear();
-        scene.getApplicationClasses().clear();
-        SourceLocator.v().setClassProviders(Collections.EMPTY_LIST);
-        SootResolver.v().clear();
+        WarmSootScene.getInstance().resetCompletely();
         context = null;
+    }
 
-        List<SootClass> scs = new ArrayList<SootClass>(scene.getClasses());
-        for (SootClass sc : scs) scene.removeClass(sc);
+    /**
+     * Removes the analyzed file's classes from Soot's scene. Unless warm
+     * scenes are disabled, the phantom classes they referred to are kept for
+     * the next analysis; see {@link WarmSootScene}.
+     */
+    public void releaseSoot() {
+        WarmSootScene.getInstance().release();
+        context = null;
     }
 
     private void prepareCodeForAnalysis() {
@@ -194,15 +201,14 @@ public class CodeAnalyzer {
     private void prepareSootClasses() {
         final PsiJavaFile fileCopy = context.getFileCopy();
 
-        // tell Soot where to find the code
         provider = new PsiClassProvider(fileCopy);
-        SourceLocator.v().setClassProviders(Collections.singletonList(provider));
 
-        // clean out Soot from previous runs
+        // clean out Soot from previous runs, keeping the phantom classes
+        WarmSootScene.getInstance().prepare(provider.getNames());
+
+        // tell Soot where to find the code
+        SourceLocator.v().setClassProviders(Collections.singletonList(provider));
         Scene scene = Scene.v();
-        List<SootClass> scs = new ArrayList<SootClass>(scene.getClasses());
-        for (SootClass sc : scs) scene.removeClass(sc);
-        scene.getPhantomClasses().clear();
 
         // add the classes we're scanning to Soot's list
         for (String name : provider.getNames()) {
@@ -248,13 +254,11 @@ public class CodeAnalyzer {
     }
 
     private void addAnalysisTags() {
-        NullPointerTagger checker = new NullPointerTagger();
-        NullableTagger nullableTagger = new NullableTagger(context);
+        NullAnalysisTagger tagger = new NullAnalysisTagger(context);
         Scene.v().setPhantomRefs(true);
         for (SootMethod method : context.getSootMethods()) {
             Body body = method.retrieveActiveBody();
-            checker.transform(body);
-            nullableTagger.transform(body);
+            tagger.transform(body);
         }
     }
 
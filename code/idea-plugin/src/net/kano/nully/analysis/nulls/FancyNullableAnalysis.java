@@ -34,42 +34,73 @@
 
 package net.kano.nully.plugin.analysis.nulls;
 
+import net.kano.nully.plugin.NullyTools;
+import net.kano.nully.plugin.analysis.AnalysisContext;
 import soot.ArrayType;
 import soot.EquivalentValue;
 import soot.Local;
 import soot.NullType;
 import soot.RefType;
+import soot.Trap;
 import soot.Type;
 import soot.Unit;
+import soot.UnitBox;
 import soot.Value;
 import soot.ValueBox;
+import soot.jimple.ArrayRef;
 import soot.jimple.AssignStmt;
 import soot.jimple.BinopExpr;
 import soot.jimple.CastExpr;
+import soot.jimple.CaughtExceptionRef;
 import soot.jimple.DefinitionStmt;
 import soot.jimple.EqExpr;
 import soot.jimple.IfStmt;
 import soot.jimple.InstanceFieldRef;
+import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.LengthExpr;
+import soot.jimple.MonitorStmt;
 import soot.jimple.NeExpr;
+import soot.jimple.NewArrayExpr;
+import soot.jimple.NewExpr;
+import soot.jimple.NewMultiArrayExpr;
 import soot.jimple.NullConstant;
 import soot.jimple.StaticFieldRef;
 import soot.jimple.Stmt;
+import soot.jimple.StringConstant;
+import soot.jimple.ThisRef;
+import soot.jimple.ThrowStmt;
 import soot.toolkits.graph.UnitGraph;
-import soot.toolkits.scalar.ArrayFlowUniverse;
-import soot.toolkits.scalar.ArrayPackedSet;
-import soot.toolkits.scalar.FlowSet;
-import soot.toolkits.scalar.FlowUniverse;
-import soot.toolkits.scalar.ForwardBranchedFlowAnalysis;
+import soot.util.Chain;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-
-
-public class FancyNullableAnalysis  extends ForwardBranchedFlowAnalysis
+import java.util.Set;
+
+/**
+ * A branched null analysis of reference variables, like Soot's
+ * {@code BranchedRefVarsAnalysis}. Each analyzed reference is numbered once,
+ * and flow values are {@link PackedRefStateSet}s which hold each reference's
+ * state in two bits.
+ * <br /><br />
+ * If an analysis context is given, the analysis also tracks which locals may
+ * hold the value of a {@code @Nullable} reference. The product of the two lattices is stored in the
+ * same flow sets: the nullable bit of the local at index {@code i} is stored
+ * at index {@code i + refTypeValues.size()}.
+ * <br /><br />
+ * Values flow along the same edges as in Soot's {@code
+ * ForwardBranchedFlowAnalysis}: from a unit to the unit after it if it falls
+ * through, and to each of its branch targets, with trap handlers treated as
+ * entries. The analysis is solved with a worklist which always visits the
+ * pending unit which comes first in reverse postorder, so in acyclic code each
+ * unit is visited once. The flow sets of every unit are allocated once, before
+ * solving, and are updated in place, so solving allocates nothing.
+ */
+public class FancyNullableAnalysis
 {
     /*
         COMPILATION OPTIONS
@@ -107,28 +138,41 @@ public class FancyNullableAnalysis  extends ForwardBranchedFlowAnalysis
 */
 
     // constants for the analysis
-    public final static int kBottom = 0;
-    public final static int kNull = 1;
-    public final static int kNonNull = 2;
+    public final static int kBottom = PackedRefStateSet.BOTTOM;
+    public final static int kNull = PackedRefStateSet.NULL;
+    public final static int kNonNull = PackedRefStateSet.NON_NULL;
     public final static int kTop = 99;
 
+    // returned by refIndex for values which are not analyzed
+    private static final int kNotAnalyzed = -1;
+
+    private static final int[] NO_INDICES = new int[0];
+
+    // the analyzed graph
+    protected final UnitGraph graph;
+
+    // the context used to find @Nullable references, or null if nullable
+    // origins are not tracked
+    private final AnalysisContext context;
+
+    // the index of the first nullable bit in the flow sets
+    private int nullableOffset;
+
+    // the nullable origin assignment made by each unit, if any
+    private Map<Unit,NullableAssignment> unitToNullableAssignment;
+
 
     // bottom and top sets
-    protected FlowSet emptySet;
-    protected FlowSet fullSet;
+    protected PackedRefStateSet emptySet;
+    protected PackedRefStateSet fullSet;
 
+    // the preserve set of a statement which kills nothing
+    private PackedRefStateSet preserveAllSet;
 
-    // gen and preserve sets (for each statement)
-    protected Map<Unit,FlowSet> unitToGenerateSet;
-    protected Map<Unit,FlowSet> unitToPreserveSet;
 
-    
-    // sets of variables that need a null pointer check (for each statement)
-    protected Map<Unit,HashSet<Value>> unitToAnalyzedChecksSet;
-    protected Map<Unit,HashSet<Value>> unitToArrayRefChecksSet;
-    protected Map<Unit,HashSet<Value>> unitToInstanceFieldRefChecksSet;
-    protected Map<Unit,HashSet<Value>> unitToInstanceInvokeExprChecksSet;
-    protected Map<Unit,HashSet<Value>> unitToLengthExprChecksSet;
+    // gen and preserve sets (for each statement)
+    protected Map<Unit,PackedRefStateSet> unitToGenerateSet;
+    protected Map<Unit,PackedRefStateSet> unitToPreserveSet;
 
 
     // keep track of the different kinds of reference types this analysis is working on
@@ -139,57 +183,49 @@ public class FancyNullableAnalysis  extends ForwardBranchedFlowAnalysis
     protected List<EquivalentValue> refTypeValues; // sum of all the above
 
 
-    // used in flowThrough.
-    protected FlowSet tempFlowSet = null;
+    // units, in reverse postorder of the flow edges
+    private Unit[] units;
+    private final Map<Unit,Integer> unitIndices = new HashMap<Unit, Integer>();
+    // the flow edges into each unit, as (pred << 1) for the predecessor's
+    // fall through value, or (pred << 1) | 1 for its branch value
+    private int[][] incoming;
+    private int[][] succs;
+    // whether each unit is a head or a trap handler
+    private boolean[] isEntry;
+
+    // the flow sets of each unit, allocated once
+    private PackedRefStateSet[] before;
+    private PackedRefStateSet[] fallAfter;
+    private PackedRefStateSet[] branchAfter;
+
+    private int visits = 0;
+    private int maxUnitVisits = 0;
 
-    // fast conversion from Value -> EquivalentValue
-    //  because used in  methods
-    private  HashMap<Value,EquivalentValue> valueToEquivValue = new HashMap<Value, EquivalentValue>(2293, 0.7f);
+    // each analyzed reference's index into the flow sets. equivalent values
+    // share an index
+    private Map<EquivalentValue,Integer> equivValueToIndex;
 
-    public  EquivalentValue getEquivalentValue(Value v)
+    // fast conversion from Value -> index, since Values use identity equality
+    private final Map<Value,Integer> valueToIndex = new HashMap<Value, Integer>();
+
+    // returns the index of the given reference in the flow sets, or
+    // kNotAnalyzed if it's not one of the analyzed references
+    private int refIndex(Value v)
     {
-        if (valueToEquivValue.containsKey(v)) {
-            return valueToEquivValue.get(v);
-        } else {
-            EquivalentValue ev = new EquivalentValue(v);
-            valueToEquivValue.put(v, ev);
-            return ev;
-        }
-    } // end getEquivalentValue
-    
-    // constant (r, v) pairs
-    //  because used in  methods
-    private  HashMap<EquivalentValue,NullableStatus> kRefBotttomPairs = new HashMap<EquivalentValue, NullableStatus>(2293, 0.7f);
-    private  HashMap<EquivalentValue,NullableStatus> kRefNonNullPairs = new HashMap<EquivalentValue, NullableStatus>(2293, 0.7f);
-    private  HashMap<EquivalentValue,NullableStatus> kRefNullPairs = new HashMap<EquivalentValue, NullableStatus>(2293, 0.7f);
-    private  HashMap<EquivalentValue,NullableStatus> kRefTopPairs = new HashMap<EquivalentValue, NullableStatus>(2293, 0.7f);
-
-    // make that (r, v) pairs are constants
-    // i.e. the same r and v values always generate the same (r, v) object    
-    public  NullableStatus getKRefIntPair(EquivalentValue r, int v)
-    {
-        HashMap<EquivalentValue,NullableStatus> pairsMap = null;
-
-        if (v == kNonNull) {
-            pairsMap = kRefNonNullPairs;
-        } else if (v == kNull) {
-            pairsMap = kRefNullPairs;
-        } else if (v == kTop) {
-            pairsMap = kRefTopPairs;
-        } else if (v == kBottom) {
-            pairsMap = kRefBotttomPairs;
-        } else {
-            throw new RuntimeException("invalid constant (" + v + ")");
+        Integer index = valueToIndex.get(v);
+        if (index == null) {
+            index = equivValueToIndex.get(new EquivalentValue(v));
+            if (index == null) index = kNotAnalyzed;
+            valueToIndex.put(v, index);
         }
+        return index;
+    } // end refIndex
 
-        if (pairsMap.containsKey(r)) {
-            return pairsMap.get(r);
-        } else {
-            NullableStatus pair = new NullableStatus(r, v);
-            pairsMap.put(r, pair);
-            return pair;
-        }
-    } // end getKRefIntPair
+    private int refIndex(EquivalentValue r)
+    {
+        Integer index = equivValueToIndex.get(r);
+        return index == null ? kNotAnalyzed : index;
+    } // end refIndex
 
     /*
         Utility methods.
@@ -219,8 +255,15 @@ public class FancyNullableAnalysis  extends ForwardBranchedFlowAnalysis
         }
     } // end isAlwaysTop
 
+    // isAlwaysNonNull returns true if the value ro is known to be non-null,
+    // like a new object or "this"
     protected boolean isAlwaysNonNull(Value ro) {
-        return false;
+        return ro instanceof NewExpr
+                || ro instanceof NewArrayExpr
+                || ro instanceof NewMultiArrayExpr
+                || ro instanceof ThisRef
+                || ro instanceof CaughtExceptionRef
+                || ro instanceof StringConstant;
     }
 
 
@@ -244,31 +287,43 @@ public class FancyNullableAnalysis  extends ForwardBranchedFlowAnalysis
 
     // refInfo is a helper method to tranform our two bit representation back to the four constants
     // For a given reference and a flow set, tell us if r is bottom, top, null or non-null
-    // Note: this method will fail if r is not in the flow set
-    protected  final int refInfo(EquivalentValue r, FlowSet fs)
+    // References which are not in the flow set are bottom
+    private  final int refInfo(int index, PackedRefStateSet fs)
     {
-        boolean isNull = fs.contains(getKRefIntPair(r, kNull));
-        boolean isNonNull = fs.contains(getKRefIntPair(r, kNonNull));
+        if (index == kNotAnalyzed) return kBottom;
 
-        if (isNull && isNonNull) {
-            return kTop;
-        } else if (isNull) {
-            return kNull;
-        } else if (isNonNull) {
-            return kNonNull;
-        } else {
-            return kBottom;
-        }
+        int state = fs.get(index);
+        return state == PackedRefStateSet.TOP ? kTop : state;
     } // end refInfo
 
-    protected  final int refInfo(Value r, FlowSet fs)
+    protected  final int refInfo(Value r, PackedRefStateSet fs)
     {
-        return refInfo(getEquivalentValue(r), fs);
+        return refInfo(refIndex(r), fs);
     } // end refInfo
+
+    // returns true if r is a local which may hold the value of a @Nullable
+    // reference, according to the given flow set. always false if nullable
+    // origins are not tracked
+    public boolean isNullable(Value r, PackedRefStateSet fs)
+    {
+        int index = nullableIndex(refIndex(r));
+        return index != kNotAnalyzed && fs.get(index) != kBottom;
+    } // end isNullable
+
+    // returns the index of the nullable bit of the reference at the given
+    // index, or kNotAnalyzed if the reference's nullable origin isn't tracked
+    private int nullableIndex(int index)
+    {
+        if (context == null || index == kNotAnalyzed
+                || index >= refTypeLocals.size()) {
+            return kNotAnalyzed;
+        }
+        return nullableOffset + index;
+    } // end nullableIndex
     
     // Like refInfo, but the reference doesn't have to be in the flow set
     // note: it still need to be a reference, i.e. ArrayType or RefType
-    public int anyRefInfo(Value r, FlowSet f)
+    public int anyRefInfo(Value r, PackedRefStateSet f)
     {
         if (isAlwaysNull(r)) {
             return kNull;
@@ -287,51 +342,37 @@ public class FancyNullableAnalysis  extends ForwardBranchedFlowAnalysis
                 uAddInfoToFlowSet
                 uListAddTopToFlowSet
 
-       Adding a pair (r, v) to a set is always a two steps process:
-       a) remove all pairs (r, *)
-       b) add the pair (r, v)
-       
-       The methods above handle that.
-
-       Most of them come in two flavors: to act on one set or two act on separate
-       generate and preserve sets.
+       Adding a pair (r, v) to a set replaces r's two bits, so it is a single
+       step. When acting on separate generate and preserve sets, r's bits
+       are also cleared from the preserve set, so they are killed.
 
     */
 
     // method to add (r, kTop) to the gen set (and remove it from the pre set)
-    private  final void uAddTopToFlowSet(EquivalentValue r, FlowSet genFS, FlowSet preFS)
+    private  final void uAddTopToFlowSet(int r, PackedRefStateSet genFS, PackedRefStateSet preFS)
     {
-        NullableStatus nullPair = getKRefIntPair(r, kNull);
-        NullableStatus nullNonPair = getKRefIntPair(r, kNonNull);
-        
+        if (r == kNotAnalyzed) return;
+
         if (genFS != preFS) {
-            preFS.remove(nullPair, preFS);
-            preFS.remove(nullNonPair, preFS);
+            preFS.set(r, PackedRefStateSet.BOTTOM);
         }
         
-        genFS.add(nullPair, genFS);
-        genFS.add(nullNonPair, genFS);
+        genFS.set(r, PackedRefStateSet.TOP);
     } // end uAddTopToFlowSet
     
-    private  final void uAddTopToFlowSet(Value r, FlowSet genFS, FlowSet preFS)
+    private  final void uAddTopToFlowSet(Value r, PackedRefStateSet genFS, PackedRefStateSet preFS)
     {
-        uAddTopToFlowSet(getEquivalentValue(r), genFS, preFS);
+        uAddTopToFlowSet(refIndex(r), genFS, preFS);
     } // end uAddTopToFlowSet
 
     // method to add (r, kTop) to a set
-    private  final void uAddTopToFlowSet(Value r, FlowSet fs)
-    {
-        uAddTopToFlowSet(getEquivalentValue(r), fs, fs);
-    } // end uAddTopToFlowSet
-    
-    // method to add (r, kTop) to a set
-    private  final void uAddTopToFlowSet(EquivalentValue r, FlowSet fs)
+    private  final void uAddTopToFlowSet(Value r, PackedRefStateSet fs)
     {
-        uAddTopToFlowSet(r, fs, fs);
+        uAddTopToFlowSet(refIndex(r), fs, fs);
     } // end uAddTopToFlowSet
 
     // method to add (r, kNonNull) or (r, kNull) to the gen set (and remove it from the pre set)
-    private  final void uAddInfoToFlowSet(EquivalentValue r, int v, FlowSet genFS, FlowSet preFS)
+    private  final void uAddInfoToFlowSet(int r, int v, PackedRefStateSet genFS, PackedRefStateSet preFS)
     {
         int kill;
         if (v == kNull) {
@@ -341,42 +382,51 @@ public class FancyNullableAnalysis  extends ForwardBranchedFlowAnalysis
         } else {
             throw new RuntimeException("invalid info");
         }
+        if (r == kNotAnalyzed) return;
         
         if (genFS != preFS) {
-            preFS.remove(getKRefIntPair(r, kill), preFS);
+            preFS.set(r, preFS.get(r) & ~kill);
         }
         
-        genFS.remove(getKRefIntPair(r, kill), genFS);
-        genFS.add(getKRefIntPair(r, v), genFS);
+        genFS.set(r, (genFS.get(r) & ~kill) | v);
     } // end uAddInfoToFlowSet
 
-    private  final void uAddInfoToFlowSet(Value r, int v, FlowSet genF, FlowSet preF)
+    private  final void uAddInfoToFlowSet(Value r, int v, PackedRefStateSet genF, PackedRefStateSet preF)
     {
-        uAddInfoToFlowSet(getEquivalentValue(r), v, genF, preF);
+        uAddInfoToFlowSet(refIndex(r), v, genF, preF);
     } // end uAddInfoToFlowSet
 
     // method to add (r, kNonNull) or (r, kNull) to a set
-    private  final void uAddInfoToFlowSet(Value r, int v, FlowSet fs)
+    private  final void uAddInfoToFlowSet(Value r, int v, PackedRefStateSet fs)
     {
-        uAddInfoToFlowSet(getEquivalentValue(r), v, fs, fs);
+        uAddInfoToFlowSet(refIndex(r), v, fs, fs);
     } // end uAddInfoToFlowSet
 
-    // method to add (r, kNonNull) or (r, kNull) to a set
-    private  final void uAddInfoToFlowSet(EquivalentValue r, int v, FlowSet fs)
+
+    // method to apply uAddTopToFlowSet to a whole list of references
+    private  final void uListAddTopToFlowSet(List<EquivalentValue> refs, PackedRefStateSet genFS, PackedRefStateSet preFS)
     {
-        uAddInfoToFlowSet(r, v, fs, fs);
-    } // end uAddInfoToFlowSet
+        for (EquivalentValue ref : refs) {
+            uAddTopToFlowSet(refIndex(ref), genFS, preFS);
+        }
+    } // end uListAddTopToFlowSet
 
 
-    // method to apply uAddTopToFlowSet to a whole list of references
-    private  final void uListAddTopToFlowSet(List<EquivalentValue> refs, FlowSet genFS, FlowSet preFS)
+    // method to add (base, kNonNull) to the gen set (and remove it from the
+    // pre set) when base is dereferenced by s. if s also assigns base, as
+    // in "x = x.next", the assigned value is what's left in base, so the
+    // dereference tells us nothing
+    private  final void uAddDerefToFlowSet(Unit s, Value base, PackedRefStateSet genFS, PackedRefStateSet preFS)
     {
-        Iterator<EquivalentValue> it = refs.iterator();
+        if (!isAnalyzedRef(base)) return;
 
-        while (it.hasNext()) {
-            uAddTopToFlowSet(it.next(), genFS, preFS);
+        Iterator boxIt = s.getDefBoxes().iterator();
+        while (boxIt.hasNext()) {
+            if (((ValueBox) boxIt.next()).getValue() == base) return;
         }
-    } // end uListAddTopToFlowSet
+
+        uAddInfoToFlowSet(base, kNonNull, genFS, preFS);
+    } // end uAddDerefToFlowSet
 
 
     /********** end of utility methods *********/
@@ -386,22 +436,32 @@ public class FancyNullableAnalysis  extends ForwardBranchedFlowAnalysis
     // initialize the object and run the analysis
     public FancyNullableAnalysis (UnitGraph g)
     {
-        super(g);
+        this(null, g);
+    } // end constructor
+
+    // like the constructor above, but also tracks nullable origins if
+    // context is not null
+    public FancyNullableAnalysis (AnalysisContext context, UnitGraph g)
+    {
+        this.graph = g;
+        this.context = context;
 
         // initialize all the refType lists
         initRefTypeLists();
         
-        // initialize emptySet, fullSet and tempFlowSet
+        // number the references, and initialize emptySet and fullSet
         initUniverseSets();
         
         // initialize unitTo...Sets
         // perform  preservation and generation
         initUnitSets();
+
+        // number the units and find the flow edges between them
+        initUnitOrder();
         
-        doAnalysis();
+        solve();
     } // end constructor
 
-
     // method to initialize refTypeLocals, refTypeInstFields, refTypeInstFieldBases
     // refTypeStaticFields, and refTypeValues
     // those lists contains fields that can/need to be analyzed
@@ -414,14 +474,14 @@ public class FancyNullableAnalysis  extends ForwardBranchedFlowAnalysis
         refTypeValues = new ArrayList<EquivalentValue>();
 
         // build list of locals
-        Iterator it = ((UnitGraph)graph).getBody().getLocals().iterator();
+        Iterator it = graph.getBody().getLocals().iterator();
         
         while (it.hasNext()) {
             Local l = (Local) (it.next());
             
             if (l.getType() instanceof RefType ||
                 l.getType() instanceof ArrayType) {
-                refTypeLocals.add(getEquivalentValue(l));
+                refTypeLocals.add(new EquivalentValue(l));
             }
         }
         
@@ -464,12 +524,12 @@ public class FancyNullableAnalysis  extends ForwardBranchedFlowAnalysis
             if (opType instanceof RefType ||
                 opType instanceof ArrayType) {
                 
-                EquivalentValue eir = getEquivalentValue(ir); 
+                EquivalentValue eir = new EquivalentValue(ir);
                 
                 if (!refTypeInstFields.contains(eir)) {
                     refTypeInstFields.add(eir);
 
-                    EquivalentValue eirbase = getEquivalentValue(ir.getBase());
+                    EquivalentValue eirbase = new EquivalentValue(ir.getBase());
                     if (!refTypeInstFieldBases.contains(eirbase)) {
                         refTypeInstFieldBases.add(eirbase);
                     }
@@ -484,7 +544,7 @@ public class FancyNullableAnalysis  extends ForwardBranchedFlowAnalysis
             if (opType instanceof RefType ||
                 opType instanceof ArrayType) {
                 
-                EquivalentValue esr = getEquivalentValue(sr);
+                EquivalentValue esr = new EquivalentValue(sr);
 
                 if (!refTypeStaticFields.contains(esr)) {
                     refTypeStaticFields.add(esr);
@@ -492,36 +552,28 @@ public class FancyNullableAnalysis  extends ForwardBranchedFlowAnalysis
             }
         }
     }
-    // method to initialize the emptySet, fullSet and tempFlowSet
-    // from the refTypeValues
+    // method to number the references in refTypeValues, and initialize the
+    // emptySet and fullSet
     private void initUniverseSets()
     {
-        FlowUniverse localUniverse;
-        
-        Object[] refTypeValuesArray = refTypeValues.toArray();
-        int len = refTypeValuesArray.length;
-        Object[] universeArray = new Object[2*len];
-        int i;
-        
-        // kRefIntPairs = new HashMap(len*2 + 1, 0.7f);
-        // ideally we would like to be able to do the above to avoid that Map growth
-        // but that would screw concurent execution of this analysis
-        // and making that field non- would require changing our  utility methods to non-
-        
-        for (i = 0; i < len; i++) {
-            int j = i*2;
-            EquivalentValue  r = (EquivalentValue) refTypeValuesArray[i];
-            universeArray[j] = getKRefIntPair(r, kNull);
-            universeArray[j+1] = getKRefIntPair(r,  kNonNull);
+        int len = refTypeValues.size();
+        equivValueToIndex = new HashMap<EquivalentValue, Integer>(len * 2 + 1);
+        for (int i = 0; i < len; i++) {
+            equivValueToIndex.put(refTypeValues.get(i), i);
         }
-        
-        localUniverse = new ArrayFlowUniverse(universeArray);
-        
-        emptySet = new ArrayPackedSet(localUniverse);   
-        fullSet = (FlowSet) emptySet.clone();
-        ((ArrayPackedSet) emptySet).complement(fullSet);
-        
-        tempFlowSet = (FlowSet) newInitialFlow();
+
+        // the nullable bits of the locals follow the null states of all
+        // of the references
+        nullableOffset = len;
+        int size = len;
+        if (context != null) size += refTypeLocals.size();
+
+        emptySet = new PackedRefStateSet(size);
+        preserveAllSet = new PackedRefStateSet(size);
+        preserveAllSet.fill(PackedRefStateSet.TOP);
+        fullSet = preserveAllSet.clone();
+        // nothing is nullable on entry
+        for (int i = len; i < size; i++) fullSet.set(i, PackedRefStateSet.BOTTOM);
     } // end initUniverseSets
     
 
@@ -531,14 +583,9 @@ public class FancyNullableAnalysis  extends ForwardBranchedFlowAnalysis
         int cap = graph.size() * 2 + 1;
         float load = 0.7f;
         
-        unitToGenerateSet = new HashMap<Unit, FlowSet>(cap, load);
-        unitToPreserveSet = new HashMap<Unit, FlowSet>(cap, load);
-        
-        unitToAnalyzedChecksSet = new HashMap<Unit, HashSet<Value>>(cap, load);
-        unitToArrayRefChecksSet = new HashMap<Unit, HashSet<Value>>(cap, load);
-        unitToInstanceFieldRefChecksSet = new HashMap<Unit, HashSet<Value>>(cap, load);
-        unitToInstanceInvokeExprChecksSet = new HashMap<Unit, HashSet<Value>>(cap, load);
-        unitToLengthExprChecksSet = new HashMap<Unit, HashSet<Value>>(cap, load);
+        unitToGenerateSet = new HashMap<Unit, PackedRefStateSet>(cap, load);
+        unitToPreserveSet = new HashMap<Unit, PackedRefStateSet>(cap, load);
+        unitToNullableAssignment = new HashMap<Unit, NullableAssignment>(cap, load);
         
         
         Iterator unitIt = graph.iterator();
@@ -547,14 +594,8 @@ public class FancyNullableAnalysis  extends ForwardBranchedFlowAnalysis
             
             Unit s = (Unit) unitIt.next();
             
-            FlowSet genSet = (FlowSet) emptySet.clone();
-            FlowSet preSet = (FlowSet) fullSet.clone();
-            
-            HashSet<Value> analyzedChecksSet = new HashSet<Value>(5,  load);
-            HashSet<Value> arrayRefChecksSet = new HashSet<Value>(5,  load);
-            HashSet<Value> instanceFieldRefChecksSet = new HashSet<Value>(5,  load);
-            HashSet<Value> instanceInvokeExprChecksSet = new HashSet<Value>(5,  load);
-            HashSet<Value> lengthExprChecksSet = new HashSet<Value>(5,  load);
+            PackedRefStateSet genSet = emptySet.clone();
+            PackedRefStateSet preSet = preserveAllSet.clone();
             
             
             // *** KILL PHASE ***
@@ -579,7 +620,7 @@ public class FancyNullableAnalysis  extends ForwardBranchedFlowAnalysis
                         InstanceFieldRef ifr = (InstanceFieldRef) eifr.getValue();
 
                         if (ifr.getBase() == lhs) {
-                            uAddTopToFlowSet(eifr, genSet, preSet);
+                            uAddTopToFlowSet(refIndex(eifr), genSet, preSet);
                         }
                     }
                 }
@@ -598,7 +639,7 @@ public class FancyNullableAnalysis  extends ForwardBranchedFlowAnalysis
                         String name = ifr.getField().getName();
 
                         if (name.equals(lhsName)) {
-                            uAddTopToFlowSet(eifr, genSet, preSet);
+                            uAddTopToFlowSet(refIndex(eifr), genSet, preSet);
                         }
                     }
                 }
@@ -615,11 +656,43 @@ public class FancyNullableAnalysis  extends ForwardBranchedFlowAnalysis
 
                     if (isAnalyzedRef(boxValue)) {
                         uAddTopToFlowSet(boxValue, genSet, preSet);
+
+                        // a local loses its nullable origin when it's assigned
+                        int nullable = nullableIndex(refIndex(boxValue));
+                        if (nullable != kNotAnalyzed) {
+                            preSet.set(nullable, PackedRefStateSet.BOTTOM);
+                        }
                     }
                 }
             } // done killing rhs of defs
             
             // GENERATION PHASE
+
+            // a dereferenced reference is non-null after the statement, or
+            // the statement would have thrown
+            {
+                Iterator boxIt = s.getUseAndDefBoxes().iterator();
+
+                while(boxIt.hasNext()) {
+                    Value boxValue = ((ValueBox) boxIt.next()).getValue();
+
+                    if (boxValue instanceof InstanceFieldRef) {
+                        uAddDerefToFlowSet(s, ((InstanceFieldRef) boxValue).getBase(), genSet, preSet);
+                    } else if (boxValue instanceof ArrayRef) {
+                        uAddDerefToFlowSet(s, ((ArrayRef) boxValue).getBase(), genSet, preSet);
+                    } else if (boxValue instanceof InstanceInvokeExpr) {
+                        uAddDerefToFlowSet(s, ((InstanceInvokeExpr) boxValue).getBase(), genSet, preSet);
+                    } else if (boxValue instanceof LengthExpr) {
+                        uAddDerefToFlowSet(s, ((LengthExpr) boxValue).getOp(), genSet, preSet);
+                    }
+                }
+
+                if (s instanceof ThrowStmt) {
+                    uAddDerefToFlowSet(s, ((ThrowStmt) s).getOp(), genSet, preSet);
+                } else if (s instanceof MonitorStmt) {
+                    uAddDerefToFlowSet(s, ((MonitorStmt) s).getOp(), genSet, preSet);
+                }
+            } // done with dereferences
             
             if (s instanceof DefinitionStmt) {
                 DefinitionStmt as = (DefinitionStmt) s;
@@ -642,29 +715,192 @@ public class FancyNullableAnalysis  extends ForwardBranchedFlowAnalysis
                 }
             } // end DefinitionStmt gen case
 
+            if (context != null && s instanceof AssignStmt) {
+                initNullableAssignment((AssignStmt) s);
+            }
+
             unitToGenerateSet.put(s, genSet);
             unitToPreserveSet.put(s, preSet);
-            
-            unitToAnalyzedChecksSet.put(s, analyzedChecksSet);
-            unitToArrayRefChecksSet.put(s, arrayRefChecksSet);
-            unitToInstanceFieldRefChecksSet.put(s, instanceFieldRefChecksSet);
-            unitToInstanceInvokeExprChecksSet.put(s, instanceInvokeExprChecksSet);
-            unitToLengthExprChecksSet.put(s, lengthExprChecksSet);
         }
     } // initUnitSets
     
-    protected void flowThrough(Object inValue, Unit stmt, List outFallValue, List outBranchValues)
+    // records the nullable origin assignment made by the given statement, if
+    // its left side is a tracked local. the PSI is only consulted here, once
+    // per statement
+    private void initNullableAssignment(AssignStmt as)
     {
-        FlowSet in = (FlowSet) inValue;
-        FlowSet out = tempFlowSet;
-        FlowSet pre = unitToPreserveSet.get(stmt);
-        FlowSet gen = unitToGenerateSet.get(stmt);
+        int target = nullableIndex(refIndex(as.getLeftOp()));
+        if (target == kNotAnalyzed) return;
 
-        // Perform perservation
-        in.intersection(pre, out);
-        
-        // Perform generation
-        out.union(gen, out);
+        ValueBox rightOpBox = as.getRightOpBox();
+        Value rightOp = rightOpBox.getValue();
+
+        // take out the cast from "x = (type) y;"
+        Value source = rightOp;
+        for (int i = 0; i < 10000 && source instanceof CastExpr; i++) {
+            source = ((CastExpr) source).getOp();
+        }
+
+        boolean fromNullable = NullyTools.isNullableReference(context, rightOpBox);
+        int sourceIndex = nullableIndex(refIndex(source));
+        if (!fromNullable && sourceIndex == kNotAnalyzed) return;
+
+        unitToNullableAssignment.put(as, new NullableAssignment(target,
+                sourceIndex, fromNullable ? rightOp : null));
+    } // end initNullableAssignment
+
+    // numbers the units in reverse postorder of a depth first search from the
+    // heads along the flow edges. units it doesn't reach are numbered last
+    private void initUnitOrder()
+    {
+        Chain chain = graph.getBody().getUnits();
+        int size = graph.size();
+
+        Map<Unit,List<Unit>> flowSuccs = new HashMap<Unit, List<Unit>>(size * 2 + 1);
+        for (Iterator it = graph.iterator(); it.hasNext();) {
+            Unit s = (Unit) it.next();
+            List<Unit> targets = new ArrayList<Unit>(2);
+            if (s.fallsThrough()) {
+                Unit next = (Unit) chain.getSuccOf(s);
+                if (next != null) targets.add(next);
+            }
+            for (UnitBox box : (List<UnitBox>) s.getUnitBoxes()) {
+                targets.add(box.getUnit());
+            }
+            flowSuccs.put(s, targets);
+        }
+
+        // try to workaround exception limitation of the branched flow
+        // analysis: trap handlers are entries. this will make for a very
+        // conservative analysys when exception handling statements are in
+        // the code :-(
+        Set<Unit> entries = new HashSet<Unit>((List<Unit>) graph.getHeads());
+        for (Iterator it = graph.getBody().getTraps().iterator(); it.hasNext();) {
+            entries.add(((Trap) it.next()).getHandlerUnit());
+        }
+
+        List<Unit> roots = new ArrayList<Unit>((List<Unit>) graph.getHeads());
+        for (Iterator it = graph.iterator(); it.hasNext();) {
+            roots.add((Unit) it.next());
+        }
+
+        // an iterative depth first search, to survive huge methods
+        List<Unit> postorder = new ArrayList<Unit>(size);
+        Set<Unit> visited = new HashSet<Unit>(size * 2 + 1);
+        List<Unit> stack = new ArrayList<Unit>();
+        List<Integer> nextSucc = new ArrayList<Integer>();
+        for (Unit root : roots) {
+            if (!visited.add(root)) continue;
+            stack.add(root);
+            nextSucc.add(0);
+            while (!stack.isEmpty()) {
+                int top = stack.size() - 1;
+                Unit unit = stack.get(top);
+                List<Unit> unitSuccs = flowSuccs.get(unit);
+                int next = nextSucc.get(top);
+                if (next < unitSuccs.size()) {
+                    nextSucc.set(top, next + 1);
+                    Unit succ = unitSuccs.get(next);
+                    if (visited.add(succ)) {
+                        stack.add(succ);
+                        nextSucc.add(0);
+                    }
+                } else {
+                    stack.remove(top);
+                    nextSucc.remove(top);
+                    postorder.add(unit);
+                }
+            }
+        }
+
+        int count = postorder.size();
+        units = new Unit[count];
+        isEntry = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            Unit unit = postorder.get(count - 1 - i);
+            units[i] = unit;
+            unitIndices.put(unit, i);
+            isEntry[i] = entries.contains(unit);
+        }
+
+        List<List<Integer>> edgesIn = new ArrayList<List<Integer>>(count);
+        for (int i = 0; i < count; i++) edgesIn.add(new ArrayList<Integer>(2));
+        succs = new int[count][];
+        for (int i = 0; i < count; i++) {
+            Unit s = units[i];
+            List<Unit> targets = flowSuccs.get(s);
+            succs[i] = targets.isEmpty() ? NO_INDICES : new int[targets.size()];
+            // the fall through successor, if any, comes first
+            int branchesFrom = targets.size() - s.getUnitBoxes().size();
+            for (int j = 0; j < targets.size(); j++) {
+                int succ = unitIndices.get(targets.get(j));
+                succs[i][j] = succ;
+                edgesIn.get(succ).add((i << 1) | (j < branchesFrom ? 0 : 1));
+            }
+        }
+
+        incoming = new int[count][];
+        for (int i = 0; i < count; i++) {
+            List<Integer> edges = edgesIn.get(i);
+            incoming[i] = edges.isEmpty() ? NO_INDICES : new int[edges.size()];
+            for (int j = 0; j < edges.size(); j++) incoming[i][j] = edges.get(j);
+        }
+    } // end initUnitOrder
+
+    private void solve()
+    {
+        int count = units.length;
+        before = new PackedRefStateSet[count];
+        fallAfter = new PackedRefStateSet[count];
+        branchAfter = new PackedRefStateSet[count];
+        for (int i = 0; i < count; i++) {
+            before[i] = emptySet.clone();
+            fallAfter[i] = emptySet.clone();
+            branchAfter[i] = emptySet.clone();
+        }
+
+        PackedRefStateSet fallOut = emptySet.clone();
+        PackedRefStateSet branchOut = emptySet.clone();
+        int[] unitVisits = new int[count];
+
+        BitSet pending = new BitSet(count);
+        pending.set(0, count);
+        for (int i = pending.nextSetBit(0); i >= 0; i = pending.nextSetBit(0)) {
+            pending.clear(i);
+            visits++;
+            unitVisits[i]++;
+            if (unitVisits[i] > maxUnitVisits) maxUnitVisits = unitVisits[i];
+
+            // merge the values flowing in
+            PackedRefStateSet in = before[i];
+            if (isEntry[i]) {
+                fullSet.copy(in);
+            } else {
+                in.fill(PackedRefStateSet.BOTTOM);
+            }
+            for (int edge : incoming[i]) {
+                int pred = edge >>> 1;
+                in.join((edge & 1) == 0 ? fallAfter[pred] : branchAfter[pred], in);
+            }
+
+            flowThrough(in, units[i], fallOut, branchOut);
+
+            if (!fallOut.equals(fallAfter[i]) || !branchOut.equals(branchAfter[i])) {
+                fallOut.copy(fallAfter[i]);
+                branchOut.copy(branchAfter[i]);
+                for (int succ : succs[i]) pending.set(succ);
+            }
+        }
+    } // end solve
+
+    protected void flowThrough(PackedRefStateSet in, Unit stmt, PackedRefStateSet fallOut, PackedRefStateSet branchOut)
+    {
+        PackedRefStateSet out = fallOut;
+        PackedRefStateSet pre = unitToPreserveSet.get(stmt);
+        PackedRefStateSet gen = unitToGenerateSet.get(stmt);
+
+        // Perform perservation and generation
+        in.apply(pre, gen, out);
         
         // Manually add any x = y; when x and y are both analyzed references
         // these are not  sets.
@@ -688,16 +924,24 @@ public class FancyNullableAnalysis  extends ForwardBranchedFlowAnalysis
                 }
             }
         }
-        
-        // Copy the out value to all branch boxes.
-        for (FlowSet fs : ((Iterable<FlowSet>) outBranchValues)) {
-            copy(out, fs);
-        }
 
-        // Copy the out value to the fallthrough box (don't need iterator)
-        for (FlowSet fs : ((Iterable<FlowSet>) outFallValue)) {
-            copy(out, fs);
+        // a local is nullable if it's assigned from a nullable local, or
+        // from a @Nullable reference which may be null here
+        if (context != null) {
+            NullableAssignment na = unitToNullableAssignment.get(stmt);
+            if (na != null) {
+                boolean nullable = na.source != kNotAnalyzed
+                        && in.get(na.source) != kBottom;
+                if (!nullable && na.nullableRef != null) {
+                    nullable = anyRefInfo(na.nullableRef, in) != kNonNull;
+                }
+                if (nullable) out.set(na.target, PackedRefStateSet.NULL);
+            }
         }
+        
+        // Copy the out value to the branch value; the fall through value
+        // is the out value
+        out.copy(branchOut);
 
         if (isBranched && (stmt instanceof IfStmt)) {
             Value cond = ((IfStmt) stmt).getCondition();
@@ -750,25 +994,11 @@ public class FancyNullableAnalysis  extends ForwardBranchedFlowAnalysis
                     }
 
                     if (fInfo != kBottom) {
-                        Iterator it = outFallValue.iterator();
-
-                        while(it.hasNext()) {
-                            FlowSet fs = (FlowSet) (it.next());
-
-                            copy(out, fs);
-                            uAddInfoToFlowSet(toGen, fInfo, fs);
-                        }
+                        uAddInfoToFlowSet(toGen, fInfo, fallOut);
                     }
 
                     if (bInfo !=  kBottom) {
-                        Iterator it = outBranchValues.iterator();
-
-                        while (it.hasNext()) {
-                            FlowSet fs = (FlowSet) (it.next());
-
-                            copy(out, fs);
-                            uAddInfoToFlowSet(toGen, bInfo, fs);
-                        }
+                        uAddInfoToFlowSet(toGen, bInfo, branchOut);
                     } 
                 }
             }
@@ -776,71 +1006,67 @@ public class FancyNullableAnalysis  extends ForwardBranchedFlowAnalysis
     } // end flowThrough
 
 
-    protected void merge(Object in1, Object in2, Object out)
+    // returns the flow set before the given unit. it must not be modified
+    public PackedRefStateSet getFlowBefore(Unit s)
     {
-        FlowSet inSet1 = (FlowSet) in1;
-        FlowSet inSet2 = (FlowSet) in2;
-        FlowSet inSet1Copy = (FlowSet) inSet1.clone();
-        FlowSet inSet2Copy = (FlowSet) inSet2.clone();
-        // we do that in case out is in1 or in2
-
-        FlowSet outSet = (FlowSet) out;
-
-        inSet1.intersection(inSet2, outSet);
-        // first step, set out to the intersection of in1 & in2
-        // but we are not over, the intersection doesn't handle the top & bottom cases
-        Iterator<EquivalentValue> it = refTypeValues.iterator();
-        while (it.hasNext()) {
-            EquivalentValue r = it.next();
-            int refInfoIn1 = refInfo(r, inSet1Copy);
-            int refInfoIn2 = refInfo(r, inSet2Copy);
-            if (refInfoIn1 != refInfoIn2) {
-                // only process if they are not equal, otherwise the intersection has done its job
-                if ((refInfoIn1 == kTop) || (refInfoIn2 == kTop)) {
-                    // ok, r is top in one of the sets but not the other, make it top in the outSet
-                    uAddTopToFlowSet(r, outSet);
-                } else if (refInfoIn1 == kBottom) {
-                    // r is bottom in set1 but not set2, promote to the value in set2
-                    uAddInfoToFlowSet(r, refInfoIn2, outSet);
-                } else if (refInfoIn2 == kBottom) {
-                    // r is bottom in set2 but not set1, promote to the value in set1
-                    uAddInfoToFlowSet(r, refInfoIn1, outSet);
-                } else {
-                    // r is known in both set, but it's a different value in each set, make it top
-                    uAddTopToFlowSet(r, outSet);
-                }
-            }
-        }
-    } // end merge
-    
+        Integer index = unitIndices.get(s);
+        return index == null ? emptySet : before[index];
+    } // end getFlowBefore
 
-    protected void copy(Object source, Object dest)
+    // returns the flow set after the given unit, on the edge to the unit
+    // after it. it must not be modified
+    public PackedRefStateSet getFallFlowAfter(Unit s)
     {
-        FlowSet sourceSet = (FlowSet) source,
-            destSet = (FlowSet) dest;
-            
-        sourceSet.copy(destSet);
-    } // end copy
-
-
-    protected Object newInitialFlow()
+        Integer index = unitIndices.get(s);
+        if (index == null || !s.fallsThrough()) return emptySet;
+        return fallAfter[index];
+    } // end getFallFlowAfter
+
+    // returns the flow set after the given unit, on the edges to its branch
+    // targets. it must not be modified
+    public PackedRefStateSet getBranchFlowAfter(Unit s)
+    {
+        Integer index = unitIndices.get(s);
+        if (index == null || s.getUnitBoxes().isEmpty()) return emptySet;
+        return branchAfter[index];
+    } // end getBranchFlowAfter
+
+    // returns the number of times a unit was visited while solving the
+    // analysis. in a method without loops, this is the number of units
+    public int getVisitCount()
     {
-        return emptySet.clone();
-    } // end newInitialFlow
+        return visits;
+    } // end getVisitCount
 
+    // returns the largest number of times any one unit was visited while
+    // solving the analysis. this is about one more than the deepest loop
+    // nesting, for well-behaved methods
+    public int getMaxUnitVisitCount()
+    {
+        return maxUnitVisits;
+    } // end getMaxUnitVisitCount
 
-    protected Object entryInitialFlow()
+    public int getUnitCount()
     {
-        return fullSet.clone();
-    }
+        return units.length;
+    } // end getUnitCount
 
-    // try to workaround exception limitation of ForwardBranchedFlowAnalysis
-    // this will make for a very conservative analysys when exception handling
-    // statements are in the code :-(
-    public boolean treatTrapHandlersAsEntries()
+    private static final class NullableAssignment
     {
-        return true;
-    }
+        // the nullable bit of the assigned local
+        public final int target;
+        // the nullable bit of the local it's copied from, or kNotAnalyzed
+        public final int source;
+        // the @Nullable reference assigned, or null
+        public final Value nullableRef;
+
+        public NullableAssignment(int target, int source, Value nullableRef)
+        {
+            this.target = target;
+            this.source = source;
+            this.nullableRef = nullableRef;
+        }
+    } // end class NullableAssignment
 
 } // end class BranchedRefVarsAnalysis
 
@@ -0,0 +1,120 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin.analysis.nulls;
+
+import com.intellij.openapi.diagnostic.Logger;
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.Nullable;
+import net.kano.nully.plugin.SootFacts;
+import net.kano.nully.plugin.SootTools;
+import net.kano.nully.plugin.analysis.AnalysisContext;
+import net.kano.nully.plugin.analysis.nulls.soot.MayBeNullTag;
+import net.kano.nully.plugin.analysis.nulls.soot.MayThrowNpeTag;
+import soot.Body;
+import soot.BodyTransformer;
+import soot.RefLikeType;
+import soot.Value;
+import soot.ValueBox;
+import soot.jimple.Stmt;
+import soot.toolkits.graph.ExceptionalUnitGraph;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Tags possible null references with a {@link MayBeNullTag}, possible null
+ * dereferences with a {@link MayThrowNpeTag}, and locals which may hold the
+ * value of a {@code @Nullable} reference with a {@link NullableTag}. One
+ * {@link FancyNullableAnalysis} computes all three.
+ * <br /><br />
+ * Without an analysis context, nothing is known about {@code @Nullable}
+ * references, so no {@code NullableTag}s are added.
+ */
+public class NullAnalysisTagger extends BodyTransformer {
+    private static final Logger LOGGER
+            = Logger.getInstance(NullAnalysisTagger.class.getName());
+
+    private final AnalysisContext context;
+    private final SootFacts facts = SootFacts.getInstance();
+
+    public NullAnalysisTagger(@Nullable AnalysisContext context) {
+        this.context = context;
+    }
+
+    protected void internalTransform(Body b, String phaseName, Map options) {
+        FancyNullableAnalysis analysis = new FancyNullableAnalysis(context,
+                new ExceptionalUnitGraph(b));
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Null analysis of " + b.getMethod().getSignature()
+                    + " converged after " + analysis.getVisitCount()
+                    + " visits of " + analysis.getUnitCount() + " units (at most "
+                    + analysis.getMaxUnitVisitCount() + " of one unit)");
+        }
+
+        for (Stmt s : (Collection<Stmt>) b.getUnits()) {
+            PackedRefStateSet beforeSet = analysis.getFlowBefore(s);
+
+            for (ValueBox vBox : (Collection<ValueBox>) s.getUseBoxes()) {
+                addNullTags(vBox, s, beforeSet, analysis);
+                if (analysis.isNullable(vBox.getValue(), beforeSet)) {
+                    facts.setNullable(vBox, new NullableTag());
+                }
+            }
+
+            PackedRefStateSet afterSet = analysis.getFallFlowAfter(s);
+
+            for (ValueBox vBox : (Collection<ValueBox>) s.getDefBoxes()) {
+                addNullTags(vBox, s, afterSet, analysis);
+            }
+        }
+    }
+
+    private void addNullTags(ValueBox vBox, Stmt s, PackedRefStateSet set,
+            FancyNullableAnalysis analysis) {
+        Value val = vBox.getValue();
+        if (!(val.getType() instanceof RefLikeType)) return;
+
+        int vInfo = analysis.anyRefInfo(val, set);
+
+        boolean definitelyNull = vInfo == FancyNullableAnalysis.kNull;
+        if (definitelyNull
+                || vInfo == FancyNullableAnalysis.kTop
+                || vInfo == FancyNullableAnalysis.kBottom) {
+            facts.setMayBeNull(vBox, new MayBeNullTag(definitelyNull));
+            if (vBox == SootTools.getDereferencedObject(s)) {
+                facts.setMayThrowNpe(vBox, new MayThrowNpeTag(definitelyNull));
+            }
+        }
+    }
+}
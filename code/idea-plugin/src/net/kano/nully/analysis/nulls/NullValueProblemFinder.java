@@ -75,11 +75,13 @@ public class NullValueProblemFinder implements ProblemFinder<NullValueProblem> {
 
     private AnalysisContext context = null;
     private List<NullValueProblem> problems = null;
+    private CallSiteSummary summary = null;
 
     public synchronized @NonNull Collection<NullValueProblem> findProblems(
             @NonNull AnalysisContext context) {
         this.context = context;
         this.problems = new ArrayList<NullValueProblem>();
+        this.summary = new CallSiteSummary();
         for (SootMethod method : context.getSootMethods()) {
             PsiMember member = NullyTools.getPsiMemberCopy(context, method);
             if (member != null) {
@@ -92,6 +94,17 @@ public class NullValueProblemFinder implements ProblemFinder<NullValueProblem> {
         return problems;
     }
 
+    /**
+     * Returns the arguments to {@code @NonNull} parameters which were proven
+     * non-null during the last call to {@link #findProblems}.
+     *
+     * @return the call site summary for the last analyzed file
+     */
+    public synchronized @NonNull CallSiteSummary getCallSiteSummary() {
+        if (summary == null) throw new IllegalStateException("no file analyzed");
+        return summary;
+    }
+
     private synchronized void tagProblemsForMember(@NonNull Body body) {
         for (Unit unit : (Collection<Unit>)body.getUnits()) {
             if (unit instanceof AssignStmt) {
@@ -185,13 +198,19 @@ public class NullValueProblemFinder implements ProblemFinder<NullValueProblem> {
         PsiMethod referencedMethodOrig = context.getOriginalElement(referencedMethod);
         if (referencedMethodOrig != null) referencedMethod = referencedMethodOrig;
 
-        // look for non-null parameters which may be passed null
+        // only record proven arguments if the invoke really is this call
         PsiParameter[] params = referencedMethod.getParameterList().getParameters();
+        boolean exactCall = invokeExpr.getMethodRef().name().equals(
+                referencedMethod.getName())
+                && invokeExpr.getArgCount() == params.length;
+
+        // look for non-null parameters which may be passed null
         for (int i = 0; i < params.length; i++) {
             PsiParameter param = params[i];
             ValueBox argBox = invokeExpr.getArgBox(i);
             if (NullyTools.hasNonNullAnnotation(param)) {
                 MayBeNullTag tag = SootTools.getMayBeNullTag(argBox);
+                if (exactCall) recordArgument(call, argBox, tag == null);
                 if (tag != null) {
                     // we found a possibly null argument for nonnull parameter
                     PsiElement argel = SootTools.getPsiElement(argBox);
@@ -211,6 +230,19 @@ public class NullValueProblemFinder implements ProblemFinder<NullValueProblem> {
         }
     }
 
+    private synchronized void recordArgument(
+            @NonNull PsiMethodCallExpression call, @NonNull ValueBox argBox,
+            boolean provenNonNull) {
+        PsiElement argel = SootTools.getPsiElement(argBox);
+        if (argel == null) return;
+        argel = findArgumentElementParent(call, argel);
+        if (argel == null) return;
+        argel = context.getOriginalElement(argel);
+        if (argel == null) return;
+
+        summary.addArgument(argel, provenNonNull);
+    }
+
     private static PsiElement findArgumentElementParent(
             @NonNull PsiMethodCallExpression call,
             @NonNull PsiElement argel) {
@@ -0,0 +1,185 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin.analysis.nulls;
+
+import java.util.Arrays;
+
+/**
+ * A flow set which stores one of four lattice states for each of a fixed
+ * number of references. References are identified by dense indices, and each
+ * reference's state takes two bits of a {@code long} word: bit 0 means the
+ * reference may be null, and bit 1 means it may be non-null. So
+ * {@link #BOTTOM} is neither, and {@link #TOP} is both.
+ * <br /><br />
+ * Since the lattice is represented as bits, joining two sets is a bitwise OR,
+ * and copying a set copies a few words, no matter how many references are
+ * analyzed.
+ */
+public final class PackedRefStateSet implements Cloneable {
+    public static final int BOTTOM = 0;
+    public static final int NULL = 1;
+    public static final int NON_NULL = 2;
+    public static final int TOP = NULL | NON_NULL;
+
+    private static final int REFS_PER_WORD = 32;
+
+    private final int size;
+    private long[] words;
+
+    /**
+     * Creates a set in which every one of the given number of references is
+     * {@link #BOTTOM}.
+     *
+     * @param size the number of references
+     */
+    public PackedRefStateSet(int size) {
+        this.size = size;
+        this.words = new long[(size + REFS_PER_WORD - 1) / REFS_PER_WORD];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int get(int ref) {
+        return (int) (words[ref / REFS_PER_WORD] >>> shift(ref)) & TOP;
+    }
+
+    public void set(int ref, int state) {
+        int word = ref / REFS_PER_WORD;
+        int shift = shift(ref);
+        words[word] = (words[word] & ~((long) TOP << shift))
+                | ((long) state << shift);
+    }
+
+    /**
+     * Sets every reference in this set to the given state.
+     *
+     * @param state the new state of every reference
+     */
+    public void fill(int state) {
+        long pattern = 0;
+        for (int i = 0; i < REFS_PER_WORD; i++) {
+            pattern |= (long) state << (i * 2);
+        }
+        Arrays.fill(words, pattern);
+
+        // keep the unused bits of the last word clear, so equals works
+        int used = size % REFS_PER_WORD;
+        if (used != 0) words[words.length - 1] &= (1L << (used * 2)) - 1;
+    }
+
+    /**
+     * Copies the states in this set into {@code dest}, which must have the
+     * same size.
+     *
+     * @param dest the set to copy into
+     */
+    public void copy(PackedRefStateSet dest) {
+        if (dest != this) System.arraycopy(words, 0, dest.words, 0, words.length);
+    }
+
+    /**
+     * Stores the join of this set and {@code other} in {@code dest}. A
+     * reference which is null in one set and non-null in the other is top in
+     * the result, and a reference which is bottom in one set takes its state
+     * from the other. {@code dest} may be either of the other sets.
+     *
+     * @param other the set to join with
+     * @param dest the set to store the result in
+     */
+    public void join(PackedRefStateSet other, PackedRefStateSet dest) {
+        long[] a = words;
+        long[] b = other.words;
+        long[] out = dest.words;
+        for (int i = 0; i < out.length; i++) out[i] = a[i] | b[i];
+    }
+
+    /**
+     * Stores {@code (this & preserve) | generate} in {@code dest}, applying a
+     * statement's kill and gen sets to this set.
+     *
+     * @param preserve the bits which are not killed
+     * @param generate the bits which are generated
+     * @param dest the set to store the result in
+     */
+    public void apply(PackedRefStateSet preserve, PackedRefStateSet generate,
+            PackedRefStateSet dest) {
+        long[] in = words;
+        long[] pre = preserve.words;
+        long[] gen = generate.words;
+        long[] out = dest.words;
+        for (int i = 0; i < out.length; i++) out[i] = (in[i] & pre[i]) | gen[i];
+    }
+
+    public PackedRefStateSet clone() {
+        PackedRefStateSet copy;
+        try {
+            copy = (PackedRefStateSet) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        copy.words = words.clone();
+        return copy;
+    }
+
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PackedRefStateSet)) return false;
+
+        PackedRefStateSet other = (PackedRefStateSet) o;
+        return size == other.size && Arrays.equals(words, other.words);
+    }
+
+    public int hashCode() {
+        return Arrays.hashCode(words);
+    }
+
+    public String toString() {
+        StringBuffer sb = new StringBuffer("{");
+        for (int i = 0; i < size; i++) {
+            if (i != 0) sb.append(", ");
+            int state = get(i);
+            if (state == TOP) sb.append("top");
+            else if (state == NULL) sb.append("null");
+            else if (state == NON_NULL) sb.append("nonnull");
+            else sb.append("bottom");
+        }
+        return sb.append("}").toString();
+    }
+
+    private static int shift(int ref) {
+        return (ref % REFS_PER_WORD) * 2;
+    }
+}
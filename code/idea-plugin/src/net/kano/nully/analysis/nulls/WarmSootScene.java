@@ -0,0 +1,276 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin.analysis.nulls;
+
+import com.intellij.openapi.diagnostic.Logger;
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.plugin.SootFacts;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootResolver;
+import soot.SourceLocator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps Soot's {@code Scene} warm between analyses. Loading the basic classes
+ * (the JDK classes Soot needs, Nully's runtime exceptions and
+ * {@code NonNullTools}, and the phantoms of every class the file refers to)
+ * costs about as much as analyzing a small file, so instead of emptying the
+ * scene after each analysis, only the classes built from source are removed:
+ * the classes the last analysis loaded from source, the classes the next one
+ * will load from source, and any classes nested in them. The basic classes
+ * and the phantoms stay resolved for the next analysis.
+ * <br /><br />
+ * Classes which are removed from the scene stay in Soot's method and field
+ * numberers, so the scene is still reset completely after {@link
+ * #MAX_WARM_RUNS} analyses, whenever a numberer or the scene grows past its
+ * limit, and after any analysis which failed. Warm scenes can be turned off
+ * by setting the {@value #PROP_WARM_SCENE} system property to {@code false}.
+ * <br /><br />
+ * Soot's state is global, so there is one warm scene per {@link
+ * net.kano.nully.plugin.SootEnvironment}, and it must only be used while
+ * holding the {@linkplain net.kano.nully.plugin.SootTools#lockSootGlobally()
+ * global Soot lock}.
+ */
+public final class WarmSootScene {
+    private static final Logger LOGGER
+            = Logger.getInstance(WarmSootScene.class.getName());
+
+    /** Set this system property to {@code false} to reset Soot after each run. */
+    public static final String PROP_WARM_SCENE = "nully.soot.warmScene";
+
+    static final int MAX_WARM_RUNS = 500;
+    static final int MAX_CLASSES = 20000;
+    static final int MAX_NUMBERED_METHODS = 200000;
+    static final int MAX_NUMBERED_FIELDS = 100000;
+
+    private static final WarmSootScene INSTANCE = new WarmSootScene(
+            !"false".equals(System.getProperty(PROP_WARM_SCENE)));
+
+    public static @NonNull WarmSootScene getInstance() { return INSTANCE; }
+
+    private final boolean enabled;
+    private boolean warm = false;
+    private int warmRuns = 0;
+    /** The classes the last analysis loaded from source. */
+    private Set<String> sourceClasses = new HashSet<String>();
+
+    private long warmLoads = 0;
+    private long warmLoadMillis = 0;
+    private long coldLoads = 0;
+    private long coldLoadMillis = 0;
+
+    private WarmSootScene(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() { return enabled; }
+
+    /**
+     * Returns whether the next call to {@link #prepare} will keep the classes
+     * loaded by earlier runs.
+     *
+     * @return whether the scene is warm
+     */
+    public synchronized boolean isWarm() { return warm; }
+
+    /**
+     * Prepares the scene for an analysis which will load the given classes
+     * from source. If the scene is warm, only the classes the last analysis
+     * loaded from source and any classes with the given names are removed;
+     * otherwise the scene is reset completely.
+     *
+     * @param classNames the names of the classes the analysis loads from
+     *        source
+     */
+    public synchronized void prepare(@NonNull Collection<String> classNames) {
+        if (warm && exceedsLimits()) {
+            LOGGER.debug("Resetting warm Soot scene after " + warmRuns
+                    + " runs");
+            warm = false;
+        }
+        if (!warm) {
+            resetCompletely();
+            sourceClasses = new HashSet<String>(classNames);
+            return;
+        }
+
+        // classes which earlier runs only referenced are phantoms, but this
+        // run needs to build them from source
+        Set<String> removed = new HashSet<String>(sourceClasses);
+        removed.addAll(classNames);
+        sourceClasses = new HashSet<String>(classNames);
+
+        Scene scene = Scene.v();
+        removeClasses(scene, removed);
+        SootFacts.getInstance().clear();
+
+        // only the removed classes' bodies had units or locals
+        scene.getUnitNumberer().clear();
+        scene.getLocalNumberer().clear();
+        scene.releaseActiveHierarchy();
+        scene.releaseFastHierarchy();
+    }
+
+    /**
+     * Records that an analysis loaded its classes, and that its scene may be
+     * reused.
+     *
+     * @param loadMillis how long the analysis took to load its classes
+     */
+    public synchronized void finishLoading(long loadMillis) {
+        if (warm) {
+            warmLoads++;
+            warmLoadMillis += loadMillis;
+        } else {
+            coldLoads++;
+            coldLoadMillis += loadMillis;
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Loaded Soot classes in " + loadMillis + " ms ("
+                    + (warm ? "warm" : "cold") + "); " + getStatistics());
+        }
+        if (enabled) {
+            warm = true;
+            warmRuns++;
+        }
+    }
+
+    /**
+     * Removes the classes built from source by the last analysis from the
+     * scene, so their bodies can be garbage collected. If warm scenes are
+     * disabled, the scene is reset completely.
+     */
+    public synchronized void release() {
+        if (!warm) {
+            resetCompletely();
+            return;
+        }
+        removeClasses(Scene.v(), sourceClasses);
+        sourceClasses = new HashSet<String>();
+        SootFacts.getInstance().clear();
+        SourceLocator.v().setClassProviders(Collections.EMPTY_LIST);
+    }
+
+    /**
+     * Makes the next analysis start with an empty scene. This should be called
+     * when an analysis fails, since the scene may be left inconsistent.
+     */
+    public synchronized void invalidate() {
+        warm = false;
+    }
+
+    /**
+     * Removes every class from Soot's scene and clears all of its numberers.
+     */
+    public synchronized void resetCompletely() {
+        Scene scene = Scene.v();
+        scene.getClassNumberer().clear();
+        scene.getMethodNumberer().clear();
+        scene.getFieldNumberer().clear();
+        scene.getLocalNumberer().clear();
+        scene.getSubSigNumberer().clear();
+        scene.getTypeNumberer().clear();
+        scene.getUnitNumberer().clear();
+
+        scene.getPhantomClasses().clear();
+        scene.getLibraryClasses().clear();
+        scene.getApplicationClasses().clear();
+        SourceLocator.v().setClassProviders(Collections.EMPTY_LIST);
+        SootResolver.v().clear();
+
+        List<SootClass> scs = new ArrayList<SootClass>(scene.getClasses());
+        for (SootClass sc : scs) scene.removeClass(sc);
+        SootFacts.getInstance().clear();
+
+        warm = false;
+        warmRuns = 0;
+        sourceClasses = new HashSet<String>();
+    }
+
+    /**
+     * Returns a summary of how long loading classes took with warm and with
+     * cold scenes.
+     *
+     * @return a human-readable summary of class loading times
+     */
+    public synchronized @NonNull String getStatistics() {
+        return "warm: " + warmLoads + " loads, " + average(warmLoadMillis, warmLoads)
+                + " ms avg; cold: " + coldLoads + " loads, "
+                + average(coldLoadMillis, coldLoads) + " ms avg";
+    }
+
+    private boolean exceedsLimits() {
+        Scene scene = Scene.v();
+        return warmRuns >= MAX_WARM_RUNS
+                || scene.getClasses().size() > MAX_CLASSES
+                || scene.getMethodNumberer().size() > MAX_NUMBERED_METHODS
+                || scene.getFieldNumberer().size() > MAX_NUMBERED_FIELDS;
+    }
+
+    /**
+     * Removes the classes with the given names from the scene, along with
+     * the classes nested in them, like the anonymous classes Soot builds
+     * from their source.
+     */
+    private static void removeClasses(@NonNull Scene scene,
+            @NonNull Set<String> names) {
+        List<String> kept = new ArrayList<String>();
+        List<SootClass> scs = new ArrayList<SootClass>(scene.getClasses());
+        for (SootClass sc : scs) {
+            String name = sc.getName();
+            int dollar = name.indexOf('$');
+            String outer = dollar == -1 ? name : name.substring(0, dollar);
+            if (names.contains(name) || names.contains(outer)) {
+                scene.removeClass(sc);
+            } else if (!sc.isPhantom()) {
+                kept.add(name);
+            }
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Kept " + kept.size() + " loaded classes in the warm "
+                    + "Soot scene: " + kept);
+        }
+    }
+
+    private static long average(long total, long count) {
+        return count == 0 ? 0 : total / count;
+    }
+}
@@ -33,36 +33,41 @@
 
 package net.kano.nully.plugin.analysis.nulls.psipreprocess;
 
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiErrorElement;
+import com.intellij.psi.PsiJavaFile;
 import com.intellij.psi.PsiRecursiveElementVisitor;
-import com.intellij.psi.PsiMethod;
-import com.intellij.psi.PsiParameter;
-import com.intellij.psi.PsiTypeElement;
-import com.intellij.psi.PsiEllipsisType;
-import com.intellij.psi.PsiElementFactory;
-import com.intellij.psi.PsiArrayType;
-import com.intellij.util.IncorrectOperationException;
-import com.intellij.openapi.diagnostic.Logger;
+import net.kano.nully.annotations.NonNull;
 
-public class Java5CodeStripVisitorSecondPass extends PsiRecursiveElementVisitor {
-    private static final Logger LOGGER
-            = Logger.getInstance(Java5CodeStripVisitorSecondPass.class.getName());
+/**
+ * Finds whether a file can be translated to Jimple as it is, without first
+ * being copied and stripped by {@link PreparerForSoot}. This is the case when
+ * the file has no syntax errors; Java 5.0 code is lowered by the translator.
+ * <br /><br />
+ * The scan stops at the first error.
+ */
+final class DirectTranslationChecker extends PsiRecursiveElementVisitor {
+    private PsiElement blocker = null;
+
+    /**
+     * Returns whether the given file can be translated without being copied.
+     *
+     * @param file a Java file
+     * @return whether {@code file} needs no stripping
+     */
+    public static boolean canTranslateDirectly(@NonNull PsiJavaFile file) {
+        DirectTranslationChecker checker = new DirectTranslationChecker();
+        file.accept(checker);
+        return checker.blocker == null;
+    }
 
-    public void visitMethod(PsiMethod method) {
-        super.visitMethod(method);
+    private DirectTranslationChecker() { }
 
-        if (!method.isVarArgs()) return;
+    public void visitElement(PsiElement element) {
+        if (blocker == null) super.visitElement(element);
+    }
 
-        PsiParameter[] params = method.getParameterList().getParameters();
-        PsiParameter varargParam = params[params.length - 1];
-        PsiTypeElement origTypeEl = varargParam.getTypeElement();
-        PsiEllipsisType origType = (PsiEllipsisType) origTypeEl.getType();
-        PsiElementFactory factory = method.getManager().getElementFactory();
-        PsiArrayType newType = new PsiArrayType(origType.getComponentType());
-        PsiTypeElement newTypeEl = factory.createTypeElement(newType);
-        try {
-            origTypeEl.replace(newTypeEl);
-        } catch (IncorrectOperationException e) {
-            LOGGER.error(e);
-        }
+    public void visitErrorElement(PsiErrorElement element) {
+        blocker = element;
     }
 }
@@ -68,24 +68,39 @@ public class PreparerForSoot {
         this.context = context;
     }
 
+    /**
+     * Prepares the given file to be analyzed. If the file has no syntax
+     * errors, it's given to Soot as it is; otherwise, a copy is made with the
+     * statements containing errors removed. Java 5.0 code is lowered by the
+     * Jimple translator itself.
+     *
+     * @param jfile the file
+     */
     public void prepareForFileAnalysis(@NonNull PsiJavaFile jfile) {
+        if (DirectTranslationChecker.canTranslateDirectly(jfile)) {
+            context.setTranslatingOriginal(jfile);
+            return;
+        }
         makeMarkedCopy(jfile);
-        PsiJavaFile fileCopy = context.getFileCopy();
-        stripErrors(fileCopy);
-        stripJava5Code(fileCopy);
+        stripErrors(context.getFileCopy());
     }
 
+    /**
+     * Deletes the statements in the given file which contain syntax errors.
+     * The statements are all found before any is deleted, so the tree is not
+     * modified while it is being walked, and statements inside a statement
+     * which will be deleted are not visited at all.
+     *
+     * @param jfile a copied file
+     */
     private void stripErrors(@NonNull PsiJavaFile jfile) {
+        final List<PsiStatement> broken = new ArrayList<PsiStatement>();
         jfile.accept(new PsiRecursiveElementVisitor() {
             public void visitStatement(PsiStatement statement) {
-                super.visitStatement(statement);
-
                 if (PsiTreeUtil.getChildOfType(statement, PsiErrorElement.class) != null) {
-                    try {
-                        statement.delete();
-                    } catch (IncorrectOperationException e) {
-                        LOGGER.error(e);
-                    }
+                    broken.add(statement);
+                } else {
+                    super.visitStatement(statement);
                 }
             }
 //            public void visitExpression(PsiExpression expression) {
@@ -118,14 +133,32 @@ public class PreparerForSoot {
 //                }
 //            }
         });
+
+        for (PsiStatement statement : broken) {
+            try {
+                statement.delete();
+            } catch (IncorrectOperationException e) {
+                LOGGER.error(e);
+            }
+        }
     }
 
     public void prepareForElementsAnalysis(@NonNull PsiJavaFile jfile,
             @NonNull Collection<PsiMember> toInspect) {
-        makeMarkedCopy(jfile);
+        PsiJavaFile fileCopy = makeMarkedCopy(jfile);
         strip(toInspect);
-        stripErrors(jfile);
-        stripJava5Code(context.getCopiedElement(jfile));
+        stripErrors(fileCopy);
+    }
+
+    /**
+     * Prepares the given file to be analyzed so runtime checks can be inserted
+     * into it. Unlike {@link #prepareForFileAnalysis}, the file is never
+     * copied, since it has already been compiled and so has no syntax errors.
+     *
+     * @param jfile the file
+     */
+    public void prepareForCompilation(@NonNull PsiJavaFile jfile) {
+        context.setTranslatingOriginal(jfile);
     }
 
     /**
@@ -161,47 +194,6 @@ public class PreparerForSoot {
         context.addStrippedClassNames(stripper.getStrippedClassesNames());
     }
 
-    /**
-     * Strips Java 5.0 code from the given file according to the specification
-     * of {@link Java5CodeStripVisitor};
-     *
-     * @param file the element to transform
-     */
-    public void stripJava5Code(@NonNull PsiJavaFile file) {
-//        for (PsiClass cls : file.getClasses()) {
-//            for (PsiMethod method : cls.getMethods()) {
-//                DataFlowRunner r = new DataFlowRunner();
-//                boolean b = r.analyzeMethod(method.getBody());
-//                List<Instruction> instructions = new ArrayList<Instruction>();
-//                for (int i = 0;; i++) {
-//                    try {
-//                        instructions.add(r.getInstruction(i));
-//                    } catch (ArrayIndexOutOfBoundsException e) {
-//                        break;
-//                    }
-//                }
-//                for (Instruction instruction : instructions) {
-//                    if (instruction instanceof PushInstruction) {
-//                        PushInstruction pi = (PushInstruction) instruction;
-//                        DfaMemoryState st = new DfaMemoryStateImpl(r.getFactory());
-//                        st.
-//                        pi.apply(r, st);
-//                        DfaValue value = st.pop();
-//                        System.out.println("value");
-//                    }
-//                }
-//                System.out.println("b");
-//            }
-//        }
-
-        file.accept(new Java5CodeStripVisitor());
-        file.accept(new Java5CodeStripVisitorSecondPass());
-//        PsiJavaFile copy = degenerate(file);
-//        System.out.println("degenerated");
-//        Pair<?,?> result = DegeneratorUtil.degenerate(el);
-//        System.out.println("result");
-    }
-
     private PsiJavaFile degenerate(PsiFile file) {
         Project project = file.getProject();
         CastingVisitor castingvisitor = new CastingVisitor(project, new ArrayList());
@@ -222,6 +214,9 @@ public class PreparerForSoot {
      * @param el the element whose tree will be stripped of all copies
      */
     public void removeCopy(@NonNull PsiElement el) {
+        // nothing was marked if the original was translated
+        if (context.isTranslatingOriginal()) return;
+
         PsiElement copy = context.getCopiedElement(el);
 
         if (copy != null) {
@@ -43,9 +43,11 @@ import com.intellij.psi.PsiRecursiveElementVisitor;
 import com.intellij.psi.PsiStatement;
 import com.intellij.psi.PsiClassInitializer;
 import com.intellij.psi.PsiParameter;
+import com.intellij.psi.PsiPrimitiveType;
 import com.intellij.psi.PsiType;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiMember;
+import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.util.IncorrectOperationException;
 import com.intellij.openapi.diagnostic.Logger;
 import net.kano.nully.annotations.NonNull;
@@ -75,6 +77,10 @@ import java.util.HashSet;
  * Any classes which are not outer classes of the given method's containing
  * class are removed completely.
  * <br /><br />
+ * Instance field initializers and instance initializer blocks are kept along
+ * with any constructor of their class, since they are run as part of that
+ * constructor.
+ * <br /><br />
  * An instance of this class should be passed to a {@code PsiElement}'s
  * {@code visit} method only once. Otherwise the stored list of stripped methods
  * will be inaccurate.
@@ -106,13 +112,15 @@ public class PsiOtherMethodStripper extends PsiRecursiveElementVisitor {
         }
 
         this.keepClasses = getParentClasses(keepElements);
-        this.keepElements = keepElements;
+        this.keepElements = getRequiredMembers(keepElements);
     }
 
     public void visitClass(PsiClass aClass) {
         super.visitClass(aClass);
 
-        if (!keepClasses.contains(aClass)) deleteClass(aClass);
+        if (!keepClasses.contains(aClass) && !isInsideKeptElement(aClass)) {
+            deleteClass(aClass);
+        }
     }
 
     public void visitMethod(PsiMethod method) {
@@ -122,7 +130,18 @@ public class PsiOtherMethodStripper extends PsiRecursiveElementVisitor {
     }
 
     private boolean shouldStripElement(PsiMember el) {
-        return !keepElements.contains(el);
+        return !keepElements.contains(el) && !isInsideKeptElement(el);
+    }
+
+    /**
+     * Returns whether the given element is part of a local or anonymous class
+     * declared inside one of the kept elements.
+     */
+    private boolean isInsideKeptElement(PsiElement el) {
+        for (PsiMember kept : keepElements) {
+            if (PsiTreeUtil.isAncestor(kept, el, true)) return true;
+        }
+        return false;
     }
 
     public void visitClassInitializer(PsiClassInitializer initializer) {
@@ -195,11 +214,13 @@ public class PsiOtherMethodStripper extends PsiRecursiveElementVisitor {
         // add a super call to the constructor if necessary
         if (method.isConstructor()) {
             PsiClass cls = method.getContainingClass();
-            PsiMethod[] constructors = cls.getConstructors();
+            PsiClass superClass = cls.getSuperClass();
+            PsiMethod[] constructors = superClass == null
+                    ? PsiMethod.EMPTY_ARRAY : superClass.getConstructors();
             if (constructors.length > 0) {
                 PsiMethod someConstructor = constructors[0];
                 StringBuilder arglist = new StringBuilder(100);
-                boolean first = false;
+                boolean first = true;
                 PsiParameter[] parameters = someConstructor.getParameterList()
                         .getParameters();
                 if (parameters.length > 0) {
@@ -211,11 +232,15 @@ public class PsiOtherMethodStripper extends PsiRecursiveElementVisitor {
                         }
 
                         PsiType type = param.getType();
-                        arglist.append("(" + type.getPresentableText() + ") null");
+                        if (type instanceof PsiPrimitiveType) {
+                            arglist.append(PsiTools.getDefaultValue(type));
+                        } else {
+                            arglist.append("(" + type.getCanonicalText() + ") null");
+                        }
                     }
                     try {
                         body.add(factory.createStatementFromText("super("
-                                + arglist.toString() + ")", body));
+                                + arglist.toString() + ");", body));
                     } catch (IncorrectOperationException e) {
                         LOGGER.error(e);
                     }
@@ -259,6 +284,34 @@ public class PsiOtherMethodStripper extends PsiRecursiveElementVisitor {
         return strippedClassesNames;
     }
 
+    /**
+     * Returns the given members along with the instance initializers which
+     * are run by any constructors among them.
+     */
+    private static Set<PsiMember> getRequiredMembers(
+            Collection<PsiMember> keepElements) {
+        Set<PsiMember> required = new HashSet<PsiMember>(keepElements);
+        for (PsiMember element : keepElements) {
+            if (!(element instanceof PsiMethod)
+                    || !((PsiMethod) element).isConstructor()) {
+                continue;
+            }
+            PsiClass cls = element.getContainingClass();
+            for (PsiField field : cls.getFields()) {
+                if (field.getInitializer() != null
+                        && !field.hasModifierProperty("static")) {
+                    required.add(field);
+                }
+            }
+            for (PsiClassInitializer initializer : cls.getInitializers()) {
+                if (!initializer.hasModifierProperty("static")) {
+                    required.add(initializer);
+                }
+            }
+        }
+        return required;
+    }
+
     private static Set<PsiClass> getParentClasses(Collection<PsiMember> toInspect) {
         Set<PsiClass> okayClasses = new HashSet<PsiClass>();
         for (PsiMember element : toInspect) {
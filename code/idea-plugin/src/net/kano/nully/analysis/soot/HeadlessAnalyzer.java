@@ -0,0 +1,278 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin.analysis.nulls.soot;
+
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.plugin.SootEnvironment;
+import net.kano.nully.plugin.SootEnvironmentPool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs Nully's null analysis over Java source trees from the command line,
+ * without IntelliJ IDEA running. Usage:
+ * <pre>
+ * java net.kano.nully.plugin.analysis.nulls.soot.HeadlessAnalyzer
+ *     [-cp classpath] [-j threads] [-o output] [-encoding charset] dir...
+ * </pre>
+ * The class path must include the Java runtime classes, the annotations jar,
+ * and the compiled classes of the analyzed code and its libraries; the
+ * {@code NonNull} contracts are read from it. Each problem is written as one
+ * JSON object per line, sorted by file and line. The exit status is 0 if no
+ * problems were found, 1 if some were, and 2 if the arguments were invalid.
+ * <br /><br />
+ * Files are analyzed in parallel, each in an isolated {@link SootEnvironment}
+ * leased from a pool of {@code threads} environments.
+ */
+public final class HeadlessAnalyzer {
+    private static final int EXIT_CLEAN = 0;
+    private static final int EXIT_PROBLEMS = 1;
+    private static final int EXIT_USAGE = 2;
+
+    private final String classPath;
+    private final NullContracts contracts;
+    private final SootEnvironmentPool pool;
+    private final Map<Integer, IsolatedSourceAnalyzer> analyzers
+            = new HashMap<Integer, IsolatedSourceAnalyzer>();
+
+    public HeadlessAnalyzer(@NonNull String classPath,
+            @NonNull NullContracts contracts, int threads) {
+        this.classPath = classPath;
+        this.contracts = contracts;
+        this.pool = new SootEnvironmentPool(threads);
+    }
+
+    /**
+     * Analyzes the given source file in the next free environment.
+     *
+     * @param file a Java source file
+     * @param encoding the file's character encoding
+     * @return the problems found in the file
+     * @throws IOException if the file could not be read
+     * @throws InterruptedException if interrupted while waiting for an
+     *         environment
+     */
+    public @NonNull List<HeadlessProblem> analyzeFile(@NonNull File file,
+            @NonNull String encoding) throws IOException, InterruptedException {
+        String text = readFile(file, encoding);
+        SootEnvironment env = pool.lease();
+        try {
+            return getAnalyzer(env).analyzeSource(file.getPath(), text,
+                    classPath, contracts);
+        } finally {
+            pool.release(env);
+        }
+    }
+
+    private @NonNull IsolatedSourceAnalyzer getAnalyzer(
+            @NonNull SootEnvironment env) {
+        synchronized (analyzers) {
+            IsolatedSourceAnalyzer analyzer = analyzers.get(env.getId());
+            if (analyzer == null) {
+                analyzer = env.newInstance(IsolatedSourceAnalyzer.class,
+                        HeadlessFileAnalyzer.class);
+                analyzers.put(env.getId(), analyzer);
+            }
+            return analyzer;
+        }
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    private static int run(@NonNull String[] args, @NonNull PrintStream out,
+            @NonNull PrintStream err) {
+        String classPath = System.getProperty("java.class.path");
+        int threads = Runtime.getRuntime().availableProcessors();
+        String output = null;
+        String encoding = System.getProperty("file.encoding");
+        List<File> roots = new ArrayList<File>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("-cp") || arg.equals("-classpath")) {
+                    classPath = args[++i];
+                } else if (arg.equals("-j")) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if (arg.equals("-o")) {
+                    output = args[++i];
+                } else if (arg.equals("-encoding")) {
+                    encoding = args[++i];
+                } else if (arg.startsWith("-")) {
+                    return usage(err, "unknown option " + arg);
+                } else {
+                    roots.add(new File(arg));
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return usage(err, "missing option value");
+        } catch (NumberFormatException e) {
+            return usage(err, "invalid thread count");
+        }
+        if (roots.isEmpty()) return usage(err, "no source directories given");
+        if (threads < 1) return usage(err, "invalid thread count");
+
+        List<File> files = new ArrayList<File>();
+        for (File root : roots) {
+            if (!root.exists()) return usage(err, root + " does not exist");
+            collectSourceFiles(root, files);
+        }
+
+        long start = System.currentTimeMillis();
+        List<HeadlessProblem> problems;
+        try {
+            NullContracts contracts = NullContracts.readClassPath(classPath);
+            HeadlessAnalyzer analyzer = new HeadlessAnalyzer(classPath,
+                    contracts, threads);
+            problems = analyzer.analyzeFiles(files, encoding, threads);
+        } catch (IOException e) {
+            err.println("nully: " + e.getMessage());
+            return EXIT_USAGE;
+        } catch (InterruptedException e) {
+            err.println("nully: interrupted");
+            return EXIT_USAGE;
+        }
+        Collections.sort(problems);
+
+        try {
+            writeProblems(problems, output == null ? out
+                    : new PrintStream(new FileOutputStream(output), false,
+                    "UTF-8"));
+        } catch (IOException e) {
+            err.println("nully: could not write " + output + ": "
+                    + e.getMessage());
+            return EXIT_USAGE;
+        }
+        err.println("nully: analyzed " + files.size() + " files in "
+                + (System.currentTimeMillis() - start) + " ms using "
+                + threads + " threads; " + problems.size() + " problems");
+
+        return problems.isEmpty() ? EXIT_CLEAN : EXIT_PROBLEMS;
+    }
+
+    private @NonNull List<HeadlessProblem> analyzeFiles(
+            @NonNull List<File> files, @NonNull final String encoding,
+            int threads) throws InterruptedException, IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<HeadlessProblem>>> results
+                    = new ArrayList<Future<List<HeadlessProblem>>>();
+            for (final File file : files) {
+                results.add(executor.submit(new Callable<List<HeadlessProblem>>() {
+                    public List<HeadlessProblem> call() throws Exception {
+                        return analyzeFile(file, encoding);
+                    }
+                }));
+            }
+
+            List<HeadlessProblem> problems = new ArrayList<HeadlessProblem>();
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    problems.addAll(results.get(i).get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) throw (IOException) cause;
+                    problems.add(new HeadlessProblem(files.get(i).getPath(), 0,
+                            HeadlessProblem.TYPE_ANALYSIS_ERROR, true,
+                            String.valueOf(cause)));
+                }
+            }
+            return problems;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void writeProblems(@NonNull List<HeadlessProblem> problems,
+            @NonNull PrintStream stream) throws IOException {
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(stream,
+                "UTF-8"));
+        for (HeadlessProblem problem : problems) {
+            writer.println(problem.toJson());
+        }
+        writer.flush();
+        if (stream != System.out) stream.close();
+    }
+
+    private static void collectSourceFiles(@NonNull File file,
+            @NonNull List<File> files) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children == null) return;
+            for (File child : children) collectSourceFiles(child, files);
+        } else if (file.getName().endsWith(".java")) {
+            files.add(file);
+        }
+    }
+
+    private static @NonNull String readFile(@NonNull File file,
+            @NonNull String encoding) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) bytes.write(buffer, 0, read);
+            return bytes.toString(encoding);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static int usage(@NonNull PrintStream err, @NonNull String error) {
+        err.println("nully: " + error);
+        err.println("usage: HeadlessAnalyzer [-cp classpath] [-j threads]"
+                + " [-o output] [-encoding charset] dir...");
+        return EXIT_USAGE;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin.analysis.nulls.soot;
+
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.plugin.SootFacts;
+import net.kano.nully.plugin.SootTools;
+import net.kano.nully.plugin.analysis.nulls.CodeAnalyzer;
+import net.kano.nully.plugin.analysis.nulls.NullAnalysisTagger;
+import polyglot.util.ErrorInfo;
+import polyglot.util.Position;
+import soot.Body;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.SootMethodRef;
+import soot.SourceLocator;
+import soot.Unit;
+import soot.Value;
+import soot.ValueBox;
+import soot.jimple.InvokeExpr;
+import soot.jimple.ReturnStmt;
+import soot.jimple.Stmt;
+import soot.options.Options;
+import soot.tagkit.Host;
+import soot.tagkit.LineNumberTag;
+import soot.tagkit.SourceLnPosTag;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Analyzes plain Java source files without an IDE. This is the analysis run by
+ * each of the {@link HeadlessAnalyzer}'s worker environments.
+ * <br /><br />
+ * Since there is no PSI tree, {@code NonNull} contracts are read from compiled
+ * classes using {@link NullContracts}, and annotations are blanked out of the
+ * source before it's compiled, since the Java-to-Jimple compiler only reads
+ * Java 1.4 code. Files which still can't be compiled are reported as parse
+ * errors.
+ */
+public class HeadlessFileAnalyzer implements IsolatedSourceAnalyzer {
+    public @NonNull List<HeadlessProblem> analyzeSource(@NonNull String path,
+            @NonNull String text, @NonNull String classPath,
+            @NonNull NullContracts contracts) {
+        String blanked = SourceAnnotationBlanker.blankAnnotations(text);
+        if (blanked == null) {
+            // annotation types have no code to analyze
+            return Collections.emptyList();
+        }
+
+        SootTools.lockSootGlobally();
+        try {
+            return analyzeLocked(path, blanked, classPath, contracts);
+        } finally {
+            SootFacts.getInstance().clear();
+            SootTools.unlockSootGlobally();
+        }
+    }
+
+    private @NonNull List<HeadlessProblem> analyzeLocked(@NonNull String path,
+            @NonNull String text, @NonNull String classPath,
+            @NonNull NullContracts contracts) {
+        SourceFileClassProvider provider = new SourceFileClassProvider(
+                getFileName(path), text);
+        if (!provider.compile(classPath)) {
+            ErrorInfo error = provider.getFirstError();
+            Position pos = error == null ? null : error.getPosition();
+            String message = error == null ? "could not compile"
+                    : error.getMessage();
+            return Collections.singletonList(new HeadlessProblem(path,
+                    pos == null ? 0 : pos.line(),
+                    HeadlessProblem.TYPE_PARSE_ERROR, true, message));
+        }
+
+        new CodeAnalyzer().resetSoot();
+        Options options = Options.v();
+        options.set_allow_phantom_refs(true);
+        options.set_keep_line_number(true);
+        Scene scene = Scene.v();
+        scene.setPhantomRefs(true);
+        SourceLocator.v().setClassProviders(Collections.singletonList(provider));
+        for (String name : provider.getTopLevelNames()) {
+            scene.addBasicClass(name, SootClass.BODIES);
+        }
+        scene.loadBasicClasses();
+
+        Set<HeadlessProblem> problems = new LinkedHashSet<HeadlessProblem>();
+        JimpleMethodPreprocessor preprocessor
+                = new JimpleMethodPreprocessor(contracts);
+        NullAnalysisTagger tagger = new NullAnalysisTagger(null);
+        List<SootClass> classes = new ArrayList<SootClass>(
+                (Collection<SootClass>) scene.getClasses());
+        for (SootClass sc : classes) {
+            if (sc.isPhantom() || !provider.isDeclaredHere(sc.getName())) {
+                continue;
+            }
+            for (SootMethod method : (List<SootMethod>) sc.getMethods()) {
+                if (!method.isConcrete()) continue;
+                try {
+                    Body body = method.retrieveActiveBody();
+                    preprocessor.preprocessBody(body);
+                    tagger.transform(body);
+                    findProblems(path, body, contracts, problems);
+                } catch (RuntimeException e) {
+                    problems.add(new HeadlessProblem(path, 0,
+                            HeadlessProblem.TYPE_ANALYSIS_ERROR, true,
+                            "could not analyze " + method.getSignature()
+                            + ": " + e));
+                }
+            }
+        }
+        return new ArrayList<HeadlessProblem>(problems);
+    }
+
+    private void findProblems(@NonNull String path, @NonNull Body body,
+            @NonNull NullContracts contracts,
+            @NonNull Set<HeadlessProblem> problems) {
+        SootMethod method = body.getMethod();
+        boolean nonNullMethod = contracts.isNonNullReturn(
+                method.getDeclaringClass().getName(), method.getName(),
+                SootTools.getDescriptor(method));
+
+        for (Unit unit : (Collection<Unit>) body.getUnits()) {
+            Stmt stmt = (Stmt) unit;
+            int line = getLine(stmt);
+
+            ValueBox derefBox = SootTools.getDereferencedObject(stmt);
+            if (derefBox != null) {
+                MayBeNullTag tag = SootTools.getMayBeNullTag(derefBox);
+                if (tag != null && tag.isDefinitelyNull()) {
+                    problems.add(new HeadlessProblem(path, line,
+                            HeadlessProblem.TYPE_NULL_DEREFERENCE, true,
+                            derefBox.getValue() + " is always null here"));
+                }
+            }
+
+            if (stmt.containsInvokeExpr()) {
+                findNullArgs(path, line, stmt.getInvokeExpr(), contracts,
+                        problems);
+            }
+
+            if (nonNullMethod && stmt instanceof ReturnStmt) {
+                ValueBox retBox = ((ReturnStmt) stmt).getOpBox();
+                MayBeNullTag tag = SootTools.getMayBeNullTag(retBox);
+                if (tag != null) {
+                    problems.add(new HeadlessProblem(path, line,
+                            HeadlessProblem.TYPE_NULL_RETURN,
+                            tag.isDefinitelyNull(), method.getName()
+                            + " is declared NonNull but may return null"));
+                }
+            }
+        }
+    }
+
+    private void findNullArgs(@NonNull String path, int line,
+            @NonNull InvokeExpr invokeExpr, @NonNull NullContracts contracts,
+            @NonNull Set<HeadlessProblem> problems) {
+        SootMethodRef called = invokeExpr.getMethodRef();
+        String className = called.declaringClass().getName();
+        String desc = SootTools.getDescriptor(called);
+        for (int i = 0; i < invokeExpr.getArgCount(); i++) {
+            if (!contracts.isNonNullParameter(className, called.name(), desc, i)) {
+                continue;
+            }
+            ValueBox argBox = invokeExpr.getArgBox(i);
+            MayBeNullTag tag = SootTools.getMayBeNullTag(argBox);
+            if (tag == null) continue;
+
+            Value arg = argBox.getValue();
+            problems.add(new HeadlessProblem(path, line,
+                    HeadlessProblem.TYPE_NULL_ARGUMENT, tag.isDefinitelyNull(),
+                    arg + " may be null, but parameter " + (i + 1) + " of "
+                    + called.name() + " is declared NonNull"));
+        }
+    }
+
+    private static int getLine(@NonNull Host host) {
+        SourceLnPosTag posTag = (SourceLnPosTag) host.getTag("SourceLnPosTag");
+        if (posTag != null) return posTag.startLn();
+        LineNumberTag lineTag = (LineNumberTag) host.getTag("LineNumberTag");
+        if (lineTag != null) return lineTag.getLineNumber();
+        return 0;
+    }
+
+    private static @NonNull String getFileName(@NonNull String path) {
+        int slash = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\'));
+        return path.substring(slash + 1);
+    }
+}
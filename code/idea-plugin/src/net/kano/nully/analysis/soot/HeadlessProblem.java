@@ -0,0 +1,161 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin.analysis.nulls.soot;
+
+import net.kano.nully.annotations.NonNull;
+
+/**
+ * A problem found by the {@link HeadlessAnalyzer}. Problems are plain values,
+ * so they can be passed out of the {@linkplain
+ * net.kano.nully.plugin.SootEnvironment Soot environment} which found them.
+ */
+public final class HeadlessProblem implements Comparable<HeadlessProblem> {
+    /** The file could not be parsed, so it wasn't analyzed. */
+    public static final String TYPE_PARSE_ERROR = "PARSE_ERROR";
+    /** The file could not be analyzed because the analysis failed. */
+    public static final String TYPE_ANALYSIS_ERROR = "ANALYSIS_ERROR";
+    /** A reference which is always {@code null} is dereferenced. */
+    public static final String TYPE_NULL_DEREFERENCE = "NULL_DEREFERENCE";
+    /** A value which may be {@code null} is passed to a non-null parameter. */
+    public static final String TYPE_NULL_ARGUMENT
+            = "NULL_ARGUMENT_FOR_NONNULL_PARAMETER";
+    /** A value which may be {@code null} is returned by a non-null method. */
+    public static final String TYPE_NULL_RETURN
+            = "NULL_RETURN_IN_NONNULL_METHOD";
+
+    private final String file;
+    private final int line;
+    private final String type;
+    private final boolean definite;
+    private final String message;
+
+    public HeadlessProblem(@NonNull String file, int line, @NonNull String type,
+            boolean definite, @NonNull String message) {
+        this.file = file;
+        this.line = line;
+        this.type = type;
+        this.definite = definite;
+        this.message = message;
+    }
+
+    public @NonNull String getFile() { return file; }
+
+    /** Returns the problem's line number, starting at 1, or 0 if unknown. */
+    public int getLine() { return line; }
+
+    /**
+     * Returns the kind of problem: one of the {@code TYPE_} constants, or the
+     * name of a {@link net.kano.nully.plugin.analysis.nulls.NullProblemType}.
+     */
+    public @NonNull String getType() { return type; }
+
+    /** Returns whether the value involved is always {@code null}. */
+    public boolean isDefinite() { return definite; }
+
+    public @NonNull String getMessage() { return message; }
+
+    public int compareTo(HeadlessProblem o) {
+        int cmp = file.compareTo(o.file);
+        if (cmp != 0) return cmp;
+        if (line != o.line) return line < o.line ? -1 : 1;
+        cmp = type.compareTo(o.type);
+        if (cmp != 0) return cmp;
+        return message.compareTo(o.message);
+    }
+
+    /**
+     * Returns this problem as a single-line JSON object.
+     *
+     * @return a JSON object describing this problem
+     */
+    public @NonNull String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"file\":");
+        appendJsonString(sb, file);
+        sb.append(",\"line\":").append(line);
+        sb.append(",\"type\":");
+        appendJsonString(sb, type);
+        sb.append(",\"definite\":").append(definite);
+        sb.append(",\"message\":");
+        appendJsonString(sb, message);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    static void appendJsonString(@NonNull StringBuilder sb, @NonNull String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            switch (ch) {
+            case '"': sb.append("\\\""); break;
+            case '\\': sb.append("\\\\"); break;
+            case '\n': sb.append("\\n"); break;
+            case '\r': sb.append("\\r"); break;
+            case '\t': sb.append("\\t"); break;
+            default:
+                if (ch < 0x20) {
+                    String hex = Integer.toHexString(ch);
+                    sb.append("\\u");
+                    for (int j = hex.length(); j < 4; j++) sb.append('0');
+                    sb.append(hex);
+                } else {
+                    sb.append(ch);
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof HeadlessProblem)) return false;
+
+        HeadlessProblem other = (HeadlessProblem) o;
+        return line == other.line && definite == other.definite
+                && file.equals(other.file) && type.equals(other.type)
+                && message.equals(other.message);
+    }
+
+    public int hashCode() {
+        int result = file.hashCode();
+        result = 31 * result + line;
+        result = 31 * result + type.hashCode();
+        result = 31 * result + message.hashCode();
+        return result;
+    }
+
+    public String toString() {
+        return file + ":" + line + ": " + type + ": " + message;
+    }
+}
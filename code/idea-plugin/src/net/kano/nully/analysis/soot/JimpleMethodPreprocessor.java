@@ -44,9 +44,12 @@ import com.intellij.psi.PsiVariable;
 import com.intellij.psi.PsiMember;
 import com.intellij.psi.util.PsiTreeUtil;
 import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.NonNullTools;
 import net.kano.nully.annotations.NullParameterException;
+import net.kano.nully.plugin.LocalNamer;
 import net.kano.nully.plugin.NullyTools;
 import net.kano.nully.annotations.UnexpectedNullValueException;
+import net.kano.nully.plugin.SootFacts;
 import net.kano.nully.plugin.SootTools;
 import net.kano.nully.plugin.PsiTools;
 import net.kano.nully.plugin.analysis.AnalysisContext;
@@ -58,6 +61,7 @@ import soot.RefType;
 import soot.Scene;
 import soot.SootClass;
 import soot.SootMethod;
+import soot.SootMethodRef;
 import soot.Type;
 import soot.Unit;
 import soot.Value;
@@ -89,15 +93,30 @@ import java.util.List;
  * specified by {@code NonNull} declarations in the code, which allows the null
  * checker to be smart about which values are null and which are not in terms of
  * non-null declared variables and return values.
+ * <br /><br />
+ * Without an IDE, the declarations can instead be read from compiled classes
+ * using {@link NullContracts}. Only parameters and return values are declared
+ * in class files, so assignments to {@code @NonNull} local variables aren't
+ * checked then.
  */
 public class JimpleMethodPreprocessor {
     private static final Logger LOGGER
             = Logger.getInstance(JimpleMethodPreprocessor.class.getName());
 
     private final AnalysisContext context;
+    private final NullContracts contracts;
+
+    private ExceptionConstructionDescriptor unexpectedNullException = null;
+    private SootMethodRef nullParameterConstructor = null;
 
     public JimpleMethodPreprocessor(@NonNull AnalysisContext context) {
         this.context = context;
+        this.contracts = null;
+    }
+
+    public JimpleMethodPreprocessor(@NonNull NullContracts contracts) {
+        this.context = null;
+        this.contracts = contracts;
     }
 
     /**
@@ -113,75 +132,130 @@ public class JimpleMethodPreprocessor {
     }
 
     /**
-     * Preprocesses the given method.
+     * Preprocesses the given method body using this preprocessor's
+     * {@link NullContracts}.
+     *
+     * @param body the method body
+     */
+    public void preprocessBody(@NonNull Body body) {
+        if (contracts == null) {
+            throw new IllegalStateException("no contracts to read");
+        }
+        SootMethod method = body.getMethod();
+        String className = method.getDeclaringClass().getName();
+        String desc = SootTools.getDescriptor(method);
+
+        List<NullCheck> checks = new ArrayList<NullCheck>();
+        for (Unit unit : (Collection<Unit>)body.getUnits()) {
+            if (!(unit instanceof DefinitionStmt)) continue;
+            DefinitionStmt defStmt = (DefinitionStmt) unit;
+            if (defStmt.hasTag(FixedNullAssignmentTag.TAG_NAME)) continue;
+
+            Value assignedValue = defStmt.getRightOp();
+            if (assignedValue instanceof ParameterRef) {
+                int paramIndex = ((ParameterRef) assignedValue).getIndex();
+                if (!contracts.isNonNullParameter(className, method.getName(),
+                        desc, paramIndex)) {
+                    continue;
+                }
+                String name = ((Local) defStmt.getLeftOp()).getName();
+                Value[] values = { StringConstant.v(name),
+                    IntConstant.v(paramIndex) };
+                checks.add(new NullCheck(defStmt, false,
+                        new ExceptionConstructionDescriptor(
+                                getNullParameterConstructor(),
+                                Arrays.asList(values))));
+
+            } else if (assignedValue instanceof InvokeExpr) {
+                SootMethodRef called = ((InvokeExpr) assignedValue).getMethodRef();
+                if (contracts.isNonNullReturn(called.declaringClass().getName(),
+                        called.name(), SootTools.getDescriptor(called))) {
+                    checks.add(new NullCheck(defStmt, true,
+                            getUnexpectedNullException()));
+                }
+            }
+        }
+        if (checks.isEmpty()) return;
+
+        LocalNamer namer = new LocalNamer((Collection<Local>) body.getLocals());
+        for (NullCheck check : checks) addNullCheck(body, namer, check);
+    }
+
+    /**
+     * Preprocesses the given method. All of the needed null checks are found
+     * in one walk over the method's units, and then inserted.
      *
      * @param member the PSI method
      * @param body the method body
      */
     private void preprocessMethod(@NonNull PsiMember member, @NonNull Body body) {
-        // keep iterating through the code until no more changes occur, up to
-        // 1000000 times
-        boolean changed = true;
-        for (int i = 0; changed && i < 1000000; i++) {
-            changed = false;
-            for (Unit unit : (Collection<Unit>)body.getUnits()) {
-                if (unit instanceof DefinitionStmt) {
-                    DefinitionStmt defStmt = (DefinitionStmt) unit;
-                    changed = fixAssignment(member, body, defStmt);
-                }
-                if (changed) break;
+        List<NullCheck> checks = new ArrayList<NullCheck>();
+        for (Unit unit : (Collection<Unit>)body.getUnits()) {
+            if (unit instanceof DefinitionStmt) {
+                DefinitionStmt defStmt = (DefinitionStmt) unit;
+                NullCheck check = fixAssignment(member, defStmt);
+                if (check != null) checks.add(check);
             }
         }
+        if (checks.isEmpty()) return;
+
+        LocalNamer namer = new LocalNamer((Collection<Local>) body.getLocals());
+        for (NullCheck check : checks) addNullCheck(body, namer, check);
     }
 
     /**
-     * Adds appropriate null check "assertions" after assignment to @NonNull
-     * variables, to reflect the runtime checks that the precompiler inserts.
+     * Returns the null check "assertion" to add for the given assignment to
+     * reflect the runtime checks that the precompiler inserts, if any.
      *
      * @param member the method
-     * @param body the method body
      * @param assignStmt an assignment statement
-     * @return whether the code in {@code body} was changed
+     * @return the null check to add, or {@code null} if none is needed
      */
-    private boolean fixAssignment(@NonNull PsiMember member,
-            @NonNull Body body, @NonNull DefinitionStmt assignStmt) {
+    private NullCheck fixAssignment(@NonNull PsiMember member,
+            @NonNull DefinitionStmt assignStmt) {
+        // if we've already fixed this assignment, there's nothing to do
+        if (assignStmt.hasTag(FixedNullAssignmentTag.TAG_NAME)) return null;
+
         Value assignedValue = assignStmt.getRightOpBox().getValue();
 
         // STEP 0 - add null checks at the top of the method for @NonNull
         //          parameters (after the parameter ref assignment)
         if (assignedValue instanceof ParameterRef) {
-            if (fixParameterRef(member, body, assignStmt)) return true;
+            NullCheck check = fixParameterRef(member, assignStmt);
+            if (check != null) return check;
         }
 
         // STEP 1 - add null checks before assignment if assignment
         //          to @NonNull method call result
         if (assignedValue instanceof InvokeExpr) {
-            if (fixAssignmentOfNonNullMethodCall(body, assignStmt)) return true;
+            NullCheck check = fixAssignmentOfNonNullMethodCall(assignStmt);
+            if (check != null) return check;
         }
 
         // STEP 2 - add null checks after assignment to @NonNull variable
-        if (fixAssignmentToNonNullVariable(body, assignStmt)) return true;
+        NullCheck check = fixAssignmentToNonNullVariable(assignStmt);
+        if (check != null) return check;
 
         // STEP 3 - would be to check return values for nulls, but we don't need
         //          to because return values aren't used anywhere else in the
         //          method, so they only need to be tagged
 
-        return false;
+        return null;
     }
 
     /**
-     * Adds a null check at the top of the given method to throw an exception if
-     * the given parameter is null, if the parameter is marked as non-null.
+     * Returns a null check for the top of the given method to throw an
+     * exception if the given parameter is null, if the parameter is marked as
+     * non-null.
      *
      * @param memberCopy a method
-     * @param body a method body
      * @param assignStmt an assignment statement which assigns a parameter
      *        reference to a parameter local
-     * @return whether a null check was added
+     * @return the null check to add, or {@code null} if none is needed
      */
-    private boolean fixParameterRef(@NonNull PsiMember memberCopy, @NonNull Body body,
+    private NullCheck fixParameterRef(@NonNull PsiMember memberCopy,
             @NonNull DefinitionStmt assignStmt) {
-        if (!(memberCopy instanceof PsiMethod)) return false;
+        if (!(memberCopy instanceof PsiMethod)) return null;
         PsiMethod method = (PsiMethod) memberCopy;
 
         // find the referenced parameter
@@ -193,115 +267,96 @@ public class JimpleMethodPreprocessor {
         PsiParameter[] params = parameterList.getParameters();
         PsiParameter paramCopy = params[paramIndex];
         PsiParameter param = context.getOriginalElement(paramCopy);
-        if (!NullyTools.hasNonNullAnnotation(param)) return false;
+        if (!NullyTools.hasNonNullAnnotation(param)) return null;
 
-        // create the exception constructor descriptor
-        Type[] types = { RefType.v(String.class.getName()), IntType.v() };
+        // describe the exception constructor call
         Value[] values = { StringConstant.v(param.getName()),
             IntConstant.v(parameterList.getParameterIndex(paramCopy)) };
         ExceptionConstructionDescriptor excon = new ExceptionConstructionDescriptor(
-                NullParameterException.class.getName(), Arrays.asList(types),
-                Arrays.asList(values));
+                getNullParameterConstructor(), Arrays.asList(values));
 
         // and add the null check
-        boolean added = addNullCheck(body, assignStmt, false, excon);
-        return added;
+        return new NullCheck(assignStmt, false, excon);
     }
 
     /**
-     * Adds a null check before the assignment of the return value of a non-null
-     * method. If the called method is not marked as non-null, this method has
-     * no effect.
+     * Returns a null check for before the assignment of the return value of a
+     * non-null method. If the called method is not marked as non-null, no
+     * check is needed.
      *
-     * @param body a method
      * @param assignStmt the assignment statement
-     * @return whether a null check was added
+     * @return the null check to add, or {@code null} if none is needed
      */
-    private boolean fixAssignmentOfNonNullMethodCall(@NonNull Body body,
+    private NullCheck fixAssignmentOfNonNullMethodCall(
             @NonNull DefinitionStmt assignStmt) {
         // find the referenced method call expression
         PsiMethodCallExpression call = getMethodCallExpression(assignStmt);
-        if (call == null) return false;
+        if (call == null) return null;
 
         // find the called method
         PsiMethod referencedMethod = call.resolveMethod();
-        if (referencedMethod == null) return false;
+        if (referencedMethod == null) return null;
         PsiMethod referencedMethodOrig = context.getOriginalElement(referencedMethod);
         if (referencedMethodOrig != null) referencedMethod = referencedMethodOrig;
 
         // see if the called method is defined as non-null
-        if (!NullyTools.hasNonNullAnnotation(referencedMethod)) return false;
+        if (!NullyTools.hasNonNullAnnotation(referencedMethod)) return null;
 
         // if so, add a null check
-        boolean added = addUnexpectedNullCheck(body, assignStmt, true);
-        if (added) {
-            LOGGER.debug("I fixed method call to "
-                    + referencedMethod.getContainingClass().getQualifiedName()
-                    + " " + referencedMethod.getName());
-            return true;
-        } else {
-            return false;
-        }
+        LOGGER.debug("I fixed method call to "
+                + referencedMethod.getContainingClass().getQualifiedName()
+                + " " + referencedMethod.getName());
+        return new NullCheck(assignStmt, true, getUnexpectedNullException());
     }
 
     /**
-     * Adds a null check after an assignment to a variable if it is marked as
-     * non-null.
+     * Returns a null check for after an assignment to a variable if it is
+     * marked as non-null.
      *
-     * @param body a method body
      * @param assignStmt an assignment statement
-     * @return whether a null check was added
+     * @return the null check to add, or {@code null} if none is needed
      */
-    private boolean fixAssignmentToNonNullVariable(@NonNull Body body,
+    private NullCheck fixAssignmentToNonNullVariable(
             @NonNull DefinitionStmt assignStmt) {
         // find the source position of the assigned variable
         ValueBox varBox = assignStmt.getLeftOpBox();
         PsiElement varSrcTag = SootTools.getPsiElement(varBox);
-        if (varSrcTag == null) return false;
+        if (varSrcTag == null) return null;
 
         // find the PSI variable
         PsiVariable var = getAssignedVariable(varSrcTag);
 
         // add a null check if necessary
-        if (!NullyTools.hasNonNullAnnotation(var)) return false;
+        if (!NullyTools.hasNonNullAnnotation(var)) return null;
 
-        boolean added = addUnexpectedNullCheck(body, assignStmt, false);
-        if (added) {
-            LOGGER.debug("I fixed assignment to " + var.getName());
-            return true;
-        } else {
-            return false;
-        }
+        LOGGER.debug("I fixed assignment to " + var.getName());
+        return new NullCheck(assignStmt, false, getUnexpectedNullException());
     }
 
     /**
-     * Adds a null check to the given method body for the given statement, if
-     * such a check is necessary due to nonnull annotations on associated
-     * elements. The inserted code will throw an instance of an exception
-     * created using the given exception construction information.
+     * Adds the given null check to the given method body. The inserted code
+     * will throw an instance of an exception created using the check's
+     * exception construction information.
      * <br /><br />
-     * If {@code before} is {@code true}, the null check will be added before
-     * the value is actually assigned to the corresponding variable. That is,
-     * it will be impossible for the variable to hold a null value at any time.
+     * If the check is {@linkplain NullCheck#isBefore() before} the assignment,
+     * the null check will be added before the value is actually assigned to
+     * the corresponding variable. That is, it will be impossible for the
+     * variable to hold a null value at any time.
      * <br /><br />
-     * Otherwise, if {@code before} is {@code false}, the null check will be
-     * added after the variable is assigned.
+     * Otherwise, the null check will be added after the variable is assigned.
      * <br />
      * <br />
      * TODO: document why a check would want to specify before or after assignment execution
      *
      * @param body a method body
-     * @param checkedStmt the statement for which a null check will be added
-     * @param before whether to place the null check before the assignment
-     * @param excon a description of what exception to throw when a null value
-     *        is found at runtime
-     * @return whether a null check was added
+     * @param namer the namer for new locals in {@code body}
+     * @param check the null check to add
      */
-    private boolean addNullCheck(@NonNull Body body,
-            @NonNull DefinitionStmt checkedStmt, boolean before,
-            @NonNull ExceptionConstructionDescriptor excon) {
-        // if we've already fixed this assignment, there's nothing to do
-        if (checkedStmt.hasTag(FixedNullAssignmentTag.TAG_NAME)) return false;
+    private void addNullCheck(@NonNull Body body, @NonNull LocalNamer namer,
+            @NonNull NullCheck check) {
+        DefinitionStmt checkedStmt = check.getStatement();
+        boolean before = check.isBefore();
+        ExceptionConstructionDescriptor excon = check.getException();
 
         Jimple jimple = Jimple.v();
 
@@ -314,7 +369,7 @@ public class JimpleMethodPreprocessor {
             // to create a temporary local which will hold the value while it's
             // being checked for nullness, so a null value is never present in
             // the actual variable being assigned.
-            Local newLocal = jimple.newLocal(SootTools.getUnusedLocalName(locals),
+            Local newLocal = jimple.newLocal(namer.newName(),
                             checkedStmt.getLeftOp().getType());
             locals.add(newLocal);
 
@@ -322,6 +377,8 @@ public class JimpleMethodPreprocessor {
             copyStmt = jimple.newAssignStmt(newLocal, checkedStmt.getRightOp());
             // copy tags over
             copyStmt.getRightOpBox().addAllTagsOf(checkedStmt.getRightOpBox());
+            SootFacts.getInstance().copyFacts(checkedStmt.getRightOpBox(),
+                    copyStmt.getRightOpBox());
             copyStmt.addTag(new FixedNullAssignmentTag());
 //            copyStmt.addAllTagsOf(checkedStmt);
 
@@ -340,32 +397,40 @@ public class JimpleMethodPreprocessor {
                         checkedStmt);
 
         // create the local to hold the exception to be thrown
-        Local exceptionLocal = jimple.newLocal(SootTools.getUnusedLocalName(locals),
+        SootMethodRef constructor = excon.getConstructor();
+        Local exceptionLocal = jimple.newLocal(namer.newName(),
                         RefType.v(RuntimeException.class.getName()));
         locals.add(exceptionLocal);
 
-        // 2. create the assignment statement for the to-be-thrown exception local
-        Scene scene = Scene.v();
-        SootClass exceptionClass = scene.getSootClass(excon.getClassName());
-        AssignStmt assignStmt = jimple.newAssignStmt(exceptionLocal,
-                        jimple.newNewExpr(RefType.v(exceptionClass)));
-
-        // 3. create the "new xxx" instruction for creating a new instance of the
-        // specified exception
-        InvokeStmt specialInvokeExpr = jimple.newInvokeStmt(
-                        jimple.newSpecialInvokeExpr(exceptionLocal,
-                                scene.makeConstructorRef(exceptionClass,
-                                        excon.getParameterTypes()), excon.getArguments()));
+        AssignStmt assignStmt;
+        InvokeStmt specialInvokeExpr;
+        if (constructor.isStatic()) {
+            // 2. the exception is returned by a factory method
+            assignStmt = jimple.newAssignStmt(exceptionLocal,
+                    jimple.newStaticInvokeExpr(constructor, excon.getArguments()));
+            specialInvokeExpr = null;
+        } else {
+            // 2. create the assignment statement for the to-be-thrown exception
+            // local
+            assignStmt = jimple.newAssignStmt(exceptionLocal,
+                    jimple.newNewExpr(constructor.declaringClass().getType()));
+
+            // 3. create the "new xxx" instruction for creating a new instance
+            // of the specified exception
+            specialInvokeExpr = jimple.newInvokeStmt(
+                    jimple.newSpecialInvokeExpr(exceptionLocal, constructor,
+                            excon.getArguments()));
+        }
 
         // 4. create the throw statement for that local
         ThrowStmt throwStmt = jimple.newThrowStmt(exceptionLocal);
 
         // create a list of the above statements to insert
-        List<Stmt> stmts = new ArrayList<Stmt>();
+        List<Stmt> stmts = new ArrayList<Stmt>(5);
         if (copyStmt != null) stmts.add(copyStmt);
         stmts.add(ifStmt);
         stmts.add(assignStmt);
-        stmts.add(specialInvokeExpr);
+        if (specialInvokeExpr != null) stmts.add(specialInvokeExpr);
         stmts.add(throwStmt);
 
         // insert the statements
@@ -410,26 +475,45 @@ public class JimpleMethodPreprocessor {
 
         // we want to make sure we don't check the same assignment twice
         checkedStmt.addTag(new FixedNullAssignmentTag());
+    }
 
-        return true;
+    /**
+     * Returns a description of how to create an
+     * {@link net.kano.nully.annotations.UnexpectedNullValueException}. The
+     * constructor is only resolved once for each run.
+     *
+     * @return how to construct an unexpected null value exception
+     */
+    private @NonNull ExceptionConstructionDescriptor getUnexpectedNullException() {
+        if (unexpectedNullException == null) {
+            SootClass exceptionClass = Scene.v().getSootClass(
+                    UnexpectedNullValueException.class.getName());
+            SootMethodRef constructor = Scene.v().makeConstructorRef(
+                    exceptionClass, Collections.<Type>emptyList());
+            unexpectedNullException = new ExceptionConstructionDescriptor(
+                    constructor, Collections.<Value>emptyList());
+        }
+        return unexpectedNullException;
     }
 
     /**
-     * Adds a null check for the given assignment where null values result in
-     * thrown {@link net.kano.nully.annotations.UnexpectedNullValueException}s, if a null
-     * check is necessary based on nullness annotations.
+     * Returns {@link NonNullTools#newNullParameterException}, which builds a
+     * {@link NullParameterException} from a parameter name and index, the same
+     * way as the inserted runtime checks. The method is only resolved once for
+     * each run.
      *
-     * @param body a method body
-     * @param assignStmt an assignment statement
-     * @param before whether to insert the null check before the assignment
-     * @return whether the method body was modified to include a null check
+     * @return the null parameter exception factory
      */
-    private boolean addUnexpectedNullCheck(@NonNull Body body,
-            @NonNull DefinitionStmt assignStmt, boolean before) {
-        ExceptionConstructionDescriptor excon = new ExceptionConstructionDescriptor(
-                UnexpectedNullValueException.class.getName(),
-                Collections.<Type>emptyList(), Collections.<Value>emptyList());
-        return addNullCheck(body, assignStmt, before, excon);
+    private @NonNull SootMethodRef getNullParameterConstructor() {
+        if (nullParameterConstructor == null) {
+            SootClass tools = Scene.v().getSootClass(
+                    NonNullTools.class.getName());
+            Type[] types = { RefType.v(String.class.getName()), IntType.v() };
+            nullParameterConstructor = Scene.v().makeMethodRef(tools,
+                    NullyTools.METHOD_NEWNULLPARAMEXCEPTION, Arrays.asList(types),
+                    RefType.v(NullParameterException.class.getName()), true);
+        }
+        return nullParameterConstructor;
     }
 
     /**
@@ -498,30 +582,53 @@ public class JimpleMethodPreprocessor {
     }
 
     /**
-     * Describes how to invoke a class constructor.
+     * Describes how to build an exception: with a constructor, or with a
+     * static method which returns it.
      */
-    private class ExceptionConstructionDescriptor {
-        private final String className;
-        private final List<Type> paramTypes;
+    private static class ExceptionConstructionDescriptor {
+        private final SootMethodRef constructor;
         private final List<Value> args;
 
-        public ExceptionConstructionDescriptor(@NonNull String className,
-                @NonNull List<Type> paramTypes, @NonNull List<Value> paramArgs) {
-            this.className = className;
-            this.paramTypes = paramTypes;
+        public ExceptionConstructionDescriptor(@NonNull SootMethodRef constructor,
+                @NonNull List<Value> paramArgs) {
+            this.constructor = constructor;
             this.args = paramArgs;
         }
 
-        public @NonNull String getClassName() {
-            return className;
-        }
-
-        public @NonNull List<Type> getParameterTypes() {
-            return paramTypes;
+        public @NonNull SootMethodRef getConstructor() {
+            return constructor;
         }
 
         public @NonNull List<Value> getArguments() {
             return args;
         }
     }
+
+    /**
+     * Describes a null check to be inserted for an assignment.
+     */
+    private static class NullCheck {
+        private final DefinitionStmt stmt;
+        private final boolean before;
+        private final ExceptionConstructionDescriptor excon;
+
+        public NullCheck(@NonNull DefinitionStmt stmt, boolean before,
+                @NonNull ExceptionConstructionDescriptor excon) {
+            this.stmt = stmt;
+            this.before = before;
+            this.excon = excon;
+        }
+
+        public @NonNull DefinitionStmt getStatement() {
+            return stmt;
+        }
+
+        public boolean isBefore() {
+            return before;
+        }
+
+        public @NonNull ExceptionConstructionDescriptor getException() {
+            return excon;
+        }
+    }
 }
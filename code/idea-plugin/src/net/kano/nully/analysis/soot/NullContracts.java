@@ -0,0 +1,445 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin.analysis.nulls.soot;
+
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * The {@code @NonNull} parameters and return values of the methods in a set
+ * of compiled classes. {@code @NonNull} has runtime retention, so the
+ * contracts of already-compiled code can be read straight from its class files
+ * without an IDE; this is how the {@link HeadlessAnalyzer} learns the
+ * contracts of code outside the file being analyzed.
+ * <br /><br />
+ * A contract declared on an overridden or implemented method also applies to
+ * the methods which override it. Contracts are never changed once read, so
+ * one instance can be shared by all of the analyzer's threads.
+ */
+public final class NullContracts {
+    private static final String NONNULL_DESC
+            = "L" + NonNull.class.getName().replace('.', '/') + ";";
+    private static final byte[] NONNULL_BYTES = NONNULL_DESC.getBytes();
+
+    private final Map<String, ClassInfo> classes
+            = new HashMap<String, ClassInfo>();
+
+    private NullContracts() { }
+
+    /**
+     * Reads the contracts of every class in the given class path. Classes
+     * earlier in the path hide later classes with the same name, as they
+     * would for a class loader.
+     *
+     * @param classPath directories and jar files, separated by
+     *        {@link File#pathSeparator}
+     * @return the contracts in the class path
+     * @throws IOException if a class path entry can't be read
+     */
+    public static @NonNull NullContracts readClassPath(@NonNull String classPath)
+            throws IOException {
+        NullContracts contracts = new NullContracts();
+        StringTokenizer st = new StringTokenizer(classPath, File.pathSeparator);
+        while (st.hasMoreTokens()) {
+            File entry = new File(st.nextToken());
+            if (entry.isDirectory()) {
+                contracts.readDirectory(entry);
+            } else if (entry.isFile()) {
+                contracts.readJar(entry);
+            }
+        }
+        return contracts;
+    }
+
+    public int getClassCount() { return classes.size(); }
+
+    private void readDirectory(@NonNull File dir) throws IOException {
+        LinkedList<File> dirs = new LinkedList<File>();
+        dirs.add(dir);
+        while (!dirs.isEmpty()) {
+            File[] files = dirs.removeFirst().listFiles();
+            if (files == null) continue;
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    dirs.add(file);
+                } else if (file.getName().endsWith(".class")) {
+                    InputStream in = new FileInputStream(file);
+                    try {
+                        readClass(in);
+                    } finally {
+                        in.close();
+                    }
+                }
+            }
+        }
+    }
+
+    private void readJar(@NonNull File file) throws IOException {
+        JarFile jar = new JarFile(file);
+        try {
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (!entry.getName().endsWith(".class")) continue;
+                InputStream in = jar.getInputStream(entry);
+                try {
+                    readClass(in);
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            jar.close();
+        }
+    }
+
+    private void readClass(@NonNull InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int read;
+        while ((read = in.read(buf)) != -1) out.write(buf, 0, read);
+        byte[] bytes = out.toByteArray();
+
+        ClassInfo info;
+        try {
+            info = new ClassFileReader(bytes).read(contains(bytes, NONNULL_BYTES));
+        } catch (IOException e) {
+            // a broken class file can't contribute any contracts
+            return;
+        } catch (RuntimeException e) {
+            return;
+        }
+        if (info != null && !classes.containsKey(info.name)) {
+            classes.put(info.name, info);
+        }
+    }
+
+    private static boolean contains(@NonNull byte[] bytes, @NonNull byte[] part) {
+        int last = bytes.length - part.length;
+        outer: for (int i = 0; i <= last; i++) {
+            for (int j = 0; j < part.length; j++) {
+                if (bytes[i + j] != part[j]) continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the given method, or a method it overrides, has a
+     * {@code @NonNull} return value.
+     *
+     * @param className the name of the class the method is called on
+     * @param name the method's name
+     * @param desc the method's JVM descriptor, like
+     *        {@code (Ljava/lang/String;)V}
+     * @return whether the method must not return {@code null}
+     */
+    public boolean isNonNullReturn(@NonNull String className,
+            @NonNull String name, @NonNull String desc) {
+        for (MethodContract contract : findContracts(className, name + desc)) {
+            if (contract.nonNullReturn) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the given parameter of the given method, or of a
+     * method it overrides, is {@code @NonNull}.
+     *
+     * @param className the name of the class the method is called on
+     * @param name the method's name
+     * @param desc the method's JVM descriptor
+     * @param index the index of the parameter in the descriptor
+     * @return whether the parameter must not be {@code null}
+     */
+    public boolean isNonNullParameter(@NonNull String className,
+            @NonNull String name, @NonNull String desc, int index) {
+        for (MethodContract contract : findContracts(className, name + desc)) {
+            boolean[] params = contract.nonNullParams;
+            if (index < params.length && params[index]) return true;
+        }
+        return false;
+    }
+
+    private @NonNull List<MethodContract> findContracts(
+            @NonNull String className, @NonNull String signature) {
+        List<MethodContract> found = new ArrayList<MethodContract>(2);
+        Set<String> seen = new HashSet<String>();
+        LinkedList<String> queue = new LinkedList<String>();
+        queue.add(className);
+        while (!queue.isEmpty()) {
+            String next = queue.removeFirst();
+            if (!seen.add(next)) continue;
+            ClassInfo info = classes.get(next);
+            if (info == null) continue;
+
+            MethodContract contract = info.methods.get(signature);
+            if (contract != null) found.add(contract);
+            if (info.superName != null) queue.add(info.superName);
+            for (String iface : info.interfaces) queue.add(iface);
+        }
+        return found;
+    }
+
+    private static final class ClassInfo {
+        public final String name;
+        public final String superName;
+        public final String[] interfaces;
+        public final Map<String, MethodContract> methods
+                = new HashMap<String, MethodContract>();
+
+        public ClassInfo(String name, String superName, String[] interfaces) {
+            this.name = name;
+            this.superName = superName;
+            this.interfaces = interfaces;
+        }
+    }
+
+    private static final class MethodContract {
+        public boolean nonNullReturn = false;
+        public boolean[] nonNullParams = new boolean[0];
+    }
+
+    /**
+     * Reads a class's name and supertypes, and optionally its methods'
+     * {@code @NonNull} annotations.
+     */
+    private static final class ClassFileReader {
+        private final DataInputStream in;
+        private String[] strings;
+        private int[] classNames;
+
+        public ClassFileReader(@NonNull byte[] bytes) {
+            in = new DataInputStream(new ByteArrayInputStream(bytes));
+        }
+
+        public @Nullable ClassInfo read(boolean readMethods) throws IOException {
+            if (in.readInt() != 0xcafebabe) return null;
+            in.readInt();
+            readConstantPool();
+
+            in.readUnsignedShort();
+            String name = getClassName(in.readUnsignedShort());
+            int superIndex = in.readUnsignedShort();
+            String superName = superIndex == 0 ? null : getClassName(superIndex);
+            String[] interfaces = new String[in.readUnsignedShort()];
+            for (int i = 0; i < interfaces.length; i++) {
+                interfaces[i] = getClassName(in.readUnsignedShort());
+            }
+            ClassInfo info = new ClassInfo(name, superName, interfaces);
+            if (!readMethods) return info;
+
+            int fields = in.readUnsignedShort();
+            for (int i = 0; i < fields; i++) {
+                in.skipBytes(6);
+                skipAttributes();
+            }
+            int methods = in.readUnsignedShort();
+            for (int i = 0; i < methods; i++) {
+                in.readUnsignedShort();
+                String methodName = strings[in.readUnsignedShort()];
+                String desc = strings[in.readUnsignedShort()];
+                MethodContract contract = readMethodAttributes(desc);
+                if (contract != null) {
+                    info.methods.put(methodName + desc, contract);
+                }
+            }
+            return info;
+        }
+
+        private void readConstantPool() throws IOException {
+            int count = in.readUnsignedShort();
+            strings = new String[count];
+            classNames = new int[count];
+            for (int i = 1; i < count; i++) {
+                int tag = in.readUnsignedByte();
+                switch (tag) {
+                case 1:
+                    strings[i] = in.readUTF();
+                    break;
+                case 7:
+                    classNames[i] = in.readUnsignedShort();
+                    break;
+                case 8: case 16: case 19: case 20:
+                    in.skipBytes(2);
+                    break;
+                case 15:
+                    in.skipBytes(3);
+                    break;
+                case 3: case 4: case 9: case 10: case 11: case 12: case 17:
+                case 18:
+                    in.skipBytes(4);
+                    break;
+                case 5: case 6:
+                    in.skipBytes(8);
+                    i++;
+                    break;
+                default:
+                    throw new IOException("unknown constant pool tag " + tag);
+                }
+            }
+        }
+
+        private String getClassName(int index) {
+            return strings[classNames[index]].replace('/', '.');
+        }
+
+        private void skipAttributes() throws IOException {
+            int count = in.readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                in.skipBytes(2);
+                in.skipBytes(in.readInt());
+            }
+        }
+
+        private @Nullable MethodContract readMethodAttributes(@NonNull String desc)
+                throws IOException {
+            MethodContract contract = null;
+            int count = in.readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                String attrName = strings[in.readUnsignedShort()];
+                int length = in.readInt();
+                if (attrName.equals("RuntimeVisibleAnnotations")) {
+                    if (readAnnotations()) {
+                        if (contract == null) contract = new MethodContract();
+                        contract.nonNullReturn = true;
+                    }
+                } else if (attrName.equals("RuntimeVisibleParameterAnnotations")) {
+                    boolean[] params = readParameterAnnotations(desc);
+                    if (params != null) {
+                        if (contract == null) contract = new MethodContract();
+                        contract.nonNullParams = params;
+                    }
+                } else {
+                    in.skipBytes(length);
+                }
+            }
+            return contract;
+        }
+
+        private @Nullable boolean[] readParameterAnnotations(@NonNull String desc)
+                throws IOException {
+            int paramCount = getParameterCount(desc);
+            int annotated = in.readUnsignedByte();
+            // javac leaves synthetic parameters, like an inner class's outer
+            // instance, out of this table, so it lines up with the last ones
+            int skipped = Math.max(0, paramCount - annotated);
+            boolean[] params = new boolean[paramCount];
+            boolean any = false;
+            for (int i = 0; i < annotated; i++) {
+                if (readAnnotations() && skipped + i < paramCount) {
+                    params[skipped + i] = true;
+                    any = true;
+                }
+            }
+            return any ? params : null;
+        }
+
+        /**
+         * Reads a list of annotations, returning whether one of them is
+         * {@code @NonNull}.
+         */
+        private boolean readAnnotations() throws IOException {
+            boolean nonNull = false;
+            int count = in.readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                if (strings[in.readUnsignedShort()].equals(NONNULL_DESC)) {
+                    nonNull = true;
+                }
+                skipAnnotationValues();
+            }
+            return nonNull;
+        }
+
+        private void skipAnnotationValues() throws IOException {
+            int pairs = in.readUnsignedShort();
+            for (int i = 0; i < pairs; i++) {
+                in.skipBytes(2);
+                skipElementValue();
+            }
+        }
+
+        private void skipElementValue() throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+            case 'e':
+                in.skipBytes(4);
+                break;
+            case '@':
+                in.skipBytes(2);
+                skipAnnotationValues();
+                break;
+            case '[':
+                int count = in.readUnsignedShort();
+                for (int i = 0; i < count; i++) skipElementValue();
+                break;
+            default:
+                in.skipBytes(2);
+                break;
+            }
+        }
+
+        private static int getParameterCount(@NonNull String desc) {
+            int count = 0;
+            int pos = 1;
+            while (desc.charAt(pos) != ')') {
+                while (desc.charAt(pos) == '[') pos++;
+                if (desc.charAt(pos) == 'L') pos = desc.indexOf(';', pos);
+                pos++;
+                count++;
+            }
+            return count;
+        }
+    }
+}
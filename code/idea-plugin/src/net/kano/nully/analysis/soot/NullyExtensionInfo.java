@@ -34,11 +34,16 @@
 package net.kano.nully.plugin.analysis.nulls.soot;
 
 import net.kano.nully.annotations.NonNull;
+import polyglot.ast.Node;
+import polyglot.frontend.Compiler;
 import polyglot.frontend.FileSource;
 import polyglot.frontend.Job;
 import polyglot.frontend.Pass;
+import polyglot.frontend.Source;
+import polyglot.frontend.SourceJob;
 import polyglot.frontend.SourceLoader;
 import polyglot.frontend.VisitorPass;
+import soot.CompilationDeathException;
 import soot.javaToJimple.CastInsertionVisitor;
 import soot.javaToJimple.JavaToJimple;
 import soot.javaToJimple.SaveASTVisitor;
@@ -75,6 +80,39 @@ public class NullyExtensionInfo extends ExtensionInfo {
         return passes;
     }
 
+    /**
+     * Compiles this extension's file to a polyglot AST, using the given
+     * compiler. The compiler must have been created for this extension.
+     *
+     * @param compiler a compiler for this extension
+     * @return the file's AST
+     * @throws CompilationDeathException if the file could not be compiled
+     */
+    public @NonNull Node compile(@NonNull Compiler compiler)
+            throws IOException, CompilationDeathException {
+        Source source = sourceLoader().fileSource(fileName);
+
+        polyglot.frontend.ExtensionInfo sourceExtension = compiler.sourceExtension();
+        SourceJob job = null;
+        if (sourceExtension instanceof ExtensionInfo) {
+            ExtensionInfo jjInfo = (ExtensionInfo) sourceExtension;
+            if (jjInfo.sourceJobMap() != null) {
+                job = (SourceJob) jjInfo.sourceJobMap().get(source);
+            }
+        }
+        if (job == null) {
+            job = sourceExtension.addJob(source);
+        }
+
+        boolean result = sourceExtension.runToCompletion();
+
+        if (!result) {
+            throw new CompilationDeathException(0, "Could not compile");
+        }
+
+        return job.ast();
+    }
+
     public SourceLoader sourceLoader() {
         return new SingleFileSourceLoader();
     }
@@ -37,16 +37,10 @@ import com.intellij.psi.PsiJavaFile;
 import com.intellij.psi.PsiFile;
 import net.kano.nully.annotations.NonNull;
 import polyglot.ast.Node;
-import polyglot.frontend.Compiler;
-import polyglot.frontend.ExtensionInfo;
-import polyglot.frontend.Source;
-import polyglot.frontend.SourceJob;
 import soot.ClassSource;
-import soot.CompilationDeathException;
 import soot.SootClass;
 import soot.javaToJimple.InitialResolver;
 
-import java.io.IOException;
 import java.io.StringReader;
 import java.io.Reader;
 import java.util.Collections;
@@ -68,7 +62,7 @@ public class PsiJavaFileClassSource extends ClassSource {
     }
 
     public List resolve(SootClass sc) {
-        ExtensionInfo extInfo = new NullyExtensionInfo(TEMP_FILE_NAME,
+        NullyExtensionInfo extInfo = new NullyExtensionInfo(TEMP_FILE_NAME,
                 new PsiFileReaderProvider(file));
 //        polyglot.main.Options options = extInfo.getOptions();
 
@@ -85,7 +79,7 @@ public class PsiJavaFileClassSource extends ClassSource {
         InitialResolver resolver = InitialResolver.v();
         Node ast;
         try {
-            ast = compile(compiler, TEMP_FILE_NAME, extInfo);
+            ast = extInfo.compile(compiler);
         } catch (Exception e) {
             e.printStackTrace();
             return Collections.emptyList();
@@ -97,32 +91,6 @@ public class PsiJavaFileClassSource extends ClassSource {
         return resolver.resolveFromJavaFile(sc);
     }
 
-    private Node compile(Compiler compiler, String filename, ExtensionInfo extInfo)
-            throws IOException, CompilationDeathException {
-        Source source = extInfo.sourceLoader().fileSource(filename);
-
-        ExtensionInfo sourceExtension = compiler.sourceExtension();
-        SourceJob job = null;
-        if (sourceExtension instanceof soot.javaToJimple.jj.ExtensionInfo){
-            soot.javaToJimple.jj.ExtensionInfo jjInfo
-                    = (soot.javaToJimple.jj.ExtensionInfo)sourceExtension;
-            if (jjInfo.sourceJobMap() != null){
-                job = (SourceJob)jjInfo.sourceJobMap().get(source);
-            }
-        }
-        if (job == null) {
-            job = sourceExtension.addJob(source);
-        }
-
-        boolean result = sourceExtension.runToCompletion();
-
-        if (!result) {
-            throw new soot.CompilationDeathException(0, "Could not compile");
-        }
-
-        return job.ast();
-    }
-
     private class PsiFileReaderProvider implements ReaderProvider {
         private final PsiFile file;
 
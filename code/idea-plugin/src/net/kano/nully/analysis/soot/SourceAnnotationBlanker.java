@@ -0,0 +1,179 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin.analysis.nulls.soot;
+
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.Nullable;
+
+/**
+ * Replaces the annotations in Java source code with spaces, so that it can be
+ * read by the Java 1.4 polyglot front end. Line breaks are kept, so line and
+ * column numbers in the blanked source still match the original.
+ */
+final class SourceAnnotationBlanker {
+    private final char[] chars;
+    private int pos = 0;
+
+    private SourceAnnotationBlanker(@NonNull String source) {
+        chars = source.toCharArray();
+    }
+
+    /**
+     * Returns the given source with its annotations blanked out, or
+     * {@code null} if it declares an annotation type, which can't be
+     * converted.
+     *
+     * @param source Java source code
+     * @return the source without annotations, or {@code null}
+     */
+    public static @Nullable String blankAnnotations(@NonNull String source) {
+        if (source.indexOf('@') == -1) return source;
+        return new SourceAnnotationBlanker(source).blank();
+    }
+
+    private @Nullable String blank() {
+        while (pos < chars.length) {
+            char ch = chars[pos];
+            if (ch == '/' && peek(1) == '/') {
+                skipLineComment();
+            } else if (ch == '/' && peek(1) == '*') {
+                skipBlockComment();
+            } else if (ch == '"' || ch == '\'') {
+                skipLiteral(ch);
+            } else if (ch == '@') {
+                if (!blankAnnotation()) return null;
+            } else {
+                pos++;
+            }
+        }
+        return new String(chars);
+    }
+
+    private char peek(int ahead) {
+        int i = pos + ahead;
+        return i < chars.length ? chars[i] : '\0';
+    }
+
+    private void skipLineComment() {
+        while (pos < chars.length && chars[pos] != '\n') pos++;
+    }
+
+    private void skipBlockComment() {
+        pos += 2;
+        while (pos < chars.length && !(chars[pos] == '*' && peek(1) == '/')) {
+            pos++;
+        }
+        pos = Math.min(pos + 2, chars.length);
+    }
+
+    private void skipLiteral(char quote) {
+        pos++;
+        while (pos < chars.length && chars[pos] != quote
+                && chars[pos] != '\n') {
+            if (chars[pos] == '\\') pos++;
+            pos++;
+        }
+        pos = Math.min(pos + 1, chars.length);
+    }
+
+    private void skipWhitespace() {
+        while (pos < chars.length && Character.isWhitespace(chars[pos])) pos++;
+    }
+
+    /**
+     * Blanks out the annotation at the current position, returning
+     * {@code false} if it's actually an annotation type declaration.
+     */
+    private boolean blankAnnotation() {
+        int start = pos;
+        pos++;
+        skipWhitespace();
+        int nameStart = pos;
+        while (pos < chars.length
+                && (Character.isJavaIdentifierPart(chars[pos])
+                || chars[pos] == '.' || Character.isWhitespace(chars[pos]))) {
+            // stop before the next declaration, as in "@Foo String"
+            if (Character.isWhitespace(chars[pos])) {
+                int next = pos;
+                while (next < chars.length
+                        && Character.isWhitespace(chars[next])) {
+                    next++;
+                }
+                boolean continued = next < chars.length
+                        && chars[next] == '.'
+                        || chars[pos - 1] == '.';
+                if (!continued) break;
+            }
+            pos++;
+        }
+        String name = new String(chars, nameStart, pos - nameStart).trim();
+        if (name.equals("interface")) return false;
+
+        int end = pos;
+        skipWhitespace();
+        if (pos < chars.length && chars[pos] == '(') {
+            skipArguments();
+            end = pos;
+        }
+        pos = end;
+        for (int i = start; i < end; i++) {
+            if (chars[i] != '\n' && chars[i] != '\r') chars[i] = ' ';
+        }
+        return true;
+    }
+
+    private void skipArguments() {
+        int depth = 0;
+        while (pos < chars.length) {
+            char ch = chars[pos];
+            if (ch == '"' || ch == '\'') {
+                skipLiteral(ch);
+                continue;
+            } else if (ch == '/' && peek(1) == '/') {
+                skipLineComment();
+                continue;
+            } else if (ch == '/' && peek(1) == '*') {
+                skipBlockComment();
+                continue;
+            }
+            pos++;
+            if (ch == '(') {
+                depth++;
+            } else if (ch == ')') {
+                depth--;
+                if (depth == 0) return;
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin.analysis.nulls.soot;
+
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.Nullable;
+import polyglot.ast.ClassDecl;
+import polyglot.ast.Node;
+import polyglot.ast.SourceFile;
+import polyglot.frontend.Compiler;
+import polyglot.util.ErrorInfo;
+import polyglot.util.SilentErrorQueue;
+import soot.ClassProvider;
+import soot.ClassSource;
+import soot.CompilationDeathException;
+import soot.SootClass;
+import soot.javaToJimple.InitialResolver;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@code ClassProvider} which provides the classes declared in a single Java
+ * source file, given as text. Unlike {@link PsiJavaFileClassProvider}, the
+ * file is compiled only once, when {@link #compile} is called, and every class
+ * in the file is resolved from that one AST.
+ */
+public class SourceFileClassProvider implements ClassProvider {
+    private static final int MAX_ERRORS = 100;
+
+    private final String fileName;
+    private final String text;
+
+    private Node ast = null;
+    private final List<String> topLevelNames = new ArrayList<String>();
+    private ErrorInfo firstError = null;
+
+    public SourceFileClassProvider(@NonNull String fileName,
+            @NonNull String text) {
+        this.fileName = fileName;
+        this.text = text;
+    }
+
+    /**
+     * Compiles the file to an AST using the given class path.
+     *
+     * @param classPath the class path to resolve referenced classes from
+     * @return whether the file could be compiled; if not, {@link
+     *         #getFirstError()} describes why
+     */
+    public boolean compile(@NonNull String classPath) {
+        NullyExtensionInfo extInfo = new NullyExtensionInfo(fileName,
+                new ReaderProvider() {
+                    public Reader open() {
+                        return new StringReader(text);
+                    }
+                });
+        extInfo.getOptions().classpath = classPath;
+        SilentErrorQueue errors = new SilentErrorQueue(MAX_ERRORS, fileName);
+        Compiler compiler = new Compiler(extInfo, errors);
+
+        try {
+            ast = extInfo.compile(compiler);
+        } catch (IOException e) {
+            firstError = new ErrorInfo(ErrorInfo.IO_ERROR, e.getMessage(), null);
+            return false;
+        } catch (CompilationDeathException e) {
+            List<ErrorInfo> reported = (List<ErrorInfo>) errors.getErrors();
+            firstError = reported.isEmpty()
+                    ? new ErrorInfo(ErrorInfo.INTERNAL_ERROR, e.getMessage(), null)
+                    : reported.get(0);
+            return false;
+        }
+
+        topLevelNames.clear();
+        if (ast instanceof SourceFile) {
+            for (Object decl : ((SourceFile) ast).decls()) {
+                if (decl instanceof ClassDecl) {
+                    topLevelNames.add(((ClassDecl) decl).type().fullName());
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the first error reported by the last call to {@link #compile},
+     * or {@code null} if it succeeded.
+     *
+     * @return the first compilation error, or {@code null}
+     */
+    public @Nullable ErrorInfo getFirstError() { return firstError; }
+
+    /**
+     * Returns the fully qualified names of the top-level classes declared in
+     * the file.
+     *
+     * @return the names of the file's top-level classes
+     */
+    public @NonNull List<String> getTopLevelNames() {
+        return Collections.unmodifiableList(topLevelNames);
+    }
+
+    /**
+     * Returns whether the given class is declared in the file, as a top-level
+     * class or as an inner, local or anonymous class.
+     *
+     * @param className a fully qualified class name
+     * @return whether the given class comes from this file
+     */
+    public boolean isDeclaredHere(@NonNull String className) {
+        for (String name : topLevelNames) {
+            if (className.equals(name) || className.startsWith(name + "$")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public ClassSource find(String className) {
+        if (ast == null || !isDeclaredHere(className)) return null;
+
+        return new ClassSource(className) {
+            public List resolve(SootClass sc) {
+                InitialResolver resolver = InitialResolver.v();
+                resolver.setAst(ast);
+                resolver.resolveAST();
+                return resolver.resolveFromJavaFile(sc);
+            }
+        };
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin.compilation;
+
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.PsiParameter;
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.NullCheckLevel;
+import net.kano.nully.annotations.NullParameterException;
+import net.kano.nully.annotations.NullReturnException;
+import net.kano.nully.annotations.UnexpectedNullValueException;
+import net.kano.nully.plugin.NullyTools;
+import soot.ArrayType;
+import soot.BooleanType;
+import soot.ByteType;
+import soot.CharType;
+import soot.DoubleType;
+import soot.FloatType;
+import soot.LongType;
+import soot.RefLikeType;
+import soot.RefType;
+import soot.ShortType;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.SootMethodRef;
+import soot.Type;
+import soot.Unit;
+import soot.VoidType;
+import soot.jimple.AssignStmt;
+import soot.jimple.InvokeExpr;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the runtime null checks each method of a class loaded into Soot from
+ * a class file needs. The checks are the bytecode equivalent of those added
+ * to source by {@link RuntimeCheckInserter}:
+ * <ul>
+ * <li>each {@code @NonNull} parameter is checked on entry to its method,
+ *     throwing a {@link NullParameterException}</li>
+ * <li>each value returned from a {@code @NonNull} method is checked before
+ *     it is returned, throwing a {@link NullReturnException}</li>
+ * <li>each value returned from a call to a {@code @NonNull} method is checked
+ *     after the call, throwing an {@link UnexpectedNullValueException}</li>
+ * </ul>
+ * The annotations themselves are read from source through a {@link
+ * PsiMethodLocator}, and the calls are found in each method's Jimple body.
+ * The checks are inserted into the class file by a {@link ClassFilePatcher}.
+ */
+final class BytecodeCheckFinder {
+    private final PsiMethodLocator locator;
+
+    public BytecodeCheckFinder(@NonNull PsiMethodLocator locator) {
+        this.locator = locator;
+    }
+
+    /**
+     * Finds the checks for every concrete method of the given class.
+     *
+     * @param sc a class loaded with bodies
+     * @return the checks for each method which needs any, keyed by the
+     *         method's name followed by its descriptor
+     */
+    public @NonNull Map<String,MethodChecks> findChecks(@NonNull SootClass sc) {
+        Map<String,MethodChecks> checks = new LinkedHashMap<String, MethodChecks>();
+        for (SootMethod method : (Collection<SootMethod>) sc.getMethods()) {
+            if (!method.isConcrete()) continue;
+
+            PsiMethod psiMethod = locator.findMethod(method.makeRef());
+            if (psiMethod != null && !NullyTools.shouldCheckNulls(psiMethod,
+                    NullCheckLevel.RUNTIME)) {
+                continue;
+            }
+            MethodChecks methodChecks = new MethodChecks();
+            if (psiMethod != null) {
+                addParameterChecks(method, psiMethod, methodChecks);
+                if (method.getReturnType() instanceof RefLikeType
+                        && NullyTools.hasValidNonNullAnnotation(psiMethod)) {
+                    methodChecks.setCheckingReturns(true);
+                }
+            }
+            addCallResultChecks(method, methodChecks);
+
+            if (!methodChecks.isEmpty()) {
+                checks.put(method.getName() + getDescriptor(method.makeRef()),
+                        methodChecks);
+            }
+        }
+        return checks;
+    }
+
+    private static void addParameterChecks(@NonNull SootMethod method,
+            @NonNull PsiMethod psiMethod, @NonNull MethodChecks checks) {
+        PsiParameter[] params = psiMethod.getParameterList().getParameters();
+        List<Type> types = (List<Type>) method.getParameterTypes();
+        int synthetic = PsiMethodLocator.getSyntheticParameterCount(psiMethod,
+                method.makeRef());
+
+        int slot = method.isStatic() ? 0 : 1;
+        for (int i = 0; i < synthetic; i++) slot += getSize(types.get(i));
+        for (int pi = 0; pi < params.length; pi++) {
+            PsiParameter param = params[pi];
+            if (NullyTools.hasValidNonNullAnnotation(param)) {
+                checks.addParameterCheck(slot, param.getName(), pi + 1);
+            }
+            slot += getSize(types.get(pi + synthetic));
+        }
+    }
+
+    private void addCallResultChecks(@NonNull SootMethod method,
+            @NonNull MethodChecks checks) {
+        for (Unit unit : (Collection<Unit>) method.retrieveActiveBody().getUnits()) {
+            if (!(unit instanceof AssignStmt)) continue;
+            AssignStmt assign = (AssignStmt) unit;
+            if (!(assign.getRightOp() instanceof InvokeExpr)) continue;
+
+            SootMethodRef ref = ((InvokeExpr) assign.getRightOp()).getMethodRef();
+            if (!(ref.returnType() instanceof RefLikeType)) continue;
+            PsiMethod called = locator.findMethod(ref);
+            if (called == null) continue;
+            if (!NullyTools.hasValidNonNullAnnotation(called)) continue;
+            if (NullyTools.isNonnullCheckMethod(called)) continue;
+
+            checks.addCheckedCall(getInternalName(ref.declaringClass().getName())
+                    + "." + ref.name() + getDescriptor(ref));
+        }
+    }
+
+    private static int getSize(@NonNull Type type) {
+        return type instanceof LongType || type instanceof DoubleType ? 2 : 1;
+    }
+
+    private static @NonNull String getInternalName(@NonNull String className) {
+        return className.replace('.', '/');
+    }
+
+    private static @NonNull String getDescriptor(@NonNull SootMethodRef ref) {
+        StringBuffer sb = new StringBuffer("(");
+        for (Type type : (List<Type>) ref.parameterTypes()) {
+            sb.append(getDescriptor(type));
+        }
+        return sb.append(')').append(getDescriptor(ref.returnType())).toString();
+    }
+
+    private static @NonNull String getDescriptor(@NonNull Type type) {
+        if (type instanceof ArrayType) {
+            ArrayType array = (ArrayType) type;
+            StringBuffer sb = new StringBuffer();
+            for (int i = 0; i < array.numDimensions; i++) sb.append('[');
+            return sb.append(getDescriptor(array.baseType)).toString();
+        } else if (type instanceof RefType) {
+            return "L" + getInternalName(((RefType) type).getClassName()) + ";";
+        } else if (type instanceof BooleanType) {
+            return "Z";
+        } else if (type instanceof ByteType) {
+            return "B";
+        } else if (type instanceof CharType) {
+            return "C";
+        } else if (type instanceof ShortType) {
+            return "S";
+        } else if (type instanceof LongType) {
+            return "J";
+        } else if (type instanceof FloatType) {
+            return "F";
+        } else if (type instanceof DoubleType) {
+            return "D";
+        } else if (type instanceof VoidType) {
+            return "V";
+        } else {
+            return "I";
+        }
+    }
+}
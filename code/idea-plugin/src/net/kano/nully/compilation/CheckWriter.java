@@ -0,0 +1,220 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin.compilation;
+
+import com.intellij.psi.JavaTokenType;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiJavaToken;
+import com.intellij.psi.PsiParameter;
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.NonNullTools;
+import net.kano.nully.annotations.NullCheckCounters;
+import net.kano.nully.annotations.Nullable;
+import net.kano.nully.plugin.NullyTools;
+import net.kano.nully.plugin.OffsetsTracker;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the text of the runtime checks inserted into a file. If check
+ * counting is on, each check is given a site ID, so that
+ * {@link NullCheckCounters} can count how often it runs and fails.
+ * <br /><br />
+ * Site IDs are handed out at runtime, a block per file: the file's first class
+ * gets a nested holder class which registers the locations of all of the
+ * file's checks when it's first used, and each check passes the block's base
+ * ID plus its own index. Using a holder class means the IDs are ready even for
+ * checks which run while the outer class is still being initialized.
+ */
+final class CheckWriter {
+    private static final String HOLDER_CLASS = "$NullySites";
+    private static final String HOLDER_FIELD = "BASE";
+
+    private final SourcePatcher patcher;
+    private final PsiJavaFile file;
+    private final @Nullable PsiClass holderOwner;
+    private final List<String> sites = new ArrayList<String>();
+    private OffsetsTracker lines = null;
+
+    public CheckWriter(@NonNull SourcePatcher patcher,
+            @NonNull PsiJavaFile file, boolean countChecks) {
+        this.patcher = patcher;
+        this.file = file;
+        this.holderOwner = countChecks ? findHolderOwner(file) : null;
+    }
+
+    private static @Nullable PsiClass findHolderOwner(@NonNull PsiJavaFile file) {
+        PsiClass[] classes = file.getClasses();
+        if (classes.length == 0) return null;
+        PsiClass cls = classes[0];
+        if (cls.getQualifiedName() == null || cls.getRBrace() == null) {
+            return null;
+        }
+        return cls;
+    }
+
+    public boolean isCounting() { return holderOwner != null; }
+
+    /**
+     * Wraps the given expression in a call to the given check method of
+     * {@link NonNullTools}, unless it's already wrapped.
+     *
+     * @param el the expression to check
+     * @param method the name of the check method
+     * @param description what's being checked, for the site's location
+     * @return whether the expression was wrapped
+     */
+    public boolean wrapInCheck(@NonNull PsiElement el, @NonNull String method,
+            @NonNull String description) {
+        if (patcher.isWrapped(el)) return false;
+
+        String prefix = NonNullTools.class.getName() + "." + method + "(";
+        String suffix;
+        if (isCounting()) {
+            suffix = ", " + newSite(el, description) + ")";
+        } else {
+            suffix = ")";
+        }
+        return patcher.wrap(el, prefix, suffix);
+    }
+
+    /**
+     * Returns a statement which checks that the given parameter isn't
+     * {@code null}.
+     *
+     * @param param a parameter
+     * @param index the parameter's index, starting at zero
+     * @return the text of the check
+     */
+    public @NonNull String getParameterCheck(@NonNull PsiParameter param,
+            int index) {
+        String name = param.getName();
+        int number = index + 1;
+        if (isCounting()) {
+            return NonNullTools.class.getName() + "."
+                    + NullyTools.METHOD_CHECKNONNULLPARAM + "(" + name + ", \""
+                    + name + "\", " + number + ", "
+                    + newSite(param, "parameter " + name) + ");";
+        } else {
+            return "if (" + name + " == null) {"
+                    + "throw " + NonNullTools.class.getName() + "."
+                    + NullyTools.METHOD_NEWNULLPARAMEXCEPTION + "(\"" + name
+                    + "\", " + number + ");"
+                    + "}";
+        }
+    }
+
+    private @NonNull String newSite(@NonNull PsiElement el,
+            @NonNull String description) {
+        int index = sites.size();
+        sites.add(getLocation(el) + ": " + description);
+        return holderOwner.getQualifiedName() + "." + HOLDER_CLASS + "."
+                + HOLDER_FIELD + " + " + index;
+    }
+
+    private @NonNull String getLocation(@NonNull PsiElement el) {
+        String pkg = file.getPackageName();
+        String path = file.getName();
+        if (pkg.length() > 0) path = pkg.replace('.', '/') + "/" + path;
+        return path + ":" + getLineNumber(el.getTextRange().getStartOffset());
+    }
+
+    private int getLineNumber(int offset) {
+        if (lines == null) {
+            try {
+                lines = new OffsetsTracker(new StringReader(file.getText()));
+            } catch (IOException e) {
+                // a StringReader never throws
+                throw new IllegalStateException(e);
+            }
+        }
+        return lines.getLine(offset) + 1;
+    }
+
+    /**
+     * Inserts the holder class which registers this file's check sites, if
+     * any checks were given site IDs.
+     */
+    public void writeSiteTable() {
+        if (sites.isEmpty()) return;
+
+        StringBuilder sb = new StringBuilder();
+        // an enum's constants must end with a semicolon before any other
+        // member, but the semicolon is optional when nothing follows them
+        if (holderOwner.isEnum() && !hasMemberSemicolon(holderOwner)) {
+            sb.append(";");
+        }
+        sb.append("static final class ").append(HOLDER_CLASS).append(" {");
+        sb.append("static final int ").append(HOLDER_FIELD).append(" = ");
+        sb.append(NullCheckCounters.class.getName());
+        sb.append(".registerSites(new String[] {");
+        boolean first = true;
+        for (String site : sites) {
+            if (!first) sb.append(", ");
+            first = false;
+            appendStringLiteral(sb, site);
+        }
+        sb.append("});}");
+        // the table goes at the end of the class, so it can follow an enum's
+        // constants, and doesn't change any line numbers
+        patcher.insert(holderOwner.getRBrace().getTextRange().getStartOffset(),
+                sb.toString());
+    }
+
+    private static boolean hasMemberSemicolon(@NonNull PsiClass cls) {
+        for (PsiElement child : cls.getChildren()) {
+            if (child instanceof PsiJavaToken && ((PsiJavaToken) child)
+                    .getTokenType() == JavaTokenType.SEMICOLON) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void appendStringLiteral(@NonNull StringBuilder sb,
+            @NonNull String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch == '"' || ch == '\\') sb.append('\\');
+            sb.append(ch);
+        }
+        sb.append('"');
+    }
+}
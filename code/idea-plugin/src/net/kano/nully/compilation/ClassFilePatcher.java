@@ -0,0 +1,781 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin.compilation;
+
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.NonNullTools;
+import net.kano.nully.annotations.agent.ConstantPool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inserts the runtime null checks found by a {@link BytecodeCheckFinder} into a
+ * compiled class file. Only the {@code Code} attributes of methods which get
+ * checks are rewritten; every other method, and every other attribute of the
+ * class and its members, like {@code Signature} and {@code InnerClasses}, is
+ * copied through unchanged.
+ * <br /><br />
+ * Each check calls one of the {@link NonNullTools} check methods, and is padded
+ * with {@code nop}s to a multiple of four bytes so that the alignment of switch
+ * instructions doesn't change. Parameter checks go in a prologue at the start
+ * of the method, return checks go in front of each {@code areturn}, and call
+ * result checks go just after each call whose result is used. Branches to a
+ * return land on its check, but branches to the instruction after a call skip
+ * the call's check, since the value on the stack there may not have come from
+ * the call. The offsets in the exception table, debugging tables and stack map
+ * frames are moved to match.
+ */
+final class ClassFilePatcher {
+    private static final String INSTRUMENTED_DESC
+            = "Lnet/kano/nully/annotations/NullyInstrumented;";
+    private static final String TOOLS_CLASS
+            = "net/kano/nully/annotations/NonNullTools";
+    private static final String DESC_CHECK_PARAMETER
+            = "(Ljava/lang/Object;Ljava/lang/String;I)Ljava/lang/Object;";
+    private static final String DESC_CHECK_VALUE
+            = "(Ljava/lang/Object;)Ljava/lang/Object;";
+
+    private static final String ATTR_CODE = "Code";
+    private static final String ATTR_ANNOTATIONS = "RuntimeVisibleAnnotations";
+
+    private static final int OP_NOP = 0x00;
+    private static final int OP_ICONST_0 = 0x03;
+    private static final int OP_BIPUSH = 0x10;
+    private static final int OP_SIPUSH = 0x11;
+    private static final int OP_LDC = 0x12;
+    private static final int OP_LDC_W = 0x13;
+    private static final int OP_ALOAD = 0x19;
+    private static final int OP_POP = 0x57;
+    private static final int OP_IINC = 0x84;
+    private static final int OP_IFEQ = 0x99;
+    private static final int OP_JSR = 0xa8;
+    private static final int OP_TABLESWITCH = 0xaa;
+    private static final int OP_LOOKUPSWITCH = 0xab;
+    private static final int OP_ARETURN = 0xb0;
+    private static final int OP_INVOKEVIRTUAL = 0xb6;
+    private static final int OP_INVOKESTATIC = 0xb8;
+    private static final int OP_INVOKEINTERFACE = 0xb9;
+    private static final int OP_CHECKCAST = 0xc0;
+    private static final int OP_WIDE = 0xc4;
+    private static final int OP_IFNULL = 0xc6;
+    private static final int OP_IFNONNULL = 0xc7;
+    private static final int OP_GOTO_W = 0xc8;
+    private static final int OP_JSR_W = 0xc9;
+
+    private final byte[] bytes;
+    private final Map<String, MethodChecks> checks;
+    private ConstantPool cp;
+
+    /**
+     * Creates a patcher for the given class file.
+     *
+     * @param bytes the class file
+     * @param checks the checks for each method, keyed by the method's name
+     *        followed by its descriptor
+     */
+    public ClassFilePatcher(@NonNull byte[] bytes,
+            @NonNull Map<String, MethodChecks> checks) {
+        this.bytes = bytes;
+        this.checks = checks;
+    }
+
+    private static int readU2(byte[] bytes, int pos) {
+        return ((bytes[pos] & 0xff) << 8) | (bytes[pos + 1] & 0xff);
+    }
+
+    private static int readU4(byte[] bytes, int pos) {
+        return (readU2(bytes, pos) << 16) | readU2(bytes, pos + 2);
+    }
+
+    private int u1(int pos) { return bytes[pos] & 0xff; }
+
+    private int u2(int pos) { return readU2(bytes, pos); }
+
+    private int u4(int pos) { return readU4(bytes, pos); }
+
+    /**
+     * Returns the class file with its checks inserted and marked {@code
+     * @NullyInstrumented}, or {@code null} if none of its methods have checks.
+     */
+    public byte[] patch() throws IOException {
+        if (bytes.length < 10 || u4(0) != 0xcafebabe) {
+            throw new IOException("not a class file");
+        }
+
+        cp = new ConstantPool(bytes, 8);
+        int headerStart = cp.getEnd();
+        int pos = headerStart + 6;
+        pos += 2 + 2 * u2(pos);
+        int fieldCount = u2(pos);
+        pos += 2;
+        for (int i = 0; i < fieldCount; i++) {
+            pos = readMember(pos, new ArrayList<Attribute>());
+        }
+        int methodsStart = pos;
+
+        List<MethodInfo> methods = new ArrayList<MethodInfo>();
+        int methodCount = u2(pos);
+        pos += 2;
+        boolean changed = false;
+        for (int i = 0; i < methodCount; i++) {
+            MethodInfo method = new MethodInfo(pos);
+            methods.add(method);
+            if (method.isChecked()) changed = true;
+            pos = method.end;
+        }
+        if (!changed) return null;
+        List<Attribute> classAttrs = new ArrayList<Attribute>();
+        readAttributes(pos, classAttrs);
+
+        ByteArrayOutputStream outBytes = new ByteArrayOutputStream(
+                bytes.length + 256);
+        DataOutputStream out = new DataOutputStream(outBytes);
+
+        // everything after the constant pool is written first, since that's
+        // what adds to the pool
+        ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream(
+                bytes.length + 128);
+        DataOutputStream body = new DataOutputStream(bodyBytes);
+        body.write(bytes, headerStart, methodsStart - headerStart);
+        body.writeShort(methods.size());
+        for (MethodInfo method : methods) method.writeTo(body);
+        writeClassAttributes(body, classAttrs);
+        body.flush();
+
+        out.write(bytes, 0, 8);
+        cp.writeTo(out);
+        bodyBytes.writeTo(out);
+        out.flush();
+        return outBytes.toByteArray();
+    }
+
+    private void writeClassAttributes(DataOutputStream out,
+            List<Attribute> attrs) throws IOException {
+        Attribute annotations = find(attrs, ATTR_ANNOTATIONS);
+        int instrumentedIndex = cp.addUtf8(INSTRUMENTED_DESC);
+        out.writeShort(attrs.size() + (annotations == null ? 1 : 0));
+        for (Attribute attr : attrs) {
+            if (attr != annotations) {
+                attr.writeTo(out);
+                continue;
+            }
+            // add @NullyInstrumented to the existing annotations
+            out.writeShort(attr.nameIndex);
+            out.writeInt(attr.length + 4);
+            out.writeShort(u2(attr.start) + 1);
+            out.write(bytes, attr.start + 2, attr.length - 2);
+            out.writeShort(instrumentedIndex);
+            out.writeShort(0);
+        }
+        if (annotations == null) {
+            out.writeShort(cp.addUtf8(ATTR_ANNOTATIONS));
+            out.writeInt(6);
+            out.writeShort(1);
+            out.writeShort(instrumentedIndex);
+            out.writeShort(0);
+        }
+    }
+
+    private int readMember(int pos, List<Attribute> attrs) {
+        return readAttributes(pos + 6, attrs);
+    }
+
+    private int readAttributes(int pos, List<Attribute> attrs) {
+        int attrCount = u2(pos);
+        pos += 2;
+        for (int i = 0; i < attrCount; i++) {
+            Attribute attr = new Attribute(pos);
+            attrs.add(attr);
+            pos = attr.start + attr.length;
+        }
+        return pos;
+    }
+
+    private static Attribute find(List<Attribute> attrs, String name) {
+        for (Attribute attr : attrs) {
+            if (attr.name.equals(name)) return attr;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the length of the instruction at the given offset into the code
+     * starting at {@code codeStart}.
+     */
+    private int getInstructionLength(int codeStart, int pc)
+            throws IOException {
+        int op = u1(codeStart + pc);
+        if (op <= 0x0f) return 1;
+        if (op == OP_BIPUSH || op == OP_LDC) return 2;
+        if (op == OP_SIPUSH || op == OP_LDC_W || op == 0x14) return 3;
+        if (op >= 0x15 && op <= 0x19) return 2;
+        if (op >= 0x1a && op <= 0x35) return 1;
+        if (op >= 0x36 && op <= 0x3a) return 2;
+        if (op >= 0x3b && op <= 0x83) return 1;
+        if (op == OP_IINC) return 3;
+        if (op >= 0x85 && op <= 0x98) return 1;
+        if (op >= OP_IFEQ && op <= OP_JSR) return 3;
+        if (op == 0xa9) return 2;
+        if (op == OP_TABLESWITCH || op == OP_LOOKUPSWITCH) {
+            int pos = codeStart + pc + 1 + getSwitchPadding(pc);
+            if (op == OP_TABLESWITCH) {
+                int cases = u4(pos + 8) - u4(pos + 4) + 1;
+                return pos + 12 + 4 * cases - (codeStart + pc);
+            } else {
+                return pos + 8 + 8 * u4(pos + 4) - (codeStart + pc);
+            }
+        }
+        if (op >= 0xac && op <= 0xb1) return 1;
+        if (op >= 0xb2 && op <= 0xb8) return 3;
+        if (op == OP_INVOKEINTERFACE || op == 0xba) return 5;
+        if (op == 0xbb || op == 0xbd) return 3;
+        if (op == 0xbc) return 2;
+        if (op >= 0xbe && op <= 0xbf) return 1;
+        if (op == OP_CHECKCAST || op == 0xc1) return 3;
+        if (op == 0xc2 || op == 0xc3) return 1;
+        if (op == OP_WIDE) return u1(codeStart + pc + 1) == OP_IINC ? 6 : 4;
+        if (op == 0xc5) return 4;
+        if (op == OP_IFNULL || op == OP_IFNONNULL) return 3;
+        if (op == OP_GOTO_W || op == OP_JSR_W) return 5;
+        throw new IOException("unknown opcode " + op + " at " + pc);
+    }
+
+    private static int getSwitchPadding(int pc) {
+        return (4 - (pc + 1) % 4) % 4;
+    }
+
+    private static boolean isShortBranch(int op) {
+        return (op >= OP_IFEQ && op <= OP_JSR) || op == OP_IFNULL
+                || op == OP_IFNONNULL;
+    }
+
+    private static boolean isInvoke(int op) {
+        return op >= OP_INVOKEVIRTUAL && op <= OP_INVOKEINTERFACE;
+    }
+
+    private static String getReturnType(String desc) {
+        return desc.substring(desc.indexOf(')') + 1);
+    }
+
+    /**
+     * Returns the name {@code checkcast} takes for the given reference type
+     * descriptor.
+     */
+    private static String getCastName(String type) {
+        if (type.charAt(0) == 'L') return type.substring(1, type.length() - 1);
+        else return type;
+    }
+
+    private static void writeLdc(DataOutputStream out, int index)
+            throws IOException {
+        if (index <= 0xff) {
+            out.writeByte(OP_LDC);
+            out.writeByte(index);
+        } else {
+            out.writeByte(OP_LDC_W);
+            out.writeShort(index);
+        }
+    }
+
+    private static void writeInt(DataOutputStream out, int value)
+            throws IOException {
+        if (value >= 0 && value <= 5) {
+            out.writeByte(OP_ICONST_0 + value);
+        } else if (value <= Byte.MAX_VALUE) {
+            out.writeByte(OP_BIPUSH);
+            out.writeByte(value);
+        } else {
+            out.writeByte(OP_SIPUSH);
+            out.writeShort(value);
+        }
+    }
+
+    private static void pad(ByteArrayOutputStream bytes) {
+        // keep tableswitch and lookupswitch padding the same
+        while (bytes.size() % 4 != 0) bytes.write(OP_NOP);
+    }
+
+    private final class Attribute {
+        public final int nameIndex;
+        public final String name;
+        /** The offset of the attribute's data, after its name and length. */
+        public final int start;
+        public final int length;
+
+        public Attribute(int pos) {
+            nameIndex = u2(pos);
+            name = cp.getUtf8(nameIndex);
+            length = u4(pos + 2);
+            start = pos + 6;
+        }
+
+        public void writeTo(DataOutputStream out) throws IOException {
+            out.writeShort(nameIndex);
+            out.writeInt(length);
+            out.write(bytes, start, length);
+        }
+    }
+
+    private final class MethodInfo {
+        public final int start;
+        public final String desc;
+        public final List<Attribute> attrs = new ArrayList<Attribute>();
+        public final int end;
+        private final Attribute code;
+        private final MethodChecks methodChecks;
+
+        private int codeStart;
+        private int codeLength;
+        /**
+         * Where a branch to each original offset lands in the new code: just
+         * before the instruction's own check, if it has one, but after the
+         * check for the call before it. Offsets within an instruction are -1.
+         */
+        private int[] targets;
+        /** Where each original instruction itself starts in the new code. */
+        private int[] moved;
+
+        public MethodInfo(int pos) {
+            start = pos;
+            String name = cp.getUtf8(u2(pos + 2));
+            desc = cp.getUtf8(u2(pos + 4));
+            end = readMember(pos, attrs);
+            code = find(attrs, ATTR_CODE);
+            MethodChecks found = checks.get(name + desc);
+            methodChecks = found == null || found.isEmpty() ? null : found;
+        }
+
+        public boolean isChecked() {
+            return code != null && methodChecks != null;
+        }
+
+        public void writeTo(DataOutputStream out) throws IOException {
+            if (!isChecked()) {
+                out.write(bytes, start, end - start);
+                return;
+            }
+            out.write(bytes, start, 6);
+            out.writeShort(attrs.size());
+            for (Attribute attr : attrs) {
+                if (attr != code) {
+                    attr.writeTo(out);
+                    continue;
+                }
+                byte[] data = patchCode();
+                out.writeShort(code.nameIndex);
+                out.writeInt(data.length);
+                out.write(data);
+            }
+        }
+
+        private byte[] patchCode() throws IOException {
+            int maxStack = u2(code.start);
+            int maxLocals = u2(code.start + 2);
+            codeLength = u4(code.start + 4);
+            codeStart = code.start + 8;
+
+            byte[] prologue = makePrologue();
+            byte[] returnCheck = null;
+            if (methodChecks.isCheckingReturns()) {
+                returnCheck = makeValueCheck("checkNonNullReturn",
+                        getReturnType(desc));
+            }
+
+            // lay out the new code, finding where each instruction moves and
+            // which checks go in front of it
+            List<Integer> pcs = new ArrayList<Integer>();
+            List<byte[]> callChecks = new ArrayList<byte[]>();
+            List<byte[]> returnChecks = new ArrayList<byte[]>();
+            targets = new int[codeLength + 1];
+            moved = new int[codeLength + 1];
+            for (int i = 0; i <= codeLength; i++) {
+                targets[i] = -1;
+                moved[i] = -1;
+            }
+            int shift = prologue.length;
+            byte[] pendingCallCheck = null;
+            int pc = 0;
+            while (pc <= codeLength) {
+                byte[] returnHere = null;
+                int length = 0;
+                if (pc < codeLength) {
+                    length = getInstructionLength(codeStart, pc);
+                    if (u1(codeStart + pc) == OP_ARETURN) returnHere = returnCheck;
+                }
+                int callShift = pendingCallCheck == null ? 0
+                        : pendingCallCheck.length;
+                int returnShift = returnHere == null ? 0 : returnHere.length;
+                targets[pc] = pc + shift + callShift;
+                moved[pc] = targets[pc] + returnShift;
+                shift += callShift + returnShift;
+                if (pc == codeLength) break;
+
+                pcs.add(pc);
+                callChecks.add(pendingCallCheck);
+                returnChecks.add(returnHere);
+                pendingCallCheck = getCallCheck(pc, length);
+                pc += length;
+            }
+            int newLength = codeLength + shift;
+            if (newLength > 0xffff) {
+                throw new IOException(desc + " is too long to check");
+            }
+
+            ByteArrayOutputStream dataBytes = new ByteArrayOutputStream(
+                    code.length + shift);
+            DataOutputStream data = new DataOutputStream(dataBytes);
+            data.writeShort(prologue.length > 0 ? Math.max(maxStack, 3)
+                    : maxStack);
+            data.writeShort(maxLocals);
+            data.writeInt(newLength);
+            data.write(prologue);
+            for (int i = 0; i < pcs.size(); i++) {
+                if (callChecks.get(i) != null) data.write(callChecks.get(i));
+                if (returnChecks.get(i) != null) data.write(returnChecks.get(i));
+                writeInstruction(data, pcs.get(i));
+            }
+
+            int pos = codeStart + codeLength;
+            int handlers = u2(pos);
+            data.writeShort(handlers);
+            pos += 2;
+            for (int i = 0; i < handlers; i++) {
+                data.writeShort(getTarget(u2(pos)));
+                data.writeShort(getTarget(u2(pos + 2)));
+                data.writeShort(getTarget(u2(pos + 4)));
+                data.writeShort(u2(pos + 6));
+                pos += 8;
+            }
+
+            List<Attribute> codeAttrs = new ArrayList<Attribute>();
+            readAttributes(pos, codeAttrs);
+            List<byte[]> newAttrs = new ArrayList<byte[]>();
+            for (Attribute attr : codeAttrs) {
+                byte[] relocated = relocateAttribute(attr);
+                if (relocated != null) newAttrs.add(relocated);
+            }
+            data.writeShort(newAttrs.size());
+            for (byte[] attr : newAttrs) data.write(attr);
+            data.flush();
+            return dataBytes.toByteArray();
+        }
+
+        private int getTarget(int pc) throws IOException {
+            if (pc < 0 || pc > codeLength || targets[pc] == -1) {
+                throw new IOException(desc + " refers to offset " + pc
+                        + ", which is not an instruction");
+            }
+            return targets[pc];
+        }
+
+        private int getMoved(int pc) throws IOException {
+            if (pc < 0 || pc >= codeLength || moved[pc] == -1) {
+                throw new IOException(desc + " refers to offset " + pc
+                        + ", which is not an instruction");
+            }
+            return moved[pc];
+        }
+
+        private byte[] makePrologue() throws IOException {
+            List<MethodChecks.ParameterCheck> paramChecks
+                    = methodChecks.getParameterChecks();
+            if (paramChecks.isEmpty()) return new byte[0];
+
+            ByteArrayOutputStream prologueBytes = new ByteArrayOutputStream();
+            DataOutputStream prologue = new DataOutputStream(prologueBytes);
+
+            int checkMethod = cp.addMethodRef(TOOLS_CLASS,
+                    "checkNonNullParameter", DESC_CHECK_PARAMETER);
+            for (MethodChecks.ParameterCheck check : paramChecks) {
+                if (check.getSlot() <= 0xff) {
+                    prologue.writeByte(OP_ALOAD);
+                    prologue.writeByte(check.getSlot());
+                } else {
+                    prologue.writeByte(OP_WIDE);
+                    prologue.writeByte(OP_ALOAD);
+                    prologue.writeShort(check.getSlot());
+                }
+                writeLdc(prologue, cp.addString(check.getName()));
+                writeInt(prologue, check.getNumber());
+                prologue.writeByte(OP_INVOKESTATIC);
+                prologue.writeShort(checkMethod);
+                prologue.writeByte(OP_POP);
+            }
+            prologue.flush();
+            pad(prologueBytes);
+            return prologueBytes.toByteArray();
+        }
+
+        /**
+         * Returns the code which checks the value on top of the stack with the
+         * given {@code NonNullTools} method, and casts it back to its type.
+         */
+        private byte[] makeValueCheck(String method, String type)
+                throws IOException {
+            ByteArrayOutputStream checkBytes = new ByteArrayOutputStream(8);
+            DataOutputStream check = new DataOutputStream(checkBytes);
+            check.writeByte(OP_INVOKESTATIC);
+            check.writeShort(cp.addMethodRef(TOOLS_CLASS, method,
+                    DESC_CHECK_VALUE));
+            check.writeByte(OP_CHECKCAST);
+            check.writeShort(cp.addClass(getCastName(type)));
+            check.flush();
+            pad(checkBytes);
+            return checkBytes.toByteArray();
+        }
+
+        /**
+         * Returns the check for the result of the instruction at the given
+         * offset, or {@code null} if it isn't a checked call or its result is
+         * thrown away.
+         */
+        private byte[] getCallCheck(int pc, int length) throws IOException {
+            if (!isInvoke(u1(codeStart + pc))) return null;
+            int next = pc + length;
+            if (next >= codeLength || u1(codeStart + next) == OP_POP) return null;
+
+            String ref = cp.getMemberRef(u2(codeStart + pc + 1));
+            if (!methodChecks.isCheckedCall(ref)) return null;
+            return makeValueCheck("checkNonNullValue", getReturnType(ref));
+        }
+
+        private void writeInstruction(DataOutputStream out, int pc)
+                throws IOException {
+            int pos = codeStart + pc;
+            int op = u1(pos);
+            int length = getInstructionLength(codeStart, pc);
+            int newPc = moved[pc];
+            if (isShortBranch(op)) {
+                int offset = getTarget(pc + (short) u2(pos + 1)) - newPc;
+                if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                    throw new IOException(desc + " has a branch at " + pc
+                            + " which is too long to check");
+                }
+                out.writeByte(op);
+                out.writeShort(offset);
+            } else if (op == OP_GOTO_W || op == OP_JSR_W) {
+                out.writeByte(op);
+                out.writeInt(getTarget(pc + u4(pos + 1)) - newPc);
+            } else if (op == OP_TABLESWITCH || op == OP_LOOKUPSWITCH) {
+                // the padding is the same, since every check is padded
+                int padding = getSwitchPadding(pc);
+                out.write(bytes, pos, 1 + padding);
+                int p = pos + 1 + padding;
+                out.writeInt(getTarget(pc + u4(p)) - newPc);
+                if (op == OP_TABLESWITCH) {
+                    int low = u4(p + 4);
+                    int high = u4(p + 8);
+                    out.writeInt(low);
+                    out.writeInt(high);
+                    for (int i = 0; i < high - low + 1; i++) {
+                        out.writeInt(getTarget(pc + u4(p + 12 + 4 * i)) - newPc);
+                    }
+                } else {
+                    int pairs = u4(p + 4);
+                    out.writeInt(pairs);
+                    for (int i = 0; i < pairs; i++) {
+                        int pair = p + 8 + 8 * i;
+                        out.writeInt(u4(pair));
+                        out.writeInt(getTarget(pc + u4(pair + 4)) - newPc);
+                    }
+                }
+            } else {
+                out.write(bytes, pos, length);
+            }
+        }
+
+        /**
+         * Returns the given attribute of a {@code Code} attribute, with its
+         * name and length, with its offsets moved to match the new code.
+         * Returns {@code null} for attributes which should be dropped.
+         */
+        private byte[] relocateAttribute(Attribute attr) throws IOException {
+            byte[] body;
+            if (attr.name.equals("LineNumberTable")) {
+                body = relocateLineNumbers(attr);
+            } else if (attr.name.equals("LocalVariableTable")
+                    || attr.name.equals("LocalVariableTypeTable")) {
+                body = relocateLocalVariables(attr);
+            } else if (attr.name.equals("StackMapTable")) {
+                body = relocateStackMap(attr);
+            } else if (attr.name.equals("StackMap")
+                    || attr.name.equals("RuntimeVisibleTypeAnnotations")
+                    || attr.name.equals("RuntimeInvisibleTypeAnnotations")) {
+                return null;
+            } else {
+                body = new byte[attr.length];
+                System.arraycopy(bytes, attr.start, body, 0, attr.length);
+            }
+
+            ByteArrayOutputStream dataBytes = new ByteArrayOutputStream(
+                    body.length + 6);
+            DataOutputStream data = new DataOutputStream(dataBytes);
+            data.writeShort(attr.nameIndex);
+            data.writeInt(body.length);
+            data.write(body);
+            data.flush();
+            return dataBytes.toByteArray();
+        }
+
+        private byte[] relocateLineNumbers(Attribute attr) throws IOException {
+            ByteArrayOutputStream dataBytes = new ByteArrayOutputStream(
+                    attr.length);
+            DataOutputStream data = new DataOutputStream(dataBytes);
+            int entries = u2(attr.start);
+            data.writeShort(entries);
+            for (int i = 0; i < entries; i++) {
+                int entry = attr.start + 2 + i * 4;
+                int startPc = u2(entry);
+                // a line at the very start also covers the prologue
+                data.writeShort(startPc == 0 ? 0 : getTarget(startPc));
+                data.writeShort(u2(entry + 2));
+            }
+            data.flush();
+            return dataBytes.toByteArray();
+        }
+
+        private byte[] relocateLocalVariables(Attribute attr)
+                throws IOException {
+            ByteArrayOutputStream dataBytes = new ByteArrayOutputStream(
+                    attr.length);
+            DataOutputStream data = new DataOutputStream(dataBytes);
+            int entries = u2(attr.start);
+            data.writeShort(entries);
+            for (int i = 0; i < entries; i++) {
+                int entry = attr.start + 2 + i * 10;
+                int startPc = u2(entry);
+                int endPc = getTarget(startPc + u2(entry + 2));
+                int newStart = startPc == 0 ? 0 : getTarget(startPc);
+                data.writeShort(newStart);
+                data.writeShort(endPc - newStart);
+                data.write(bytes, entry + 4, 6);
+            }
+            data.flush();
+            return dataBytes.toByteArray();
+        }
+
+        private byte[] relocateStackMap(Attribute attr) throws IOException {
+            ByteArrayOutputStream dataBytes = new ByteArrayOutputStream(
+                    attr.length + 16);
+            DataOutputStream data = new DataOutputStream(dataBytes);
+            int pos = attr.start;
+            int entries = u2(pos);
+            data.writeShort(entries);
+            pos += 2;
+            // each frame's offset is relative to the one before it, plus one
+            int offset = -1;
+            int newOffset = -1;
+            for (int i = 0; i < entries; i++) {
+                int type = u1(pos);
+                pos++;
+                int delta;
+                if (type < 128) {
+                    delta = type < 64 ? type : type - 64;
+                } else if (type >= 247) {
+                    delta = u2(pos);
+                    pos += 2;
+                } else {
+                    throw new IOException("unknown stack map frame " + type);
+                }
+                offset += delta + 1;
+                int target = getTarget(offset);
+                int newDelta = target - newOffset - 1;
+                newOffset = target;
+
+                if (type < 64) {
+                    writeFrameType(data, newDelta, 0, 251);
+                } else if (type < 128) {
+                    writeFrameType(data, newDelta, 64, 247);
+                    pos = relocateTypes(data, pos, 1);
+                } else {
+                    data.writeByte(type);
+                    data.writeShort(newDelta);
+                    if (type == 247) {
+                        pos = relocateTypes(data, pos, 1);
+                    } else if (type >= 252 && type <= 254) {
+                        pos = relocateTypes(data, pos, type - 251);
+                    } else if (type == 255) {
+                        int locals = u2(pos);
+                        data.writeShort(locals);
+                        pos = relocateTypes(data, pos + 2, locals);
+                        int stack = u2(pos);
+                        data.writeShort(stack);
+                        pos = relocateTypes(data, pos + 2, stack);
+                    }
+                }
+            }
+            data.flush();
+            return dataBytes.toByteArray();
+        }
+
+        /**
+         * Copies the given number of verification types starting at the given
+         * offset, moving the offsets of uninitialized types, and returns the
+         * offset after them.
+         */
+        private int relocateTypes(DataOutputStream data, int pos, int count)
+                throws IOException {
+            for (int i = 0; i < count; i++) {
+                int tag = u1(pos);
+                data.writeByte(tag);
+                pos++;
+                if (tag == 7) {
+                    // an object
+                    data.writeShort(u2(pos));
+                    pos += 2;
+                } else if (tag == 8) {
+                    // an object created by the "new" at the given offset
+                    data.writeShort(getMoved(u2(pos)));
+                    pos += 2;
+                }
+            }
+            return pos;
+        }
+
+        private void writeFrameType(DataOutputStream data, int delta,
+                int base, int extendedType) throws IOException {
+            if (delta < 64) {
+                data.writeByte(base + delta);
+            } else {
+                data.writeByte(extendedType);
+                data.writeShort(delta);
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin.compilation;
+
+import net.kano.nully.annotations.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The runtime null checks to insert into one method of a class file, as found
+ * by a {@link BytecodeCheckFinder} and inserted by a {@link ClassFilePatcher}.
+ */
+final class MethodChecks {
+    private final List<ParameterCheck> parameterChecks
+            = new ArrayList<ParameterCheck>();
+    private boolean checkingReturns = false;
+    private final Set<String> checkedCalls = new HashSet<String>();
+
+    /**
+     * Checks the parameter in the given local variable slot on entry to the
+     * method. Checks are made in the order they are added.
+     *
+     * @param slot the parameter's local variable slot
+     * @param name the parameter's name, for the exception message
+     * @param number the parameter's position in the source, starting at 1
+     */
+    public void addParameterCheck(int slot, @NonNull String name, int number) {
+        parameterChecks.add(new ParameterCheck(slot, name, number));
+    }
+
+    public @NonNull List<ParameterCheck> getParameterChecks() {
+        return Collections.unmodifiableList(parameterChecks);
+    }
+
+    /**
+     * Sets whether every value the method returns is checked.
+     *
+     * @param checkingReturns whether the method's return values are checked
+     */
+    public void setCheckingReturns(boolean checkingReturns) {
+        this.checkingReturns = checkingReturns;
+    }
+
+    public boolean isCheckingReturns() { return checkingReturns; }
+
+    /**
+     * Checks the value returned from every call to the given method, where
+     * the value is used.
+     *
+     * @param memberRef the called method, in the form returned by {@link
+     *        net.kano.nully.annotations.agent.ConstantPool#getMemberRef}
+     */
+    public void addCheckedCall(@NonNull String memberRef) {
+        checkedCalls.add(memberRef);
+    }
+
+    public boolean isCheckedCall(@NonNull String memberRef) {
+        return checkedCalls.contains(memberRef);
+    }
+
+    public boolean isEmpty() {
+        return parameterChecks.isEmpty() && !checkingReturns
+                && checkedCalls.isEmpty();
+    }
+
+    public static final class ParameterCheck {
+        private final int slot;
+        private final String name;
+        private final int number;
+
+        public ParameterCheck(int slot, @NonNull String name, int number) {
+            this.slot = slot;
+            this.name = name;
+            this.number = number;
+        }
+
+        public int getSlot() { return slot; }
+
+        public @NonNull String getName() { return name; }
+
+        public int getNumber() { return number; }
+    }
+}
@@ -36,20 +36,17 @@ package net.kano.nully.plugin.compilation;
 import com.intellij.psi.PsiRecursiveElementVisitor;
 import com.intellij.psi.PsiMethodCallExpression;
 import com.intellij.psi.PsiMethod;
-import com.intellij.psi.PsiElementFactory;
-import com.intellij.psi.PsiExpression;
 import com.intellij.psi.PsiElement;
-import com.intellij.util.IncorrectOperationException;
-import com.intellij.openapi.diagnostic.Logger;
 import net.kano.nully.plugin.NullyTools;
 import net.kano.nully.annotations.NonNull;
 import net.kano.nully.annotations.NullCheckLevel;
 
 class NonNullMethodCallCheckInserter extends PsiRecursiveElementVisitor {
-    private static final Logger LOGGER
-            = Logger.getInstance(NonNullMethodCallCheckInserter.class.getName());
+    private final CheckWriter writer;
 
-    private boolean insertedAnything = false;
+    public NonNullMethodCallCheckInserter(@NonNull CheckWriter writer) {
+        this.writer = writer;
+    }
 
     public void visitMethodCallExpression(PsiMethodCallExpression expression) {
         super.visitMethodCallExpression(expression);
@@ -62,15 +59,10 @@ class NonNullMethodCallCheckInserter extends PsiRecursiveElementVisitor {
         if (NullyTools.hasValidNonNullAnnotation(calledMethod)
                 && !NullyTools.isNonnullCheckMethod(calledMethod)
                 && !parentIsNonnullCheckMethod(expression)) {
-            PsiElementFactory factory = expression.getManager().getElementFactory();
-            String newString = NullyTools.getUnexpectedNullValueCheckString(expression.getText());
-            try {
-                PsiExpression newExp = factory.createExpressionFromText(newString,
-                        expression.getParent());
-                expression.replace(newExp);
-            } catch (IncorrectOperationException e) {
-                LOGGER.error(e);
-            }
+            // if the call was already wrapped in a check for a detected null
+            // problem, this does nothing
+            writer.wrapInCheck(expression, NullyTools.METHOD_CHECKNONNULLVALUE,
+                    "result of " + calledMethod.getName() + "()");
         }
     }
 
@@ -82,6 +74,4 @@ class NonNullMethodCallCheckInserter extends PsiRecursiveElementVisitor {
         }
         return false;
     }
-
-    public boolean insertedAnything() { return insertedAnything; }
 }
@@ -0,0 +1,418 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin.compilation;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.compiler.ClassInstrumentingCompiler;
+import com.intellij.openapi.compiler.CompileContext;
+import com.intellij.openapi.compiler.CompileScope;
+import static com.intellij.openapi.compiler.CompilerMessageCategory.ERROR;
+import com.intellij.openapi.compiler.TimestampValidityState;
+import com.intellij.openapi.compiler.ValidityState;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileTypes.FileType;
+import com.intellij.openapi.fileTypes.FileTypeManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.roots.OrderRootType;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.search.GlobalSearchScope;
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.NullyInstrumented;
+import net.kano.nully.plugin.NullyRelevanceIndex;
+import net.kano.nully.plugin.SootTools;
+import net.kano.nully.plugin.analysis.nulls.CodeAnalyzer;
+import soot.ClassProvider;
+import soot.CoffiClassProvider;
+import soot.Scene;
+import soot.SootClass;
+import soot.SourceLocator;
+import soot.options.Options;
+import soot.tagkit.AnnotationTag;
+import soot.tagkit.Tag;
+import soot.tagkit.VisibilityAnnotationTag;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Adds runtime null checks to compiled class files, after javac has run. This
+ * is used instead of rewriting source in {@link NullyCompilerStep} when the
+ * {@value net.kano.nully.plugin.NullyProjectComponent#PROP_INSTRUMENTATION}
+ * system property is {@code bytecode}. Instrumenting bytecode means
+ * instrumented files needn't be reparsed or recompiled, and the line number
+ * table of each class matches its source exactly.
+ * <br /><br />
+ * The class files produced from each relevant source file in the compile scope
+ * are loaded into Soot together, and a {@link BytecodeCheckFinder} works out
+ * which checks each method needs. A {@link ClassFilePatcher} then inserts the
+ * checks into the original class file and marks it {@code
+ * @NullyInstrumented}, leaving the methods without checks, and the class's
+ * other attributes, as javac wrote them. Classes which need no checks are left
+ * untouched.
+ * <br /><br />
+ * Unlike source instrumentation, only method boundaries are checked; checks
+ * on assignments to {@code @NonNull} local variables need the source mode,
+ * since local variable annotations aren't kept in class files.
+ */
+public class NullyClassInstrumenter implements ClassInstrumentingCompiler {
+    private static final Logger LOGGER
+            = Logger.getInstance(NullyClassInstrumenter.class.getName());
+
+    private static final String CLASS_SUFFIX = ".class";
+    private static final String INSTRUMENTED_DESCRIPTOR
+            = "L" + NullyInstrumented.class.getName().replace('.', '/') + ";";
+
+    private final Project project;
+    private final PsiManager psiManager;
+    private final FileType javaType
+            = FileTypeManager.getInstance().getFileTypeByExtension("java");
+
+    public NullyClassInstrumenter(@NonNull Project project) {
+        this.project = project;
+        this.psiManager = PsiManager.getInstance(project);
+    }
+
+    public ProcessingItem[] getProcessingItems(final CompileContext context) {
+        return ApplicationManager.getApplication().runReadAction(
+                new Computable<ProcessingItem[]>() {
+            public ProcessingItem[] compute() {
+                List<ProcessingItem> items = new ArrayList<ProcessingItem>();
+                VirtualFile[] files = context.getCompileScope().getFiles(
+                        javaType, true);
+                for (VirtualFile file : files) addClassItems(context, file, items);
+                return items.toArray(new ProcessingItem[items.size()]);
+            }
+        });
+    }
+
+    private void addClassItems(@NonNull CompileContext context,
+            @NonNull VirtualFile source, @NonNull List<ProcessingItem> items) {
+        PsiFile psiFile = psiManager.findFile(source);
+        if (!(psiFile instanceof PsiJavaFile)) return;
+        PsiJavaFile jfile = (PsiJavaFile) psiFile;
+        if (!NullyRelevanceIndex.getInstance().isRelevant(jfile)) return;
+
+        Module module = context.getModuleByFile(source);
+        if (module == null) return;
+        VirtualFile outputDir = context.getModuleOutputDirectory(module);
+        if (outputDir == null) return;
+
+        String pkg = jfile.getPackageName();
+        VirtualFile pkgDir = pkg.length() == 0 ? outputDir
+                : outputDir.findFileByRelativePath(pkg.replace('.', '/'));
+        if (pkgDir == null) return;
+        String prefix = pkg.length() == 0 ? "" : pkg + ".";
+
+        for (PsiClass cls : jfile.getClasses()) {
+            if (cls.getModifierList().findAnnotation(
+                    NullyInstrumented.class.getName()) != null) {
+                continue;
+            }
+            // nested, local and anonymous classes are all compiled to
+            // Outer$Something.class
+            String topName = cls.getName();
+            for (VirtualFile child : pkgDir.getChildren()) {
+                String name = child.getName();
+                if (!name.endsWith(CLASS_SUFFIX)) continue;
+                String base = name.substring(0, name.length()
+                        - CLASS_SUFFIX.length());
+                if (base.equals(topName) || base.startsWith(topName + "$")) {
+                    items.add(new ClassItem(child, prefix + base, module));
+                }
+            }
+        }
+    }
+
+    public ProcessingItem[] process(final CompileContext context,
+            final ProcessingItem[] items) {
+        if (items.length == 0) return items;
+
+        context.getProgressIndicator().setText("Inserting null checks into "
+                + items.length + " classes");
+        ProcessingItem[] processed;
+        SootTools.lockSootGlobally();
+        try {
+            SavedSootSettings saved = new SavedSootSettings();
+            try {
+                processed = instrument(context, items);
+            } finally {
+                new CodeAnalyzer().resetSoot();
+                saved.restore();
+            }
+        } finally {
+            SootTools.unlockSootGlobally();
+        }
+        refreshOutputDirectories(context, processed);
+        return processed;
+    }
+
+    private @NonNull ProcessingItem[] instrument(@NonNull CompileContext context,
+            @NonNull ProcessingItem[] items) {
+        final Set<Module> modules = new LinkedHashSet<Module>();
+        for (ProcessingItem item : items) modules.add(((ClassItem) item).getModule());
+        ApplicationManager.getApplication().runReadAction(new Runnable() {
+            public void run() {
+                prepareSoot(modules);
+            }
+        });
+
+        // load every class before changing any of them, so references between
+        // the classes resolve to the originals. this only reads class files,
+        // so no read action is needed
+        Scene scene = Scene.v();
+        List<SootClass> classes = new ArrayList<SootClass>();
+        for (ProcessingItem item : items) {
+            SootClass sc = scene.loadClassAndSupport(((ClassItem) item).getClassName());
+            sc.setApplicationClass();
+            classes.add(sc);
+        }
+
+        PsiMethodLocator locator = new PsiMethodLocator(psiManager,
+                GlobalSearchScope.allScope(project));
+        final BytecodeCheckFinder finder = new BytecodeCheckFinder(locator);
+
+        List<ProcessingItem> processed = new ArrayList<ProcessingItem>();
+        for (int i = 0; i < items.length; i++) {
+            ClassItem item = (ClassItem) items[i];
+            final SootClass sc = classes.get(i);
+            try {
+                if (sc.isPhantom() || isInstrumented(sc)) {
+                    processed.add(item);
+                    continue;
+                }
+                // the PSI is only read while finding each class's checks, so
+                // other threads can write between classes
+                Map<String,MethodChecks> checks = ApplicationManager
+                        .getApplication().runReadAction(
+                        new Computable<Map<String,MethodChecks>>() {
+                    public Map<String,MethodChecks> compute() {
+                        return finder.findChecks(sc);
+                    }
+                });
+                if (!checks.isEmpty()) {
+                    File file = new File(item.getFile().getPath());
+                    byte[] patched = new ClassFilePatcher(readClass(file),
+                            checks).patch();
+                    if (patched != null) {
+                        writeClass(patched, file);
+                        item = new ClassItem(item.getFile(), item.getClassName(),
+                                item.getModule());
+                    }
+                }
+                processed.add(item);
+            } catch (Exception e) {
+                context.addMessage(ERROR, "Error while inserting null checks "
+                        + "into " + item.getClassName(), item.getFile().getUrl(),
+                        -1, -1);
+                LOGGER.error(e);
+            }
+        }
+        return processed.toArray(new ProcessingItem[processed.size()]);
+    }
+
+    private static void prepareSoot(@NonNull Collection<Module> modules) {
+        Set<String> classpath = new LinkedHashSet<String>();
+        for (Module module : modules) {
+            VirtualFile[] roots = ModuleRootManager.getInstance(module)
+                    .getFiles(OrderRootType.CLASSES_AND_OUTPUT);
+            for (VirtualFile root : roots) {
+                String path = root.getPath();
+                // jar roots look like "/path/lib.jar!/"
+                if (path.endsWith("!/")) path = path.substring(0, path.length() - 2);
+                classpath.add(path);
+            }
+        }
+        StringBuilder path = new StringBuilder();
+        for (String entry : classpath) {
+            if (path.length() > 0) path.append(File.pathSeparatorChar);
+            path.append(entry);
+        }
+
+        Options options = Options.v();
+        options.set_allow_phantom_refs(true);
+        Scene scene = Scene.v();
+        scene.setPhantomRefs(true);
+        scene.setSootClassPath(path.toString());
+        List<ClassProvider> providers = Collections.<ClassProvider>singletonList(
+                new CoffiClassProvider());
+        SourceLocator.v().setClassProviders(providers);
+    }
+
+    /**
+     * Tells the virtual file system that the given items' output directories
+     * changed, since the rewritten class files are written with
+     * {@code java.io}.
+     */
+    private static void refreshOutputDirectories(@NonNull CompileContext context,
+            @NonNull ProcessingItem[] items) {
+        Set<VirtualFile> dirs = new LinkedHashSet<VirtualFile>();
+        for (ProcessingItem item : items) {
+            VirtualFile dir = context.getModuleOutputDirectory(
+                    ((ClassItem) item).getModule());
+            if (dir != null) dirs.add(dir);
+        }
+        for (VirtualFile dir : dirs) dir.refresh(true, true);
+    }
+
+    /**
+     * Returns whether the given class file was already given checks, by an
+     * earlier build or by the runtime agent.
+     */
+    private static boolean isInstrumented(@NonNull SootClass sc) {
+        for (Tag tag : (Collection<Tag>) sc.getTags()) {
+            if (!(tag instanceof VisibilityAnnotationTag)) continue;
+            Collection<AnnotationTag> annotations
+                    = ((VisibilityAnnotationTag) tag).getAnnotations();
+            if (annotations == null) continue;
+            for (AnnotationTag annotation : annotations) {
+                if (annotation.getType().equals(INSTRUMENTED_DESCRIPTOR)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static @NonNull byte[] readClass(@NonNull File file)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            in.readFully(bytes);
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeClass(@NonNull byte[] bytes, @NonNull File file)
+            throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    public ValidityState createValidityState(DataInputStream is)
+            throws IOException {
+        return TimestampValidityState.load(is);
+    }
+
+    public String getDescription() {
+        return "Inserts runtime checks for @" + NonNull.class.getSimpleName()
+                + " declarations into compiled classes";
+    }
+
+    public boolean validateConfiguration(CompileScope scope) {
+        return true;
+    }
+
+    /**
+     * The global Soot settings which {@link #prepareSoot} changes. The
+     * analyses share Soot's state with the instrumenter, and don't set these
+     * themselves, so they are put back once the classes are written.
+     */
+    private static final class SavedSootSettings {
+        private final boolean allowPhantomRefs;
+        private final boolean phantomRefs;
+        private final String classPath;
+
+        public SavedSootSettings() {
+            Options options = Options.v();
+            allowPhantomRefs = options.allow_phantom_refs();
+            Scene scene = Scene.v();
+            phantomRefs = scene.getPhantomRefs();
+            classPath = scene.getSootClassPath();
+        }
+
+        public void restore() {
+            Options options = Options.v();
+            options.set_allow_phantom_refs(allowPhantomRefs);
+            Scene scene = Scene.v();
+            scene.setPhantomRefs(phantomRefs);
+            scene.setSootClassPath(classPath);
+            // analyses set their own providers, and expect none to be left
+            // from before; see WarmSootScene
+            SourceLocator.v().setClassProviders(Collections.EMPTY_LIST);
+        }
+    }
+
+    /**
+     * A class file to instrument. The validity state is read from the file on
+     * disk, so that a file we have just rewritten is not instrumented again.
+     */
+    private static class ClassItem implements ProcessingItem {
+        private final VirtualFile file;
+        private final String className;
+        private final Module module;
+        private final ValidityState state;
+
+        public ClassItem(@NonNull VirtualFile file, @NonNull String className,
+                @NonNull Module module) {
+            this.file = file;
+            this.className = className;
+            this.module = module;
+            this.state = new TimestampValidityState(
+                    new File(file.getPath()).lastModified());
+        }
+
+        public @NonNull VirtualFile getFile() { return file; }
+
+        public @NonNull String getClassName() { return className; }
+
+        public @NonNull Module getModule() { return module; }
+
+        public ValidityState getValidityState() { return state; }
+    }
+}
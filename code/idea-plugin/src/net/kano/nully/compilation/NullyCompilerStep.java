@@ -47,6 +47,7 @@ import com.intellij.openapi.fileTypes.FileType;
 import com.intellij.openapi.fileTypes.FileTypeManager;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiAnnotation;
@@ -62,17 +63,19 @@ import com.intellij.psi.PsiModifierListOwner;
 import com.intellij.psi.PsiParameter;
 import com.intellij.psi.PsiType;
 import com.intellij.psi.PsiVariable;
-import com.intellij.psi.PsiClass;
-import com.intellij.psi.PsiElementFactory;
 import com.intellij.psi.util.PsiTreeUtil;
-import com.intellij.util.IncorrectOperationException;
 import net.kano.nully.plugin.ImportantSuperMethodInfo;
+import net.kano.nully.plugin.IsolatedFileTransformer;
 import net.kano.nully.annotations.NonNull;
 import net.kano.nully.annotations.NullyInstrumented;
+import net.kano.nully.annotations.Nullable;
+import net.kano.nully.plugin.NullyRelevanceIndex;
 import net.kano.nully.plugin.NullyTools;
 import net.kano.nully.plugin.OverrideType;
 import net.kano.nully.annotations.NullCheckLevel;
 import net.kano.nully.plugin.PsiTools;
+import net.kano.nully.plugin.SootEnvironment;
+import net.kano.nully.plugin.SootEnvironmentPool;
 import net.kano.nully.plugin.SootTools;
 import static net.kano.nully.plugin.OverrideType.IMPLEMENTS;
 import static net.kano.nully.plugin.OverrideType.OVERRIDES;
@@ -100,13 +103,15 @@ import net.kano.nully.plugin.analysis.nulls.psipreprocess.PreparerForSoot;
 import javax.swing.SwingUtilities;
 import java.io.IOException;
 import java.io.Writer;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicBoolean;
 
-public class NullyCompilerStep implements JavaSourceTransformingCompiler {
+public class NullyCompilerStep
+        implements JavaSourceTransformingCompiler, IsolatedFileTransformer {
     private static final Logger LOGGER
             = Logger.getInstance(NullyCompilerStep.class.getName());
 
@@ -114,7 +119,15 @@ public class NullyCompilerStep implements JavaSourceTransformingCompiler {
     private FileType javaType = ftm.getFileTypeByExtension("java");
 
     private FileDocumentManager docmgr = FileDocumentManager.getInstance();
+    private final Project project;
+    private final boolean insertChecks;
+    private final boolean countChecks;
     private PsiDocumentManager psiDocMgr;
+    private final Object batchLock = new Object();
+    private TransformBatch batch = null;
+    /** The compilation whose batch was dropped after its last file. */
+    private WeakReference<CompileContext> finishedContext
+            = new WeakReference<CompileContext>(null);
     private static final List<Class<? extends ProblemFinder<? extends NullyProblem<? extends PsiElement>>>> AUXILLARY_FINDER_CLASSES
             = Arrays.<Class<? extends ProblemFinder<? extends NullyProblem<? extends PsiElement>>>>asList(
             NullyInstrumentedFinder.class,
@@ -123,6 +136,27 @@ public class NullyCompilerStep implements JavaSourceTransformingCompiler {
             IllegalReturnOverrideFinder.class);
 
     public NullyCompilerStep(@NonNull Project project) {
+        this(project, true, false);
+    }
+
+    /**
+     * Creates a new compiler step. If {@code insertChecks} is {@code false},
+     * the step never changes any source, and only reports the compiler
+     * warnings which don't need Soot, like misplaced annotations and illegal
+     * overrides; the bytecode instrumenter runs its own analysis, and null
+     * value warnings are left to the inspections, so the whole file isn't
+     * analyzed twice.
+     *
+     * @param project the project
+     * @param insertChecks whether to insert runtime checks into source
+     * @param countChecks whether each inserted check should be counted at
+     *        runtime
+     */
+    public NullyCompilerStep(@NonNull Project project, boolean insertChecks,
+            boolean countChecks) {
+        this.project = project;
+        this.insertChecks = insertChecks;
+        this.countChecks = countChecks;
         psiDocMgr = PsiDocumentManager.getInstance(project);
     }
 
@@ -130,76 +164,181 @@ public class NullyCompilerStep implements JavaSourceTransformingCompiler {
         return file.getFileType().equals(javaType);
     }
 
-    public boolean transform(final @NonNull CompileContext context,
-            final @NonNull VirtualFile output, final @NonNull VirtualFile original) {
+    /**
+     * Transforms the given file. The file's analysis runs on a background
+     * thread, usually ahead of time as part of a {@link TransformBatch}, and
+     * only writing the transformed source out needs a write action.
+     */
+    public boolean transform(@NonNull CompileContext context,
+            @NonNull VirtualFile output, @NonNull VirtualFile original) {
+        ProgressIndicator indicator = context.getProgressIndicator();
+        indicator.pushState();
         try {
-            final AtomicBoolean value = new AtomicBoolean();
-            SwingUtilities.invokeAndWait(new Runnable() {
-                public void run() {
-                    Application app = ApplicationManager.getApplication();
-                    app.runWriteAction(new Runnable() {
-                        public void run() {
-                            ProgressIndicator indicator = context.getProgressIndicator();
-                            try {
-                                indicator.pushState();
-                                indicator.setText("Validating null value "
-                                        + "constraints for " + original.getName());
-
-                                try {
-                                    value.set(reallyTransform(context,
-                                            output, original));
-                                } catch (Exception e) {
-                                    context.addMessage(ERROR,
-                                            "Error while running null checks in "
-                                                    + "file " + original.getName(),
-                                            original.getUrl(), -1, -1);
-                                    LOGGER.error(e);
-                                }
-                            } finally {
-                                indicator.popState();
-                            }
-                        }
-                    });
-                }
-            });
+            indicator.setText("Validating null value constraints for "
+                    + original.getName());
+
+            TransformBatch current = getBatch(context, original);
+            PatchedSource patched;
+            try {
+                patched = current.getTransformedSource(original);
+            } finally {
+                releaseBatchIfFinished(current);
+            }
+            if (patched == null) return false;
+
+            writeJavaFile(patched, output);
+            return true;
 
-            return value.get();
         } catch (Exception e) {
+            context.addMessage(ERROR, "Error while running null checks in "
+                    + "file " + original.getName(), original.getUrl(), -1, -1);
             LOGGER.error(e);
+            return false;
+
+        } finally {
+            indicator.popState();
+        }
+    }
+
+    /**
+     * Returns the batch for the given compilation, starting one if this is
+     * the first file transformed in it.
+     */
+    private @NonNull TransformBatch getBatch(@NonNull CompileContext context,
+            @NonNull VirtualFile original) {
+        synchronized (batchLock) {
+            if (batch == null || !batch.isFor(context)) {
+                if (batch != null) batch.cancel();
+                List<VirtualFile> files;
+                if (finishedContext.get() == context) {
+                    // every file in the scope has been analyzed already
+                    files = Collections.singletonList(original);
+                } else {
+                    files = Arrays.asList(context.getCompileScope().getFiles(
+                            javaType, true));
+                }
+                batch = new TransformBatch(this, context, files);
+            }
+            return batch;
+        }
+    }
+
+    /**
+     * Drops the given batch once its last file has been asked for, so the
+     * compile context and its buffered results can be collected.
+     */
+    private void releaseBatchIfFinished(@NonNull TransformBatch finished) {
+        synchronized (batchLock) {
+            if (batch == finished && finished.isFinished()) {
+                batch = null;
+                finishedContext = new WeakReference<CompileContext>(
+                        finished.getContext());
+            }
+        }
+    }
+
+    /**
+     * Cancels the current batch, if any, and drops it. This should be called
+     * when a compilation ends, since IDEA may not ask for every file in the
+     * scope.
+     */
+    public void releaseBatch() {
+        synchronized (batchLock) {
+            if (batch != null) {
+                batch.cancel();
+                batch = null;
+            }
+        }
+    }
+
+    /**
+     * Analyzes the given file inside a leased {@link SootEnvironment}. This
+     * may be called from any thread except the event dispatch thread. No
+     * environment is leased when checks aren't being inserted, since then
+     * Soot isn't used.
+     *
+     * @return the transformed source, or {@code null} if the file does not
+     *         need to change
+     */
+    @Nullable PatchedSource transformInEnvironment(@NonNull CompileContext context,
+            @NonNull VirtualFile original) throws Exception {
+        if (!insertChecks || SootEnvironment.isIsolatedClass(getClass())) {
+            return transformFile(context, original);
+        }
+
+        SootEnvironmentPool pool = SootEnvironmentPool.getInstance();
+        SootEnvironment env = pool.lease();
+        try {
+            IsolatedFileTransformer transformer;
+            if (env.isIsolated()) {
+                transformer = env.newInstance(IsolatedFileTransformer.class,
+                        NullyCompilerStep.class,
+                        new Class<?>[] { Project.class, boolean.class,
+                                boolean.class },
+                        new Object[] { project, insertChecks, countChecks });
+            } else {
+                transformer = this;
+            }
+            return transformer.transformFile(context, original);
+        } finally {
+            pool.release(env);
         }
+    }
 
-        return false;
+    public @Nullable PatchedSource transformFile(
+            final @NonNull CompileContext context,
+            final @NonNull VirtualFile original) throws Exception {
+        final Exception[] error = new Exception[1];
+        Application app = ApplicationManager.getApplication();
+        PatchedSource patched = app.runReadAction(new Computable<PatchedSource>() {
+            public PatchedSource compute() {
+                try {
+                    return reallyTransform(context, original);
+                } catch (Exception e) {
+                    error[0] = e;
+                    return null;
+                }
+            }
+        });
+        if (error[0] != null) throw error[0];
+        return patched;
     }
 
-    private boolean reallyTransform(@NonNull CompileContext context,
-            @NonNull VirtualFile file, @NonNull VirtualFile original)
-            throws IncorrectOperationException, IOException {
+    private @Nullable PatchedSource reallyTransform(
+            @NonNull CompileContext context, @NonNull VirtualFile original) {
         Document doc = docmgr.getDocument(original);
         PsiFile psiFile = psiDocMgr.getPsiFile(doc);
-        if (!(psiFile instanceof PsiJavaFile)) return false;
+        if (!(psiFile instanceof PsiJavaFile)) return null;
         PsiJavaFile jfile = (PsiJavaFile) psiFile;
 
-//        NonnullChecker checker = new NonnullChecker(false);
-//        psiFile.accept(checker);
-//
-//        if (!checker.shouldProcess()) return false;
+        if (!NullyRelevanceIndex.getInstance().isRelevant(jfile)) return null;
 
         AnalysisContext ctx = new AnalysisContext();
         ctx.addCheckLevel(NullCheckLevel.COMPILER);
         ctx.addCheckLevel(NullCheckLevel.RUNTIME);
 
-        PsiJavaFile copy = PsiTools.getMarkedCopy(jfile,
-                ctx.getOriginalKey(), ctx.getCopyKey());
+        if (!insertChecks) {
+            // the known problems are found in the original file, without Soot
+            ctx.setFileOrig(jfile);
+            addCompilerWarnings(context, jfile, findKnownProblems(ctx));
+            return null;
+        }
 
+        ProgressIndicator indicator = context.getProgressIndicator();
+        // the runtime checks are inserted as text, so the file itself is never
+        // changed, and the only copy needed is the one given to Soot
         PreparerForSoot preparer = new PreparerForSoot(ctx);
-        preparer.makeMarkedCopy(copy);
-        preparer.stripJava5Code(ctx.getFileCopy());
+        preparer.prepareForCompilation(jfile);
 
-        boolean changed;
+        PatchedSource patched;
+        CodeAnalyzer analyzer = new CodeAnalyzer();
         try {
+            // each step can take a while, so the compilation can be cancelled
+            // between them
+            if (indicator.isCanceled()) return null;
             SootTools.lockSootGlobally();
-            CodeAnalyzer analyzer = new CodeAnalyzer();
             analyzer.analyze(ctx);
+            if (indicator.isCanceled()) return null;
 
             List<NullyProblem<? extends PsiElement>> problems
                     = new ArrayList<NullyProblem<? extends PsiElement>>(findKnownProblems(ctx));
@@ -207,38 +346,22 @@ public class NullyCompilerStep implements JavaSourceTransformingCompiler {
             Collection<NullValueProblem> nvProblems = finder.findProblems(ctx);
             problems.addAll(nvProblems);
 
-            // this must be done before transforming the code, before the
-            // PsiElements mean nothing because they were deleted
             addCompilerWarnings(context, jfile, problems);
+            if (indicator.isCanceled()) return null;
 
-            changed = RuntimeCheckInserter.insertRuntimeChecks(copy,
-                    nvProblems);
+            patched = RuntimeCheckInserter.insertRuntimeChecks(jfile,
+                    nvProblems, finder.getCallSiteSummary(), countChecks);
         } finally {
+            analyzer.releaseSoot();
             SootTools.unlockSootGlobally();
+            preparer.removeCopy(jfile);
         }
 
-        if (changed) {
-            // add NullyInstrumented annotation
-            for (PsiClass cls : copy.getClasses()) {
-                PsiAnnotation oldAnno = cls.getModifierList()
-                        .findAnnotation(NullyInstrumented.class.getName());
-                if (oldAnno != null) continue;
-                PsiElementFactory factory = cls.getManager()
-                        .getElementFactory();
-                PsiAnnotation anno = factory.createAnnotationFromText("@"
-                        + NullyInstrumented.class.getName(), cls);
-                cls.getModifierList().add(anno);
-            }
-
-            // make copy
-            String text = copy.getText();
-            System.out.println("New:");
-            System.out.println(text);
-            writeJavaFile(copy, file);
-            return true;
-        } else {
-            return false;
+        if (patched != null) {
+            LOGGER.debug("Inserted " + patched.getInsertionCount()
+                    + " runtime checks into " + original.getName());
         }
+        return patched;
     }
 
     private static List<NullyProblem<? extends PsiElement>> findKnownProblems(
@@ -427,13 +550,36 @@ public class NullyCompilerStep implements JavaSourceTransformingCompiler {
         return num;
     }
 
-    private void writeJavaFile(@NonNull PsiJavaFile copy, @NonNull VirtualFile file)
-            throws IOException {
-        psiDocMgr.commitDocument(psiDocMgr.getDocument(copy));
+    /**
+     * Streams the given source to the given file in a write action on the event
+     * dispatch thread.
+     */
+    private void writeJavaFile(final @NonNull PatchedSource source,
+            final @NonNull VirtualFile file) throws Exception {
+        final IOException[] error = new IOException[1];
+        SwingUtilities.invokeAndWait(new Runnable() {
+            public void run() {
+                Application app = ApplicationManager.getApplication();
+                app.runWriteAction(new Runnable() {
+                    public void run() {
+                        try {
+                            writeSource(source, file);
+                        } catch (IOException e) {
+                            error[0] = e;
+                        }
+                    }
+                });
+            }
+        });
+        if (error[0] != null) throw error[0];
+    }
+
+    private void writeSource(@NonNull PatchedSource source,
+            @NonNull VirtualFile file) throws IOException {
         Writer writer = null;
         try {
             writer = file.getWriter(this);
-            writer.write(copy.getText());
+            source.writeTo(writer);
             writer.close();
         } finally {
             if (writer != null) {
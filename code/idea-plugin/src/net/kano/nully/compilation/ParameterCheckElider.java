@@ -0,0 +1,134 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin.compilation;
+
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiExpression;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.PsiMethodCallExpression;
+import com.intellij.psi.PsiModifier;
+import com.intellij.psi.PsiParameter;
+import com.intellij.psi.PsiReference;
+import com.intellij.psi.PsiSearchHelper;
+import com.intellij.psi.javadoc.PsiDocComment;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.search.LocalSearchScope;
+import com.intellij.psi.search.SearchScope;
+import com.intellij.psi.util.PsiTreeUtil;
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.plugin.NullyTools;
+import net.kano.nully.plugin.analysis.nulls.CallSiteSummary;
+
+/**
+ * Decides which methods' {@code @NonNull} parameter checks can be left out
+ * because every caller is already known to pass non-null values. This is only
+ * the case for a private or package-private method which:
+ * <ul>
+ * <li>doesn't override or implement another method, and isn't overridden</li>
+ * <li>isn't a constructor or a varargs method</li>
+ * <li>is called at least once, and only from the file being compiled</li>
+ * <li>is passed an argument the {@link CallSiteSummary} proves non-null for
+ *     each {@code @NonNull} parameter, at every call</li>
+ * </ul>
+ * Public and protected methods, and any method which might be reached from
+ * another file, always keep their checks.
+ */
+final class ParameterCheckElider {
+    private final PsiJavaFile file;
+    private final CallSiteSummary summary;
+
+    public ParameterCheckElider(@NonNull PsiJavaFile file,
+            @NonNull CallSiteSummary summary) {
+        this.file = file;
+        this.summary = summary;
+    }
+
+    public boolean canElideChecks(@NonNull PsiMethod method) {
+        if (method.isConstructor() || method.isVarArgs()) return false;
+
+        boolean isPrivate = method.hasModifierProperty(PsiModifier.PRIVATE);
+        if (!isPrivate
+                && !method.hasModifierProperty(PsiModifier.PACKAGE_LOCAL)) {
+            return false;
+        }
+        if (method.findSuperMethods().length > 0) return false;
+
+        PsiManager manager = method.getManager();
+        PsiSearchHelper helper = manager.getSearchHelper();
+        SearchScope scope;
+        if (isPrivate) {
+            scope = new LocalSearchScope(file);
+        } else {
+            scope = GlobalSearchScope.projectScope(manager.getProject());
+            if (helper.findOverridingMethods(method, scope, true).length > 0) {
+                return false;
+            }
+        }
+
+        PsiReference[] refs = helper.findReferences(method, scope, false);
+        // a method which is never called from source might be called
+        // reflectively, or by the VM
+        boolean anyCalls = false;
+        for (PsiReference ref : refs) {
+            PsiElement element = ref.getElement();
+            if (PsiTreeUtil.getParentOfType(element, PsiDocComment.class) != null) {
+                continue;
+            }
+            if (element.getContainingFile() != file) return false;
+            if (!isProvenCall(method, element)) return false;
+            anyCalls = true;
+        }
+        return anyCalls;
+    }
+
+    private boolean isProvenCall(@NonNull PsiMethod method,
+            @NonNull PsiElement ref) {
+        PsiElement parent = ref.getParent();
+        if (!(parent instanceof PsiMethodCallExpression)) return false;
+        PsiMethodCallExpression call = (PsiMethodCallExpression) parent;
+        if (call.getMethodExpression() != ref) return false;
+
+        PsiParameter[] params = method.getParameterList().getParameters();
+        PsiExpression[] args = call.getArgumentList().getExpressions();
+        if (args.length != params.length) return false;
+
+        for (int i = 0; i < params.length; i++) {
+            if (!NullyTools.hasValidNonNullAnnotation(params[i])) continue;
+            if (!summary.isProvenNonNull(args[i])) return false;
+        }
+        return true;
+    }
+}
@@ -35,75 +35,67 @@ package net.kano.nully.plugin.compilation;
 
 import com.intellij.psi.PsiRecursiveElementVisitor;
 import com.intellij.psi.PsiMethod;
-import com.intellij.psi.PsiElementFactory;
 import com.intellij.psi.PsiParameter;
 import com.intellij.psi.PsiCodeBlock;
 import com.intellij.psi.PsiElement;
-import com.intellij.psi.PsiWhiteSpace;
-import com.intellij.util.IncorrectOperationException;
-import com.intellij.openapi.diagnostic.Logger;
 import net.kano.nully.plugin.NullyTools;
-import net.kano.nully.annotations.NullParameterException;
 import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.Nullable;
 import net.kano.nully.annotations.NullCheckLevel;
 
-import java.util.Set;
-import java.util.HashSet;
-import java.util.Collections;
-
+/**
+ * Adds checks for {@code @NonNull} parameters to the top of each method. The
+ * checks are inserted on the same line as the method body's opening brace, so
+ * the line numbers of the rest of the file don't change. Methods whose callers
+ * are all known to pass non-null values are skipped, if an elider is given.
+ */
 class ParameterCheckInserterVisitor extends PsiRecursiveElementVisitor {
-    private static final Logger LOGGER
-            = Logger.getInstance(ParameterCheckInserterVisitor.class.getName());
-    private Set<PsiMethod> modifiedMethods = new HashSet<PsiMethod>();
+    private final SourcePatcher patcher;
+    private final CheckWriter writer;
+    private final ParameterCheckElider elider;
+
+    public ParameterCheckInserterVisitor(@NonNull SourcePatcher patcher,
+            @NonNull CheckWriter writer, @Nullable ParameterCheckElider elider) {
+        this.patcher = patcher;
+        this.writer = writer;
+        this.elider = elider;
+    }
 
     public void visitMethod(PsiMethod method) {
         super.visitMethod(method);
 
         if (!NullyTools.shouldCheckNulls(method, NullCheckLevel.RUNTIME)) return;
+        // finding a method's callers is expensive, so only methods which have
+        // checks to elide are given to the elider
+        if (!hasNonNullParameter(method)) return;
+        if (elider != null && elider.canElideChecks(method)) return;
 
-        try {
-            addParameterChecks(method);
-            modifiedMethods.add(method);
-        } catch (IncorrectOperationException e) {
-            LOGGER.error(e);
-        }
+        addParameterChecks(method);
     }
 
-    public Set<PsiMethod> getModifiedMethods() {
-        return Collections.unmodifiableSet(modifiedMethods);
-    }
-
-    private static String makeParamCheckString(PsiParameter param, int number) {
-        return "if (" + param.getName() + " == null) {"
-                + "throw new " + NullParameterException.class.getName() + "(\""
-                + param.getName() + "\", " + (number + 1) + ");"
-                + "}";
+    private static boolean hasNonNullParameter(@NonNull PsiMethod method) {
+        for (PsiParameter param : method.getParameterList().getParameters()) {
+            if (NullyTools.hasValidNonNullAnnotation(param)) return true;
+        }
+        return false;
     }
 
-    private void addParameterChecks(@NonNull PsiMethod method)
-            throws IncorrectOperationException {
-        PsiElementFactory factory = method.getManager().getElementFactory();
+    private void addParameterChecks(@NonNull PsiMethod method) {
         PsiParameter[] params = method.getParameterList().getParameters();
         PsiCodeBlock body = method.getBody();
         if (body == null) return;
-        PsiElement addAfter = body.getLBrace();
+        PsiElement lbrace = body.getLBrace();
+        if (lbrace == null) return;
+
+        StringBuilder checks = new StringBuilder();
         for (int pi = 0; pi < params.length; pi++) {
             PsiParameter param = params[pi];
             if (!NullyTools.hasValidNonNullAnnotation(param)) continue;
 
-            PsiElement el = factory.createStatementFromText(
-                    makeParamCheckString(param, pi), body);
-            body.addAfter(el, addAfter);
-            for (int i = 0; i < 1000; i++) {
-                PsiElement nextSibling = el.getNextSibling();
-                if (nextSibling instanceof PsiWhiteSpace) {
-                    nextSibling.delete();
-                } else {
-                    break;
-                }
-            }
-
-            addAfter = el;
+            checks.append(writer.getParameterCheck(param, pi));
         }
+        if (checks.length() == 0) return;
+
+        patcher.insert(lbrace.getTextRange().getEndOffset(), checks.toString());
     }
 }
@@ -0,0 +1,109 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin.compilation;
+
+import net.kano.nully.annotations.NonNull;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+/**
+ * A source file together with a list of text insertions to make to it. The
+ * patched source is never built up in memory; it is {@linkplain #writeTo
+ * written} straight from the original text and the insertions.
+ * <br /><br />
+ * This class is shared between {@linkplain
+ * net.kano.nully.plugin.SootEnvironment Soot environments}, so it can be
+ * returned from an isolated transformation.
+ */
+public final class PatchedSource {
+    private final String original;
+    private final int[] offsets;
+    private final String[] texts;
+
+    /**
+     * Creates a new patched source.
+     *
+     * @param original the original source text
+     * @param offsets the offsets into {@code original} at which to insert
+     *        text, in ascending order
+     * @param texts the text to insert at each offset
+     */
+    public PatchedSource(@NonNull String original, @NonNull int[] offsets,
+            @NonNull String[] texts) {
+        if (offsets.length != texts.length) {
+            throw new IllegalArgumentException(offsets.length + " offsets but "
+                    + texts.length + " insertions");
+        }
+        for (int i = 0; i < offsets.length; i++) {
+            int min = i == 0 ? 0 : offsets[i - 1];
+            if (offsets[i] < min || offsets[i] > original.length()) {
+                throw new IllegalArgumentException("offset " + offsets[i]
+                        + " out of order or out of range");
+            }
+        }
+        this.original = original;
+        this.offsets = offsets.clone();
+        this.texts = texts.clone();
+    }
+
+    public int getInsertionCount() { return offsets.length; }
+
+    /**
+     * Writes the patched source to the given writer.
+     *
+     * @param writer the writer
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeTo(@NonNull Writer writer) throws IOException {
+        int pos = 0;
+        for (int i = 0; i < offsets.length; i++) {
+            writer.write(original, pos, offsets[i] - pos);
+            writer.write(texts[i]);
+            pos = offsets[i];
+        }
+        writer.write(original, pos, original.length() - pos);
+    }
+
+    public String toString() {
+        StringWriter writer = new StringWriter(original.length());
+        try {
+            writeTo(writer);
+        } catch (IOException impossible) {
+            throw new IllegalStateException(impossible);
+        }
+        return writer.toString();
+    }
+}
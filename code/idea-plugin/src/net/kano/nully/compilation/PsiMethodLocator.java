@@ -0,0 +1,132 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin.compilation;
+
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.PsiParameter;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.TypeConversionUtil;
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.Nullable;
+import soot.SootMethodRef;
+import soot.Type;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the PSI method corresponding to a method referenced from bytecode,
+ * so the method's Nully annotations can be read from source. Lookups are
+ * cached by method signature.
+ */
+final class PsiMethodLocator {
+    private final PsiManager manager;
+    private final GlobalSearchScope scope;
+    private final Map<String,PsiMethod> methods = new HashMap<String, PsiMethod>();
+
+    public PsiMethodLocator(@NonNull PsiManager manager,
+            @NonNull GlobalSearchScope scope) {
+        this.manager = manager;
+        this.scope = scope;
+    }
+
+    /**
+     * Returns the PSI method for the given method reference, or {@code null}
+     * if the method can't be found. Static initializers and methods of
+     * anonymous and local classes are never found.
+     *
+     * @param ref a method reference
+     * @return the referenced method, or {@code null}
+     */
+    public @Nullable PsiMethod findMethod(@NonNull SootMethodRef ref) {
+        String signature = ref.getSignature();
+        if (methods.containsKey(signature)) return methods.get(signature);
+
+        PsiMethod method = find(ref);
+        methods.put(signature, method);
+        return method;
+    }
+
+    /**
+     * Returns the number of parameters the compiler added to the front of the
+     * given method's bytecode parameter list, such as the outer instance
+     * passed to an inner class constructor.
+     *
+     * @param method the PSI method
+     * @param ref a reference to the method from bytecode
+     * @return the number of synthetic parameters
+     */
+    public static int getSyntheticParameterCount(@NonNull PsiMethod method,
+            @NonNull SootMethodRef ref) {
+        return ref.parameterTypes().size()
+                - method.getParameterList().getParameters().length;
+    }
+
+    private @Nullable PsiMethod find(@NonNull SootMethodRef ref) {
+        String name = ref.name();
+        if (name.equals("<clinit>")) return null;
+
+        String className = ref.declaringClass().getName().replace('$', '.');
+        PsiClass cls = manager.findClass(className, scope);
+        if (cls == null) return null;
+
+        boolean constructor = name.equals("<init>");
+        PsiMethod[] candidates = constructor ? cls.getConstructors()
+                : cls.findMethodsByName(name, true);
+        List<Type> types = (List<Type>) ref.parameterTypes();
+        for (PsiMethod candidate : candidates) {
+            if (matches(candidate, types, constructor)) return candidate;
+        }
+        return null;
+    }
+
+    private static boolean matches(@NonNull PsiMethod method,
+            @NonNull List<Type> types, boolean constructor) {
+        PsiParameter[] params = method.getParameterList().getParameters();
+        int offset = types.size() - params.length;
+        // only constructors are given synthetic parameters
+        if (offset < 0 || (offset > 0 && !constructor)) return false;
+
+        for (int i = 0; i < params.length; i++) {
+            String psiName = TypeConversionUtil.erasure(params[i].getType())
+                    .getCanonicalText();
+            String sootName = types.get(i + offset).toString().replace('$', '.');
+            if (!psiName.equals(sootName)) return false;
+        }
+        return true;
+    }
+}
@@ -36,68 +36,97 @@ package net.kano.nully.plugin.compilation;
 import static net.kano.nully.plugin.analysis.nulls.NullProblemType.NULL_RETURN_IN_NONNULL_METHOD;
 import static net.kano.nully.plugin.analysis.nulls.NullProblemType.NULL_ASSIGNMENT_TO_NONNULL_VARIABLE;
 import static net.kano.nully.plugin.analysis.nulls.NullProblemType.NULL_ARGUMENT_FOR_NONNULL_PARAMETER;
+import com.intellij.psi.PsiClass;
 import com.intellij.psi.PsiElement;
-import com.intellij.psi.PsiElementFactory;
-import com.intellij.psi.PsiExpression;
 import com.intellij.psi.PsiJavaFile;
-import com.intellij.util.IncorrectOperationException;
-import net.kano.nully.annotations.NonNullTools;
+import com.intellij.psi.PsiModifierList;
+import net.kano.nully.annotations.Nullable;
+import net.kano.nully.annotations.NullyInstrumented;
 import net.kano.nully.plugin.NullyTools;
 import net.kano.nully.annotations.NonNull;
 import net.kano.nully.annotations.NullCheckLevel;
+import net.kano.nully.plugin.analysis.nulls.CallSiteSummary;
 import net.kano.nully.plugin.analysis.nulls.NullProblemType;
 import net.kano.nully.plugin.analysis.nulls.NullValueProblem;
 
 import java.util.Collection;
 
+/**
+ * Works out the runtime checks to add to a source file. The checks are
+ * collected as text insertions into the file's source rather than made to its
+ * PSI tree, so the file is never modified or reparsed.
+ */
 public class RuntimeCheckInserter {
-    public static boolean insertRuntimeChecks(@NonNull PsiJavaFile copy,
-            @NonNull Collection<? extends NullValueProblem> nvProblems)
-            throws IncorrectOperationException {
-        boolean changed = false;
-        changed |= insertDetectedPossibleNullChecks(nvProblems);
+    /**
+     * Returns the given file's source with runtime null checks added for the
+     * given problems, for calls to {@code @NonNull} methods, and for
+     * {@code @NonNull} parameters. Each class in an instrumented file is
+     * marked {@code @NullyInstrumented}.
+     * <br /><br />
+     * If a call site summary is given, parameter checks are left out of
+     * methods whose every caller is proven to pass non-null values. If
+     * {@code countChecks} is on, each check is given a site ID, so it can be
+     * counted by {@link net.kano.nully.annotations.NullCheckCounters}.
+     *
+     * @param file a Java file
+     * @param nvProblems the null value problems found in {@code file}
+     * @param summary the arguments proven non-null in {@code file}, or
+     *        {@code null} to check every {@code @NonNull} parameter
+     * @param countChecks whether the checks should be counted at runtime
+     * @return the patched source, or {@code null} if no checks were needed
+     */
+    public static @Nullable PatchedSource insertRuntimeChecks(
+            @NonNull PsiJavaFile file,
+            @NonNull Collection<? extends NullValueProblem> nvProblems,
+            @Nullable CallSiteSummary summary, boolean countChecks) {
+        SourcePatcher patcher = new SourcePatcher();
+        CheckWriter writer = new CheckWriter(patcher, file, countChecks);
+        insertDetectedPossibleNullChecks(writer, nvProblems);
 
-        NonNullMethodCallCheckInserter inserter = new NonNullMethodCallCheckInserter();
-        copy.accept(inserter);
-        changed |= inserter.insertedAnything();
+        ParameterCheckElider elider = null;
+        if (summary != null) elider = new ParameterCheckElider(file, summary);
 
-        ParameterCheckInserterVisitor paraminserter = new ParameterCheckInserterVisitor();
-        copy.accept(paraminserter);
-        changed |= paraminserter.getModifiedMethods().isEmpty();
-        return changed;
-    }
+        file.accept(new NonNullMethodCallCheckInserter(writer));
+        file.accept(new ParameterCheckInserterVisitor(patcher, writer, elider));
+        writer.writeSiteTable();
+
+        if (patcher.isEmpty()) return null;
 
-    private static boolean insertDetectedPossibleNullChecks(
-            @NonNull Collection<? extends NullValueProblem> problems)
-            throws IncorrectOperationException {
-        boolean changed = false;
+        markInstrumented(patcher, file);
+        return patcher.toPatchedSource(file.getText());
+    }
 
+    private static void insertDetectedPossibleNullChecks(
+            @NonNull CheckWriter writer,
+            @NonNull Collection<? extends NullValueProblem> problems) {
         for (NullValueProblem problem : problems) {
             PsiElement el = problem.getElement();
             if (!NullyTools.shouldCheckNulls(el, NullCheckLevel.RUNTIME)) continue;
 
-            String oldText = el.getText();
-            PsiElementFactory factory = el.getManager().getElementFactory();
             NullProblemType type = problem.getType();
-            PsiElement parent = el.getParent();
-            PsiExpression newExp = null;
 
             if (type == NULL_ARGUMENT_FOR_NONNULL_PARAMETER
                     || type == NULL_ASSIGNMENT_TO_NONNULL_VARIABLE) {
-                newExp = factory.createExpressionFromText(
-                        NullyTools.getUnexpectedNullValueCheckString(oldText), parent);
+                writer.wrapInCheck(el, NullyTools.METHOD_CHECKNONNULLVALUE,
+                        "value");
 
             } else if (type == NULL_RETURN_IN_NONNULL_METHOD) {
-                newExp = factory.createExpressionFromText(NonNullTools.class.getName()
-                        + "." + NullyTools.METHOD_CHECKNONNULLRETURN + "("
-                        + oldText + ")", parent);
+                writer.wrapInCheck(el, NullyTools.METHOD_CHECKNONNULLRETURN,
+                        "return value");
             }
+        }
+    }
 
-            if (newExp != null) {
-                changed = true;
-                el.replace(newExp);
+    private static void markInstrumented(@NonNull SourcePatcher patcher,
+            @NonNull PsiJavaFile file) {
+        for (PsiClass cls : file.getClasses()) {
+            PsiModifierList mods = cls.getModifierList();
+            if (mods == null) continue;
+            if (mods.findAnnotation(NullyInstrumented.class.getName()) != null) {
+                continue;
             }
+            patcher.insert(mods.getTextRange().getStartOffset(),
+                    "@" + NullyInstrumented.class.getName() + " ");
         }
-        return changed;
     }
 }
@@ -0,0 +1,135 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin.compilation;
+
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.PsiElement;
+import net.kano.nully.annotations.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Collects text insertions into a source file. Insertions may be made in any
+ * order; they are sorted by offset when the {@link PatchedSource} is created.
+ * <br /><br />
+ * When several insertions fall at the same offset, text closing a {@linkplain
+ * #wrap wrapped} element comes first, innermost element first; then plain
+ * {@linkplain #insert insertions}, in the order they were made; then text
+ * opening a wrapped element, outermost element first. This keeps nested
+ * wrappers properly nested.
+ */
+final class SourcePatcher {
+    private static final int KIND_SUFFIX = 0;
+    private static final int KIND_PLAIN = 1;
+    private static final int KIND_PREFIX = 2;
+
+    private final List<Insertion> insertions = new ArrayList<Insertion>();
+    private final Set<TextRange> wrapped = new HashSet<TextRange>();
+
+    public boolean isEmpty() { return insertions.isEmpty(); }
+
+    public void insert(int offset, @NonNull String text) {
+        insertions.add(new Insertion(offset, KIND_PLAIN, 0, insertions.size(),
+                text));
+    }
+
+    /**
+     * Surrounds the given element's text with the given prefix and suffix.
+     * Each element is only wrapped once; later attempts are ignored.
+     *
+     * @param element the element to wrap
+     * @param prefix the text to insert before the element
+     * @param suffix the text to insert after the element
+     * @return whether the element was wrapped
+     */
+    public boolean wrap(@NonNull PsiElement element, @NonNull String prefix,
+            @NonNull String suffix) {
+        TextRange range = element.getTextRange();
+        if (!wrapped.add(range)) return false;
+
+        int length = range.getLength();
+        insertions.add(new Insertion(range.getStartOffset(), KIND_PREFIX,
+                -length, insertions.size(), prefix));
+        insertions.add(new Insertion(range.getEndOffset(), KIND_SUFFIX,
+                length, insertions.size(), suffix));
+        return true;
+    }
+
+    public boolean isWrapped(@NonNull PsiElement element) {
+        return wrapped.contains(element.getTextRange());
+    }
+
+    public @NonNull PatchedSource toPatchedSource(@NonNull String original) {
+        List<Insertion> sorted = new ArrayList<Insertion>(insertions);
+        Collections.sort(sorted);
+
+        int[] offsets = new int[sorted.size()];
+        String[] texts = new String[sorted.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            Insertion insertion = sorted.get(i);
+            offsets[i] = insertion.offset;
+            texts[i] = insertion.text;
+        }
+        return new PatchedSource(original, offsets, texts);
+    }
+
+    private static final class Insertion implements Comparable<Insertion> {
+        private final int offset;
+        private final int kind;
+        private final int rank;
+        private final int sequence;
+        private final String text;
+
+        public Insertion(int offset, int kind, int rank, int sequence,
+                @NonNull String text) {
+            this.offset = offset;
+            this.kind = kind;
+            this.rank = rank;
+            this.sequence = sequence;
+            this.text = text;
+        }
+
+        public int compareTo(Insertion o) {
+            if (offset != o.offset) return offset < o.offset ? -1 : 1;
+            if (kind != o.kind) return kind < o.kind ? -1 : 1;
+            if (rank != o.rank) return rank < o.rank ? -1 : 1;
+            if (sequence != o.sequence) return sequence < o.sequence ? -1 : 1;
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin.compilation;
+
+import com.intellij.openapi.compiler.CompileContext;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.vfs.VirtualFile;
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.Nullable;
+import net.kano.nully.plugin.SootEnvironmentPool;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Analyzes the Java files in a compile scope ahead of time on background
+ * threads, so that {@link NullyCompilerStep#transform} only has to wait for a
+ * file's result and write it out.
+ * <br /><br />
+ * The number of files analyzed at once is given by the {@value
+ * #PROP_PARALLELISM} system property, and defaults to the size of the {@link
+ * SootEnvironmentPool}. When it is {@code 1}, nothing is analyzed ahead of
+ * time, and each file is analyzed in the compiler's thread when it is asked
+ * for.
+ * <br /><br />
+ * Compiler messages for a file are held back until IDEA asks for that file, so
+ * files in the scope which IDEA decides not to compile never produce warnings.
+ * Since the batch holds on to the compile context and every result not yet
+ * asked for, its owner should drop it once it {@linkplain #isFinished is
+ * finished}, or {@linkplain #cancel cancel} it when the compilation ends.
+ */
+final class TransformBatch {
+    private static final Logger LOGGER
+            = Logger.getInstance(TransformBatch.class.getName());
+
+    public static final String PROP_PARALLELISM = "nully.compiler.parallelism";
+
+    private static ExecutorService executor = null;
+
+    private final NullyCompilerStep step;
+    private final CompileContext context;
+    private final Map<VirtualFile, Future<FileResult>> pending
+            = new HashMap<VirtualFile, Future<FileResult>>();
+    /** The files in the scope which haven't been asked for yet. */
+    private final Set<VirtualFile> unrequested;
+
+    public TransformBatch(@NonNull NullyCompilerStep step,
+            @NonNull CompileContext context,
+            @NonNull Collection<VirtualFile> files) {
+        this.step = step;
+        this.context = context;
+        this.unrequested = new HashSet<VirtualFile>(files);
+
+        if (getParallelism() <= 1) return;
+
+        ExecutorService executor = getExecutor();
+        synchronized (pending) {
+            for (final VirtualFile file : files) {
+                pending.put(file, executor.submit(new Callable<FileResult>() {
+                    public FileResult call() throws Exception {
+                        return analyze(file);
+                    }
+                }));
+            }
+        }
+        LOGGER.debug("Queued " + files.size() + " files for analysis");
+    }
+
+    public static int getParallelism() {
+        int environments = SootEnvironmentPool.getInstance().getSize();
+        return Math.max(1, Integer.getInteger(PROP_PARALLELISM, environments));
+    }
+
+    private static synchronized @NonNull ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(getParallelism(),
+                    new ThreadFactory() {
+                        private int count = 0;
+
+                        public synchronized Thread newThread(Runnable r) {
+                            count++;
+                            Thread thread = new Thread(r,
+                                    "Nully compiler worker " + count);
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return executor;
+    }
+
+    public boolean isFor(@NonNull CompileContext context) {
+        return this.context == context;
+    }
+
+    public @NonNull CompileContext getContext() { return context; }
+
+    /**
+     * Returns the transformed source for the given file, waiting for its
+     * analysis to finish if necessary. Compiler messages produced while
+     * analyzing the file are reported to the compile context before this
+     * method returns.
+     *
+     * @param original a source file in the compile scope
+     * @return the transformed source, or {@code null} if the file does not
+     *         need to change
+     * @throws Exception if the analysis failed
+     */
+    public @Nullable PatchedSource getTransformedSource(@NonNull VirtualFile original)
+            throws Exception {
+        Future<FileResult> future;
+        synchronized (pending) {
+            future = pending.remove(original);
+            unrequested.remove(original);
+        }
+        // if no worker has started on this file yet, it's quicker to analyze
+        // it in this thread than to wait for it to reach the front of the
+        // queue
+        if (future != null && future.cancel(false)) future = null;
+
+        FileResult result;
+        if (future == null) {
+            result = analyze(original);
+        } else {
+            try {
+                result = future.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) throw (Exception) cause;
+                throw e;
+            }
+        }
+        result.getMessages().replay();
+        return result.getSource();
+    }
+
+    /**
+     * Returns whether every file in the scope has been asked for, or the batch
+     * was cancelled, so nothing more will come of it.
+     */
+    public boolean isFinished() {
+        synchronized (pending) {
+            return unrequested.isEmpty();
+        }
+    }
+
+    /**
+     * Cancels analysis of all files which have not been asked for yet.
+     */
+    public void cancel() {
+        synchronized (pending) {
+            for (Future<FileResult> future : pending.values()) {
+                future.cancel(false);
+            }
+            pending.clear();
+            unrequested.clear();
+        }
+    }
+
+    private @NonNull FileResult analyze(@NonNull VirtualFile original)
+            throws Exception {
+        DeferredCompileContext messages = new DeferredCompileContext(context);
+        if (context.getProgressIndicator().isCanceled()) {
+            return new FileResult(null, messages);
+        }
+        PatchedSource source = step.transformInEnvironment(messages.getProxy(),
+                original);
+        return new FileResult(source, messages);
+    }
+
+    private static final class FileResult {
+        private final PatchedSource source;
+        private final DeferredCompileContext messages;
+
+        public FileResult(@Nullable PatchedSource source,
+                @NonNull DeferredCompileContext messages) {
+            this.source = source;
+            this.messages = messages;
+        }
+
+        public @Nullable PatchedSource getSource() { return source; }
+
+        public @NonNull DeferredCompileContext getMessages() { return messages; }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin.inspection;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiFile;
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A bounded cache of finished per-file analysis results. A result is only
+ * returned while the file's modification stamp, the PSI manager's
+ * out-of-code-block modification count, and the inspector options are the
+ * same as when the result was stored. When the cache is full, the least
+ * recently used file is evicted.
+ * <br /><br />
+ * Cached results refer to PSI elements, and inspectors outlive projects, so
+ * {@link #removeProject} must be called when a project is closed to drop its
+ * files from every cache.
+ */
+public class AnalysisResultCache<V> {
+    public static final int DEFAULT_MAX_FILES = 32;
+
+    /** Every cache which has been created, so closed projects can be removed. */
+    private static final Map<AnalysisResultCache<?>,Boolean> caches
+            = new WeakHashMap<AnalysisResultCache<?>, Boolean>();
+
+    private final Map<PsiFile,CachedResult<V>> results;
+    private long hits = 0;
+    private long misses = 0;
+    private long partialHits = 0;
+
+    public AnalysisResultCache() {
+        this(DEFAULT_MAX_FILES);
+    }
+
+    public AnalysisResultCache(final int maxFiles) {
+        if (maxFiles < 1) {
+            throw new IllegalArgumentException("maxFiles must be positive: "
+                    + maxFiles);
+        }
+        results = new LinkedHashMap<PsiFile, CachedResult<V>>(maxFiles * 2,
+                0.75f, true) {
+            protected boolean removeEldestEntry(
+                    Map.Entry<PsiFile, CachedResult<V>> eldest) {
+                return size() > maxFiles;
+            }
+        };
+        synchronized (caches) {
+            caches.put(this, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Removes the results for the given project's files from every cache.
+     *
+     * @param project a project which is being closed
+     */
+    public static void removeProject(@NonNull Project project) {
+        List<AnalysisResultCache<?>> all;
+        synchronized (caches) {
+            all = new ArrayList<AnalysisResultCache<?>>(caches.keySet());
+        }
+        for (AnalysisResultCache<?> cache : all) cache.removeFilesOf(project);
+    }
+
+    private synchronized void removeFilesOf(@NonNull Project project) {
+        for (Iterator<CachedResult<V>> it = results.values().iterator();
+                it.hasNext();) {
+            if (it.next().getKey().project == project) it.remove();
+        }
+    }
+
+    /**
+     * Returns a key describing the current state of the given file. The key
+     * should be created before the file is analyzed, so a result is never
+     * stored under a newer stamp than the one it was computed for.
+     *
+     * @param file the analyzed file
+     * @param options a snapshot of the inspector options, or {@code null} if
+     *        the inspector has no options
+     * @return a key for the current state of {@code file}
+     */
+    public @NonNull CacheKey createKey(@NonNull PsiFile file,
+            @Nullable Object options) {
+        long structureStamp = file.getManager().getModificationTracker()
+                .getOutOfCodeBlockModificationCount();
+        return new CacheKey(file, file.getProject(),
+                file.getModificationStamp(), structureStamp, options);
+    }
+
+    public synchronized @Nullable V get(@NonNull CacheKey key) {
+        CachedResult<V> cached = results.get(key.getFile());
+        if (cached != null && cached.getKey().equals(key)) {
+            hits++;
+            return cached.getValue();
+        } else {
+            misses++;
+            return null;
+        }
+    }
+
+    /**
+     * Returns the result stored for the given key, like {@link #get}, without
+     * counting a hit or a miss. This is for callers which check the cache
+     * again just before storing a result.
+     *
+     * @param key a key for the current state of a file
+     * @return the result stored for {@code key}, or {@code null}
+     */
+    public synchronized @Nullable V peek(@NonNull CacheKey key) {
+        CachedResult<V> cached = results.get(key.getFile());
+        if (cached == null || !cached.getKey().equals(key)) return null;
+        return cached.getValue();
+    }
+
+    /**
+     * Returns the result stored for the given key's file if it was computed
+     * before a change to code inside the file's members, but after any other
+     * change. Such a result can be updated by reanalyzing only the changed
+     * members.
+     *
+     * @param key a key for the current state of a file
+     * @return an outdated result for the file, or {@code null}
+     */
+    public synchronized @Nullable V getOutdated(@NonNull CacheKey key) {
+        CachedResult<V> cached = results.get(key.getFile());
+        if (cached == null || !cached.getKey().isOutdatedVersionOf(key)) {
+            return null;
+        }
+        partialHits++;
+        return cached.getValue();
+    }
+
+    public synchronized void put(@NonNull CacheKey key, @NonNull V value) {
+        results.put(key.getFile(), new CachedResult<V>(key, value));
+    }
+
+    public synchronized void clear() {
+        results.clear();
+    }
+
+    public synchronized long getHitCount() { return hits; }
+
+    public synchronized long getMissCount() { return misses; }
+
+    /**
+     * Returns the number of misses for which an {@linkplain #getOutdated
+     * outdated} result could be updated instead of recomputed.
+     *
+     * @return the number of partial hits
+     */
+    public synchronized long getPartialHitCount() { return partialHits; }
+
+    /**
+     * Returns the fraction of lookups which were served from the cache, or
+     * {@code 0} if there have been no lookups.
+     *
+     * @return the cache hit rate, between 0 and 1
+     */
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Returns the fraction of lookups which required a new analysis, or
+     * {@code 0} if there have been no lookups.
+     *
+     * @return the cache miss rate, between 0 and 1
+     */
+    public synchronized double getMissRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) misses / total;
+    }
+
+    public synchronized String toString() {
+        return "AnalysisResultCache{files=" + results.size() + ", hits=" + hits
+                + ", misses=" + misses + ", partialHits=" + partialHits
+                + ", hitRate=" + getHitRate() + "}";
+    }
+
+    public static final class CacheKey {
+        private final PsiFile file;
+        private final Project project;
+        private final long stamp;
+        private final long structureStamp;
+        private final Object options;
+
+        private CacheKey(@NonNull PsiFile file, @NonNull Project project,
+                long stamp, long structureStamp, @Nullable Object options) {
+            this.file = file;
+            this.project = project;
+            this.stamp = stamp;
+            this.structureStamp = structureStamp;
+            this.options = options;
+        }
+
+        public @NonNull PsiFile getFile() { return file; }
+
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CacheKey)) return false;
+
+            CacheKey that = (CacheKey) o;
+            if (file != that.file) return false;
+            if (stamp != that.stamp) return false;
+            if (structureStamp != that.structureStamp) return false;
+            if (options == null) return that.options == null;
+            return options.equals(that.options);
+        }
+
+        private boolean isOutdatedVersionOf(@NonNull CacheKey newer) {
+            if (file != newer.file) return false;
+            if (structureStamp != newer.structureStamp) return false;
+            if (stamp == newer.stamp) return false;
+            if (options == null) return newer.options == null;
+            return options.equals(newer.options);
+        }
+
+        public int hashCode() {
+            int result = file.hashCode();
+            result = 31 * result + (int) (stamp ^ (stamp >>> 32));
+            result = 31 * result + (int) (structureStamp ^ (structureStamp >>> 32));
+            result = 31 * result + (options != null ? options.hashCode() : 0);
+            return result;
+        }
+    }
+
+    private static final class CachedResult<V> {
+        private final CacheKey key;
+        private final V value;
+
+        public CachedResult(@NonNull CacheKey key, @NonNull V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public @NonNull CacheKey getKey() { return key; }
+
+        public @NonNull V getValue() { return value; }
+    }
+}
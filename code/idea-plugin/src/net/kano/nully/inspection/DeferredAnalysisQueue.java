@@ -0,0 +1,145 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package net.kano.nully.plugin.inspection;
+
+import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Computable;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMember;
+import net.kano.nully.annotations.NonNull;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Analyzes members which are not visible in the editor in a background
+ * thread, one at a time, in the order they were scheduled. Each member's
+ * problems are stored in its inspector's result cache. When the queue runs
+ * out, the daemon is restarted for every project with newly analyzed
+ * members, so their problems are shown from the cache.
+ */
+final class DeferredAnalysisQueue {
+    private static final Logger LOGGER
+            = Logger.getInstance(DeferredAnalysisQueue.class.getName());
+
+    private static ExecutorService executor = null;
+
+    private final ProblemFinderBasedInspector<?,?> inspector;
+    private final Set<PsiMember> pending = new HashSet<PsiMember>();
+    private final Set<Project> analyzedProjects = new HashSet<Project>();
+
+    public DeferredAnalysisQueue(@NonNull ProblemFinderBasedInspector<?,?> inspector) {
+        this.inspector = inspector;
+    }
+
+    private static synchronized @NonNull ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Nully deferred analysis");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Queues the given member for analysis, unless it is already queued.
+     *
+     * @param jfile the member's file
+     * @param member an {@linkplain net.kano.nully.plugin.PsiTools#getAnalysisUnit
+     *        analysis unit}
+     */
+    public void schedule(@NonNull final PsiJavaFile jfile,
+            @NonNull final PsiMember member) {
+        synchronized (this) {
+            if (!pending.add(member)) return;
+        }
+        getExecutor().execute(new Runnable() {
+            public void run() {
+                analyze(jfile, member);
+            }
+        });
+    }
+
+    private void analyze(final PsiJavaFile jfile, final PsiMember member) {
+        boolean analyzed = false;
+        try {
+            analyzed = ApplicationManager.getApplication().runReadAction(
+                    new Computable<Boolean>() {
+                public Boolean compute() {
+                    if (!member.isValid()) return false;
+                    inspector.analyzeDeferred(jfile, member);
+                    return true;
+                }
+            });
+        } catch (ProcessCanceledException e) {
+            LOGGER.debug(e);
+        } catch (RuntimeException e) {
+            LOGGER.error(e);
+        }
+
+        Set<Project> toRestart = null;
+        synchronized (this) {
+            pending.remove(member);
+            if (analyzed) analyzedProjects.add(jfile.getProject());
+            if (pending.isEmpty() && !analyzedProjects.isEmpty()) {
+                toRestart = new HashSet<Project>(analyzedProjects);
+                analyzedProjects.clear();
+            }
+        }
+        if (toRestart != null) restartDaemon(toRestart);
+    }
+
+    private static void restartDaemon(final Set<Project> projects) {
+        ApplicationManager.getApplication().invokeLater(new Runnable() {
+            public void run() {
+                for (Project project : projects) {
+                    DaemonCodeAnalyzer.getInstance(project).restart();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin.inspection;
+
+import com.intellij.codeInspection.ProblemDescriptor;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiMember;
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.plugin.PsiTools;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The problems found in a file, grouped by the {@linkplain
+ * PsiTools#getAnalysisUnit member} which contains each one, so the problems
+ * of a single member can be replaced after that member is reanalyzed.
+ * <br /><br />
+ * A set of problems may cover only some members of a file, if only those
+ * members were analyzed. Such a set has no problems from outside its members.
+ */
+public final class FileProblems {
+    private final long changeSequence;
+    private final Map<PsiMember,List<ProblemDescriptor>> memberProblems
+            = new LinkedHashMap<PsiMember, List<ProblemDescriptor>>();
+    private final List<ProblemDescriptor> otherProblems
+            = new ArrayList<ProblemDescriptor>();
+    /** The analyzed members, or {@code null} if the whole file was analyzed. */
+    private Set<PsiMember> analyzedMembers = null;
+    private ProblemDescriptor[] all = null;
+
+    /**
+     * Creates a new set of file problems.
+     *
+     * @param changeSequence the {@linkplain
+     *        net.kano.nully.plugin.MemberChangeTracker#getCurrentSequence()
+     *        change sequence number} read before the file was analyzed
+     * @param problems the problems found in the file
+     */
+    public FileProblems(long changeSequence, @NonNull ProblemDescriptor[] problems) {
+        this.changeSequence = changeSequence;
+        for (ProblemDescriptor problem : problems) add(problem);
+    }
+
+    private FileProblems(long changeSequence) {
+        this.changeSequence = changeSequence;
+    }
+
+    /**
+     * Creates a new set of problems covering only the given members. Problems
+     * outside those members are ignored.
+     *
+     * @param changeSequence the change sequence number read before the
+     *        members were analyzed
+     * @param members the analyzed members
+     * @param problems the problems found in the members
+     * @return the members' problems
+     */
+    public static @NonNull FileProblems forMembers(long changeSequence,
+            @NonNull Collection<PsiMember> members,
+            @NonNull ProblemDescriptor[] problems) {
+        FileProblems partial = new FileProblems(changeSequence);
+        partial.analyzedMembers = new HashSet<PsiMember>();
+        return partial.update(changeSequence, members, problems);
+    }
+
+    private void add(@NonNull ProblemDescriptor problem) {
+        PsiElement el = problem.getPsiElement();
+        PsiMember unit = el == null ? null : PsiTools.getAnalysisUnit(el);
+        if (unit == null) {
+            otherProblems.add(problem);
+        } else {
+            List<ProblemDescriptor> list = memberProblems.get(unit);
+            if (list == null) {
+                list = new ArrayList<ProblemDescriptor>();
+                memberProblems.put(unit, list);
+            }
+            list.add(problem);
+        }
+    }
+
+    public long getChangeSequence() { return changeSequence; }
+
+    /**
+     * Returns whether these problems came from analyzing the whole file,
+     * rather than {@linkplain #forMembers only some of its members}.
+     *
+     * @return whether these are all of the file's problems
+     */
+    public boolean isComplete() { return analyzedMembers == null; }
+
+    /**
+     * Returns whether the problems of the given member are known.
+     *
+     * @param member an {@linkplain PsiTools#getAnalysisUnit analysis unit}
+     * @return whether the given member's problems are known
+     */
+    public boolean covers(@NonNull PsiMember member) {
+        return analyzedMembers == null || analyzedMembers.contains(member);
+    }
+
+    /**
+     * Returns the members whose problems are known, or {@code null} if
+     * {@linkplain #isComplete() every member's problems are known}.
+     *
+     * @return the analyzed members
+     */
+    public Set<PsiMember> getAnalyzedMembers() {
+        return analyzedMembers == null
+                ? null : Collections.unmodifiableSet(analyzedMembers);
+    }
+
+    /**
+     * Returns whether every member with problems still exists.
+     *
+     * @return whether these problems can be updated member by member
+     */
+    public boolean isValid() {
+        for (PsiMember member : memberProblems.keySet()) {
+            if (!member.isValid()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the members which have a problem whose element is no longer
+     * valid. Such members must be reanalyzed even if they did not change.
+     *
+     * @return the members with invalid problems
+     */
+    public @NonNull Set<PsiMember> getInvalidatedMembers() {
+        Set<PsiMember> invalid = new HashSet<PsiMember>();
+        for (Map.Entry<PsiMember,List<ProblemDescriptor>> entry
+                : memberProblems.entrySet()) {
+            for (ProblemDescriptor problem : entry.getValue()) {
+                PsiElement el = problem.getPsiElement();
+                if (el == null || !el.isValid()) {
+                    invalid.add(entry.getKey());
+                    break;
+                }
+            }
+        }
+        return invalid;
+    }
+
+    /**
+     * Returns a copy of these problems in which the problems of the given
+     * members are replaced with the given new problems. New problems outside
+     * the given members are ignored. If these problems cover only some
+     * members, the returned problems also cover the given members.
+     *
+     * @param changeSequence the change sequence number read before the
+     *        members were reanalyzed
+     * @param members the reanalyzed members
+     * @param problems the problems found in the reanalyzed members
+     * @return the updated file problems
+     */
+    public @NonNull FileProblems update(long changeSequence,
+            @NonNull Collection<PsiMember> members,
+            @NonNull ProblemDescriptor[] problems) {
+        FileProblems updated = new FileProblems(changeSequence);
+        if (analyzedMembers != null) {
+            updated.analyzedMembers = new HashSet<PsiMember>(analyzedMembers);
+            updated.analyzedMembers.addAll(members);
+        }
+        for (Map.Entry<PsiMember,List<ProblemDescriptor>> entry
+                : memberProblems.entrySet()) {
+            if (!members.contains(entry.getKey())) {
+                updated.memberProblems.put(entry.getKey(), entry.getValue());
+            }
+        }
+        updated.otherProblems.addAll(otherProblems);
+
+        FileProblems fresh = new FileProblems(changeSequence, problems);
+        for (Map.Entry<PsiMember,List<ProblemDescriptor>> entry
+                : fresh.memberProblems.entrySet()) {
+            if (members.contains(entry.getKey())) {
+                updated.memberProblems.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Returns the problems found in the given member.
+     *
+     * @param member an {@linkplain PsiTools#getAnalysisUnit analysis unit}
+     * @return the member's problems
+     */
+    public @NonNull ProblemDescriptor[] getProblems(@NonNull PsiMember member) {
+        List<ProblemDescriptor> problems = memberProblems.get(member);
+        if (problems == null) return new ProblemDescriptor[0];
+        return problems.toArray(new ProblemDescriptor[problems.size()]);
+    }
+
+    /**
+     * Returns the problems which are not inside any {@linkplain
+     * PsiTools#getAnalysisUnit member}, such as problems in a class
+     * declaration. These are only known if these problems are {@linkplain
+     * #isComplete() complete}; otherwise none are returned.
+     *
+     * @return the problems outside every member
+     */
+    public @NonNull ProblemDescriptor[] getOtherProblems() {
+        return otherProblems.toArray(new ProblemDescriptor[otherProblems.size()]);
+    }
+
+    /**
+     * Combines these problems with problems found for the same version of
+     * the file by another analysis. The result covers every member either
+     * set covers.
+     *
+     * @param other problems found for the same version of the file
+     * @return problems covering the members of both sets
+     */
+    public @NonNull FileProblems merge(@NonNull FileProblems other) {
+        if (isComplete()) return this;
+        if (other.isComplete()) return other;
+        // the older sequence number is kept, so no later change is missed
+        return update(Math.min(changeSequence, other.changeSequence),
+                other.analyzedMembers, other.getAll());
+    }
+
+    public synchronized @NonNull ProblemDescriptor[] getAll() {
+        if (all == null) {
+            List<ProblemDescriptor> list = new ArrayList<ProblemDescriptor>(otherProblems);
+            for (List<ProblemDescriptor> problems : memberProblems.values()) {
+                list.addAll(problems);
+            }
+            all = list.toArray(new ProblemDescriptor[list.size()]);
+        }
+        return all;
+    }
+}
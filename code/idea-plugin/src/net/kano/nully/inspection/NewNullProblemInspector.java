@@ -44,6 +44,7 @@ import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiExpression;
 import com.intellij.psi.PsiField;
 import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMember;
 import com.intellij.psi.PsiMethod;
 import com.intellij.psi.PsiMethodCallExpression;
 import com.intellij.psi.PsiReferenceExpression;
@@ -68,6 +69,7 @@ import org.jdom.DataConversionException;
 import org.jdom.Element;
 
 import javax.swing.JComponent;
+import java.util.Collection;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Set;
@@ -116,7 +118,20 @@ public class NewNullProblemInspector
     }
 
     protected Set<InspectionType> getInspectionTypes() {
-        return EnumSet.of(InspectionType.FILE);
+        return EnumSet.of(InspectionType.FILE, InspectionType.METHOD,
+                InspectionType.FIELD);
+    }
+
+    protected boolean usesSoot() {
+        return true;
+    }
+
+    protected Object getOptionsState() {
+        return new NullInspectorOptions(options);
+    }
+
+    protected boolean supportsMemberAnalysis() {
+        return true;
     }
 
     protected void prepareContext(AnalysisContext context, PsiJavaFile jfile) {
@@ -126,6 +141,21 @@ public class NewNullProblemInspector
         context.setPreparer(preparer);
         preparer.prepareForFileAnalysis(jfile);
 
+        analyze(context, jfile);
+    }
+
+    protected void prepareContextForMembers(AnalysisContext context,
+            PsiJavaFile jfile, Collection<PsiMember> members) {
+        context.setOptions(options);
+
+        PreparerForSoot preparer = new PreparerForSoot(context);
+        context.setPreparer(preparer);
+        preparer.prepareForElementsAnalysis(jfile, members);
+
+        analyze(context, jfile);
+    }
+
+    private static void analyze(AnalysisContext context, PsiJavaFile jfile) {
         SootTools.lockSootGlobally();
 
         context.setFileOrig(jfile);
@@ -133,14 +163,12 @@ public class NewNullProblemInspector
         CodeAnalyzer analyzer = new CodeAnalyzer();
         context.setAnalyzer(analyzer);
         analyzer.analyze(context);
-
-        System.out.println("temp");
     }
 
     protected void cleanUp(AnalysisContext context) {
         try {
             CodeAnalyzer analyzer = context.getAnalyzer();
-            if (analyzer != null) analyzer.resetSoot();
+            if (analyzer != null) analyzer.releaseSoot();
 
             PreparerForSoot preparer = context.getPreparer();
             if (preparer != null) preparer.removeCopy(context.getFileOrig());
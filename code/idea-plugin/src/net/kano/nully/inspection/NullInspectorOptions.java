@@ -42,6 +42,18 @@ public class NullInspectorOptions {
     private boolean onlyNullable = true;
     public static final String PROP_ONLY_NULLABLE = "onlyNullable";
 
+    public NullInspectorOptions() { }
+
+    /**
+     * Creates a snapshot of the given options. The copy does not share
+     * property change listeners with the original.
+     *
+     * @param other the options to copy
+     */
+    public NullInspectorOptions(NullInspectorOptions other) {
+        this.onlyNullable = other.isOnlyNullable();
+    }
+
     public boolean isOnlyNullable() { return onlyNullable; }
 
     public void setOnlyNullable(final boolean onlyNullable) {
@@ -57,4 +69,16 @@ public class NullInspectorOptions {
     public synchronized void removePropertyChangeListener(PropertyChangeListener listener) {
         pcs.removePropertyChangeListener(listener);
     }
+
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof NullInspectorOptions)) return false;
+
+        NullInspectorOptions that = (NullInspectorOptions) o;
+        return onlyNullable == that.onlyNullable;
+    }
+
+    public int hashCode() {
+        return onlyNullable ? 1 : 0;
+    }
 }
\ No newline at end of file
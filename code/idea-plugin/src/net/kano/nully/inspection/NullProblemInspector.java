@@ -135,7 +135,7 @@ public class NullProblemInspector
     protected void cleanUp(AnalysisContext context) {
         try {
             CodeAnalyzer analyzer = context.getAnalyzer();
-            if (analyzer != null) analyzer.resetSoot();
+            if (analyzer != null) analyzer.releaseSoot();
 
             PreparerForSoot preparer = context.getPreparer();
             if (preparer != null) preparer.removeCopy(context.getFileOrig());
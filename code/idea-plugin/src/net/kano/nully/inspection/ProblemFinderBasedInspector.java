@@ -34,28 +34,54 @@
 package net.kano.nully.plugin.inspection;
 
 import com.intellij.codeInspection.InspectionManager;
+import com.intellij.codeInspection.LocalInspectionTool;
 import com.intellij.codeInspection.ProblemDescriptor;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.util.InvalidDataException;
+import com.intellij.openapi.util.WriteExternalException;
+import com.intellij.psi.PsiClass;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiField;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMember;
 import com.intellij.psi.PsiMethod;
+import com.intellij.psi.util.PsiTreeUtil;
+import net.kano.nully.annotations.NonNull;
 import net.kano.nully.annotations.NullCheckLevel;
+import net.kano.nully.annotations.Nullable;
+import net.kano.nully.plugin.IsolatedFileAnalyzer;
+import net.kano.nully.plugin.MemberChangeTracker;
+import net.kano.nully.plugin.PsiTools;
+import net.kano.nully.plugin.SootEnvironment;
+import net.kano.nully.plugin.SootEnvironmentPool;
+import net.kano.nully.plugin.ViewportTracker;
 import net.kano.nully.plugin.analysis.AnalysisContext;
 import net.kano.nully.plugin.analysis.NullyProblem;
 import net.kano.nully.plugin.analysis.ProblemFinder;
+import org.jdom.Element;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
 public abstract class ProblemFinderBasedInspector<F extends ProblemFinder<P>,
         P extends NullyProblem<?>>
-        extends AbstractNullyInspection {
+        extends AbstractNullyInspection implements IsolatedFileAnalyzer {
     private static final Logger LOGGER
             = Logger.getInstance(IllegalOverrideInspector.class.getName());
 
+    private final AnalysisResultCache<FileProblems> resultCache
+            = new AnalysisResultCache<FileProblems>();
+    /** Held while checking the result cache again and storing a result. */
+    private final Object resultLock = new Object();
+    private final DeferredAnalysisQueue deferredQueue
+            = new DeferredAnalysisQueue(this);
+
     protected abstract F getFinderInstance();
     protected abstract Set<InspectionType> getInspectionTypes();
 
@@ -77,13 +103,35 @@ public abstract class ProblemFinderBasedInspector<F extends ProblemFinder<P>,
 
         PsiJavaFile jfile = (PsiJavaFile) file;
 
-        AnalysisContext context = createAnalysisContext();
-        try {
-            prepareContextForFile(context, jfile);
+        if (isOnTheFly && analyzesMembersOnTheFly()) {
+            // problems outside every member, like those in class declarations,
+            // are only found by analyzing the whole file. once the whole file
+            // has been analyzed, later changes inside members are updated one
+            // member at a time
+            List<ProblemDescriptor> problems = new ArrayList<ProblemDescriptor>(
+                    Arrays.asList(getFileProblems(jfile, null, manager)
+                    .getOtherProblems()));
 
-            return findProblems(context, manager);
-        } finally {
-            cleanUp(context);
+            // methods and fields are checked one at a time, so only class
+            // initializers are left
+            List<PsiMember> initializers = new ArrayList<PsiMember>();
+            for (PsiClass cls : jfile.getClasses()) {
+                addInitializers(cls, initializers);
+            }
+            for (PsiMember initializer : initializers) {
+                ProblemDescriptor[] found = getUnitProblems(jfile,
+                        initializer, manager);
+                if (found != null) problems.addAll(Arrays.asList(found));
+            }
+            return problems.toArray(new ProblemDescriptor[problems.size()]);
+        }
+        return getFileProblems(jfile, null, manager).getAll();
+    }
+
+    private static void addInitializers(PsiClass cls, List<PsiMember> initializers) {
+        initializers.addAll(Arrays.asList(cls.getInitializers()));
+        for (PsiClass inner : cls.getInnerClasses()) {
+            addInitializers(inner, initializers);
         }
     }
 
@@ -95,14 +143,302 @@ public abstract class ProblemFinderBasedInspector<F extends ProblemFinder<P>,
 
     public ProblemDescriptor[] checkMethod(PsiMethod method,
             InspectionManager manager, boolean isOnTheFly) {
-        if (!getInspectionTypes().contains(InspectionType.METHOD)) return null;
+        return checkMember(method, InspectionType.METHOD, manager, isOnTheFly);
+    }
 
-        PsiJavaFile jfile = getParentJavaFile(method);
+    public ProblemDescriptor[] checkField(PsiField field,
+            InspectionManager manager, boolean isOnTheFly) {
+        return checkMember(field, InspectionType.FIELD, manager, isOnTheFly);
+    }
+
+    private ProblemDescriptor[] checkMember(PsiMember member,
+            InspectionType type, InspectionManager manager, boolean isOnTheFly) {
+        if (!getInspectionTypes().contains(type)) return null;
+
+        PsiJavaFile jfile = getParentJavaFile(member);
         if (jfile == null) return null;
 
+        if (analyzesMembersOnTheFly()) {
+            // batch inspections check the whole file at once
+            if (!isOnTheFly) return null;
+
+            return getUnitProblems(jfile, member, manager);
+        }
+        return getMemberProblems(jfile, member, manager);
+    }
+
+    /**
+     * Returns the cache of finished per-file results used by this inspector.
+     *
+     * @return this inspector's result cache
+     */
+    public @NonNull AnalysisResultCache<FileProblems> getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Returns a snapshot of the options which affect this inspector's results,
+     * or {@code null} if there are none. The returned object is used as part
+     * of the {@linkplain #getResultCache() result cache} key, so it must
+     * implement {@code equals} and {@code hashCode}.
+     *
+     * @return a snapshot of the current inspector options
+     */
+    protected @Nullable Object getOptionsState() {
+        return null;
+    }
+
+    /**
+     * Returns whether the editor checks each method and field of a file on
+     * its own. If so, once the whole file has been analyzed, only the
+     * checked member is translated and analyzed after a change inside it, so
+     * the cost of an on-the-fly check follows the size of the member rather
+     * than the size of the file.
+     *
+     * @return whether members are analyzed one at a time on the fly
+     */
+    private boolean analyzesMembersOnTheFly() {
+        Set<InspectionType> types = getInspectionTypes();
+        return supportsMemberAnalysis()
+                && types.contains(InspectionType.METHOD)
+                && types.contains(InspectionType.FIELD);
+    }
+
+    private ProblemDescriptor[] getMemberProblems(PsiJavaFile jfile,
+            PsiMember member, InspectionManager manager) {
+        List<ProblemDescriptor> problems = new ArrayList<ProblemDescriptor>();
+        for (ProblemDescriptor problem
+                : getFileProblems(jfile, null, manager).getAll()) {
+            PsiElement el = problem.getPsiElement();
+            if (el != null && PsiTreeUtil.isAncestor(member, el, false)) {
+                problems.add(problem);
+            }
+        }
+        return problems.toArray(new ProblemDescriptor[problems.size()]);
+    }
+
+    private ProblemDescriptor[] getUnitProblems(PsiJavaFile jfile,
+            PsiMember member, InspectionManager manager) {
+        // members of local and anonymous classes are analyzed along with
+        // the member containing them
+        if (PsiTools.getAnalysisUnit(member) != member) return null;
+
+        ViewportTracker viewport = ViewportTracker.getInstance(
+                jfile.getProject());
+        if (viewport != null && !viewport.isVisible(member)) {
+            return getDeferredProblems(jfile, member);
+        }
+        return getFileProblems(jfile, member, manager).getProblems(member);
+    }
+
+    /**
+     * Returns the known problems of the given member, which is not visible in
+     * the editor, without analyzing it. If its problems are not up to date,
+     * it is {@linkplain DeferredAnalysisQueue queued} to be analyzed in the
+     * background, and its problems from before the last change, if any, are
+     * returned in the meantime.
+     */
+    private ProblemDescriptor[] getDeferredProblems(PsiJavaFile jfile,
+            PsiMember member) {
+        AnalysisResultCache.CacheKey key = resultCache.createKey(jfile,
+                getOptionsState());
+        FileProblems cached = resultCache.get(key);
+        if (cached != null && cached.covers(member)) {
+            return cached.getProblems(member);
+        }
+
+        deferredQueue.schedule(jfile, member);
+
+        FileProblems outdated = resultCache.getOutdated(key);
+        if (outdated == null || !outdated.covers(member)) return null;
+
+        List<ProblemDescriptor> problems = new ArrayList<ProblemDescriptor>();
+        for (ProblemDescriptor problem : outdated.getProblems(member)) {
+            PsiElement el = problem.getPsiElement();
+            if (el != null && el.isValid()) problems.add(problem);
+        }
+        return problems.toArray(new ProblemDescriptor[problems.size()]);
+    }
+
+    /**
+     * Analyzes the given member, which was not visible in the editor when it
+     * was checked, and stores its problems in the result cache. This is
+     * called by a {@link DeferredAnalysisQueue} in a read action.
+     *
+     * @param jfile the member's file
+     * @param member an {@linkplain PsiTools#getAnalysisUnit analysis unit}
+     */
+    void analyzeDeferred(@NonNull PsiJavaFile jfile, @NonNull PsiMember member) {
+        getFileProblems(jfile, member,
+                InspectionManager.getInstance(jfile.getProject()));
+    }
+
+    /**
+     * Returns the problems in the given file, analyzing as little of the file
+     * as possible.
+     *
+     * @param member the only member whose problems are needed, or
+     *        {@code null} if the problems of the whole file are needed
+     * @return problems covering at least the requested part of the file
+     */
+    private FileProblems getFileProblems(PsiJavaFile jfile,
+            PsiMember member, InspectionManager manager) {
+        AnalysisResultCache.CacheKey key = resultCache.createKey(jfile,
+                getOptionsState());
+        FileProblems cached = resultCache.get(key);
+        if (cached != null && (member == null ? cached.isComplete()
+                : cached.covers(member))) {
+            return cached;
+        }
+
+        MemberChangeTracker tracker = MemberChangeTracker.getInstance(
+                jfile.getProject());
+        long sequence = tracker == null ? 0 : tracker.getCurrentSequence();
+
+        FileProblems problems = null;
+        if (member != null && cached != null) {
+            // the file hasn't changed, but this member wasn't analyzed yet
+            Set<PsiMember> members = Collections.singleton(member);
+            problems = cached.update(sequence, members,
+                    analyzeInEnvironment(jfile, members, manager));
+
+        } else if (tracker != null && supportsMemberAnalysis()) {
+            FileProblems outdated = resultCache.getOutdated(key);
+            if (outdated != null) {
+                problems = reanalyzeChangedMembers(jfile, outdated, member,
+                        tracker, sequence, manager);
+            }
+        }
+        if (problems == null) {
+            if (member != null && supportsMemberAnalysis()) {
+                Set<PsiMember> members = Collections.singleton(member);
+                problems = FileProblems.forMembers(sequence, members,
+                        analyzeInEnvironment(jfile, members, manager));
+            } else {
+                problems = new FileProblems(sequence,
+                        analyzeInEnvironment(jfile, null, manager));
+            }
+        }
+        problems = storeResult(key, problems);
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(getShortName() + " result cache: " + resultCache);
+        }
+        return problems;
+    }
+
+    /**
+     * Stores the given problems in the result cache. If another thread stored
+     * problems for the same version of the file while these were being found,
+     * the two are merged, so neither thread's analysis is lost.
+     *
+     * @return the stored problems
+     */
+    private FileProblems storeResult(AnalysisResultCache.CacheKey key,
+            FileProblems problems) {
+        synchronized (resultLock) {
+            FileProblems stored = resultCache.peek(key);
+            if (stored != null) problems = problems.merge(stored);
+            resultCache.put(key, problems);
+            return problems;
+        }
+    }
+
+    /**
+     * Updates the given outdated problems by reanalyzing only the members
+     * which changed since they were found, along with the given member if
+     * its problems are not known yet. Returns {@code null} if the whole file
+     * must be reanalyzed instead.
+     */
+    private FileProblems reanalyzeChangedMembers(PsiJavaFile jfile,
+            FileProblems outdated, PsiMember member,
+            MemberChangeTracker tracker, long sequence,
+            InspectionManager manager) {
+        if (!outdated.isValid()) return null;
+        // a partial result can't stand in for the whole file
+        if (member == null && !outdated.isComplete()) return null;
+
+        Set<PsiMember> changed = tracker.getChangedMembers(jfile,
+                outdated.getChangeSequence());
+        if (changed == null) return null;
+
+        changed.addAll(outdated.getInvalidatedMembers());
+        // the file changed, but we don't know where
+        if (changed.isEmpty()) return null;
+
+        Set<PsiMember> analyzed = outdated.getAnalyzedMembers();
+        if (analyzed != null) {
+            // changed members which were never analyzed have nothing to update
+            changed.retainAll(analyzed);
+        }
+        if (member != null && !outdated.covers(member)) changed.add(member);
+        ProblemDescriptor[] problems = changed.isEmpty()
+                ? new ProblemDescriptor[0]
+                : analyzeInEnvironment(jfile, changed, manager);
+        return outdated.update(sequence, changed, problems);
+    }
+
+    /**
+     * Analyzes the given file in a leased {@link SootEnvironment}, if this
+     * inspector {@linkplain #usesSoot() uses Soot}. The environment's copy of
+     * this inspector is given this inspector's settings.
+     *
+     * @param members the members to analyze, or {@code null} to analyze the
+     *        whole file
+     */
+    private ProblemDescriptor[] analyzeInEnvironment(PsiJavaFile jfile,
+            Collection<PsiMember> members, InspectionManager manager) {
+        if (!usesSoot() || SootEnvironment.isIsolatedClass(getClass())) {
+            return analyze(this, jfile, members, manager);
+        }
+
+        SootEnvironmentPool pool = SootEnvironmentPool.getInstance();
+        SootEnvironment env;
+        try {
+            env = pool.lease();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessCanceledException();
+        }
+        try {
+            if (!env.isIsolated()) return analyze(this, jfile, members, manager);
+
+            IsolatedFileAnalyzer analyzer = env.newInstance(
+                    IsolatedFileAnalyzer.class, getClass());
+            copySettings((LocalInspectionTool) analyzer);
+            return analyze(analyzer, jfile, members, manager);
+        } finally {
+            pool.release(env);
+        }
+    }
+
+    private static ProblemDescriptor[] analyze(IsolatedFileAnalyzer analyzer,
+            PsiJavaFile jfile, Collection<PsiMember> members,
+            InspectionManager manager) {
+        if (members == null) {
+            return analyzer.analyzeFile(jfile, manager);
+        } else {
+            return analyzer.analyzeMembers(jfile, members, manager);
+        }
+    }
+
+    private void copySettings(LocalInspectionTool to) {
+        Element settings = new Element("settings");
+        try {
+            writeSettings(settings);
+            to.readSettings(settings);
+        } catch (WriteExternalException e) {
+            LOGGER.error(e);
+        } catch (InvalidDataException e) {
+            LOGGER.error(e);
+        }
+    }
+
+    public @NonNull ProblemDescriptor[] analyzeFile(@NonNull PsiJavaFile jfile,
+            @NonNull InspectionManager manager) {
         AnalysisContext context = createAnalysisContext();
         try {
-            prepareContextForMethod(context, jfile, method);
+            prepareContextForFile(context, jfile);
 
             return findProblems(context, manager);
         } finally {
@@ -110,16 +446,12 @@ public abstract class ProblemFinderBasedInspector<F extends ProblemFinder<P>,
         }
     }
 
-    public ProblemDescriptor[] checkField(PsiField field,
-            InspectionManager manager, boolean isOnTheFly) {
-        if (!getInspectionTypes().contains(InspectionType.FIELD)) return null;
-
-        PsiJavaFile jfile = getParentJavaFile(field);
-        if (jfile == null) return null;
-
+    public @NonNull ProblemDescriptor[] analyzeMembers(@NonNull PsiJavaFile jfile,
+            @NonNull Collection<PsiMember> members,
+            @NonNull InspectionManager manager) {
         AnalysisContext context = createAnalysisContext();
         try {
-            prepareContextForField(context, jfile);
+            prepareContextForMembers(context, jfile, members);
 
             return findProblems(context, manager);
         } finally {
@@ -127,6 +459,27 @@ public abstract class ProblemFinderBasedInspector<F extends ProblemFinder<P>,
         }
     }
 
+    /**
+     * Returns whether {@link #prepareContextForMembers} analyzes only the
+     * given members. If so, files changed only inside member bodies are
+     * updated by reanalyzing the changed members.
+     *
+     * @return whether this inspector supports member-level analysis
+     */
+    protected boolean supportsMemberAnalysis() {
+        return false;
+    }
+
+    /**
+     * Returns whether this inspector runs Soot, and so must run inside a
+     * {@link SootEnvironment}.
+     *
+     * @return whether this inspector uses Soot
+     */
+    protected boolean usesSoot() {
+        return false;
+    }
+
     protected void cleanUp(AnalysisContext context) {
     }
 
@@ -144,13 +497,8 @@ public abstract class ProblemFinderBasedInspector<F extends ProblemFinder<P>,
         prepareContext(context, jfile);
     }
 
-    private void prepareContextForField(AnalysisContext context,
-            PsiJavaFile jfile) {
-        prepareContext(context, jfile);
-    }
-
-    protected void prepareContextForMethod(AnalysisContext context,
-            PsiJavaFile jfile, PsiMethod method) {
+    protected void prepareContextForMembers(AnalysisContext context,
+            PsiJavaFile jfile, Collection<PsiMember> members) {
         prepareContext(context, jfile);
     }
 
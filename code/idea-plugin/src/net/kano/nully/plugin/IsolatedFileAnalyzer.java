@@ -0,0 +1,71 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin;
+
+import com.intellij.codeInspection.InspectionManager;
+import com.intellij.codeInspection.ProblemDescriptor;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMember;
+import net.kano.nully.annotations.NonNull;
+
+import java.util.Collection;
+
+/**
+ * An inspection which can be run inside a {@link SootEnvironment}.
+ */
+public interface IsolatedFileAnalyzer {
+    /**
+     * Analyzes the given file in the calling thread's environment.
+     *
+     * @param jfile the file to analyze
+     * @param manager the inspection manager used to create problem descriptors
+     * @return the problems found in the file
+     */
+    @NonNull ProblemDescriptor[] analyzeFile(@NonNull PsiJavaFile jfile,
+            @NonNull InspectionManager manager);
+
+    /**
+     * Analyzes only the given members of the given file in the calling
+     * thread's environment. Problems outside these members may or may not be
+     * returned.
+     *
+     * @param jfile the file containing the members
+     * @param members the methods, fields, and class initializers to analyze
+     * @param manager the inspection manager used to create problem descriptors
+     * @return the problems found in the members
+     */
+    @NonNull ProblemDescriptor[] analyzeMembers(@NonNull PsiJavaFile jfile,
+            @NonNull Collection<PsiMember> members,
+            @NonNull InspectionManager manager);
+}
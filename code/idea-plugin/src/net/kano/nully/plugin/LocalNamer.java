@@ -0,0 +1,79 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin;
+
+import net.kano.nully.annotations.NonNull;
+import soot.Local;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Generates names for new locals in a method body which do not conflict with
+ * the body's existing locals. The existing names are read once, so generating
+ * many names takes time linear in the number of locals, rather than
+ * quadratic.
+ */
+public final class LocalNamer {
+    private final Set<String> usedNames;
+    private int next = 0;
+
+    /**
+     * Creates a namer for a body containing the given locals. Locals added to
+     * the body later must be named by this namer, or they may conflict.
+     *
+     * @param locals the body's locals
+     */
+    public LocalNamer(@NonNull Collection<Local> locals) {
+        usedNames = new HashSet<String>(locals.size() * 2 + 1);
+        for (Local local : locals) usedNames.add(local.getName());
+    }
+
+    /**
+     * Returns a new name which is not used by any local in the body, nor
+     * returned by a previous call to this method.
+     *
+     * @return a new local name
+     */
+    public @NonNull String newName() {
+        String name;
+        do {
+            name = "$r" + next;
+            next++;
+        } while (usedNames.contains(name));
+        usedNames.add(name);
+        return name;
+    }
+}
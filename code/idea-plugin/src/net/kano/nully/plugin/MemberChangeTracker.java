@@ -0,0 +1,184 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiClassInitializer;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiField;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMember;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.PsiTreeChangeAdapter;
+import com.intellij.psi.PsiTreeChangeEvent;
+import com.intellij.psi.util.PsiTreeUtil;
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.Nullable;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Listens for PSI changes and records which members of each Java file were
+ * edited. A change inside a method body, field initializer, or class
+ * initializer marks only that {@linkplain PsiTools#getAnalysisUnit member}
+ * as changed. Any other change, such as to a declaration, an annotation, or
+ * an import, marks the whole file as changed, since it may affect the
+ * analysis of every member.
+ * <br /><br />
+ * Every change is given a sequence number, so several clients can each ask
+ * which members changed since they last looked at a file.
+ */
+public class MemberChangeTracker extends PsiTreeChangeAdapter {
+    private final Map<PsiFile,FileChanges> changes
+            = new WeakHashMap<PsiFile, FileChanges>();
+    private long sequence = 0;
+
+    public static @Nullable MemberChangeTracker getInstance(@NonNull Project project) {
+        NullyProjectComponent component
+                = project.getComponent(NullyProjectComponent.class);
+        if (component == null) return null;
+        return component.getChangeTracker();
+    }
+
+    /**
+     * Returns the sequence number of the latest change. A client should read
+     * this before analyzing a file, and later pass it to {@link
+     * #getChangedMembers}.
+     *
+     * @return the current change sequence number
+     */
+    public synchronized long getCurrentSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns the members of the given file which changed after the given
+     * sequence number. Members which no longer exist are not returned.
+     *
+     * @param file a Java file
+     * @param since a sequence number returned by {@link #getCurrentSequence()}
+     * @return the changed members, or {@code null} if something other than
+     *         member bodies changed
+     */
+    public synchronized @Nullable Set<PsiMember> getChangedMembers(
+            @NonNull PsiFile file, long since) {
+        Set<PsiMember> changed = new HashSet<PsiMember>();
+        FileChanges fileChanges = changes.get(file);
+        if (fileChanges == null) return changed;
+        if (fileChanges.fileChanged > since) return null;
+
+        for (Map.Entry<PsiMember,Long> entry : fileChanges.members.entrySet()) {
+            PsiMember member = entry.getKey();
+            if (entry.getValue() > since && member.isValid()) changed.add(member);
+        }
+        return changed;
+    }
+
+    public void childAdded(PsiTreeChangeEvent event) {
+        elementChanged(event);
+    }
+
+    public void childRemoved(PsiTreeChangeEvent event) {
+        elementChanged(event);
+    }
+
+    public void childReplaced(PsiTreeChangeEvent event) {
+        elementChanged(event);
+    }
+
+    public void childMoved(PsiTreeChangeEvent event) {
+        elementChanged(event);
+    }
+
+    public void childrenChanged(PsiTreeChangeEvent event) {
+        elementChanged(event);
+    }
+
+    private void elementChanged(PsiTreeChangeEvent event) {
+        PsiFile file = event.getFile();
+        if (!(file instanceof PsiJavaFile) || !file.isPhysical()) return;
+
+        recordChange(file, event.getParent());
+    }
+
+    /**
+     * Records a change to the children of the given element.
+     *
+     * @param file the changed file
+     * @param parent the element whose children changed, or {@code null} if
+     *        it is not known
+     */
+    synchronized void recordChange(@NonNull PsiFile file,
+            @Nullable PsiElement parent) {
+        sequence++;
+        FileChanges fileChanges = changes.get(file);
+        if (fileChanges == null) {
+            fileChanges = new FileChanges();
+            changes.put(file, fileChanges);
+        }
+
+        PsiMember unit = parent == null ? null : PsiTools.getAnalysisUnit(parent);
+        if (unit != null && isInsideCode(unit, parent)) {
+            fileChanges.members.put(unit, sequence);
+        } else {
+            fileChanges.fileChanged = sequence;
+            fileChanges.members.clear();
+        }
+    }
+
+    private static boolean isInsideCode(@NonNull PsiMember unit,
+            @NonNull PsiElement el) {
+        PsiElement code;
+        if (unit instanceof PsiMethod) {
+            code = ((PsiMethod) unit).getBody();
+        } else if (unit instanceof PsiField) {
+            code = ((PsiField) unit).getInitializer();
+        } else if (unit instanceof PsiClassInitializer) {
+            code = ((PsiClassInitializer) unit).getBody();
+        } else {
+            code = null;
+        }
+        return code != null && PsiTreeUtil.isAncestor(code, el, false);
+    }
+
+    private static class FileChanges {
+        private long fileChanged = 0;
+        private final Map<PsiMember,Long> members
+                = new WeakHashMap<PsiMember, Long>();
+    }
+}
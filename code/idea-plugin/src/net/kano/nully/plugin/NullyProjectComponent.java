@@ -33,15 +33,54 @@
 
 package net.kano.nully.plugin;
 
+import com.intellij.openapi.compiler.CompilationStatusListener;
 import com.intellij.openapi.compiler.CompilerManager;
 import com.intellij.openapi.components.ProjectComponent;
+import com.intellij.openapi.editor.EditorFactory;
 import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiManager;
+import net.kano.nully.plugin.compilation.NullyClassInstrumenter;
 import net.kano.nully.plugin.compilation.NullyCompilerStep;
+import net.kano.nully.plugin.inspection.AnalysisResultCache;
 
 public class NullyProjectComponent implements ProjectComponent {
+    /**
+     * The system property which chooses how runtime checks are inserted:
+     * {@value #INSTRUMENT_SOURCE} (the default) rewrites source before javac
+     * runs, and {@value #INSTRUMENT_BYTECODE} rewrites class files after.
+     */
+    public static final String PROP_INSTRUMENTATION = "nully.instrumentation";
+    public static final String INSTRUMENT_SOURCE = "source";
+    public static final String INSTRUMENT_BYTECODE = "bytecode";
+    /**
+     * The system property which, if {@code true}, gives each check inserted
+     * into source a site ID, so the checks can be counted at runtime.
+     */
+    public static final String PROP_COUNT_CHECKS = "nully.countChecks";
+    /**
+     * The system property which, if {@code true}, makes on-the-fly
+     * inspections analyze the methods visible in the editor first, and the
+     * rest of the file in the background.
+     */
+    public static final String PROP_VIEWPORT_FIRST = "nully.viewportFirst";
+
     private Project project;
     private CompilerManager compilerManager;
     private NullyCompilerStep nullChecker;
+    private NullyClassInstrumenter classInstrumenter = null;
+    private final MemberChangeTracker changeTracker = new MemberChangeTracker();
+    private ViewportTracker viewportTracker = null;
+    /**
+     * Drops the compiler step's analysis batch when a compilation ends, since
+     * it holds on to the compile context.
+     */
+    private final CompilationStatusListener compilationListener
+            = new CompilationStatusListener() {
+        public void compilationFinished(boolean aborted, int errors,
+                int warnings) {
+            if (nullChecker != null) nullChecker.releaseBatch();
+        }
+    };
 
     public NullyProjectComponent(Project project) {
         this.project = project;
@@ -49,12 +88,48 @@ public class NullyProjectComponent implements ProjectComponent {
 
     public void projectOpened() {
         compilerManager = CompilerManager.getInstance(project);
-        nullChecker = new NullyCompilerStep(project);
+        boolean bytecode = INSTRUMENT_BYTECODE.equals(System.getProperty(
+                PROP_INSTRUMENTATION, INSTRUMENT_SOURCE));
+        // in bytecode mode, the source step only reports the warnings which
+        // don't need Soot, and leaves the files alone
+        boolean countChecks = Boolean.getBoolean(PROP_COUNT_CHECKS);
+        nullChecker = new NullyCompilerStep(project, !bytecode, countChecks);
         compilerManager.addCompiler(nullChecker);
+        compilerManager.addCompilationStatusListener(compilationListener);
+        if (bytecode) {
+            classInstrumenter = new NullyClassInstrumenter(project);
+            compilerManager.addCompiler(classInstrumenter);
+        }
+        PsiManager.getInstance(project).addPsiTreeChangeListener(changeTracker);
+        if (Boolean.getBoolean(PROP_VIEWPORT_FIRST)) {
+            viewportTracker = new ViewportTracker();
+            EditorFactory.getInstance().getEventMulticaster()
+                    .addVisibleAreaListener(viewportTracker);
+        }
     }
 
     public void projectClosed() {
         compilerManager.removeCompiler(nullChecker);
+        compilerManager.removeCompilationStatusListener(compilationListener);
+        nullChecker.releaseBatch();
+        if (classInstrumenter != null) {
+            compilerManager.removeCompiler(classInstrumenter);
+        }
+        PsiManager.getInstance(project).removePsiTreeChangeListener(changeTracker);
+        AnalysisResultCache.removeProject(project);
+        if (viewportTracker != null) {
+            EditorFactory.getInstance().getEventMulticaster()
+                    .removeVisibleAreaListener(viewportTracker);
+            viewportTracker = null;
+        }
+    }
+
+    public MemberChangeTracker getChangeTracker() {
+        return changeTracker;
+    }
+
+    public ViewportTracker getViewportTracker() {
+        return viewportTracker;
     }
 
     public String getComponentName() {
@@ -0,0 +1,234 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin;
+
+import com.intellij.psi.PsiAnnotation;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiLiteralExpression;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.PsiModifierListOwner;
+import com.intellij.psi.PsiNewExpression;
+import com.intellij.psi.PsiParameter;
+import com.intellij.psi.PsiRecursiveElementVisitor;
+import com.intellij.psi.PsiReferenceExpression;
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.Nullable;
+import net.kano.nully.annotations.NullyInstrumented;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Remembers, for each Java file, whether Nully could have anything to say
+ * about it. A file is {@linkplain #isRelevant relevant} if it uses a Nully
+ * annotation, refers to a field, method, or parameter with a
+ * {@code @NonNull} or {@code @Nullable} annotation, or overrides an annotated
+ * method. Files which aren't relevant need no runtime checks and can't
+ * violate any null constraints, so they don't need to be analyzed.
+ * <br /><br />
+ * A file's entry is computed on first use, and reused while the file's
+ * modification stamp and the PSI manager's out-of-code-block modification
+ * count stay the same. Editing a method body in one file therefore doesn't
+ * cause other files to be rescanned.
+ * <br /><br />
+ * This class is shared between {@linkplain SootEnvironment Soot environments},
+ * so each file is only scanned once no matter which environment asks.
+ */
+public final class NullyRelevanceIndex {
+    private static final NullyRelevanceIndex INSTANCE = new NullyRelevanceIndex();
+
+    private static final Set<String> NULLY_ANNOTATIONS = new HashSet<String>(
+            Arrays.asList(NonNull.class.getName(), Nullable.class.getName(),
+                    NullyInstrumented.class.getName()));
+
+    public static @NonNull NullyRelevanceIndex getInstance() { return INSTANCE; }
+
+    private final Map<PsiJavaFile,Entry> entries
+            = new WeakHashMap<PsiJavaFile, Entry>();
+    private long hits = 0;
+    private long misses = 0;
+
+    private NullyRelevanceIndex() { }
+
+    /**
+     * Returns whether the given file declares or refers to anything with a
+     * Nully annotation.
+     *
+     * @param file a Java file
+     * @return whether the file needs to be analyzed for null constraints
+     */
+    public boolean isRelevant(@NonNull PsiJavaFile file) {
+        return getEntry(file).isRelevant();
+    }
+
+    /**
+     * Returns whether the given file is {@linkplain #isRelevant relevant}, or
+     * contains a {@code null} literal which it could dereference.
+     *
+     * @param file a Java file
+     * @return whether the null analysis could find any problems in the file
+     */
+    public boolean mayDereferenceNull(@NonNull PsiJavaFile file) {
+        Entry entry = getEntry(file);
+        return entry.isRelevant() || entry.hasNullLiteral();
+    }
+
+    public synchronized long getHitCount() { return hits; }
+
+    public synchronized long getMissCount() { return misses; }
+
+    private @NonNull Entry getEntry(@NonNull PsiJavaFile file) {
+        long stamp = file.getModificationStamp();
+        long structureStamp = file.getManager().getModificationTracker()
+                .getOutOfCodeBlockModificationCount();
+        synchronized (this) {
+            Entry entry = entries.get(file);
+            if (entry != null && entry.isFor(stamp, structureStamp)) {
+                hits++;
+                return entry;
+            }
+            misses++;
+        }
+
+        RelevanceVisitor visitor = new RelevanceVisitor();
+        file.accept(visitor);
+        Entry entry = new Entry(stamp, structureStamp, visitor.isRelevant(),
+                visitor.hasNullLiteral());
+        synchronized (this) {
+            entries.put(file, entry);
+        }
+        return entry;
+    }
+
+    private static boolean hasNullyAnnotation(@NonNull PsiModifierListOwner owner) {
+        return !NullyTools.getNullyAnnotations(owner).isEmpty();
+    }
+
+    private static final class Entry {
+        private final long stamp;
+        private final long structureStamp;
+        private final boolean relevant;
+        private final boolean nullLiteral;
+
+        public Entry(long stamp, long structureStamp, boolean relevant,
+                boolean nullLiteral) {
+            this.stamp = stamp;
+            this.structureStamp = structureStamp;
+            this.relevant = relevant;
+            this.nullLiteral = nullLiteral;
+        }
+
+        public boolean isFor(long stamp, long structureStamp) {
+            return this.stamp == stamp && this.structureStamp == structureStamp;
+        }
+
+        public boolean isRelevant() { return relevant; }
+
+        public boolean hasNullLiteral() { return nullLiteral; }
+    }
+
+    /**
+     * Scans a file until it finds something which makes the file relevant.
+     */
+    private static class RelevanceVisitor extends PsiRecursiveElementVisitor {
+        private boolean relevant = false;
+        private boolean nullLiteral = false;
+
+        public boolean isRelevant() { return relevant; }
+
+        public boolean hasNullLiteral() { return nullLiteral; }
+
+        public void visitElement(PsiElement element) {
+            if (!relevant) super.visitElement(element);
+        }
+
+        public void visitAnnotation(PsiAnnotation annotation) {
+            String name = annotation.getQualifiedName();
+            if (name != null && NULLY_ANNOTATIONS.contains(name)) {
+                relevant = true;
+            } else {
+                super.visitAnnotation(annotation);
+            }
+        }
+
+        public void visitMethod(PsiMethod method) {
+            if (relevant) return;
+            super.visitMethod(method);
+            for (PsiMethod superMethod : method.findSuperMethods()) {
+                checkReferenced(superMethod);
+            }
+        }
+
+        public void visitReferenceExpression(PsiReferenceExpression expression) {
+            if (relevant) return;
+            super.visitReferenceExpression(expression);
+            checkReferenced(expression.resolve());
+        }
+
+        public void visitNewExpression(PsiNewExpression expression) {
+            if (relevant) return;
+            super.visitNewExpression(expression);
+            checkReferenced(expression.resolveConstructor());
+        }
+
+        public void visitLiteralExpression(PsiLiteralExpression expression) {
+            super.visitLiteralExpression(expression);
+            if (expression.getValue() == null
+                    && expression.getText().equals("null")) {
+                nullLiteral = true;
+            }
+        }
+
+        private void checkReferenced(@Nullable PsiElement element) {
+            if (relevant || !(element instanceof PsiModifierListOwner)) return;
+
+            if (hasNullyAnnotation((PsiModifierListOwner) element)) {
+                relevant = true;
+
+            } else if (element instanceof PsiMethod) {
+                PsiMethod method = (PsiMethod) element;
+                for (PsiParameter param : method.getParameterList().getParameters()) {
+                    if (hasNullyAnnotation(param)) {
+                        relevant = true;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+}
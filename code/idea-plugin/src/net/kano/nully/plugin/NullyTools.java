@@ -44,6 +44,7 @@ public final class NullyTools {
     public static final String METHOD_CHECKNONNULLRETURN = "checkNonNullReturn";
     public static final String METHOD_CHECKNONNULLVALUE = "checkNonNullValue";
     public static final String METHOD_CHECKNONNULLPARAM = "checkNonNullParameter";
+    public static final String METHOD_NEWNULLPARAMEXCEPTION = "newNullParameterException";
 
     public static final String GROUP_NULL_VALUES = "Null values";
 
@@ -56,8 +57,11 @@ public final class NullyTools {
     }
 
     public static @NonNull String getUnexpectedNullValueCheckString(@NonNull String oldText) {
-        return NonNullTools.class.getName() + "."
-                + METHOD_CHECKNONNULLVALUE + "(" + oldText + ")";
+        return getUnexpectedNullValueCheckPrefix() + oldText + ")";
+    }
+
+    public static @NonNull String getUnexpectedNullValueCheckPrefix() {
+        return NonNullTools.class.getName() + "." + METHOD_CHECKNONNULLVALUE + "(";
     }
 
     public static boolean isNonnullCheckMethod(@NonNull PsiMethod method) {
@@ -178,6 +182,28 @@ public final class NullyTools {
 
     }
 
+    /**
+     * Returns whether the given value box holds a reference to a variable or
+     * a call to a method which is annotated as {@code @Nullable}.
+     *
+     * @param context the analysis context
+     * @param valueBox a value box whose value was translated from the PSI
+     * @return whether the value is a {@code @Nullable} reference
+     */
+    public static boolean isNullableReference(AnalysisContext context,
+            ValueBox valueBox) {
+        ReferencedElementInfo refInfo = getReferenceInfo(valueBox);
+        if (refInfo == null) return false;
+
+        PsiModifierListOwner origReferenced = context.getOriginalElement(
+                refInfo.getReferenced());
+        PsiExpression origBad = context.getOriginalElement(
+                refInfo.getRefExpression());
+        if (origReferenced == null || origBad == null) return false;
+
+        return hasValidNullableAnnotation(origReferenced);
+    }
+
     private static PossiblyNullReferenceInfo getPossiblyNullReference(AnalysisContext context,
             Unit unit, ReferencedElementInfo refInfo, MayBeNullTag tag) {
         PsiModifierListOwner referenced = refInfo.getReferenced();
@@ -35,16 +35,30 @@ package net.kano.nully.plugin;
 
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiJavaFile;
-import com.intellij.psi.util.PsiTreeUtil;
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.Nullable;
 import soot.tagkit.SourceLnPosTag;
 
 import java.io.IOException;
 import java.io.Reader;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
+/**
+ * Maps line and column positions, like those in Soot's {@code
+ * SourceLnPosTag}s, to offsets in a file and to the PSI elements at those
+ * offsets.
+ * <br /><br />
+ * Line starts are kept in a sorted array, so converting between offsets and
+ * lines takes logarithmic time. The first time an element is looked up in a
+ * file, an {@link ElementIndex} of the file's PSI element ranges is built, so
+ * each later lookup also takes logarithmic time, instead of two tree searches
+ * and a common parent search.
+ */
 public class OffsetsTracker {
-    private List<Integer> lineOffsets;
+    private int[] lineOffsets;
+    private int lineCount;
+
+    private ElementIndex index = null;
 
     public OffsetsTracker(Reader reader) throws IOException {
         this(reader, false);
@@ -56,8 +70,9 @@ public class OffsetsTracker {
     }
 
     private void loadOffsets(Reader reader, boolean ignoreCarriageReturns) throws IOException {
-        lineOffsets = new ArrayList<Integer>();
-        lineOffsets.add(0);
+        lineOffsets = new int[64];
+        lineCount = 0;
+        addLine(0);
 
         int last = -1;
         for (int offset = 0;; offset++) {
@@ -71,52 +86,196 @@ public class OffsetsTracker {
 
             char ch = (char) val;
             if (ch == '\n') {
-                lineOffsets.add(offset + 1);
+                addLine(offset + 1);
             } else if (last == '\r') {
-                lineOffsets.add(offset);
+                addLine(offset);
             }
             last = ch;
         }
     }
 
+    private void addLine(int offset) {
+        if (lineCount == lineOffsets.length) {
+            int[] newOffsets = new int[lineOffsets.length * 2];
+            System.arraycopy(lineOffsets, 0, newOffsets, 0, lineCount);
+            lineOffsets = newOffsets;
+        }
+        lineOffsets[lineCount++] = offset;
+    }
+
     public int getOffset(int line, int col) {
         int lnIndex = line - 1;
-        int colIndex = col;
-        return lineOffsets.get(lnIndex) + colIndex;
+        if (lnIndex < 0 || lnIndex >= lineCount) {
+            throw new IndexOutOfBoundsException("no line " + line + " in "
+                    + lineCount + " lines");
+        }
+        return lineOffsets[lnIndex] + col;
     }
 
     public PsiElement getElementAtPosition(PsiJavaFile fileCopy,
             SourceLnPosTag useTag) {
         int foff = getOffset(useTag.startLn(), useTag.startPos());
-        PsiElement first = fileCopy.findElementAt(foff);
         int eoff = getOffset(useTag.endLn(), useTag.endPos()) - 1;
-        PsiElement last = fileCopy.findElementAt(eoff);
-        PsiElement commonParent = PsiTreeUtil.findCommonParent(first, last);
 
-        if (commonParent != null) {
-            return commonParent;
-        } else {
-            return first;
+        if (index == null || index.getFile() != fileCopy) {
+            index = new ElementIndex(fileCopy);
         }
+        return index.getElementContaining(foff, Math.max(foff, eoff));
     }
 
+    /**
+     * Returns the zero-based line containing the given offset.
+     *
+     * @param off an offset in the file
+     * @return the zero-based index of the line containing {@code off}
+     */
     public int getLine(int off) {
-        int line = 0;
-        for (int loff : lineOffsets) {
-            if (loff > off) return line - 1;
-            line++;
-        }
-        return line;
+        int pos = Arrays.binarySearch(lineOffsets, 0, lineCount, off);
+        if (pos >= 0) return pos;
+        else return Math.max(0, -pos - 2);
     }
 
     public int getColumn(int off) {
-        int lastLoff = 0;
-        for (int loff : lineOffsets) {
-            if (loff > off) {
-                return off - lastLoff;
+        return off - lineOffsets[getLine(off)];
+    }
+
+    /**
+     * An index of the text ranges of every element in a PSI file, for finding
+     * the smallest element containing a range of text.
+     * <br /><br />
+     * The ranges of PSI elements never overlap without one containing the
+     * other, so rather than a general interval tree, the index stores the
+     * elements in tree order along with each one's parent and a "jump"
+     * ancestor. The jump ancestors are chosen so any ancestor can be reached
+     * in a logarithmic number of jumps and parent steps, which keeps the index
+     * linear in the size of the file.
+     */
+    public static final class ElementIndex {
+        private final PsiJavaFile file;
+
+        private PsiElement[] elements = new PsiElement[256];
+        private int[] starts = new int[256];
+        private int[] ends = new int[256];
+        private int[] parents = new int[256];
+        private int[] jumps = new int[256];
+        private int[] depths = new int[256];
+        private int size = 0;
+
+        public ElementIndex(@NonNull PsiJavaFile file) {
+            this.file = file;
+            addTree(file);
+        }
+
+        public @NonNull PsiJavaFile getFile() { return file; }
+
+        public int getElementCount() { return size; }
+
+        /**
+         * Returns the smallest element whose text contains both of the given
+         * offsets. This is the same element as the common parent of the leaf
+         * elements at the two offsets.
+         *
+         * @param first the offset of the first character
+         * @param last the offset of the last character, inclusive
+         * @return the smallest element containing both offsets, or {@code null}
+         *         if {@code first} is outside the file
+         */
+        public @Nullable PsiElement getElementContaining(int first, int last) {
+            // the last element in tree order which starts at or before the
+            // range is contained by every element which contains the range
+            int node = lastStartingAt(first);
+            if (node == -1 || first >= ends[0]) return null;
+
+            int end = last + 1;
+            while (ends[node] < end && node != 0) {
+                int jump = jumps[node];
+                if (ends[jump] < end) {
+                    node = jump;
+                } else {
+                    node = parents[node];
+                }
+            }
+            return elements[node];
+        }
+
+        private int lastStartingAt(int offset) {
+            int pos = Arrays.binarySearch(starts, 0, size, offset);
+            if (pos < 0) return -pos - 2;
+
+            // several elements can start at the same offset
+            while (pos + 1 < size && starts[pos + 1] == offset) pos++;
+            return pos;
+        }
+
+        private void addTree(@NonNull PsiElement root) {
+            add(root, 0, -1);
+            int node = 0;
+            PsiElement el = root;
+            int offset = 0;
+            while (true) {
+                PsiElement child = el.getFirstChild();
+                if (child != null) {
+                    node = add(child, offset, node);
+                    el = child;
+                    continue;
+                }
+                // move to the next sibling of the nearest ancestor which has
+                // one, closing finished elements on the way
+                while (true) {
+                    offset = ends[node];
+                    if (node == 0) return;
+                    PsiElement next = el.getNextSibling();
+                    int parent = parents[node];
+                    if (next != null) {
+                        node = add(next, offset, parent);
+                        el = next;
+                        break;
+                    }
+                    node = parent;
+                    el = el.getParent();
+                }
             }
-            lastLoff = loff;
         }
-        return off - lastLoff;
+
+        private int add(@NonNull PsiElement el, int start, int parent) {
+            if (size == elements.length) grow();
+            int node = size++;
+            elements[node] = el;
+            starts[node] = start;
+            ends[node] = start + el.getTextLength();
+            parents[node] = parent == -1 ? node : parent;
+            if (parent == -1) {
+                depths[node] = 0;
+                jumps[node] = node;
+            } else {
+                depths[node] = depths[parent] + 1;
+                int jump = jumps[parent];
+                if (depths[parent] - depths[jump]
+                        == depths[jump] - depths[jumps[jump]]) {
+                    jumps[node] = jumps[jump];
+                } else {
+                    jumps[node] = parent;
+                }
+            }
+            return node;
+        }
+
+        private void grow() {
+            int newLength = elements.length * 2;
+            PsiElement[] newElements = new PsiElement[newLength];
+            System.arraycopy(elements, 0, newElements, 0, size);
+            elements = newElements;
+            starts = grow(starts, newLength);
+            ends = grow(ends, newLength);
+            parents = grow(parents, newLength);
+            jumps = grow(jumps, newLength);
+            depths = grow(depths, newLength);
+        }
+
+        private int[] grow(@NonNull int[] array, int newLength) {
+            int[] newArray = new int[newLength];
+            System.arraycopy(array, 0, newArray, 0, size);
+            return newArray;
+        }
     }
 }
@@ -138,6 +138,26 @@ public final class PsiTools {
         return fileCopy;
     }
 
+    /**
+     * Returns the outermost method, field, or class initializer which contains
+     * the given element. Code in local and anonymous classes belongs to the
+     * member which declares the class, because it is translated and analyzed
+     * along with that member.
+     *
+     * @param el an element
+     * @return the member containing {@code el}, or {@code null} if {@code el}
+     *         is not inside a method, field, or initializer
+     */
+    public static PsiMember getAnalysisUnit(@NonNull PsiElement el) {
+        PsiMember unit = null;
+        PsiMember member = PsiTreeUtil.getParentOfType(el, PsiMember.class, false);
+        for (; member != null; member = PsiTreeUtil.getParentOfType(member,
+                PsiMember.class, true)) {
+            if (!(member instanceof PsiClass)) unit = member;
+        }
+        return unit;
+    }
+
     public static PsiVariable getAssignedVariable(PsiElement element) {
         PsiVariable var = PsiTreeUtil.getParentOfType(element, PsiVariable.class);
         if (var == null) {
@@ -0,0 +1,277 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin;
+
+import com.intellij.openapi.diagnostic.Logger;
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.Nullable;
+import net.kano.nully.plugin.analysis.nulls.soot.HeadlessProblem;
+import net.kano.nully.plugin.analysis.nulls.soot.IsolatedSourceAnalyzer;
+import net.kano.nully.plugin.analysis.nulls.soot.NullContracts;
+import net.kano.nully.plugin.compilation.PatchedSource;
+import net.kano.nully.plugin.inspection.IllegalAnnotationInspector;
+import net.kano.nully.plugin.inspection.IllegalOverrideInspector;
+import net.kano.nully.plugin.inspection.NewNullProblemInspector;
+import net.kano.nully.plugin.inspection.NullProblemInspector;
+import net.kano.nully.plugin.inspection.NullyInstrumentedInspector;
+import net.kano.nully.plugin.inspection.ProblemFinderBasedInspector;
+import net.kano.nully.plugin.inspection.ProblemHighlighter;
+
+import java.lang.reflect.Constructor;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An independent copy of Soot and of Nully's analysis code. Soot keeps all of
+ * its state in static singletons ({@code Scene.v()}, {@code SourceLocator.v()},
+ * and so on), so two analyses can only run at the same time if each one sees
+ * its own copy of those classes. An isolated environment achieves this by
+ * loading Soot, Polyglot, Jasmin, and the parts of Nully which use them, into
+ * a child-first class loader: the analysis, the PSI to Jimple translation, the
+ * compiler steps, and the {@linkplain #ISOLATED_CLASSES helpers and
+ * inspections} which use Soot types or run analyses. IDEA, the Nully
+ * annotations, and the rest of the plugin, like its components, trackers and
+ * result caches, are still shared with the plugin's class loader, so there is
+ * only one copy of each, and PSI elements and problem descriptors can be
+ * passed in and out of the environment freely.
+ * <br /><br />
+ * Code outside the environment talks to code inside it through a shared
+ * interface, using {@link #newInstance}.
+ */
+public final class SootEnvironment {
+    private static final Logger LOGGER
+            = Logger.getInstance(SootEnvironment.class.getName());
+
+    /** Package prefixes which are loaded separately in each environment. */
+    private static final List<String> ISOLATED_PREFIXES = Arrays.asList(
+            "soot.", "polyglot.", "jasmin.", "java_cup.",
+            "net.kano.nully.plugin.analysis.",
+            "net.kano.nully.plugin.psiToJimple.",
+            "net.kano.nully.plugin.compilation.");
+
+    /**
+     * Classes outside the isolated prefixes which are still loaded separately
+     * in each environment, because they use Soot's types or state, or run
+     * analyses inside an environment.
+     */
+    private static final Set<String> ISOLATED_CLASSES = new HashSet<String>(Arrays.asList(
+            SootTools.class.getName(),
+            SootFacts.class.getName(),
+            NullyTools.class.getName(),
+            PsiTools.class.getName(),
+            LocalNamer.class.getName(),
+            OffsetsTracker.class.getName(),
+            ProblemFinderBasedInspector.class.getName(),
+            NullProblemInspector.class.getName(),
+            NewNullProblemInspector.class.getName(),
+            IllegalAnnotationInspector.class.getName(),
+            IllegalOverrideInspector.class.getName(),
+            NullyInstrumentedInspector.class.getName(),
+            ProblemHighlighter.class.getName()));
+
+    /**
+     * Classes under the isolated prefixes which must still be shared between
+     * environments, because they form the boundary between them.
+     */
+    private static final Set<String> SHARED_CLASSES = new HashSet<String>(Arrays.asList(
+            PatchedSource.class.getName(),
+            IsolatedSourceAnalyzer.class.getName(),
+            HeadlessProblem.class.getName(),
+            NullContracts.class.getName()));
+
+    /** Classes used to locate the code sources to load into an environment. */
+    private static final List<String> CODE_SOURCE_CLASSES = Arrays.asList(
+            SootTools.class.getName(), "soot.Scene",
+            "polyglot.frontend.Compiler", "jasmin.Main");
+
+    private final int id;
+    private final ClassLoader loader;
+
+    private SootEnvironment(int id, @Nullable ClassLoader loader) {
+        this.id = id;
+        this.loader = loader;
+    }
+
+    /**
+     * Creates a new isolated environment, or returns {@code null} if the code
+     * sources of Soot and of the plugin could not be located.
+     *
+     * @param id a number identifying the environment in log messages
+     * @return a new isolated environment, or {@code null}
+     */
+    static @Nullable SootEnvironment createIsolated(int id) {
+        ClassLoader parent = SootEnvironment.class.getClassLoader();
+        List<URL> urls = new ArrayList<URL>();
+        for (String name : CODE_SOURCE_CLASSES) {
+            URL url = getCodeSource(parent, name);
+            if (url == null) {
+                LOGGER.info("Could not find code source for " + name
+                        + "; Soot analyses will not run in parallel");
+                return null;
+            }
+            if (!urls.contains(url)) urls.add(url);
+        }
+        return new SootEnvironment(id, new IsolatingClassLoader(
+                urls.toArray(new URL[urls.size()]), parent));
+    }
+
+    /**
+     * Creates an environment which shares Soot with the rest of the plugin.
+     * Analyses run in a shared environment must hold the
+     * {@linkplain SootTools#lockSootGlobally() global Soot lock}.
+     *
+     * @return a shared environment
+     */
+    static @NonNull SootEnvironment createShared() {
+        return new SootEnvironment(0, null);
+    }
+
+    private static @Nullable URL getCodeSource(@NonNull ClassLoader loader,
+            @NonNull String className) {
+        try {
+            Class<?> cls = Class.forName(className, false, loader);
+            CodeSource source = cls.getProtectionDomain().getCodeSource();
+            if (source == null) return null;
+            return source.getLocation();
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns whether the given class was loaded inside an isolated
+     * environment.
+     *
+     * @param cls a class
+     * @return whether {@code cls} belongs to an isolated environment
+     */
+    public static boolean isIsolatedClass(@NonNull Class<?> cls) {
+        return cls.getClassLoader() instanceof IsolatingClassLoader;
+    }
+
+    public boolean isIsolated() { return loader != null; }
+
+    public int getId() { return id; }
+
+    /**
+     * Creates an instance of the given implementation class inside this
+     * environment. For a shared environment, the class is instantiated
+     * directly.
+     *
+     * @param iface an interface shared between environments, which the
+     *        implementation class implements
+     * @param impl the implementation class, as seen from outside the
+     *        environment
+     * @param paramTypes the constructor parameter types; these must be
+     *        shared types
+     * @param args the constructor arguments
+     * @return a new instance of this environment's copy of {@code impl}
+     */
+    public @NonNull <T> T newInstance(@NonNull Class<T> iface,
+            @NonNull Class<? extends T> impl, @NonNull Class<?>[] paramTypes,
+            @NonNull Object[] args) {
+        if (IsolatingClassLoader.isIsolated(iface.getName())) {
+            throw new IllegalArgumentException(iface.getName()
+                    + " is not shared between Soot environments");
+        }
+        try {
+            Class<?> cls;
+            if (loader == null) {
+                cls = impl;
+            } else {
+                cls = Class.forName(impl.getName(), true, loader);
+            }
+            Constructor<?> ctor = cls.getConstructor(paramTypes);
+            return iface.cast(ctor.newInstance(args));
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not create " + impl.getName()
+                    + " in " + this, e);
+        }
+    }
+
+    public @NonNull <T> T newInstance(@NonNull Class<T> iface,
+            @NonNull Class<? extends T> impl) {
+        return newInstance(iface, impl, new Class<?>[0], new Object[0]);
+    }
+
+    public String toString() {
+        return isIsolated() ? "Soot environment #" + id : "shared Soot environment";
+    }
+
+    /**
+     * A class loader which loads the {@linkplain #ISOLATED_CLASSES isolated
+     * classes}, and those under the {@linkplain #ISOLATED_PREFIXES isolated
+     * prefixes}, itself before asking its parent.
+     */
+    private static class IsolatingClassLoader extends URLClassLoader {
+        public IsolatingClassLoader(URL[] urls, ClassLoader parent) {
+            super(urls, parent);
+        }
+
+        protected synchronized Class<?> loadClass(String name, boolean resolve)
+                throws ClassNotFoundException {
+            if (!isIsolated(name)) return super.loadClass(name, resolve);
+
+            Class<?> cls = findLoadedClass(name);
+            if (cls == null) {
+                try {
+                    cls = findClass(name);
+                } catch (ClassNotFoundException e) {
+                    cls = super.loadClass(name, false);
+                }
+            }
+            if (resolve) resolveClass(cls);
+            return cls;
+        }
+
+        private static boolean isIsolated(String name) {
+            String outerName = name;
+            int dollar = name.indexOf('$');
+            if (dollar != -1) outerName = name.substring(0, dollar);
+            if (SHARED_CLASSES.contains(outerName)) return false;
+            if (ISOLATED_CLASSES.contains(outerName)) return true;
+
+            for (String prefix : ISOLATED_PREFIXES) {
+                if (name.startsWith(prefix)) return true;
+            }
+            return false;
+        }
+    }
+}
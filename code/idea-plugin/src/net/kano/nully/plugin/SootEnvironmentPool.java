@@ -0,0 +1,118 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin;
+
+import com.intellij.openapi.diagnostic.Logger;
+import net.kano.nully.annotations.NonNull;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A pool of {@linkplain SootEnvironment Soot environments}. Each file analysis
+ * {@linkplain #lease() leases} an environment, runs inside it, and
+ * {@linkplain #release releases} it, so up to {@link #getSize()} files can be
+ * analyzed at the same time.
+ * <br /><br />
+ * The pool size defaults to the number of available processors, and can be
+ * changed with the {@value #PROP_POOL_SIZE} system property. If isolated
+ * environments cannot be created, the pool falls back to a single shared
+ * environment.
+ */
+public final class SootEnvironmentPool {
+    private static final Logger LOGGER
+            = Logger.getInstance(SootEnvironmentPool.class.getName());
+
+    public static final String PROP_POOL_SIZE = "nully.soot.environments";
+
+    private static final SootEnvironmentPool INSTANCE
+            = new SootEnvironmentPool(getDefaultSize());
+
+    public static @NonNull SootEnvironmentPool getInstance() { return INSTANCE; }
+
+    private static int getDefaultSize() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Integer.getInteger(PROP_POOL_SIZE, processors));
+    }
+
+    private final BlockingQueue<SootEnvironment> idle
+            = new LinkedBlockingQueue<SootEnvironment>();
+    private int size;
+    private int created = 0;
+
+    public SootEnvironmentPool(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("size must be positive: " + size);
+        }
+        this.size = size;
+    }
+
+    public synchronized int getSize() { return size; }
+
+    /**
+     * Returns an idle environment, creating one if fewer than {@link
+     * #getSize()} exist, or otherwise waiting for one to be released.
+     *
+     * @return a leased environment, which must be passed to {@link #release}
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public @NonNull SootEnvironment lease() throws InterruptedException {
+        SootEnvironment env = idle.poll();
+        if (env != null) return env;
+
+        env = createIfUnderLimit();
+        if (env != null) return env;
+
+        return idle.take();
+    }
+
+    public void release(@NonNull SootEnvironment env) {
+        idle.offer(env);
+    }
+
+    private synchronized SootEnvironment createIfUnderLimit() {
+        if (created >= size) return null;
+
+        SootEnvironment env = null;
+        if (size > 1) env = SootEnvironment.createIsolated(created + 1);
+        if (env == null) {
+            // without isolation, only one analysis can use Soot at a time
+            env = SootEnvironment.createShared();
+            size = 1;
+        }
+        created++;
+        LOGGER.debug("Created " + env);
+        return env;
+    }
+}
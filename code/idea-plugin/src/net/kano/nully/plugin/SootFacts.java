@@ -0,0 +1,143 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package net.kano.nully.plugin;
+
+import com.intellij.psi.PsiElement;
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.Nullable;
+import net.kano.nully.plugin.analysis.nulls.NullableTag;
+import net.kano.nully.plugin.analysis.nulls.soot.MayBeNullTag;
+import net.kano.nully.plugin.analysis.nulls.soot.MayThrowNpeTag;
+import soot.tagkit.Host;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Holds the facts Nully attaches to Soot statements and value boxes during an
+ * analysis: the PSI element each one was translated from, and the results of
+ * the null analysis. Soot tags are found by comparing the names of every tag
+ * on a host, and would keep the analyzed PSI copy reachable from Soot's bodies
+ * for as long as the bodies live; this table is keyed by host identity
+ * instead, and is cleared when the analysis's classes are removed from the
+ * scene.
+ * <br /><br />
+ * Like Soot's own singletons, there is one table per {@link SootEnvironment},
+ * and it must only be used while holding the {@linkplain
+ * SootTools#lockSootGlobally() global Soot lock}.
+ */
+public final class SootFacts {
+    private static final SootFacts INSTANCE = new SootFacts();
+
+    public static @NonNull SootFacts getInstance() { return INSTANCE; }
+
+    private final Map<Host, PsiElement> psiElements
+            = new IdentityHashMap<Host, PsiElement>();
+    private final Map<Host, MayBeNullTag> mayBeNull
+            = new IdentityHashMap<Host, MayBeNullTag>();
+    private final Map<Host, MayThrowNpeTag> mayThrowNpe
+            = new IdentityHashMap<Host, MayThrowNpeTag>();
+    private final Map<Host, NullableTag> nullable
+            = new IdentityHashMap<Host, NullableTag>();
+
+    private SootFacts() { }
+
+    /**
+     * Records that the given host was translated from the given element. If
+     * the host already has an element, it's kept.
+     *
+     * @param host a Soot statement or value box
+     * @param element the PSI element it was translated from
+     */
+    public void setPsiElement(@NonNull Host host, @NonNull PsiElement element) {
+        if (!psiElements.containsKey(host)) psiElements.put(host, element);
+    }
+
+    public @Nullable PsiElement getPsiElement(@NonNull Host host) {
+        return psiElements.get(host);
+    }
+
+    public void setMayBeNull(@NonNull Host host, @NonNull MayBeNullTag tag) {
+        mayBeNull.put(host, tag);
+    }
+
+    public @Nullable MayBeNullTag getMayBeNull(@NonNull Host host) {
+        return mayBeNull.get(host);
+    }
+
+    public void setMayThrowNpe(@NonNull Host host, @NonNull MayThrowNpeTag tag) {
+        mayThrowNpe.put(host, tag);
+    }
+
+    public @Nullable MayThrowNpeTag getMayThrowNpe(@NonNull Host host) {
+        return mayThrowNpe.get(host);
+    }
+
+    public void setNullable(@NonNull Host host, @NonNull NullableTag tag) {
+        nullable.put(host, tag);
+    }
+
+    public @Nullable NullableTag getNullable(@NonNull Host host) {
+        return nullable.get(host);
+    }
+
+    /**
+     * Copies every fact about one host to another, like {@link
+     * Host#addAllTagsOf} does for tags. Facts the target already has are
+     * kept.
+     *
+     * @param from the host to copy facts from
+     * @param to the host to copy facts to
+     */
+    public void copyFacts(@NonNull Host from, @NonNull Host to) {
+        copy(psiElements, from, to);
+        copy(mayBeNull, from, to);
+        copy(mayThrowNpe, from, to);
+        copy(nullable, from, to);
+    }
+
+    private static <V> void copy(@NonNull Map<Host, V> map, @NonNull Host from,
+            @NonNull Host to) {
+        V value = map.get(from);
+        if (value != null && !map.containsKey(to)) map.put(to, value);
+    }
+
+    /** Forgets every fact, so the hosts and elements can be garbage collected. */
+    public void clear() {
+        psiElements.clear();
+        mayBeNull.clear();
+        mayThrowNpe.clear();
+        nullable.clear();
+    }
+}
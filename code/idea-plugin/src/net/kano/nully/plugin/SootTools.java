@@ -3,12 +3,25 @@ package net.kano.nully.plugin;
 import com.intellij.psi.PsiElement;
 import net.kano.nully.annotations.NonNull;
 import net.kano.nully.annotations.Nullable;
-import net.kano.nully.plugin.psiToJimple.PsiTag;
 import net.kano.nully.plugin.analysis.nulls.soot.MayBeNullTag;
 import net.kano.nully.plugin.analysis.nulls.NullableTag;
+import soot.ArrayType;
+import soot.BooleanType;
+import soot.ByteType;
+import soot.CharType;
+import soot.DoubleType;
+import soot.FloatType;
+import soot.IntType;
 import soot.Local;
+import soot.LongType;
+import soot.RefType;
+import soot.ShortType;
+import soot.SootMethod;
+import soot.SootMethodRef;
+import soot.Type;
 import soot.Value;
 import soot.ValueBox;
+import soot.VoidType;
 import soot.jimple.ArrayRef;
 import soot.jimple.InstanceFieldRef;
 import soot.jimple.InstanceInvokeExpr;
@@ -21,6 +34,7 @@ import soot.tagkit.SourceLnPosTag;
 
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -29,17 +43,15 @@ public class SootTools {
     private static Lock sootLock = new ReentrantLock();
 
     public static @Nullable PsiElement getPsiElement(@NonNull Host host) {
-        PsiTag tag = ((PsiTag) host.getTag("PsiTag"));
-        if (tag == null) return null;
-        else return tag.getElement();
+        return SootFacts.getInstance().getPsiElement(host);
     }
 
     public static MayBeNullTag getMayBeNullTag(@NonNull Host host) {
-        return (MayBeNullTag) host.getTag("MayBeNull");
+        return SootFacts.getInstance().getMayBeNull(host);
     }
 
     public static boolean hasMayBeNullTag(@NonNull Host host) {
-        return host.hasTag("MayBeNull");
+        return getMayBeNullTag(host) != null;
     }
 
     public static int getOffset(@NonNull OffsetsTracker tracker,
@@ -49,24 +61,14 @@ public class SootTools {
 
     /**
      * Returns a name for a new local which does not conflict with any other
-     * local in {@code locals}.
+     * local in {@code locals}. To name several new locals, use a
+     * {@link LocalNamer}.
      *
      * @param locals a list of locals
      * @return a name for a new local whose name is unique to {@code locals}
      */
     public static @NonNull String getUnusedLocalName(@NonNull Collection<Local> locals) {
-        for (int r = 0; r < 1000000; r++) {
-            String tryName = "$r" + r;
-            boolean good = true;
-            for (Local local : locals) {
-                if (local.getName().equals(tryName)) {
-                    good = false;
-                    break;
-                }
-            }
-            if (good) return tryName;
-        }
-        throw new IllegalStateException("could not find name. locals: " + locals);
+        return new LocalNamer(locals).newName();
     }
 
     public static ValueBox getDereferencedObject(Stmt s) {
@@ -144,10 +146,70 @@ public class SootTools {
     public static @NonNull Lock getSootLock() { return sootLock; }
 
     public static NullableTag getNullableTag(@NonNull ValueBox box) {
-        return (NullableTag) box.getTag("NullableTag");
+        return SootFacts.getInstance().getNullable(box);
     }
 
     public static boolean hasNullableTag(@NonNull ValueBox value) {
         return getNullableTag(value) != null;
     }
+
+    /**
+     * Returns the JVM descriptor of the given method, like
+     * {@code (Ljava/lang/String;I)V}.
+     *
+     * @param method a method reference
+     * @return the method's descriptor
+     */
+    public static @NonNull String getDescriptor(@NonNull SootMethodRef method) {
+        return getDescriptor((List<Type>) method.parameterTypes(),
+                method.returnType());
+    }
+
+    public static @NonNull String getDescriptor(@NonNull SootMethod method) {
+        return getDescriptor((List<Type>) method.getParameterTypes(),
+                method.getReturnType());
+    }
+
+    private static @NonNull String getDescriptor(@NonNull List<Type> paramTypes,
+            @NonNull Type returnType) {
+        StringBuilder sb = new StringBuilder();
+        sb.append('(');
+        for (Type type : paramTypes) appendDescriptor(sb, type);
+        sb.append(')');
+        appendDescriptor(sb, returnType);
+        return sb.toString();
+    }
+
+    private static void appendDescriptor(@NonNull StringBuilder sb,
+            @NonNull Type type) {
+        if (type instanceof ArrayType) {
+            ArrayType arrayType = (ArrayType) type;
+            for (int i = 0; i < arrayType.numDimensions; i++) sb.append('[');
+            appendDescriptor(sb, arrayType.baseType);
+        } else if (type instanceof RefType) {
+            sb.append('L');
+            sb.append(((RefType) type).getClassName().replace('.', '/'));
+            sb.append(';');
+        } else if (type instanceof IntType) {
+            sb.append('I');
+        } else if (type instanceof BooleanType) {
+            sb.append('Z');
+        } else if (type instanceof ByteType) {
+            sb.append('B');
+        } else if (type instanceof CharType) {
+            sb.append('C');
+        } else if (type instanceof ShortType) {
+            sb.append('S');
+        } else if (type instanceof LongType) {
+            sb.append('J');
+        } else if (type instanceof FloatType) {
+            sb.append('F');
+        } else if (type instanceof DoubleType) {
+            sb.append('D');
+        } else if (type instanceof VoidType) {
+            sb.append('V');
+        } else {
+            throw new IllegalArgumentException("no descriptor for " + type);
+        }
+    }
 }
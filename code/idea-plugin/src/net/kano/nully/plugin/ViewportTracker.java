@@ -0,0 +1,146 @@
+/*
+ *  Copyright (c) 2005, Keith Lea
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *  - Neither the name of the Joust Project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package net.kano.nully.plugin;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.event.VisibleAreaEvent;
+import com.intellij.openapi.editor.event.VisibleAreaListener;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import net.kano.nully.annotations.NonNull;
+import net.kano.nully.annotations.Nullable;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Listens for editor scrolling and records which part of each document is
+ * visible, so on-the-fly inspections can analyze the visible code first.
+ * When a document is shown in several editors, the editor which scrolled
+ * last wins.
+ */
+public class ViewportTracker implements VisibleAreaListener {
+    private final Map<Document,TextRange> visibleRanges
+            = new WeakHashMap<Document, TextRange>();
+
+    /**
+     * Returns the given project's viewport tracker, or {@code null} if
+     * {@linkplain NullyProjectComponent#PROP_VIEWPORT_FIRST visible code is
+     * not analyzed first}.
+     *
+     * @param project a project
+     * @return the project's viewport tracker, or {@code null}
+     */
+    public static @Nullable ViewportTracker getInstance(@NonNull Project project) {
+        NullyProjectComponent component
+                = project.getComponent(NullyProjectComponent.class);
+        if (component == null) return null;
+        return component.getViewportTracker();
+    }
+
+    public void visibleAreaChanged(VisibleAreaEvent e) {
+        Editor editor = e.getEditor();
+        Document document = editor.getDocument();
+        Rectangle area = e.getNewRectangle();
+        if (area == null) return;
+
+        int firstLine = editor.xyToLogicalPosition(
+                new Point(0, area.y)).line;
+        int lastLine = editor.xyToLogicalPosition(
+                new Point(0, area.y + area.height)).line;
+        int lineCount = document.getLineCount();
+        int start = firstLine < lineCount
+                ? document.getLineStartOffset(firstLine)
+                : document.getTextLength();
+        int end = lastLine + 1 < lineCount
+                ? document.getLineStartOffset(lastLine + 1)
+                : document.getTextLength();
+
+        setVisibleRange(document, new TextRange(start, end));
+    }
+
+    /**
+     * Records the range of the given document which is visible in an editor.
+     *
+     * @param document a document
+     * @param range the visible range of the document
+     */
+    synchronized void setVisibleRange(@NonNull Document document,
+            @NonNull TextRange range) {
+        visibleRanges.put(document, range);
+    }
+
+    /**
+     * Returns the range of the given file which was last visible in an
+     * editor, or {@code null} if the file has not been shown.
+     *
+     * @param file a file
+     * @return the visible range of the file, or {@code null}
+     */
+    public @Nullable TextRange getVisibleRange(@NonNull PsiFile file) {
+        Document document = PsiDocumentManager.getInstance(file.getProject())
+                .getDocument(file);
+        if (document == null) return null;
+
+        synchronized (this) {
+            return visibleRanges.get(document);
+        }
+    }
+
+    /**
+     * Returns whether any part of the given element was last visible in an
+     * editor. If its file has not been shown, the element is assumed to be
+     * visible.
+     *
+     * @param el an element
+     * @return whether the element is visible
+     */
+    public boolean isVisible(@NonNull PsiElement el) {
+        PsiFile file = el.getContainingFile();
+        if (file == null) return true;
+        TextRange visible = getVisibleRange(file);
+        if (visible == null) return true;
+
+        TextRange range = el.getTextRange();
+        return range.getStartOffset() <= visible.getEndOffset()
+                && range.getEndOffset() >= visible.getStartOffset();
+    }
+}
@@ -43,6 +43,7 @@ import com.intellij.psi.PsiDoWhileStatement;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiExpression;
 import com.intellij.psi.PsiForStatement;
+import com.intellij.psi.PsiForeachStatement;
 import com.intellij.psi.PsiIfStatement;
 import com.intellij.psi.PsiLiteralExpression;
 import com.intellij.psi.PsiParameter;
@@ -54,6 +55,7 @@ import com.intellij.psi.PsiSwitchStatement;
 import com.intellij.psi.PsiType;
 import com.intellij.psi.PsiVariable;
 import com.intellij.psi.PsiWhileStatement;
+import net.kano.nully.plugin.SootFacts;
 import soot.Local;
 import soot.RefType;
 import soot.SootClass;
@@ -492,6 +494,270 @@ public abstract class JBB2 extends AbstractJimpleBodyBuilder {
 
     }
 
+    /**
+     * Foreach Stmts Creation - lowered to the for loop javac would generate,
+     * indexing into arrays and using an Iterator for anything else
+     */
+    protected void createForeach(PsiForeachStatement foreachStmt){
+        // these are for break and continue
+        endControlNoop.push(soot.jimple.Jimple.v().newNopStmt());
+        condControlNoop.push(soot.jimple.Jimple.v().newNopStmt());
+
+        PsiExpression iterated = foreachStmt.getIteratedValue();
+        PsiParameter param = foreachStmt.getIterationParameter();
+        PsiType iteratedType = iterated.getType();
+
+        soot.Value iteratedVal = base().createExpr(iterated);
+        soot.Local holder = generateLocal(iteratedType);
+        soot.jimple.Stmt holderAssign = soot.jimple.Jimple.v()
+                .newAssignStmt(holder, iteratedVal);
+        body.getUnits().add(holderAssign);
+        Util.addPsiTags(holderAssign, iterated);
+
+        boolean isArray = iteratedType instanceof PsiArrayType;
+        soot.Local index = null;
+        soot.Local iterator = null;
+        if (isArray) {
+            index = lg.generateLocal(soot.IntType.v());
+            soot.jimple.Stmt indexInit = soot.jimple.Jimple.v()
+                    .newAssignStmt(index, soot.jimple.IntConstant.v(0));
+            body.getUnits().add(indexInit);
+            Util.addPsiTags(indexInit, iterated);
+        } else {
+            soot.SootClass iterableClass = ((RefType) holder.getType()).getSootClass();
+            soot.SootMethodRef iteratorMethod = soot.Scene.v().makeMethodRef(
+                    iterableClass, "iterator", new ArrayList(),
+                    RefType.v("java.util.Iterator"), false);
+            soot.jimple.InvokeExpr iteratorInvoke;
+            if (soot.Modifier.isInterface(iterableClass.getModifiers())) {
+                iteratorInvoke = soot.jimple.Jimple.v().newInterfaceInvokeExpr(
+                        holder, iteratorMethod);
+            } else {
+                iteratorInvoke = soot.jimple.Jimple.v().newVirtualInvokeExpr(
+                        holder, iteratorMethod);
+            }
+            iterator = lg.generateLocal(RefType.v("java.util.Iterator"));
+            soot.jimple.Stmt iteratorAssign = soot.jimple.Jimple.v()
+                    .newAssignStmt(iterator, iteratorInvoke);
+            body.getUnits().add(iteratorAssign);
+            Util.addPsiTags(iteratorAssign, iterated);
+        }
+
+        // handle body
+        soot.jimple.Stmt noop1 = soot.jimple.Jimple.v().newNopStmt();
+        soot.jimple.Stmt noop2 = soot.jimple.Jimple.v().newNopStmt();
+        soot.jimple.Stmt goto1 = soot.jimple.Jimple.v().newGotoStmt(noop2);
+        body.getUnits().add(goto1);
+        body.getUnits().add(noop1);
+
+        soot.Value next;
+        if (isArray) {
+            soot.Type elemType = ((soot.ArrayType) holder.getType()).getElementType();
+            soot.Local elem = lg.generateLocal(elemType);
+            soot.jimple.Stmt elemAssign = soot.jimple.Jimple.v().newAssignStmt(
+                    elem, soot.jimple.Jimple.v().newArrayRef(holder, index));
+            body.getUnits().add(elemAssign);
+            Util.addPsiTags(elemAssign, iterated);
+            next = elem;
+        } else {
+            soot.SootMethodRef nextMethod = soot.Scene.v().makeMethodRef(
+                    soot.Scene.v().getSootClass("java.util.Iterator"), "next",
+                    new ArrayList(), RefType.v("java.lang.Object"), false);
+            soot.Local nextLocal = lg.generateLocal(RefType.v("java.lang.Object"));
+            soot.jimple.Stmt nextAssign = soot.jimple.Jimple.v().newAssignStmt(
+                    nextLocal, soot.jimple.Jimple.v().newInterfaceInvokeExpr(
+                    iterator, nextMethod));
+            body.getUnits().add(nextAssign);
+            Util.addPsiTags(nextAssign, iterated);
+            next = nextLocal;
+        }
+        soot.Local paramLocal = createLocal(param);
+        soot.jimple.AssignStmt paramAssign = soot.jimple.Jimple.v().newAssignStmt(
+                paramLocal, convertValue(next, paramLocal.getType(), iterated));
+        body.getUnits().add(paramAssign);
+        Util.addPsiTags(paramAssign, param);
+        Util.addPsiTags(paramAssign.getLeftOpBox(), param.getNameIdentifier());
+
+        createStmt(foreachStmt.getBody());
+
+        // handle continue
+        body.getUnits().add((condControlNoop.pop()));
+
+        soot.jimple.ConditionExpr sootCond;
+        if (isArray) {
+            soot.jimple.Stmt indexIncr = soot.jimple.Jimple.v().newAssignStmt(
+                    index, soot.jimple.Jimple.v().newAddExpr(index,
+                    soot.jimple.IntConstant.v(1)));
+            body.getUnits().add(indexIncr);
+            Util.addPsiTags(indexIncr, foreachStmt);
+            body.getUnits().add(noop2);
+
+            soot.Local length = lg.generateLocal(soot.IntType.v());
+            soot.jimple.Stmt lengthAssign = soot.jimple.Jimple.v().newAssignStmt(
+                    length, soot.jimple.Jimple.v().newLengthExpr(holder));
+            body.getUnits().add(lengthAssign);
+            Util.addPsiTags(lengthAssign, iterated);
+            sootCond = soot.jimple.Jimple.v().newLtExpr(index, length);
+        } else {
+            body.getUnits().add(noop2);
+
+            soot.SootMethodRef hasNextMethod = soot.Scene.v().makeMethodRef(
+                    soot.Scene.v().getSootClass("java.util.Iterator"), "hasNext",
+                    new ArrayList(), soot.BooleanType.v(), false);
+            soot.Local hasNext = lg.generateLocal(soot.BooleanType.v());
+            soot.jimple.Stmt hasNextAssign = soot.jimple.Jimple.v().newAssignStmt(
+                    hasNext, soot.jimple.Jimple.v().newInterfaceInvokeExpr(
+                    iterator, hasNextMethod));
+            body.getUnits().add(hasNextAssign);
+            Util.addPsiTags(hasNextAssign, iterated);
+            sootCond = soot.jimple.Jimple.v().newNeExpr(hasNext,
+                    soot.jimple.IntConstant.v(0));
+        }
+        soot.jimple.IfStmt ifStmt = soot.jimple.Jimple.v().newIfStmt(sootCond, noop1);
+        body.getUnits().add(ifStmt);
+        Util.addPsiTags(ifStmt, iterated);
+
+        body.getUnits().add((endControlNoop.pop()));
+    }
+
+    /**
+     * Converts a value to the given type the way an assignment would, by
+     * boxing, unboxing, widening or casting it. Reference values which
+     * already have the type, or are assigned to {@code java.lang.Object},
+     * are returned as they are.
+     */
+    protected soot.Value convertValue(soot.Value value, soot.Type toType,
+            PsiElement element) {
+        soot.Type fromType = value.getType();
+        if (fromType.equals(toType)) return value;
+
+        boolean fromPrimitive = fromType instanceof soot.PrimType;
+        boolean toPrimitive = toType instanceof soot.PrimType;
+        if (fromPrimitive && !toPrimitive) {
+            return boxValue(value, fromType, toType, element);
+        } else if (!fromPrimitive && toPrimitive) {
+            return unboxValue(value, toType, element);
+        } else if (!toPrimitive && toType.equals(RefType.v("java.lang.Object"))) {
+            return value;
+        } else {
+            return castValue(value, toType, element);
+        }
+    }
+
+    /**
+     * Casts a value to the given type, returning a new local holding the
+     * result.
+     */
+    protected soot.Local castValue(soot.Value value, soot.Type toType,
+            PsiElement element) {
+        soot.jimple.CastExpr cast = soot.jimple.Jimple.v().newCastExpr(value, toType);
+        Util.addPsiTags(cast.getOpBox(), element);
+        soot.Local castLocal = lg.generateLocal(toType);
+        soot.jimple.Stmt castAssign = soot.jimple.Jimple.v().newAssignStmt(castLocal, cast);
+        body.getUnits().add(castAssign);
+        Util.addPsiTags(castAssign, element);
+        return castLocal;
+    }
+
+    /**
+     * Boxes a primitive value, returning a new local holding a new instance
+     * of its boxing class. If {@code toType} is itself a boxing class, like
+     * {@code Byte} for {@code Byte b = 1}, the value is cast to its primitive
+     * type first.
+     */
+    protected soot.Local boxValue(soot.Value value, soot.Type primType,
+            soot.Type toType, PsiElement element) {
+        if (value instanceof soot.jimple.ConditionExpr) {
+            value = handleCondBinExpr((soot.jimple.ConditionExpr) value);
+        }
+        String className = null;
+        if (toType instanceof RefType
+                && Util.getUnboxedType(((RefType) toType).getClassName()) != null) {
+            className = ((RefType) toType).getClassName();
+        } else {
+            className = Util.getBoxingClassName(primType);
+        }
+        soot.Type boxedPrimType = Util.getUnboxedType(className);
+        if (!boxedPrimType.equals(primType)) {
+            value = castValue(value, boxedPrimType, element);
+        }
+
+        RefType boxType = RefType.v(className);
+        soot.Local boxLocal = lg.generateLocal(boxType);
+        soot.jimple.Stmt newAssign = soot.jimple.Jimple.v().newAssignStmt(
+                boxLocal, soot.jimple.Jimple.v().newNewExpr(boxType));
+        body.getUnits().add(newAssign);
+        Util.addPsiTags(newAssign, element);
+
+        List<Type> paramTypes = new ArrayList<Type>();
+        paramTypes.add(boxedPrimType);
+        soot.SootMethodRef init = soot.Scene.v().makeMethodRef(
+                soot.Scene.v().getSootClass(className), "<init>", paramTypes,
+                soot.VoidType.v(), false);
+        List<Value> params = new ArrayList<Value>();
+        params.add(value);
+        soot.jimple.SpecialInvokeExpr invoke = soot.jimple.Jimple.v()
+                .newSpecialInvokeExpr(boxLocal, init, params);
+        Util.addPsiTags(invoke.getArgBox(0), element);
+        soot.jimple.Stmt invokeStmt = soot.jimple.Jimple.v().newInvokeStmt(invoke);
+        body.getUnits().add(invokeStmt);
+        Util.addPsiTags(invokeStmt, element);
+
+        return boxLocal;
+    }
+
+    /**
+     * Unboxes a value to the given primitive type by calling the value
+     * method of its boxing class, like {@code intValue}. Values whose type is
+     * not a boxing class, like those of erased type variables, are cast to
+     * the boxing class of {@code toType} first. Constants folded from boxed
+     * final fields are already primitive, and are only cast if needed.
+     */
+    protected soot.Value unboxValue(soot.Value value, soot.Type toType,
+            PsiElement element) {
+        if (value.getType() instanceof soot.PrimType) {
+            if (value.getType().equals(toType)) return value;
+            return castValue(value, toType, element);
+        }
+        String className = null;
+        if (value.getType() instanceof RefType) {
+            className = ((RefType) value.getType()).getClassName();
+        }
+        soot.Type primType = className == null ? null
+                : Util.getUnboxedType(className);
+        soot.Local base;
+        if (primType == null) {
+            className = Util.getBoxingClassName(toType);
+            primType = toType;
+            base = castValue(value, RefType.v(className), element);
+        } else if (value instanceof soot.Local) {
+            base = (soot.Local) value;
+        } else {
+            base = lg.generateLocal(value.getType());
+            soot.jimple.Stmt baseAssign = soot.jimple.Jimple.v()
+                    .newAssignStmt(base, value);
+            body.getUnits().add(baseAssign);
+            Util.addPsiTags(baseAssign, element);
+        }
+
+        soot.SootMethodRef valueMethod = soot.Scene.v().makeMethodRef(
+                soot.Scene.v().getSootClass(className), primType + "Value",
+                new ArrayList(), primType, false);
+        soot.jimple.VirtualInvokeExpr invoke = soot.jimple.Jimple.v()
+                .newVirtualInvokeExpr(base, valueMethod);
+        Util.addPsiTags(invoke.getBaseBox(), element);
+        soot.Local unboxed = lg.generateLocal(primType);
+        soot.jimple.Stmt unboxAssign = soot.jimple.Jimple.v()
+                .newAssignStmt(unboxed, invoke);
+        body.getUnits().add(unboxAssign);
+        Util.addPsiTags(unboxAssign, element);
+
+        if (!primType.equals(toType)) {
+            return castValue(unboxed, toType, element);
+        }
+        return unboxed;
+    }
+
     /**
      * Local Decl Creation
      */
@@ -869,6 +1135,9 @@ public abstract class JBB2 extends AbstractJimpleBodyBuilder {
 
         newExpr.getOp1Box().addAllTagsOf(cond.getOp1Box());
         newExpr.getOp2Box().addAllTagsOf(cond.getOp2Box());
+        SootFacts facts = SootFacts.getInstance();
+        facts.copyFacts(cond.getOp1Box(), newExpr.getOp1Box());
+        facts.copyFacts(cond.getOp2Box(), newExpr.getOp2Box());
         return newExpr;
     }
 
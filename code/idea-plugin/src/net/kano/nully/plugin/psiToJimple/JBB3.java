@@ -53,6 +53,7 @@ import com.intellij.psi.PsiExpression;
 import com.intellij.psi.PsiExpressionStatement;
 import com.intellij.psi.PsiField;
 import com.intellij.psi.PsiForStatement;
+import com.intellij.psi.PsiForeachStatement;
 import com.intellij.psi.PsiIdentifier;
 import com.intellij.psi.PsiIfStatement;
 import com.intellij.psi.PsiLabeledStatement;
@@ -320,6 +321,9 @@ public abstract class JBB3 extends JBB2 {
         else if (stmt instanceof PsiForStatement) {
             createForLoop((PsiForStatement)stmt);
         }
+        else if (stmt instanceof PsiForeachStatement) {
+            createForeach((PsiForeachStatement)stmt);
+        }
         else if (stmt instanceof PsiSwitchStatement) {
             createSwitch((PsiSwitchStatement)stmt);
         }
@@ -9,6 +9,7 @@ import com.intellij.psi.PsiAssignmentExpression;
 import com.intellij.psi.PsiBinaryExpression;
 import com.intellij.psi.PsiCallExpression;
 import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiClassType;
 import com.intellij.psi.PsiClassObjectAccessExpression;
 import com.intellij.psi.PsiConditionalExpression;
 import com.intellij.psi.PsiConstantEvaluationHelper;
@@ -46,9 +47,30 @@ import java.util.List;
 
 public abstract class JBB4 extends JBB3 {
     /**
-     * Expression Creation
+     * Expression Creation - autoboxing and unboxing are lowered here, around
+     * the value the expression itself creates
      */
     protected soot.Value createExpr(PsiExpression expr){
+        soot.Value value = createUnconvertedExpr(expr);
+        PsiType unboxedType = Util.getUnboxingType(expr);
+        if (unboxedType != null) {
+            return unboxValue(value, Util.getSootType(initialResolver,
+                    unboxedType), expr);
+        }
+        PsiType boxedType = Util.getBoxingType(expr);
+        if (boxedType != null) {
+            // the expected type may be a wildcard or type variable, in which
+            // case the value is boxed to its own boxing class
+            soot.Type toType = boxedType instanceof PsiClassType
+                    ? Util.getSootType(initialResolver, boxedType)
+                    : soot.RefType.v("java.lang.Object");
+            return boxValue(value, Util.getSootType(initialResolver,
+                    expr.getType()), toType, expr);
+        }
+        return value;
+    }
+
+    private soot.Value createUnconvertedExpr(PsiExpression expr){
         //System.out.println("create expr: "+expr+" type: "+expr.getClass());
         // maybe right here check if expr has constant val and return that
         // instead
@@ -243,7 +265,7 @@ public abstract class JBB4 extends JBB3 {
             body.getUnits().add(fieldAssignStmt);
             Util.addPsiTags(fieldAssignStmt, ref);
             Util.addPsiTags(fieldAssignStmt.getRightOpBox(), ref);
-            return baseLocal;
+            return castToErasedType(baseLocal, ref);
         }
     }
 
@@ -984,22 +1006,101 @@ public abstract class JBB4 extends JBB3 {
         return retLocal;
     }
 
+    /**
+     * Generic Cast Creation - a member whose declared type is a type
+     * variable is erased to the variable's bound, so its value is cast to the
+     * erasure of the type it has where it's used, as javac does
+     */
+    private soot.Local castToErasedType(soot.Local local, PsiExpression expr) {
+        PsiType exprType = expr.getType();
+        if (!(exprType instanceof PsiClassType || exprType instanceof PsiArrayType)
+                || !(local.getType() instanceof soot.RefLikeType)) {
+            return local;
+        }
+        soot.Type erasedType = Util.getSootType(initialResolver, exprType);
+        if (erasedType.equals(local.getType())) return local;
+
+        return castValue(local, erasedType, expr);
+    }
+
     /**
      * Procedure Call Helper Methods
-     * Returns list of params
+     * Returns list of params. The variable arguments of a varargs call are
+     * put into a new array, which is passed as the last param.
      */
     protected List<Value> getSootParams(PsiCallExpression call) {
         List<Value> sootParams = new ArrayList<Value>();
-        for (PsiExpression next : call.getArgumentList().getExpressions()) {
-            Value nextExpr = base().createExpr(next);
-            if (nextExpr instanceof soot.jimple.ConditionExpr) {
-                nextExpr = handleCondBinExpr((soot.jimple.ConditionExpr) nextExpr);
-            }
-            sootParams.add(nextExpr);
+        PsiExpression[] args = call.getArgumentList().getExpressions();
+        boolean varargs = Util.isVarargsCall(call);
+        int fixedCount = getFixedArgCount(call, varargs);
+        for (int i = 0; i < fixedCount; i++) {
+            sootParams.add(createParam(args[i]));
         }
+        if (varargs) sootParams.add(createVarargsArray(call, fixedCount));
         return sootParams;
     }
 
+    /**
+     * Returns the number of arguments of the given call which are passed as
+     * params of their own, which is all of them unless it's a varargs call.
+     */
+    private static int getFixedArgCount(PsiCallExpression call, boolean varargs) {
+        if (!varargs) return call.getArgumentList().getExpressions().length;
+
+        return call.resolveMethod().getParameterList().getParameters().length - 1;
+    }
+
+    private Value createParam(PsiExpression arg) {
+        Value param = base().createExpr(arg);
+        if (param instanceof soot.jimple.ConditionExpr) {
+            param = handleCondBinExpr((soot.jimple.ConditionExpr) param);
+        }
+        return param;
+    }
+
+    private soot.Local createVarargsArray(PsiCallExpression call, int fixedCount) {
+        PsiParameter[] params = call.resolveMethod().getParameterList()
+                .getParameters();
+        soot.ArrayType arrayType = (soot.ArrayType) Util.getSootType(
+                initialResolver, params[params.length - 1].getType());
+        PsiExpression[] args = call.getArgumentList().getExpressions();
+
+        soot.Local arrayLocal = lg.generateLocal(arrayType);
+        soot.jimple.NewArrayExpr newArray = soot.jimple.Jimple.v().newNewArrayExpr(
+                arrayType.getElementType(),
+                soot.jimple.IntConstant.v(args.length - fixedCount));
+        soot.jimple.Stmt arrayAssign = soot.jimple.Jimple.v()
+                .newAssignStmt(arrayLocal, newArray);
+        body.getUnits().add(arrayAssign);
+        Util.addPsiTags(arrayAssign, call);
+
+        for (int i = fixedCount; i < args.length; i++) {
+            soot.jimple.ArrayRef arrayRef = soot.jimple.Jimple.v().newArrayRef(
+                    arrayLocal, soot.jimple.IntConstant.v(i - fixedCount));
+            soot.jimple.AssignStmt elemAssign = soot.jimple.Jimple.v()
+                    .newAssignStmt(arrayRef, createParam(args[i]));
+            body.getUnits().add(elemAssign);
+            Util.addPsiTags(elemAssign, args[i]);
+            Util.addPsiTags(elemAssign.getRightOpBox(), args[i]);
+        }
+        return arrayLocal;
+    }
+
+    /**
+     * Tags the params of an invoke with the argument expressions they were
+     * created from, starting with the param at {@code firstParam}. The array
+     * holding the variable arguments of a varargs call is left untagged,
+     * since its elements are tagged where they're stored.
+     */
+    protected void addArgTags(soot.jimple.InvokeExpr invokeExpr,
+            PsiCallExpression call, int firstParam) {
+        PsiExpression[] args = call.getArgumentList().getExpressions();
+        int fixedCount = getFixedArgCount(call, Util.isVarargsCall(call));
+        for (int i = 0; i < fixedCount; i++) {
+            Util.addPsiTags(invokeExpr.getArgBox(firstParam + i), args[i]);
+        }
+    }
+
     /**
      * New Expression Creation
      */
@@ -1061,6 +1162,7 @@ public abstract class JBB4 extends JBB3 {
             qVal = base().createExpr(qualifier);
         }
         handleOuterClassParams(sootParams, qVal, sootParamsTypes, objType);
+        int prefixParamCount = sootParams.size();
         sootParams.addAll(getSootParams(newExpr));
         sootParamsTypes.addAll(getSootParamsTypes(newExpr));
 
@@ -1077,11 +1179,7 @@ public abstract class JBB4 extends JBB3 {
         body.getUnits().add(invokeStmt);
         Util.addPsiTags(invokeStmt, newExpr);
 
-        int numParams = 0;
-        for (PsiExpression expr : newExpr.getArgumentList().getExpressions()) {
-            Util.addPsiTags(specialInvokeExpr.getArgBox(numParams), expr);
-            numParams++;
-        }
+        addArgTags(specialInvokeExpr, newExpr, prefixParamCount);
 
         return retLocal;
     }
@@ -1153,6 +1251,7 @@ public abstract class JBB4 extends JBB3 {
         }
 
         boolean isPrivateAccess = false;
+        int firstParam = 0;
         if (needsAccessor(call)) {
             soot.SootClass containingClass = ((soot.RefType)Util.getSootType(initialResolver,
                     methodCls)).getSootClass();
@@ -1197,6 +1296,7 @@ public abstract class JBB4 extends JBB3 {
                     assert baseLocal != null;
                     sootParams.add(0, baseLocal);
                 }
+                firstParam = 1;
             }
             isPrivateAccess = true;
         }
@@ -1233,11 +1333,7 @@ public abstract class JBB4 extends JBB3 {
             invokeExpr = jimple.newVirtualInvokeExpr(baseLocal, callMethod, sootParams);
         }
 
-        int numParams = 0;
-        for (PsiExpression expr : call.getArgumentList().getExpressions()) {
-            Util.addPsiTags(invokeExpr.getArgBox(numParams), expr);
-            numParams++;
-        }
+        addArgTags(invokeExpr, call, firstParam);
 
         if (invokeExpr instanceof soot.jimple.InstanceInvokeExpr) {
             Util.addPsiTags(((soot.jimple.InstanceInvokeExpr)invokeExpr).getBaseBox(),
@@ -1262,7 +1358,7 @@ public abstract class JBB4 extends JBB3 {
 
             Util.addPsiTags(assignStmt, call);
             Util.addPsiTags(assignStmt.getRightOpBox(), call);
-            return retLocal;
+            return castToErasedType(retLocal, call);
         }
     }
 
@@ -584,11 +584,7 @@ public class JimpleBodyBuilder extends JBB4 {
         body.getUnits().add(invokeStmt);
         Util.addPsiTags(invokeStmt, call);
 
-        int parami = prefixParamCount;
-        for (PsiExpression expr : call.getArgumentList().getExpressions()) {
-            Util.addPsiTags(specialInvokeExpr.getArgBox(parami), expr);
-            parami++;
-        }
+        addArgTags(specialInvokeExpr, call, prefixParamCount);
 
         // if method is <init> handle field inits
         if (body.getMethod().getName().equals("<init>") && isSuperCall(call)){
@@ -18,15 +18,18 @@
  */
 
 package net.kano.nully.plugin.psiToJimple;
+import com.intellij.psi.PsiArrayType;
 import com.intellij.psi.PsiClass;
 import com.intellij.psi.PsiClassType;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiExpression;
+import com.intellij.psi.PsiForeachStatement;
 import com.intellij.psi.PsiJavaCodeReferenceElement;
 import com.intellij.psi.PsiMember;
 import com.intellij.psi.PsiRecursiveElementVisitor;
 import com.intellij.psi.PsiReferenceExpression;
 import com.intellij.psi.PsiType;
+import soot.Type;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -69,9 +72,28 @@ public class TypeListBuilder extends PsiRecursiveElementVisitor {
         if (type instanceof PsiClassType) {
             PsiClassType classType = (PsiClassType) type;
             list.add(classType);
+        } else if (type != null && Util.getBoxingType(psiExpression) != null) {
+            // the expression is boxed with its boxing class's constructor
+            Type primitive = Util.getSootType(null, type);
+            addClassTypeByName(psiExpression, Util.getBoxingClassName(primitive));
         }
     }
 
+    public void visitForeachStatement(PsiForeachStatement statement) {
+        super.visitForeachStatement(statement);
+
+        PsiExpression iterated = statement.getIteratedValue();
+        if (iterated != null && !(iterated.getType() instanceof PsiArrayType)) {
+            addClassTypeByName(statement, "java.util.Iterator");
+        }
+    }
+
+    private void addClassTypeByName(PsiElement context, String className) {
+        PsiClassType type = context.getManager().getElementFactory()
+                .createTypeByFQClassName(className, context.getResolveScope());
+        if (type.resolve() != null) list.add(type);
+    }
+
     public void visitClass(PsiClass psiClass) {
         addClassType(psiClass);
     }
@@ -21,14 +21,18 @@ package net.kano.nully.plugin.psiToJimple;
 
 import com.intellij.psi.PsiAnonymousClass;
 import com.intellij.psi.PsiArrayType;
+import com.intellij.psi.PsiCallExpression;
 import com.intellij.psi.PsiClass;
 import com.intellij.psi.PsiClassType;
 import com.intellij.psi.PsiConstantEvaluationHelper;
 import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiEllipsisType;
 import com.intellij.psi.PsiExpression;
+import com.intellij.psi.PsiExpressionList;
 import com.intellij.psi.PsiField;
 import com.intellij.psi.PsiJavaToken;
 import com.intellij.psi.PsiLocalVariable;
+import com.intellij.psi.PsiMethod;
 import com.intellij.psi.PsiModifierListOwner;
 import com.intellij.psi.PsiParameter;
 import com.intellij.psi.PsiPostfixExpression;
@@ -39,6 +43,9 @@ import com.intellij.psi.PsiType;
 import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.psi.util.PsiUtil;
 import com.intellij.psi.util.TypeConversionUtil;
+import com.siyeh.ig.psiutils.ClassUtils;
+import com.siyeh.ig.psiutils.ExpectedTypeUtils;
+import net.kano.nully.plugin.SootFacts;
 import soot.Local;
 import soot.RefType;
 import soot.Type;
@@ -47,6 +54,7 @@ import soot.tagkit.Host;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -55,6 +63,29 @@ public class Util {
     //TODO: move some Util methods to initialresolver
     //TODO: class initializers don't work
 
+    // keyed by name, since Soot's type singletons are replaced when Soot is
+    // reset
+    private static final Map<String,String> s_boxingClasses
+            = new HashMap<String, String>(10);
+    private static final Map<String,PsiPrimitiveType> s_unboxedTypes
+            = new HashMap<String, PsiPrimitiveType>(10);
+
+    static {
+        addBoxingClass(PsiType.BOOLEAN, "java.lang.Boolean");
+        addBoxingClass(PsiType.BYTE, "java.lang.Byte");
+        addBoxingClass(PsiType.CHAR, "java.lang.Character");
+        addBoxingClass(PsiType.SHORT, "java.lang.Short");
+        addBoxingClass(PsiType.INT, "java.lang.Integer");
+        addBoxingClass(PsiType.LONG, "java.lang.Long");
+        addBoxingClass(PsiType.FLOAT, "java.lang.Float");
+        addBoxingClass(PsiType.DOUBLE, "java.lang.Double");
+    }
+
+    private static void addBoxingClass(PsiPrimitiveType primitive,
+            String className) {
+        s_boxingClasses.put(primitive.getCanonicalText(), className);
+        s_unboxedTypes.put(className, primitive);
+    }
 
     public static void addInnerClassTag(soot.SootClass sc, String innerName,
             String outerName, String simpleName, int access){
@@ -464,6 +495,92 @@ public class Util {
         return RefType.v(className);
     }
 
+    /**
+     * Returns the name of the class which values of the given primitive type
+     * are boxed to, like {@code java.lang.Integer} for {@code int}.
+     */
+    public static String getBoxingClassName(soot.Type primitive) {
+        String className = s_boxingClasses.get(primitive.toString());
+        if (className == null) {
+            throw new IllegalArgumentException("Not a boxable type: " + primitive);
+        }
+        return className;
+    }
+
+    /**
+     * Returns the primitive type which the given boxing class unboxes to, or
+     * {@code null} if the class is not one of the eight boxing classes.
+     */
+    public static soot.Type getUnboxedType(String className) {
+        PsiPrimitiveType primitive = s_unboxedTypes.get(className);
+        if (primitive == null) return null;
+        return getSootType(null, primitive);
+    }
+
+    /**
+     * Returns the type the given primitive expression is autoboxed to, or
+     * {@code null} if it isn't autoboxed.
+     */
+    public static PsiType getBoxingType(PsiExpression expression) {
+        PsiType expressionType = expression.getType();
+        if (expressionType == null || !ClassUtils.isPrimitive(expressionType)) {
+            return null;
+        }
+        PsiType expectedType = ExpectedTypeUtils.findExpectedType(expression);
+        if (expectedType == null || ClassUtils.isPrimitive(expectedType)) {
+            return null;
+        }
+        return expectedType;
+    }
+
+    /**
+     * Returns the primitive type the given expression is auto-unboxed to, or
+     * {@code null} if it isn't auto-unboxed.
+     */
+    public static PsiType getUnboxingType(PsiExpression expression) {
+        PsiType expressionType = expression.getType();
+        if (expressionType == null || ClassUtils.isPrimitive(expressionType)
+                || expressionType.equals(PsiType.NULL)) {
+            return null;
+        }
+        if (expressionType.getArrayDimensions() > 0) {
+            // an array passed to a varargs parameter is expected to be of
+            // the component type
+            return null;
+        }
+        PsiType expectedType = ExpectedTypeUtils.findExpectedType(expression);
+        if (expectedType == null || !ClassUtils.isPrimitive(expectedType)) {
+            return null;
+        }
+        return expectedType;
+    }
+
+    /**
+     * Returns whether the given call passes a variable number of arguments to
+     * a varargs method or constructor, rather than passing an array.
+     */
+    public static boolean isVarargsCall(PsiCallExpression call) {
+        PsiMethod called = call.resolveMethod();
+        if (called == null || !called.isVarArgs()) return false;
+
+        PsiExpressionList args = call.getArgumentList();
+        if (args == null) return false;
+        PsiExpression[] exps = args.getExpressions();
+        PsiParameter[] params = called.getParameterList().getParameters();
+        PsiType varParamType = params[params.length - 1].getType();
+        if (!(varParamType instanceof PsiEllipsisType)) return false;
+
+        if (exps.length == params.length) {
+            PsiEllipsisType type = (PsiEllipsisType) varParamType;
+            PsiArrayType arrayType = new PsiArrayType(type.getComponentType());
+            PsiType varArgType = exps[exps.length - 1].getType();
+            if (varArgType != null && arrayType.isAssignableFrom(varArgType)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Modifier Creation
      */
@@ -559,7 +676,7 @@ public class Util {
     }
 
     public static void addPsiTags(Host host, final PsiElement element) {
-        host.addTag(new PsiTag(element));
+        SootFacts.getInstance().setPsiElement(host, element);
     }
 
     public static String getJavaClassName(InitialResolver resolver,